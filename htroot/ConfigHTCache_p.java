@@ -76,6 +76,17 @@ public class ConfigHTCache_p {
 					post.getLong("lockTimeout", SwitchboardConstants.HTCACHE_SYNC_LOCK_TIMEOUT_DEFAULT)));
 			env.setConfig(SwitchboardConstants.HTCACHE_SYNC_LOCK_TIMEOUT, newLockTimeout);
 			Cache.setLockTimeout(newLockTimeout);
+
+            /* Background compression threads */
+			final int newCompressionThreads = Math.max(0, Math.min(64,
+					post.getInt("compressionThreads", SwitchboardConstants.HTCACHE_COMPRESSION_THREADS_DEFAULT)));
+			env.setConfig(SwitchboardConstants.HTCACHE_COMPRESSION_THREADS, newCompressionThreads);
+			if (newCompressionThreads != Cache.getCompressionThreads()) Cache.setCompressionThreads(newCompressionThreads);
+
+            /* Shared compression dictionaries */
+			final boolean newCompressionDictionaries = "on".equals(post.get("compressionDictionaries", ""));
+			env.setConfig(SwitchboardConstants.HTCACHE_COMPRESSION_DICTIONARIES, newCompressionDictionaries);
+			Cache.setCompressionDictionaries(newCompressionDictionaries);
         }
 
         if (post != null && post.containsKey("deletecomplete")) {
@@ -114,6 +125,15 @@ public class ConfigHTCache_p {
         
 		prop.put("lockTimeout", env.getConfigLong(SwitchboardConstants.HTCACHE_SYNC_LOCK_TIMEOUT,
 				SwitchboardConstants.HTCACHE_SYNC_LOCK_TIMEOUT_DEFAULT));
+		prop.put("compressionThreads", env.getConfigInt(SwitchboardConstants.HTCACHE_COMPRESSION_THREADS,
+				SwitchboardConstants.HTCACHE_COMPRESSION_THREADS_DEFAULT));
+		prop.put("compressionQueue", Cache.getCompressionQueueSize());
+		prop.put("compressionThroughput", Cache.getCompressionThroughput() / 1024 / 1024);
+		prop.put("compressionRatio", NumberFormat.getPercentInstance().format(Cache.getCompressionRatio()));
+		prop.put("compressionDictionaries", env.getConfigBool(SwitchboardConstants.HTCACHE_COMPRESSION_DICTIONARIES,
+				SwitchboardConstants.HTCACHE_COMPRESSION_DICTIONARIES_DEFAULT));
+		prop.put("compressionDictionaryCount", Cache.getCompressionDictionaryCount());
+		prop.put("dictionaryCompressedCount", Cache.getDictionaryCompressedCount());
         prop.put("actualCacheSize", Cache.getActualCacheSize() / 1024 / 1024);
         prop.put("actualCacheDocCount", Cache.getActualCacheDocCount());
         prop.put("docSizeAverage", Cache.getActualCacheDocCount() == 0 ? 0 : Cache.getActualCacheSize() / Cache.getActualCacheDocCount() / 1024);
@@ -144,7 +144,7 @@ public class CrawlResults {
                     selectedblacklist = post.get("blacklistname");
                     Set<String> hostnames = new HashSet<String>();
                     hostnames.add(domain);
-                    sb.index.fulltext().deleteStaleDomainNames(hostnames, null);
+                    sb.index.deleteStaleDomainNames(hostnames, null);
                     ResultURLs.deleteDomain(tabletype, domain);
                     
                     // handle addtoblacklist
@@ -434,7 +434,7 @@ public class Crawler_p {
                     if (fullDomain) {
                         siteFilter = CrawlProfile.siteFilter(rootURLs);
                         if (deleteold) {
-                            sb.index.fulltext().deleteStaleDomainHashes(hosthashes, deleteageDate);
+                            sb.index.deleteStaleDomainHashes(hosthashes, deleteageDate);
                         }
                     } else if (subPath) {
                         siteFilter = CrawlProfile.subpathFilter(rootURLs);
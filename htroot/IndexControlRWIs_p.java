@@ -464,9 +464,14 @@ public class IndexControlRWIs_p {
 					}
                 }
                 try {
-                    segment.termIndex().remove(keyhash, urlHashes);
-                } catch (final IOException e ) {
-                    ConcurrentLog.logException(e);
+                    // the blacklisted urls are removed from all words, not only from the selected one
+                    segment.termIndex().removeURLs(urlHashes);
+                } catch (final SpaceExceededException e ) {
+                    try {
+                        segment.termIndex().remove(keyhash, urlHashes);
+                    } catch (final IOException e1 ) {
+                        ConcurrentLog.logException(e1);
+                    }
                 }
             }
 
@@ -132,7 +132,7 @@ public class IndexControlURLs_p {
                 if (segment.termIndex() != null) try {segment.termIndex().clear();} catch (final IOException e) {}
             }
             if ( post.get("deleteCitation", "").equals("on")) {
-                if (segment.connectedCitation()) try {segment.urlCitation().clear();} catch (final IOException e) {}
+                if (segment.connectedCitation()) try {segment.clearCitation();} catch (final IOException e) {}
             }
             if ( post.get("deleteFirstSeen", "").equals("on")) {
                 try {segment.firstSeen().clear();} catch (final IOException e) {}
@@ -258,7 +258,7 @@ public class IndexControlURLs_p {
             final String domain = post.get("domain");
             Set<String> hostnames = new HashSet<String>();
             hostnames.add(domain);
-            segment.fulltext().deleteStaleDomainNames(hostnames, null);
+            segment.deleteStaleDomainNames(hostnames, null);
             // trigger the loading of the table
             post.put("statistics", "");
         }
@@ -102,6 +102,8 @@ public class PerformanceMemory_p {
         prop.putNum("memoryUsedAfterInitBGC", (memoryTotalAfterInitBGC - memoryFreeAfterInitBGC) / KB);
         prop.putNum("memoryUsedAfterInitAGC", (memoryTotalAfterInitAGC - memoryFreeAfterInitAGC) / KB);
         prop.putNum("memoryUsedNow", MemoryControl.used() / MB);
+        prop.putNum("memoryDirectUsed", MemoryControl.usedDirect() / MB);
+        prop.putNum("memoryDirectMax", MemoryControl.maxDirect() == Long.MAX_VALUE ? -1 : MemoryControl.maxDirect() / MB);
 
         
         final Map<String, SolrInfoMBean> solrInfoMBeans = sb.index.fulltext().getSolrInfoBeans();
@@ -142,6 +144,7 @@ public class PerformanceMemory_p {
 
             prop.put("EcoList_" + c + "_tableValueMem", Formatter.bytesToString(stats.getValueMem()));
             prop.put("EcoList_" + c + "_tableValueChunkSize",  Formatter.bytesToString(stats.getValueChunkSize()));
+            prop.put("EcoList_" + c + "_tableStorage", stats.getValueMem() > 0 ? 1 : stats.isMapped() ? 2 : 0);
 
             c++;
         }
@@ -153,7 +156,7 @@ public class PerformanceMemory_p {
         c = 0;
         Map.Entry<String, RAMIndex> oie;
         RAMIndex cache;
-        long hitmem, totalhitmem = 0;
+        long hitmem, totalhitmem = 0, locks;
         while (oi.hasNext()) {
             try {
                 oie = oi.next();
@@ -172,6 +175,11 @@ public class PerformanceMemory_p {
             prop.putNum("indexcache_" + c + "_Count", cache.size());
             prop.put("indexcache_" + c + "_NeededMem", cache.size() * cache.row().objectsize);
             prop.put("indexcache_" + c + "_UsedMem", hitmem);
+            prop.put("indexcache_" + c + "_direct", cache.isDirect() ? 1 : 0);
+            prop.put("indexcache_" + c + "_concurrent", cache.isConcurrent() ? 1 : 0);
+            locks = cache.lockRequests();
+            prop.putNum("indexcache_" + c + "_Locks", locks);
+            prop.putNum("indexcache_" + c + "_Contention", locks == 0 ? 0.0d : 100.0d * cache.lockWaits() / locks);
 
             c++;
         }
@@ -235,10 +243,10 @@ public class PerformanceMemory_p {
         prop.putNum("namecache.noCache", Domains.nameCacheNoCachingPatternsSize());
         prop.putNum("blacklistcache.size", Switchboard.urlBlacklist.blacklistCacheSize());
         prop.putNum("searchevent.size", SearchEventCache.size());
-        prop.putNum("searchevent.hit", SearchEventCache.cacheHit);
-        prop.putNum("searchevent.miss", SearchEventCache.cacheMiss);
-        prop.putNum("searchevent.insert", SearchEventCache.cacheInsert);
-        prop.putNum("searchevent.delete", SearchEventCache.cacheDelete);
+        prop.putNum("searchevent.hit", SearchEventCache.cacheHit.sum());
+        prop.putNum("searchevent.miss", SearchEventCache.cacheMiss.sum());
+        prop.putNum("searchevent.insert", SearchEventCache.cacheInsert.sum());
+        prop.putNum("searchevent.delete", SearchEventCache.cacheDelete.sum());
         // return rewrite values for templates
         return prop;
     }
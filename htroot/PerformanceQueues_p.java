@@ -36,6 +36,7 @@ import net.yacy.cora.protocol.RequestHeader;
 import net.yacy.cora.protocol.http.HTTPClient;
 import net.yacy.data.TransactionManager;
 import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.rwi.IODispatcher;
 import net.yacy.kelondro.rwi.IndexCell;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.Formatter;
@@ -343,6 +344,12 @@ public class PerformanceQueues_p {
         prop.putNum("maxURLinCache", rwi == null ? 0 : rwi.getBufferMaxReferences());
         prop.putNum("maxAgeOfCache", rwi == null ? 0 : rwi.getBufferMaxAge() / 1000 / 60); // minutes
         prop.putNum("minAgeOfCache", rwi == null ? 0 : rwi.getBufferMinAge() / 1000 / 60); // minutes
+        final IODispatcher merger = indexSegment.merger();
+        prop.putNum("rwiBlobCount", rwi == null ? 0 : rwi.getSegmentCount());
+        prop.putNum("mergeBacklog", merger == null ? 0 : merger.mergeBacklog());
+        prop.putNum("mergeCount", merger == null ? 0 : merger.mergeCount());
+        prop.putNum("mergeWorkers", merger == null ? 0 : merger.mergeWorkers());
+        prop.putNum("writeAmplification", merger == null ? 0.0d : merger.writeAmplification());
         prop.putNum("maxWaitingWordFlush", sb.getConfigLong("maxWaitingWordFlush", 180));
         prop.put("wordCacheMaxCount", sb.getConfigLong(SwitchboardConstants.WORDCACHE_MAX_COUNT, 20000));
         prop.put("crawlPauseProxy", sb.getConfigLong(SwitchboardConstants.PROXY_ONLINE_CAUTION_DELAY, 30000));
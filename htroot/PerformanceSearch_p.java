@@ -29,12 +29,17 @@ import java.util.Iterator;
 import net.yacy.cora.protocol.RequestHeader;
 import net.yacy.peers.graphics.ProfilingGraph;
 import net.yacy.search.EventTracker;
+import net.yacy.search.query.QueryResultCache;
+import net.yacy.search.query.SearchEventCache;
+import net.yacy.search.query.SearchTaskGroup;
+import net.yacy.search.snippet.SnippetStore;
+import net.yacy.search.snippet.TextSnippet;
 import net.yacy.server.serverObjects;
 import net.yacy.server.serverSwitch;
 
 public class PerformanceSearch_p {
 
-    public static serverObjects respond(@SuppressWarnings("unused") final RequestHeader header, @SuppressWarnings("unused") final serverObjects post, @SuppressWarnings("unused") final serverSwitch sb) {
+    public static serverObjects respond(@SuppressWarnings("unused") final RequestHeader header, @SuppressWarnings("unused") final serverObjects post, final serverSwitch sb) {
         // return variable that accumulates replacements
         final serverObjects prop = new serverObjects();
 
@@ -59,6 +64,49 @@ public class PerformanceSearch_p {
             }
         }
         prop.put("table", c);
+
+        // search event cache
+        final long hit = SearchEventCache.cacheHit.sum(), miss = SearchEventCache.cacheMiss.sum();
+        prop.putNum("cache_size", SearchEventCache.size());
+        prop.putNum("cache_weight", SearchEventCache.weight() / 1024 / 1024);
+        prop.putNum("cache_maxWeight", SearchEventCache.maxWeight() / 1024 / 1024);
+        prop.putNum("cache_hit", hit);
+        prop.putNum("cache_miss", miss);
+        prop.putNum("cache_hitRate", hit + miss == 0 ? 0 : 100 * hit / (hit + miss));
+        prop.putNum("cache_insert", SearchEventCache.cacheInsert.sum());
+        prop.putNum("cache_evict", SearchEventCache.cacheEvict.sum());
+        prop.putNum("cache_reject", SearchEventCache.cacheReject.sum());
+        prop.putNum("cache_expire", SearchEventCache.cacheExpire.sum());
+        prop.putNum("cache_delete", SearchEventCache.cacheDelete.sum());
+
+        // query result cache
+        final long resultHit = QueryResultCache.cacheHit.sum(), resultMiss = QueryResultCache.cacheMiss.sum() + QueryResultCache.cacheStale.sum();
+        prop.putNum("results_size", QueryResultCache.size());
+        prop.putNum("results_hit", resultHit);
+        prop.putNum("results_miss", QueryResultCache.cacheMiss.sum());
+        prop.putNum("results_stale", QueryResultCache.cacheStale.sum());
+        prop.putNum("results_hitRate", resultHit + resultMiss == 0 ? 0 : 100 * resultHit / (resultHit + resultMiss));
+        prop.putNum("results_store", QueryResultCache.cacheStore.sum());
+
+        // concurrent tasks of the search events
+        prop.put("tasks_pooled", SearchTaskGroup.isPooled() ? 1 : 0);
+        prop.put("tasks_pooled_maxThreads", sb.getConfigInt("search.executor.maxThreads", 64));
+        prop.putNum("tasks_running", SearchTaskGroup.activeThreads());
+        prop.putNum("tasks_maxRunning", SearchTaskGroup.maxActiveThreads());
+        prop.putNum("tasks_queued", SearchTaskGroup.queuedTasks());
+        prop.putNum("tasks_started", SearchTaskGroup.tasksStarted.sum());
+        prop.putNum("tasks_cancelled", SearchTaskGroup.tasksCancelled.sum());
+        prop.putNum("tasks_expired", SearchTaskGroup.tasksExpired.sum());
+        prop.putNum("tasks_p50", SearchTaskGroup.latencyPercentile(50));
+        prop.putNum("tasks_p99", SearchTaskGroup.latencyPercentile(99));
+
+        // persistent snippet store
+        final SnippetStore store = TextSnippet.snippetsCache.getStore();
+        prop.putNum("snippets_size", store == null ? 0 : store.size());
+        prop.putNum("snippets_hit", store == null ? 0 : store.storeHit.sum());
+        prop.putNum("snippets_miss", store == null ? 0 : store.storeMiss.sum());
+        prop.putNum("snippets_insert", store == null ? 0 : store.storeInsert.sum());
+        prop.putNum("snippets_evict", store == null ? 0 : store.storeEvict.sum());
         return prop;
     }
 }
@@ -286,7 +286,7 @@ public class yacysearchtrailer {
         }
 
         // vocabulary navigators
-        final Map<String, ScoreMap<String>> vocabularyNavigators = theSearch.vocabularyNavigator;
+        final Map<String, ScoreMap<String>> vocabularyNavigators = theSearch.vocabularyNavigators();
         if (vocabularyNavigators != null && !vocabularyNavigators.isEmpty()) {
             int navvoccount = 0;
             vocnav: for (Map.Entry<String, ScoreMap<String>> ve: vocabularyNavigators.entrySet()) {
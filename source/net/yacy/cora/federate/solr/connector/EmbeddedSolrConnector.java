@@ -188,6 +188,20 @@ public class EmbeddedSolrConnector extends SolrServerConnector implements SolrCo
         return numDocs;
     }
 
+    /**
+     * get the version of the index as seen by the current searcher. The version changes
+     * whenever a commit (also a soft commit) makes a change of the index visible to searches.
+     * @return the index version of the currently registered searcher
+     */
+    public long getIndexVersion() {
+        RefCounted<SolrIndexSearcher> refCountedIndexSearcher = this.core.getSearcher();
+        try {
+            return refCountedIndexSearcher.get().getIndexReader().getVersion();
+        } finally {
+            refCountedIndexSearcher.decref();
+        }
+    }
+
     /**
      * get a new query request. MUST be closed after usage using close()
      * @param params
@@ -0,0 +1,123 @@
+/**
+ *  FrequencySketch
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.cora.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An approximate counter of the access frequency of keys, used to decide if a new cache entry is
+ * worth more than the entry it would replace (TinyLFU admission). The counts are held in a count-min
+ * sketch of 4 bit counters, 16 counters in every long; every key has one counter in four of the longs.
+ * When a number of increments proportional to the size of the sketch is reached, all counters are halved
+ * so the frequencies follow changes of the access pattern. All operations are lock-free.
+ */
+public final class FrequencySketch {
+
+    private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions;
+
+    /**
+     * @param expectedSize the expected number of different keys which are counted at the same time
+     */
+    public FrequencySketch(final int expectedSize) {
+        final int size = Integer.highestOneBit(Math.max(16, expectedSize) - 1) << 1;
+        this.table = new AtomicLongArray(size);
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * size;
+        this.additions = new AtomicInteger(0);
+    }
+
+    /**
+     * count an access to a key
+     * @param key
+     */
+    public void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) added |= incrementAt(indexOf(hash, i), start + i);
+        if (added && this.additions.incrementAndGet() >= this.sampleSize) reset();
+    }
+
+    /**
+     * @param key
+     * @return the estimated number of accesses to the key, at most 15
+     */
+    public int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            final int count = (int) ((this.table.get(indexOf(hash, i)) >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private boolean incrementAt(final int i, final int j) {
+        final int offset = j << 2;
+        final long mask = 0xfL << offset;
+        while (true) {
+            final long value = this.table.get(i);
+            if ((value & mask) == mask) return false; // the counter is saturated
+            if (this.table.compareAndSet(i, value, value + (1L << offset))) return true;
+        }
+    }
+
+    /**
+     * halve all counters; concurrent increments during the reset may be halved or not
+     */
+    private void reset() {
+        synchronized (this.additions) {
+            if (this.additions.get() < this.sampleSize) return; // another thread did the reset
+            for (int i = 0; i < this.table.length(); i++) {
+                while (true) {
+                    final long value = this.table.get(i);
+                    if (this.table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) break;
+                }
+            }
+            this.additions.set(this.additions.get() / 2);
+        }
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & this.tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
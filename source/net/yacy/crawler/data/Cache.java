@@ -50,6 +50,7 @@ import net.yacy.cora.storage.HandleSet;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.blob.ArrayStack;
+import net.yacy.kelondro.blob.CompressionDictionaries;
 import net.yacy.kelondro.blob.Compressor;
 import net.yacy.kelondro.blob.MapHeap;
 import net.yacy.kelondro.data.word.Word;
@@ -64,16 +65,24 @@ public final class Cache {
 	/** Default size in bytes of the compressor buffer (buffered bytes before compressing and sending to the backend ) */
 	protected static final int DEFAULT_COMPRESSOR_BUFFER_SIZE = 6 * 1024 * 1024;
 	
+	/** Default maximum number of documents waiting for the compression threads before store operations wait */
+	protected static final int DEFAULT_COMPRESSOR_QUEUE_SIZE = 256;
+	
 	/** Default size in bytes of the response header data base buffer (buffered bytes before writing to the file system) */
 	protected static final int DEFAULT_RESPONSE_HEADER_BUFFER_SIZE = 2048;
 	
+	/** Maximum number of per-host compression dictionaries (each has at most 32 KB) */
+	protected static final int MAX_COMPRESSION_DICTIONARIES = 1024;
+	
 	
     private static final String RESPONSE_HEADER_DB_NAME = "responseHeader.heap";
     private static final String FILE_DB_NAME = "file.array";
+    private static final String DICTIONARIES_NAME = "file.dict";
 
     private static MapHeap responseHeaderDB = null;
     private static Compressor fileDB = null;
     private static ArrayStack fileDBunbuffered = null;
+    private static CompressionDictionaries dictionaries = null;
 
     private static volatile long maxCacheSize = Long.MAX_VALUE;
     
@@ -142,6 +151,13 @@ public final class Cache {
                 }
             }
         }
+        // the dictionaries are grouped by the host hash part of the url hash
+        try {
+            dictionaries = new CompressionDictionaries(new File(cachePath, DICTIONARIES_NAME), 6, 6, MAX_COMPRESSION_DICTIONARIES);
+            if (fileDB != null) fileDB.setDictionaries(dictionaries);
+        } catch (final IOException e) {
+            ConcurrentLog.logException(e);
+        }
         ConcurrentLog.info("Cache", "initialized cache database responseHeaderDB.size() = " + (responseHeaderDB == null ? "NULL" : responseHeaderDB.size()) + ", fileDB.size() = " + (fileDB == null ? "NULL" : fileDB.size()));
 
         // clean up the responseHeaderDB which cannot be cleaned the same way as the cache files.
@@ -256,12 +272,72 @@ public final class Cache {
     	fileDB.setLockTimeout(lockTimeout);
     }
 
+    /**
+     * Set the number of threads which compress the content in the background.
+     * @param threads the number of compression threads, 0 to compress synchronously when content is stored
+     */
+    public static void setCompressionThreads(final int threads) {
+        fileDB.setWriteBehind(threads, DEFAULT_COMPRESSOR_QUEUE_SIZE);
+    }
+
+    /**
+     * @return the number of compression threads, 0 if the content is compressed synchronously
+     */
+    public static int getCompressionThreads() {
+        return fileDB.compressionThreads();
+    }
+
+    /**
+     * @return the number of documents waiting for compression or for the write to the disk
+     */
+    public static int getCompressionQueueSize() {
+        return fileDB.queueSize();
+    }
+
+    /**
+     * @return the number of uncompressed bytes per second that one thread compresses
+     */
+    public static long getCompressionThroughput() {
+        return fileDB.compressionThroughput();
+    }
+
+    /**
+     * @return the ratio of compressed to uncompressed size of the content compressed since start-up
+     */
+    public static double getCompressionRatio() {
+        return fileDB.compressionRatio();
+    }
+
+    /**
+     * Switch the use of shared compression dictionaries for new content on or off.
+     * Content which was compressed with a dictionary remains readable in both cases.
+     * @param enabled true to compress content with the dictionary of its host or with the global dictionary
+     */
+    public static void setCompressionDictionaries(final boolean enabled) {
+        if (dictionaries != null) dictionaries.setEnabled(enabled);
+    }
+
+    /**
+     * @return the number of trained compression dictionaries
+     */
+    public static int getCompressionDictionaryCount() {
+        return dictionaries == null ? 0 : dictionaries.size();
+    }
+
+    /**
+     * @return the number of documents compressed with a shared dictionary since start-up
+     */
+    public static long getDictionaryCompressedCount() {
+        return fileDB.dictionaryEntries();
+    }
+
     /**
      * close the databases
      */
     public static void close() {
         responseHeaderDB.close();
         fileDB.close(true);
+        if (dictionaries != null) dictionaries.close();
     }
 
     public static void store(final DigestURL url, final ResponseHeader responseHeader, final byte[] file) throws IOException {
@@ -56,6 +56,7 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.webapp.WebAppContext;
 
 import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.http.servlets.SearchStreamServlet;
 import net.yacy.http.servlets.YaCyDefaultServlet;
 import net.yacy.search.Switchboard;
 import net.yacy.search.SwitchboardConstants;
@@ -152,6 +153,8 @@ public class Jetty9HttpServerImpl implements YaCyHttpServer {
 		 * handled by a GZIPRequestWrapper in the YaCyDefaultServlet.
 		 */
 		gzipHandler.setInflateBufferSize(4096);
+		/* compression would hold back the flushed events of the search result stream */
+		gzipHandler.addExcludedMimeTypes(SearchStreamServlet.CONTENT_TYPE_EVENT_STREAM);
 		
 		if (!sb.getConfigBool(SwitchboardConstants.SERVER_RESPONSE_COMPRESS_GZIP,
 				SwitchboardConstants.SERVER_RESPONSE_COMPRESS_GZIP_DEFAULT)) {
@@ -0,0 +1,366 @@
+/**
+ *  SearchStreamServlet
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.http.servlets;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.yacy.cora.date.ISO8601Formatter;
+import net.yacy.cora.document.analysis.Classification.ContentDomain;
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.document.id.MultiProtocolURL;
+import net.yacy.cora.federate.yacy.CacheStrategy;
+import net.yacy.cora.protocol.Domains;
+import net.yacy.cora.protocol.HeaderFramework;
+import net.yacy.cora.protocol.RequestHeader;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.JSONObject;
+import net.yacy.data.UserDB;
+import net.yacy.kelondro.data.meta.URIMetadataNode;
+import net.yacy.kelondro.util.ISO639;
+import net.yacy.search.Switchboard;
+import net.yacy.search.SwitchboardConstants;
+import net.yacy.search.index.Segment;
+import net.yacy.search.query.AccessTracker;
+import net.yacy.search.query.QueryGoal;
+import net.yacy.search.query.QueryModifier;
+import net.yacy.search.query.QueryParams;
+import net.yacy.search.query.SearchEvent;
+import net.yacy.search.query.SearchEventCache;
+import net.yacy.search.snippet.TextSnippet;
+
+/**
+ * A search interface which streams the results of a search event as server-sent events (text/event-stream)
+ * while the event collects them. Each result is sent as soon as it is ranked, so the first results of a
+ * distributed search arrive without waiting for the slowest peer. The stream contains the events
+ * <ul>
+ * <li>search: the event id and the requested page</li>
+ * <li>result: one result with its position in the ranked result list</li>
+ * <li>navigation: the total result count and the counts of all navigators, sent when they change</li>
+ * <li>end: the final counts when the page is complete, the search is finished or the time is over</li>
+ * </ul>
+ * The request parameters are a subset of those of yacysearch: query, startRecord, maximumRecords,
+ * contentdom, resource, lr, verify, urlmaskfilter and timezoneOffset, and a timeout in milliseconds.
+ */
+public class SearchStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -3417590231541307861L;
+
+    public static final String CONTENT_TYPE_EVENT_STREAM = "text/event-stream";
+
+    private static final long navigationInterval = 500; // minimum time between two navigation events
+    private static final long pollInterval = 50; // maximum time to wait for a signal of the search event
+    private static final long maxTimeout = 60000;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        doGet(request, response);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        final Switchboard sb = Switchboard.getSwitchboard();
+        final boolean authenticated = request.isUserInRole(UserDB.AccessRight.ADMIN_RIGHT.toString());
+        if (!authenticated && !sb.getConfigBool(SwitchboardConstants.PUBLIC_SEARCHPAGE, true)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "search is not allowed");
+            return;
+        }
+        final String client = RequestHeader.client(request);
+        if (Domains.matchesList(client, sb.networkBlacklist)) {
+            ConcurrentLog.warn("SearchStream", "ACCESS CONTROL: BLACKLISTED CLIENT FROM " + client + " gets no permission to search");
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "search is not allowed");
+            return;
+        }
+        sb.localSearchLastAccess = System.currentTimeMillis();
+
+        final QueryParams query = query(request, sb, client, authenticated);
+        if (query == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing query");
+            return;
+        }
+        long timeout = 10000;
+        try {
+            if (request.getParameter("timeout") != null) timeout = Math.max(0, Math.min(maxTimeout, Long.parseLong(request.getParameter("timeout"))));
+        } catch (final NumberFormatException e) {}
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(CONTENT_TYPE_EVENT_STREAM);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HeaderFramework.CACHE_CONTROL, "no-cache");
+
+        final SearchEvent event = SearchEventCache.getEvent(
+                query,
+                sb.peers,
+                sb.tables,
+                (sb.isRobinsonMode()) ? sb.clusterhashes : null,
+                false,
+                sb.loader,
+                (int) sb.getConfigLong(SwitchboardConstants.REMOTESEARCH_MAXCOUNT_USER, sb.getConfigLong(SwitchboardConstants.REMOTESEARCH_MAXCOUNT_DEFAULT, 10)),
+                sb.getConfigLong(SwitchboardConstants.REMOTESEARCH_MAXTIME_USER, sb.getConfigLong(SwitchboardConstants.REMOTESEARCH_MAXTIME_DEFAULT, 3000)));
+
+        // the listener only wakes up the streaming thread, the results are written by this thread
+        final Semaphore signal = new Semaphore(0);
+        final AtomicBoolean navigatorChanged = new AtomicBoolean(true);
+        final SearchEvent.ResultListener listener = new SearchEvent.ResultListener() {
+            @Override
+            public void resultAdded(final URIMetadataNode result) {
+                signal.release();
+            }
+            @Override
+            public void navigatorUpdated() {
+                navigatorChanged.set(true);
+                signal.release();
+            }
+        };
+        event.addResultListener(listener);
+
+        final Writer out = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+        final long deadline = System.currentTimeMillis() + timeout;
+        final int end = query.offset + query.itemsPerPage;
+        int item = query.offset;
+        try {
+            final JSONObject start = new JSONObject();
+            start.put("eventID", query.id(false));
+            start.put("query", query.getQueryGoal().getQueryString(false));
+            start.put("startIndex", query.offset);
+            start.put("itemsPerPage", query.itemsPerPage);
+            send(out, response, "search", null, start);
+
+            long lastNavigation = 0;
+            while (item < end && System.currentTimeMillis() < deadline) {
+                signal.drainPermits();
+                final URIMetadataNode result = event.oneResult(item, 0);
+                if (result != null) {
+                    send(out, response, "result", Integer.toString(item), result(result, item, query));
+                    item++;
+                    continue;
+                }
+                final long now = System.currentTimeMillis();
+                if (navigatorChanged.get() && now - lastNavigation >= navigationInterval) {
+                    navigatorChanged.set(false);
+                    send(out, response, "navigation", null, navigation(event));
+                    lastNavigation = now;
+                }
+                if (event.isFeedingFinished()) break;
+                signal.tryAcquire(pollInterval, TimeUnit.MILLISECONDS);
+            }
+
+            send(out, response, "navigation", null, navigation(event));
+            final JSONObject finish = new JSONObject();
+            finish.put("totalResults", event.getResultCount());
+            finish.put("itemsCount", item - query.offset);
+            finish.put("feedRunning", !event.isFeedingFinished());
+            send(out, response, "end", null, finish);
+        } catch (final InterruptedException e) {
+        } catch (final IOException e) {
+            // the client closed the connection
+        } finally {
+            event.removeResultListener(listener);
+            try {out.close();} catch (final IOException e) {}
+        }
+
+        AccessTracker.add(AccessTracker.Location.local, query, event.getResultCount());
+        track(sb, client, query.starttime);
+    }
+
+    /**
+     * create the query from the request parameters in the same way as yacysearch does
+     * @return the query or null if no query is given
+     */
+    private static QueryParams query(final HttpServletRequest request, final Switchboard sb, final String client, final boolean authenticated) {
+        String querystring = parameter(request, "query", parameter(request, "search", "")).trim();
+        if (querystring.isEmpty()) return null;
+        final int timezoneOffset = intParameter(request, "timezoneOffset", 0);
+
+        final int defaultItemsPerPage = sb.getConfigInt(SwitchboardConstants.SEARCH_ITEMS, 10);
+        int itemsPerPage = intParameter(request, "maximumRecords", intParameter(request, "count", intParameter(request, "rows", defaultItemsPerPage)));
+        if (itemsPerPage > defaultItemsPerPage && itemsPerPage > 100) itemsPerPage = Math.max(100, defaultItemsPerPage);
+        itemsPerPage = Math.max(1, itemsPerPage);
+        final int offset = Math.max(0, intParameter(request, "startRecord", intParameter(request, "offset", intParameter(request, "start", 0))));
+
+        final ContentDomain contentdom = ContentDomain.contentdomParser(parameter(request, "contentdom", "all"));
+        CacheStrategy snippetFetchStrategy = CacheStrategy.parse(parameter(request, "verify", sb.getConfig("search.verify", "")));
+
+        // remote searches and online snippet loading are restricted for unauthenticated clients with too many requests
+        final boolean clustersearch = sb.isRobinsonMode() && sb.getConfig(SwitchboardConstants.CLUSTER_MODE, "").equals(SwitchboardConstants.CLUSTER_MODE_PUBLIC_CLUSTER);
+        final boolean indexReceiveGranted = sb.getConfigBool(SwitchboardConstants.INDEX_RECEIVE_ALLOW_SEARCH, true) || clustersearch;
+        final boolean p2pmode = sb.peers != null && sb.peers.sizeConnected() > 0 && indexReceiveGranted;
+        boolean global = !parameter(request, "resource", "global").equals("local") && p2pmode;
+        if (!authenticated && !Domains.isLocalhost(client) && !sb.isIntranetMode() && !sb.isAllIPMode() && !Domains.matchesList(client, sb.networkWhitelist)) {
+            final TreeSet<Long> trackerHandles = sb.localSearchTracker.get(client);
+            if (trackerHandles != null) synchronized (trackerHandles) {
+                final int accInThreeSeconds = trackerHandles.tailSet(Long.valueOf(System.currentTimeMillis() - 3000)).size();
+                final int accInOneMinute = trackerHandles.tailSet(Long.valueOf(System.currentTimeMillis() - 60000)).size();
+                if (global && (accInOneMinute >= 6 || accInThreeSeconds >= 1)) global = false;
+                if (snippetFetchStrategy != null && snippetFetchStrategy.isAllowedToFetchOnline() && (accInOneMinute >= 4 || accInThreeSeconds >= 1)) snippetFetchStrategy = CacheStrategy.CACHEONLY;
+            }
+        }
+
+        final QueryModifier modifier = new QueryModifier(timezoneOffset);
+        querystring = modifier.parse(querystring);
+        if (modifier.sitehost != null && modifier.sitehost.length() > 0 && querystring.length() == 0) querystring = "*";
+        if (querystring.equals("*")) querystring = Segment.catchallString;
+
+        String language = request.getParameter("lr");
+        if (language != null && language.startsWith("lang_")) {
+            language = language.substring(5);
+            if (modifier.language == null) modifier.language = language;
+        }
+        if (language == null || !ISO639.exists(language)) {
+            final String agent = request.getHeader(HeaderFramework.ACCEPT_LANGUAGE);
+            language = agent == null ? null : ISO639.userAgentLanguageDetection(agent);
+            if (language == null) language = "en";
+        }
+
+        final QueryGoal qg = new QueryGoal(querystring.trim());
+        final int maxDistance = (querystring.indexOf('"', 0) >= 0) ? qg.getIncludeHashes().size() - 1 : Integer.MAX_VALUE;
+        final QueryParams query = new QueryParams(
+                qg,
+                modifier,
+                maxDistance,
+                "",
+                contentdom,
+                language,
+                timezoneOffset,
+                null,
+                snippetFetchStrategy,
+                itemsPerPage,
+                offset,
+                parameter(request, "urlmaskfilter", ".*"),
+                null,
+                null,
+                clustersearch && global ? QueryParams.Searchdom.CLUSTER : (global ? QueryParams.Searchdom.GLOBAL : QueryParams.Searchdom.LOCAL),
+                null,
+                true,
+                DigestURL.hosthashess(sb.getConfig("search.excludehosth", "")),
+                MultiProtocolURL.TLD_any_zone_filter,
+                client,
+                authenticated,
+                sb.index,
+                sb.getRanking(),
+                request.getHeader(HeaderFramework.USER_AGENT) == null ? "" : request.getHeader(HeaderFramework.USER_AGENT),
+                0.0d, 0.0d, 0.0d,
+                sb.getConfigSet("search.navigation"));
+        query.setStandardFacetsMaxCount(sb.getConfigInt(SwitchboardConstants.SEARCH_NAVIGATION_MAXCOUNT, QueryParams.FACETS_STANDARD_MAXCOUNT_DEFAULT));
+        query.setDateFacetMaxCount(sb.getConfigInt(SwitchboardConstants.SEARCH_NAVIGATION_DATES_MAXCOUNT, QueryParams.FACETS_DATE_MAXCOUNT_DEFAULT));
+        query.getQueryGoal().filterOut(Switchboard.blueList);
+        return query;
+    }
+
+    private static JSONObject result(final URIMetadataNode result, final int position, final QueryParams query) {
+        final JSONObject json = new JSONObject();
+        json.put("position", position);
+        json.put("title", result.title());
+        json.put("link", result.urlstring());
+        final TextSnippet snippet = result.textSnippet();
+        json.put("description", snippet == null ? "" : snippet.descriptionline(query.getQueryGoal()));
+        if (result.moddate() != null) json.put("pubDate", ISO8601Formatter.FORMATTER.format(result.moddate()));
+        json.put("size", result.filesize());
+        json.put("host", result.url().getHost());
+        json.put("path", result.url().getPath());
+        json.put("urlhash", ASCII.String(result.hash()));
+        json.put("ranking", result.score());
+        return json;
+    }
+
+    private static JSONObject navigation(final SearchEvent event) {
+        final JSONObject json = new JSONObject();
+        json.put("totalResults", event.getResultCount());
+        json.put("localIndexCount", event.local_rwi_available.get() + event.local_solr_stored.get() - event.local_solr_evicted.get());
+        json.put("remoteIndexCount", event.remote_rwi_available.get() + event.remote_solr_available.get());
+        json.put("remotePeerCount", event.remote_rwi_peerCount.get() + event.remote_solr_peerCount.get());
+        final Map<String, Map<String, Integer>> navigators = event.navigatorCounts();
+        if (navigators != null) {
+            final JSONObject nav = new JSONObject();
+            for (final Map.Entry<String, Map<String, Integer>> navigator: navigators.entrySet()) nav.put(navigator.getKey(), navigator.getValue());
+            json.put("navigators", nav);
+        }
+        return json;
+    }
+
+    /**
+     * write one server-sent event and send it to the client immediately
+     */
+    private static void send(final Writer out, final HttpServletResponse response, final String name, final String id, final JSONObject data) throws IOException {
+        out.write("event: ");
+        out.write(name);
+        out.write('\n');
+        if (id != null) {
+            out.write("id: ");
+            out.write(id);
+            out.write('\n');
+        }
+        out.write("data: ");
+        out.write(data.toString());
+        out.write("\n\n");
+        out.flush();
+        response.flushBuffer();
+    }
+
+    /**
+     * count the search for the access control of the client, see yacysearch
+     */
+    private static void track(final Switchboard sb, final String client, final long starttime) {
+        TreeSet<Long> trackerHandles = sb.localSearchTracker.get(client);
+        if (trackerHandles == null) trackerHandles = new TreeSet<Long>();
+        synchronized (trackerHandles) {
+            trackerHandles.add(starttime);
+            while (trackerHandles.size() > 600) {
+                if (!trackerHandles.remove(trackerHandles.first())) break;
+            }
+        }
+        sb.localSearchTracker.put(client, trackerHandles);
+        if (sb.localSearchTracker.size() > 100) sb.localSearchTracker.remove(sb.localSearchTracker.keys().nextElement());
+    }
+
+    private static String parameter(final HttpServletRequest request, final String name, final String dflt) {
+        final String value = request.getParameter(name);
+        return value == null ? dflt : value;
+    }
+
+    private static int intParameter(final HttpServletRequest request, final String name, final int dflt) {
+        final String value = request.getParameter(name);
+        if (value == null) return dflt;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            return dflt;
+        }
+    }
+}
@@ -30,11 +30,15 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.text.ParseException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
@@ -49,6 +53,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.yacy.cora.date.GenericFormatter;
 import net.yacy.cora.document.encoding.ASCII;
@@ -61,8 +66,12 @@ import net.yacy.cora.util.LookAheadIterator;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.rwi.Reference;
 import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.rwi.ReferenceContainerCodec;
 import net.yacy.kelondro.rwi.ReferenceFactory;
 import net.yacy.kelondro.rwi.ReferenceIterator;
+import net.yacy.kelondro.rwi.TermStatistics;
+import net.yacy.kelondro.rwi.Tombstones;
+import net.yacy.kelondro.util.BloomFilter;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.kelondro.util.MergeIterator;
@@ -82,6 +91,8 @@ public class ArrayStack implements BLOB {
      * That means all BLOB files are inside a directory that has the name of the BLOBArray.
      * To delete content that is out-dated, one special method is implemented that deletes content by a given
      * time-out. Deletions are not made automatically, they must be triggered using this method.
+     * Every BLOB has a bloom filter of its keys, which is stored as <BLOB-file>.bloom when the array is closed.
+     * Lookups of keys ask only those BLOBs where the bloom filter does not exclude the key.
      */
 
     private static final long maxFileSize = Integer.MAX_VALUE;
@@ -102,6 +113,18 @@ public class ArrayStack implements BLOB {
     /** the thread pool for the keeperOf executor service */
     private final ExecutorService executor;
 
+    /** deleted urls whose references are dropped when blob files are merged, may be null */
+    private volatile Tombstones tombstones;
+
+    /** the number of references of every term which are adjusted when blob files are merged, may be null */
+    private volatile TermStatistics statistics;
+
+    /** the time of the last name which was generated for a new blob file */
+    private long lastNewBLOB;
+
+    /** statistics of the bloom filters: consulted filters, lookups that were skipped and lookups of a key which was not in the BLOB */
+    private final LongAdder bloomChecks, bloomSkips, bloomFalsePositives;
+
     // use our own formatter to prevent concurrency locks with other processes
     private final static GenericFormatter my_SHORT_MILSEC_FORMATTER  = new GenericFormatter(GenericFormatter.newShortMilsecFormat(), 1);
 
@@ -124,6 +147,9 @@ public class ArrayStack implements BLOB {
         this.repositoryAgeMax = Long.MAX_VALUE;
         this.repositorySizeMax = Long.MAX_VALUE;
         this.trimall = trimall;
+        this.bloomChecks = new LongAdder();
+        this.bloomSkips = new LongAdder();
+        this.bloomFalsePositives = new LongAdder();
 
         // init the thread pool for the keeperOf executor service
         this.executor = new ThreadPoolExecutor(
@@ -159,6 +185,10 @@ public class ArrayStack implements BLOB {
                     deletions = true;
                 }
             }
+            if (file.endsWith(".bloom") && !fh.contains(file.substring(0, file.length() - 6))) {
+                FileUtils.deletedelete(new File(heapLocation, file));
+                deletions = true;
+            }
         }
         if (deletions) files = heapLocation.list(); // make a fresh list
         // migrate old file names
@@ -363,6 +393,102 @@ public class ArrayStack implements BLOB {
         return bestFile;
     }
 
+    /**
+     * unmount up to fanIn BLOB files of the same size tier for a k-way merge.
+     * A file belongs to tier 0 if it is not larger than the minTierSize, otherwise to tier
+     * 1 + log_fanIn(length / minTierSize). A tier can be merged if it has at least fanIn files.
+     * If several tiers can be merged, the files which had to be probed most by lookups are chosen,
+     * because merging them saves the most lookups in the future.
+     * @param fanIn the number of files of a tier which are merged at once, at least 2
+     * @param minTierSize the maximum file size of tier 0
+     * @param maxResultSize the maximum sum of the file sizes
+     * @return the unmounted files in the order of the array (oldest first) or null if no tier is full
+     */
+    public synchronized File[] unmountTier(final int fanIn, final long minTierSize, final long maxResultSize) {
+        if (fanIn < 2 || this.blobs.size() < fanIn) return null;
+        final TreeMap<Integer, List<blobItem>> tiers = new TreeMap<Integer, List<blobItem>>();
+        for (final blobItem b: this.blobs) {
+            final long l = b.location.length();
+            final int tier = l <= minTierSize ? 0 : 1 + (int) (Math.log((double) l / (double) Math.max(1L, minTierSize)) / Math.log(fanIn));
+            List<blobItem> t = tiers.get(tier);
+            if (t == null) {
+                t = new ArrayList<blobItem>();
+                tiers.put(tier, t);
+            }
+            t.add(b);
+        }
+        List<blobItem> best = null;
+        long bestProbes = -1;
+        for (final List<blobItem> t: tiers.values()) {
+            if (t.size() < fanIn) continue;
+            // the most probed files first
+            t.sort((a, b) -> Long.compare(b.probes.sum(), a.probes.sum()));
+            final List<blobItem> selected = new ArrayList<blobItem>(fanIn);
+            long size = 0, mem = 0, probes = 0;
+            for (final blobItem b: t) {
+                final long l = b.location.length();
+                if (size + l > maxResultSize) continue;
+                selected.add(b);
+                size += l;
+                mem += b.blob.mem();
+                probes += b.probes.sum();
+                if (selected.size() == fanIn) break;
+            }
+            if (selected.size() < 2 || probes <= bestProbes) continue;
+            if (!MemoryControl.request(mem, true)) continue;
+            best = selected;
+            bestProbes = probes;
+        }
+        if (best == null) return null;
+        final File[] files = new File[best.size()];
+        int i = 0;
+        for (final blobItem b: this.blobs) if (best.contains(b)) files[i++] = b.location;
+        for (final File f: files) unmountBLOB(f, false);
+        return files;
+    }
+
+    /**
+     * @return the creation time of the oldest BLOB file or Long.MAX_VALUE if there is none
+     */
+    public synchronized long oldestCreation() {
+        long oldest = Long.MAX_VALUE;
+        for (final blobItem b: this.blobs) oldest = Math.min(oldest, b.creation.getTime());
+        return oldest;
+    }
+
+    /**
+     * set the deleted urls whose references are dropped from the files which are merged
+     * @param tombstones the deleted urls, may be null
+     */
+    public void setTombstones(final Tombstones tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * set the term statistics which are adjusted by the number of references that are removed when files are merged
+     * @param statistics the term statistics, may be null
+     */
+    public void setTermStatistics(final TermStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    private long creation(final File location) {
+        try {
+            return my_SHORT_MILSEC_FORMATTER.parse(location.getName().substring(this.prefix.length() + 1, this.prefix.length() + 18), 0).getTime().getTime();
+        } catch (final ParseException | StringIndexOutOfBoundsException e) {
+            return 0; // unknown, all tombstones apply
+        }
+    }
+
+    /**
+     * @return the number of lookups which had to ask a BLOB file of this array
+     */
+    public long probes() {
+        long p = 0;
+        for (final blobItem b: this.blobs) p += b.probes.sum();
+        return p;
+    }
+
     public synchronized File unmountOldestBLOB(final boolean smallestFromFirst2) {
         if (this.blobs.isEmpty()) return null;
         int idx = 0;
@@ -389,6 +515,30 @@ public class ArrayStack implements BLOB {
         return new File(this.heapLocation, this.prefix + "." + my_SHORT_MILSEC_FORMATTER.format(creation) + ".blob");
     }
 
+    /**
+     * generate a unique file name for a new BLOB file. The names have a resolution of milliseconds;
+     * if a name for the same time was generated before or a file for the time exists, a later time is taken
+     * @return a file name with the current time which is not used by any other file
+     */
+    public synchronized File newBLOB() {
+        return newBLOB(new Date(newBLOBTime()));
+    }
+
+    /**
+     * @return the time in the name of the latest new BLOB file; files which are named later have a later time
+     */
+    public synchronized long newestBLOBTime() {
+        return this.lastNewBLOB;
+    }
+
+    private synchronized long newBLOBTime() {
+        long time = Math.max(System.currentTimeMillis(), this.lastNewBLOB + 1);
+        File f;
+        while ((f = newBLOB(new Date(time))).exists() || new File(f.getParentFile(), f.getName() + ".prt").exists()) time++;
+        this.lastNewBLOB = time;
+        return time;
+    }
+
     @Override
     public String name() {
         return this.heapLocation.getName();
@@ -416,6 +566,7 @@ public class ArrayStack implements BLOB {
             oldestBLOB.blob.close(false);
             oldestBLOB.blob = null;
             FileUtils.deletedelete(oldestBLOB.location);
+            FileUtils.deletedelete(bloomFile(oldestBLOB.location));
         }
 
         // size limit
@@ -424,6 +575,7 @@ public class ArrayStack implements BLOB {
             final blobItem oldestBLOB = this.blobs.remove(0);
             oldestBLOB.blob.close(false);
             FileUtils.deletedelete(oldestBLOB.location);
+            FileUtils.deletedelete(bloomFile(oldestBLOB.location));
         }
     }
 
@@ -446,18 +598,118 @@ public class ArrayStack implements BLOB {
         Date creation;
         File location;
         BLOB blob;
+        volatile BloomFilter bloom; // null if the filter could not be created; then the blob must always be asked
+        final LongAdder probes = new LongAdder(); // number of lookups which had to ask the blob
         public blobItem(final Date creation, final File location, final BLOB blob) {
             assert blob != null;
             this.creation = creation;
             this.location = location;
             this.blob = blob;
+            // use the stored filter if the blob file was not changed since the filter was written
+            this.bloom = BloomFilter.load(bloomFile(location), bloomFingerprint(location));
+            if (this.bloom == null) this.bloom = bloomFilter(blob, bloomCapacity(blob.size(), blob instanceof Heap));
         }
-        public blobItem(final int buffer) throws IOException {
+        public blobItem(final int buffer, final int expectedSize) throws IOException {
             // make a new blob file and assign it in this item
-            this.creation = new Date();
+            this.creation = new Date(newBLOBTime());
             this.location = newBLOB(this.creation);
             this.blob = (buffer == 0) ? new HeapModifier(this.location, ArrayStack.this.keylength, ArrayStack.this.ordering) : new Heap(this.location, ArrayStack.this.keylength, ArrayStack.this.ordering, buffer);
+            this.bloom = new BloomFilter(bloomCapacity(expectedSize, true));
+        }
+    }
+
+    private static File bloomFile(final File location) {
+        return new File(location.getParentFile(), location.getName() + ".bloom");
+    }
+
+    private static long bloomFingerprint(final File location) {
+        return location.length() * 1000003L + location.lastModified();
+    }
+
+    private static int bloomCapacity(final int size, final boolean writable) {
+        // a blob that is used for writing gets room to grow, the other blobs only get new keys when they are merged into a new blob
+        return (int) Math.min(Integer.MAX_VALUE, writable ? 2L * size + 1000L : size + (size >> 4) + 100L);
+    }
+
+    /**
+     * create a bloom filter for all keys of a blob
+     * @param blob
+     * @param capacity
+     * @return the filter or null if the keys cannot be read
+     */
+    private static BloomFilter bloomFilter(final BLOB blob, final int capacity) {
+        final BloomFilter bloom = new BloomFilter(capacity);
+        try {
+            final CloneableIterator<byte[]> i = blob.keys(true, false);
+            while (i.hasNext()) bloom.add(i.next());
+        } catch (final IOException e) {
+            ConcurrentLog.warn("ArrayStack", "cannot create bloom filter for " + blob.name() + ": " + e.getMessage());
+            return null;
+        }
+        return bloom;
+    }
+
+    /**
+     * ask the bloom filter of a blob item if the key may be in the blob
+     * @param bi
+     * @param key
+     * @return false if the blob does not contain the key, true if the blob must be asked
+     */
+    private boolean mayContain(final blobItem bi, final byte[] key) {
+        final BloomFilter bloom = bi.bloom;
+        if (bloom == null) {
+            bi.probes.increment();
+            return true;
+        }
+        this.bloomChecks.increment();
+        if (bloom.mightContain(key)) {
+            bi.probes.increment();
+            return true;
+        }
+        this.bloomSkips.increment();
+        return false;
+    }
+
+    /**
+     * ask a blob item for a key which passed the bloom filter
+     */
+    private boolean has(final blobItem bi, final byte[] key) {
+        if (bi.blob.containsKey(key)) return true;
+        if (bi.bloom != null) this.bloomFalsePositives.increment();
+        return false;
+    }
+
+    /**
+     * @return the number of times a bloom filter was asked for a key
+     */
+    public long bloomChecks() {
+        return this.bloomChecks.sum();
+    }
+
+    /**
+     * @return the number of blob lookups that were avoided because the bloom filter excluded the key
+     */
+    public long bloomSkips() {
+        return this.bloomSkips.sum();
+    }
+
+    /**
+     * @return the number of blob lookups where the bloom filter accepted a key that was not in the blob
+     */
+    public long bloomFalsePositives() {
+        return this.bloomFalsePositives.sum();
+    }
+
+    /**
+     * @return the memory used by the bloom filters
+     */
+    public long bloomMem() {
+        long m = 0;
+        if (this.blobs != null) for (final blobItem bi: this.blobs) {
+            final BloomFilter bloom = bi.bloom;
+            if (bloom != null) m += bloom.mem();
         }
+        return m;
     }
 
     /**
@@ -569,20 +821,25 @@ public class ArrayStack implements BLOB {
      */
     private blobItem keeperOf(final byte[] key) {
         if (this.blobs.isEmpty()) return null;
-        if (this.blobs.size() == 1) {
-            final blobItem bi = this.blobs.get(0);
-            if (bi.blob.containsKey(key)) return bi;
+
+        // only the blobs where the bloom filter does not exclude the key must be searched
+        final List<blobItem> candidates = new ArrayList<blobItem>(this.blobs.size());
+        for (final blobItem b: this.blobs) if (mayContain(b, key)) candidates.add(b);
+        if (candidates.isEmpty()) return null;
+        if (candidates.size() == 1) {
+            final blobItem bi = candidates.get(0);
+            if (has(bi, key)) return bi;
             return null;
         }
 
         // first check the current blob only because that has most probably the key if any has that key
-        int bs1 = this.blobs.size() - 1;
-        blobItem bi = this.blobs.get(bs1);
-        if (bi.blob.containsKey(key)) return bi;
-        if (this.blobs.size() == 2) {
+        int bs1 = candidates.size() - 1;
+        blobItem bi = candidates.get(bs1);
+        if (has(bi, key)) return bi;
+        if (candidates.size() == 2) {
             // this should not be done concurrently
-            bi = this.blobs.get(0);
-            if (bi.blob.containsKey(key)) return bi;
+            bi = candidates.get(0);
+            if (has(bi, key)) return bi;
             return null;
         }
 
@@ -590,12 +847,12 @@ public class ArrayStack implements BLOB {
         final CompletionService<blobItem> cs = new ExecutorCompletionService<blobItem>(this.executor);
         int accepted = 0;
         for (int i = 0; i < bs1; i++) {
-            final blobItem b = this.blobs.get(i);
+            final blobItem b = candidates.get(i);
             try {
                 cs.submit(new Callable<blobItem>() {
                     @Override
                     public blobItem call() {
-                        if (b.blob.containsKey(key)) return b;
+                        if (has(b, key)) return b;
                         return null;
                     }
                 });
@@ -603,7 +860,7 @@ public class ArrayStack implements BLOB {
             } catch (final RejectedExecutionException e) {
                 // the executor is either shutting down or the blocking queue is full
                 // execute the search direct here without concurrency
-                if (b.blob.containsKey(key)) return b;
+                if (has(b, key)) return b;
             }
         }
 
@@ -642,7 +899,7 @@ public class ArrayStack implements BLOB {
         if (this.blobs == null || this.blobs.isEmpty()) return null;
         if (this.blobs.size() == 1) {
             final blobItem bi = this.blobs.get(0);
-            return bi.blob.get(key);
+            return mayContain(bi, key) ? bi.blob.get(key) : null;
         }
 
         final blobItem bi = keeperOf(key);
@@ -682,24 +939,49 @@ public class ArrayStack implements BLOB {
         return new BlobValues(key);
     }
 
+    /**
+     * get all BLOBs in the array together with the creation time of the file that contains them
+     * @param key
+     * @return entries with the creation time as key and the BLOB as value
+     * @throws IOException
+     */
+    public Iterable<Map.Entry<Long, byte[]>> getAllCreated(final byte[] key) throws IOException {
+        return new BlobEntries(key);
+    }
+
     private class BlobValues extends LookAheadIterator<byte[]> {
 
+        private final BlobEntries entries;
+
+        public BlobValues(final byte[] key) {
+            this.entries = new BlobEntries(key);
+        }
+
+        @Override
+        protected byte[] next0() {
+            return this.entries.hasNext() ? this.entries.next().getValue() : null;
+        }
+    }
+
+    private class BlobEntries extends LookAheadIterator<Map.Entry<Long, byte[]>> {
+
         private final Iterator<blobItem> bii;
         private final byte[] key;
 
-        public BlobValues(final byte[] key) {
+        public BlobEntries(final byte[] key) {
             this.bii = ArrayStack.this.blobs.iterator();
             this.key = key;
         }
 
         @Override
-        protected byte[] next0() {
+        protected Map.Entry<Long, byte[]> next0() {
             while (this.bii.hasNext()) {
-                final BLOB b = this.bii.next().blob;
-                if (b == null) continue;
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
                 try {
                     final byte[] n = b.get(this.key);
-                    if (n != null) return n;
+                    if (n != null) return new AbstractMap.SimpleImmutableEntry<Long, byte[]>(bi.creation.getTime(), n);
                 } catch (final IOException e) {
                     ConcurrentLog.severe("ArrayStack", "BlobValues - IOException: " + e.getMessage(), e);
                     return null;
@@ -722,6 +1004,7 @@ public class ArrayStack implements BLOB {
     public synchronized long length(final byte[] key) throws IOException {
         long l;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             l = bi.blob.length(key);
             if (l >= 0) return l;
         }
@@ -752,8 +1035,9 @@ public class ArrayStack implements BLOB {
         @Override
         protected Long next0() {
             while (this.bii.hasNext()) {
-                final BLOB b = this.bii.next().blob;
-                if (b == null) continue;
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
                 try {
                     final long l = b.length(this.key);
                     if (l >= 0) return Long.valueOf(l);
@@ -766,6 +1050,57 @@ public class ArrayStack implements BLOB {
         }
     }
 
+    /**
+     * get the first bytes of all BLOBs for the given key; this is sufficient to read
+     * a header from the BLOBs without loading them completely
+     * @param key
+     * @param n the maximum number of bytes to read from each BLOB
+     * @return
+     * @throws IOException
+     */
+    public Iterable<byte[]> headAll(final byte[] key, final int n) throws IOException {
+        return new BlobHeads(key, n);
+    }
+
+    private class BlobHeads extends LookAheadIterator<byte[]> {
+
+        private final Iterator<blobItem> bii;
+        private final byte[] key;
+        private final int n;
+
+        public BlobHeads(final byte[] key, final int n) {
+            this.bii = ArrayStack.this.blobs.iterator();
+            this.key = key;
+            this.n = n;
+        }
+
+        @Override
+        protected byte[] next0() {
+            while (this.bii.hasNext()) {
+                final blobItem bi = this.bii.next();
+                final BLOB b = bi.blob;
+                if (b == null || !mayContain(bi, this.key)) continue;
+                try {
+                    final byte[] h;
+                    if (b instanceof HeapReader) {
+                        h = ((HeapReader) b).head(this.key, this.n);
+                    } else {
+                        final byte[] g = b.get(this.key);
+                        h = (g == null || g.length <= this.n) ? g : Arrays.copyOf(g, this.n);
+                    }
+                    if (h != null) return h;
+                } catch (final IOException e) {
+                    ConcurrentLog.severe("ArrayStack", "", e);
+                    return null;
+                } catch (final SpaceExceededException e) {
+                    ConcurrentLog.severe("ArrayStack", "", e);
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * retrieve the sizes of all BLOB
      * @param key
@@ -800,10 +1135,13 @@ public class ArrayStack implements BLOB {
         */
         if ((bi == null) || (System.currentTimeMillis() - bi.creation.getTime() > this.fileAgeLimit) || (bi.location.length() > this.fileSizeLimit && this.fileSizeLimit >= 0)) {
             // add a new blob to the array
-            bi = new blobItem(this.buffersize);
+            bi = new blobItem(this.buffersize, bi == null ? 0 : bi.blob.size());
             this.blobs.add(bi);
         }
         assert bi.blob instanceof Heap;
+        // the key must be in the bloom filter before it can be found in the blob
+        if (bi.bloom != null && bi.bloom.saturated()) bi.bloom = bloomFilter(bi.blob, bloomCapacity(bi.blob.size(), true));
+        if (bi.bloom != null) bi.bloom.add(key);
         bi.blob.insert(key, b);
         executeLimits();
     }
@@ -818,6 +1156,7 @@ public class ArrayStack implements BLOB {
     public synchronized int replace(final byte[] key, final Rewriter rewriter) throws IOException, SpaceExceededException {
         int d = 0;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             d += bi.blob.replace(key, rewriter);
         }
         return d;
@@ -833,6 +1172,7 @@ public class ArrayStack implements BLOB {
     public synchronized int reduce(final byte[] key, final Reducer reduce) throws IOException, SpaceExceededException {
         int d = 0;
         for (final blobItem bi: this.blobs) {
+            if (!mayContain(bi, key)) continue;
             d += bi.blob.reduce(key, reduce);
         }
         return d;
@@ -846,16 +1186,18 @@ public class ArrayStack implements BLOB {
     @Override
     public synchronized void delete(final byte[] key) throws IOException {
         final long m = mem();
-        if (this.blobs.isEmpty()) {
+        final List<blobItem> candidates = new ArrayList<blobItem>(this.blobs.size());
+        for (final blobItem bi: this.blobs) if (mayContain(bi, key)) candidates.add(bi);
+        if (candidates.isEmpty()) {
             // do nothing
-        } else if (this.blobs.size() == 1) {
-            final blobItem bi = this.blobs.get(0);
+        } else if (candidates.size() == 1) {
+            final blobItem bi = candidates.get(0);
             bi.blob.delete(key);
         } else {
             @SuppressWarnings("unchecked")
-            final FutureTask<Boolean>[] t = (FutureTask<Boolean>[]) Array.newInstance(FutureTask.class, this.blobs.size() - 1);
+            final FutureTask<Boolean>[] t = (FutureTask<Boolean>[]) Array.newInstance(FutureTask.class, candidates.size() - 1);
             int i = 0;
-            for (final blobItem bi: this.blobs) {
+            for (final blobItem bi: candidates) {
                 if (i < t.length) {
                     // run this in a concurrent thread
                     final blobItem bi0 = bi;
@@ -903,7 +1245,15 @@ public class ArrayStack implements BLOB {
      */
     @Override
     public synchronized void close(final boolean writeIDX) {
-        for (final blobItem bi: this.blobs) bi.blob.close(writeIDX);
+        for (final blobItem bi: this.blobs) {
+            bi.blob.close(writeIDX);
+            if (writeIDX && bi.bloom != null) try {
+                bi.bloom.dump(bloomFile(bi.location), bloomFingerprint(bi.location));
+            } catch (final IOException e) {
+                ConcurrentLog.warn("ArrayStack", "cannot write bloom filter for " + bi.location + ": " + e.getMessage());
+            }
+        }
+        if (this.bloomChecks.sum() > 0) ConcurrentLog.info("ArrayStack", this.prefix + ": bloom filters skipped " + this.bloomSkips.sum() + " of " + this.bloomChecks.sum() + " blob lookups, " + this.bloomFalsePositives.sum() + " false positives");
         this.blobs.clear();
         this.blobs = null;
         this.executor.shutdown();
@@ -918,15 +1268,17 @@ public class ArrayStack implements BLOB {
      * @param payloadrow
      * @param newFile
      * @param writeBuffer
+     * @param packed if true, the containers are written with the ReferenceContainerCodec block format
+     * @param throttle limits the write rate of the merge, may be null
      * @return the target file where the given files are merged in
      */
     public File mergeMount(final File f1, final File f2,
             final ReferenceFactory<? extends Reference> factory,
-            final File newFile, final int writeBuffer) {
+            final File newFile, final int writeBuffer, final boolean packed, final HeapWriter.Throttle throttle) {
         if (f2 == null) {
             // this is a rewrite
             ConcurrentLog.info("BLOBArray", "rewrite of " + f1.getName());
-            final File resultFile = rewriteWorker(factory, this.keylength, this.ordering, f1, newFile, writeBuffer);
+            final File resultFile = rewriteWorker(factory, this.keylength, this.ordering, f1, newFile, writeBuffer, packed, throttle);
             if (resultFile == null) {
                 ConcurrentLog.warn("BLOBArray", "rewrite of file " + f1 + " returned null. newFile = " + newFile);
                 return null;
@@ -941,7 +1293,7 @@ public class ArrayStack implements BLOB {
             return resultFile;
         }
         ConcurrentLog.info("BLOBArray", "merging " + f1.getName() + " with " + f2.getName());
-        final File resultFile = mergeWorker(factory, this.keylength, this.ordering, f1, f2, newFile, writeBuffer);
+        final File resultFile = mergeWorker(factory, this.keylength, this.ordering, f1, f2, newFile, writeBuffer, packed, throttle);
         if (resultFile == null) {
             ConcurrentLog.warn("BLOBArray", "merge of files " + f1 + ", " + f2 + " returned null. newFile = " + newFile);
             return null;
@@ -956,9 +1308,92 @@ public class ArrayStack implements BLOB {
         return resultFile;
     }
 
+    /**
+     * merge any number of blob files into one with a k-way merge.
+     * One file is rewritten and two files are merged like in mergeMount(f1, f2, ...)
+     * unless tombstones of deleted urls must be applied to the files or term statistics must be adjusted.
+     * @param files the files to merge, the oldest first
+     * @param factory
+     * @param newFile
+     * @param writeBuffer
+     * @param packed if true, the containers are written with the ReferenceContainerCodec block format
+     * @param throttle limits the write rate of the merge, may be null
+     * @return the target file where the given files are merged in
+     */
+    public File mergeMount(final File[] files,
+            final ReferenceFactory<? extends Reference> factory,
+            final File newFile, final int writeBuffer, final boolean packed, final HeapWriter.Throttle throttle) {
+        final Tombstones t = this.tombstones;
+        final boolean applyTombstones = t != null && !t.isEmpty();
+        final TermStatistics statistics = this.statistics;
+        if (files.length == 1 && !applyTombstones && statistics == null) return mergeMount(files[0], null, factory, newFile, writeBuffer, packed, throttle);
+        if (files.length == 2 && !applyTombstones && statistics == null) return mergeMount(files[0], files[1], factory, newFile, writeBuffer, packed, throttle);
+        ConcurrentLog.info("BLOBArray", "merging " + files.length + " files into " + newFile.getName());
+        final long[] created = new long[files.length];
+        for (int i = 0; i < files.length; i++) created[i] = creation(files[i]);
+        final File resultFile = mergeWorker(factory, this.keylength, this.ordering, files, created, applyTombstones ? t : null, statistics, newFile, writeBuffer, packed, throttle);
+        if (resultFile == null) {
+            ConcurrentLog.warn("BLOBArray", "merge of " + files.length + " files returned null. newFile = " + newFile);
+            return null;
+        }
+        try {
+            mountBLOB(resultFile, false);
+        } catch (final IOException e) {
+            ConcurrentLog.warn("BLOBArray", "merge of " + files.length + " files successfull, but read failed. resultFile = " + resultFile);
+            return null;
+        }
+        ConcurrentLog.info("BLOBArray", "merged " + files.length + " files into " + resultFile);
+        return resultFile;
+    }
+
+    private static <ReferenceType extends Reference> File mergeWorker(
+            final ReferenceFactory<ReferenceType> factory,
+            final int keylength, final ByteOrder order, final File[] files, final long[] created, final Tombstones tombstones,
+            final TermStatistics statistics, final File newFile, final int writeBuffer, final boolean packed, final HeapWriter.Throttle throttle) {
+        final List<ReferenceIterator<ReferenceType>> iterators = new ArrayList<ReferenceIterator<ReferenceType>>(files.length);
+        try {
+            boolean empty = true;
+            for (final File f: files) {
+                final ReferenceIterator<ReferenceType> i = new ReferenceIterator<ReferenceType>(f, factory);
+                iterators.add(i);
+                if (i.hasNext()) empty = false;
+            }
+            if (empty) {
+                for (final File f: files) HeapWriter.delete(f);
+                return null;
+            }
+            final File tmpFile = new File(newFile.getParentFile(), newFile.getName() + ".prt");
+            try {
+                final HeapWriter writer = new HeapWriter(tmpFile, newFile, keylength, order, writeBuffer);
+                writer.setThrottle(throttle);
+                final TreeMap<byte[], Integer> removed = merge(iterators, created, tombstones, order, writer, packed);
+                writer.close(true);
+                if (statistics != null) for (final Map.Entry<byte[], Integer> r: removed.entrySet()) statistics.add(r.getKey(), -r.getValue());
+            } catch (final IOException e) {
+                ConcurrentLog.severe("ArrayStack", "cannot writing or close writing merge, newFile = " + newFile.toString() + ", tmpFile = " + tmpFile.toString() + ": " + e.getMessage(), e);
+                HeapWriter.delete(tmpFile);
+                HeapWriter.delete(newFile);
+                return null;
+            } catch (final SpaceExceededException e) {
+                ConcurrentLog.severe("ArrayStack", "cannot merge because of memory failure: " + e.getMessage(), e);
+                HeapWriter.delete(tmpFile);
+                HeapWriter.delete(newFile);
+                return null;
+            }
+            // we don't need the old files any more
+            for (final File f: files) HeapWriter.delete(f);
+            return newFile;
+        } catch (final IOException e) {
+            ConcurrentLog.severe("ArrayStack", "cannot merge because input files cannot be read: " + e.getMessage(), e);
+            return null;
+        } finally {
+            for (final ReferenceIterator<ReferenceType> i: iterators) i.close();
+        }
+    }
+
     private static <ReferenceType extends Reference> File mergeWorker(
                     final ReferenceFactory<ReferenceType> factory,
-                    final int keylength, final ByteOrder order, final File f1, final File f2, final File newFile, final int writeBuffer) {
+                    final int keylength, final ByteOrder order, final File f1, final File f2, final File newFile, final int writeBuffer, final boolean packed, final HeapWriter.Throttle throttle) {
         // iterate both files and write a new one
         ReferenceIterator<ReferenceType> i1 = null;
         try {
@@ -985,7 +1420,8 @@ public class ArrayStack implements BLOB {
                 final File tmpFile = new File(newFile.getParentFile(), newFile.getName() + ".prt");
                 try {
                     final HeapWriter writer = new HeapWriter(tmpFile, newFile, keylength, order, writeBuffer);
-                    merge(i1, i2, order, writer);
+                    writer.setThrottle(throttle);
+                    merge(i1, i2, order, writer, packed);
                     writer.close(true);
                 } catch (final IOException e) {
                     ConcurrentLog.severe("ArrayStack", "cannot writing or close writing merge, newFile = " + newFile.toString() + ", tmpFile = " + tmpFile.toString() + ": " + e.getMessage(), e);
@@ -1018,7 +1454,7 @@ public class ArrayStack implements BLOB {
 
     private static <ReferenceType extends Reference> File rewriteWorker(
             final ReferenceFactory<ReferenceType> factory,
-            final int keylength, final ByteOrder order, final File f, final File newFile, final int writeBuffer) {
+            final int keylength, final ByteOrder order, final File f, final File newFile, final int writeBuffer, final boolean packed, final HeapWriter.Throttle throttle) {
         // iterate both files and write a new one
 
         CloneableIterator<ReferenceContainer<ReferenceType>> i = null;
@@ -1036,7 +1472,8 @@ public class ArrayStack implements BLOB {
         final File tmpFile = new File(newFile.getParentFile(), newFile.getName() + ".prt");
         try {
             final HeapWriter writer = new HeapWriter(tmpFile, newFile, keylength, order, writeBuffer);
-            rewrite(i, order, writer);
+            writer.setThrottle(throttle);
+            rewrite(i, order, writer, packed);
             writer.close(true);
             i.close();
         } catch (final IOException e) {
@@ -1058,7 +1495,7 @@ public class ArrayStack implements BLOB {
     private static <ReferenceType extends Reference> void merge(
             final CloneableIterator<ReferenceContainer<ReferenceType>> i1,
             final CloneableIterator<ReferenceContainer<ReferenceType>> i2,
-            final ByteOrder ordering, final HeapWriter writer) throws IOException, SpaceExceededException {
+            final ByteOrder ordering, final HeapWriter writer, final boolean packed) throws IOException, SpaceExceededException {
         assert i1.hasNext();
         assert i2.hasNext();
         byte[] c1lh, c2lh;
@@ -1073,7 +1510,7 @@ public class ArrayStack implements BLOB {
             if (e < 0) {
             	s = c1.shrinkReferences();
             	if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c1.getTermHash()) + " by " + s + " to " + c1.size() + " entries");
-                writer.add(c1.getTermHash(), c1.exportCollection());
+                writer.add(c1.getTermHash(), ReferenceContainerCodec.export(c1, packed));
                 if (i1.hasNext()) {
                     c1lh = c1.getTermHash();
                     c1 = i1.next();
@@ -1086,7 +1523,7 @@ public class ArrayStack implements BLOB {
             if (e > 0) {
                 s = c2.shrinkReferences();
                 if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c2.getTermHash()) + " by " + s + " to " + c2.size() + " entries");
-                writer.add(c2.getTermHash(), c2.exportCollection());
+                writer.add(c2.getTermHash(), ReferenceContainerCodec.export(c2, packed));
                 if (i2.hasNext()) {
                     c2lh = c2.getTermHash();
                     c2 = i2.next();
@@ -1101,7 +1538,7 @@ public class ArrayStack implements BLOB {
             c1 = c1.merge(c2);
             s = c1.shrinkReferences();
             if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c1.getTermHash()) + " by " + s + " to " + c1.size() + " entries");
-            writer.add(c1.getTermHash(), c1.exportCollection());
+            writer.add(c1.getTermHash(), ReferenceContainerCodec.export(c1, packed));
             c1lh = c1.getTermHash();
             c2lh = c2.getTermHash();
             if (i1.hasNext() && i2.hasNext()) {
@@ -1131,7 +1568,7 @@ public class ArrayStack implements BLOB {
             //System.out.println("FLUSH REMAINING 1: " + c1.getWordHash());
             s = c1.shrinkReferences();
             if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c1.getTermHash()) + " by " + s + " to " + c1.size() + " entries");
-            writer.add(c1.getTermHash(), c1.exportCollection());
+            writer.add(c1.getTermHash(), ReferenceContainerCodec.export(c1, packed));
             if (i1.hasNext()) {
                 c1lh = c1.getTermHash();
                 c1 = i1.next();
@@ -1144,7 +1581,7 @@ public class ArrayStack implements BLOB {
             //System.out.println("FLUSH REMAINING 2: " + c2.getWordHash());
             s = c2.shrinkReferences();
             if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c2.getTermHash()) + " by " + s + " to " + c2.size() + " entries");
-            writer.add(c2.getTermHash(), c2.exportCollection());
+            writer.add(c2.getTermHash(), ReferenceContainerCodec.export(c2, packed));
             if (i2.hasNext()) {
                 c2lh = c2.getTermHash();
                 c2 = i2.next();
@@ -1156,9 +1593,80 @@ public class ArrayStack implements BLOB {
         // finished with writing
     }
 
+    /**
+     * the current container of one input of a k-way merge
+     */
+    private static final class MergeHead<ReferenceType extends Reference> {
+        private final CloneableIterator<ReferenceContainer<ReferenceType>> iterator;
+        private final int index; // position of the input file, containers of older files are merged first
+        private final long created; // creation time of the input file
+        private final Tombstones tombstones;
+        private ReferenceContainer<ReferenceType> container;
+        private int size; // the number of references of the container before the tombstones were applied
+        private MergeHead(final CloneableIterator<ReferenceContainer<ReferenceType>> iterator, final int index, final long created, final Tombstones tombstones) {
+            this.iterator = iterator;
+            this.index = index;
+            this.created = created;
+            this.tombstones = tombstones;
+            this.container = iterator.next();
+            this.size = this.container.size();
+            if (tombstones != null) tombstones.apply(this.container, created);
+        }
+        private boolean next() {
+            if (!this.iterator.hasNext()) return false;
+            this.container = this.iterator.next();
+            this.size = this.container.size();
+            if (this.tombstones != null) this.tombstones.apply(this.container, this.created);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of references that were dropped for each term because they were deleted or double
+     */
+    private static <ReferenceType extends Reference> TreeMap<byte[], Integer> merge(
+            final List<? extends CloneableIterator<ReferenceContainer<ReferenceType>>> iterators,
+            final long[] created, final Tombstones tombstones, final ByteOrder ordering, final HeapWriter writer, final boolean packed) throws IOException, SpaceExceededException {
+        final PriorityQueue<MergeHead<ReferenceType>> heads = new PriorityQueue<MergeHead<ReferenceType>>(iterators.size(), (a, b) -> {
+            final int c = ordering.compare(a.container.getTermHash(), b.container.getTermHash());
+            return c == 0 ? Integer.compare(a.index, b.index) : c;
+        });
+        for (int i = 0; i < iterators.size(); i++) {
+            if (iterators.get(i).hasNext()) heads.add(new MergeHead<ReferenceType>(iterators.get(i), i, created[i], tombstones));
+        }
+        final TreeMap<byte[], Integer> removed = new TreeMap<byte[], Integer>(ordering);
+        MergeHead<ReferenceType> head;
+        ReferenceContainer<ReferenceType> c;
+        byte[] clh = null;
+        int s, inputSize;
+        while (!heads.isEmpty()) {
+            head = heads.poll();
+            c = head.container;
+            inputSize = head.size;
+            assert clh == null || ordering.compare(c.getTermHash(), clh) > 0;
+            if (head.next()) heads.add(head);
+            // merge the entries of all files with the same term
+            while (!heads.isEmpty() && ordering.compare(heads.peek().container.getTermHash(), c.getTermHash()) == 0) {
+                head = heads.poll();
+                inputSize += head.size;
+                c = c.merge(head.container);
+                if (head.next()) heads.add(head);
+            }
+            clh = c.getTermHash();
+            if (!c.isEmpty()) { // otherwise all references were deleted
+                s = c.shrinkReferences();
+                if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c.getTermHash()) + " by " + s + " to " + c.size() + " entries");
+                writer.add(c.getTermHash(), ReferenceContainerCodec.export(c, packed));
+            }
+            if (inputSize > c.size()) removed.put(c.getTermHash(), inputSize - c.size());
+        }
+        // finished with writing
+        return removed;
+    }
+
     private static <ReferenceType extends Reference> void rewrite(
             final CloneableIterator<ReferenceContainer<ReferenceType>> i,
-            final ByteOrder ordering, final HeapWriter writer) throws IOException, SpaceExceededException {
+            final ByteOrder ordering, final HeapWriter writer, final boolean packed) throws IOException, SpaceExceededException {
         assert i.hasNext();
         byte[] clh;
         ReferenceContainer<ReferenceType> c;
@@ -1168,7 +1676,7 @@ public class ArrayStack implements BLOB {
             assert c != null;
             s = c.shrinkReferences();
             if (s > 0) ConcurrentLog.info("ArrayStack", "shrinking index for " + ASCII.String(c.getTermHash()) + " by " + s + " to " + c.size() + " entries");
-            writer.add(c.getTermHash(), c.exportCollection());
+            writer.add(c.getTermHash(), ReferenceContainerCodec.export(c, packed));
             if (i.hasNext()) {
                 clh = c.getTermHash();
                 c = i.next();
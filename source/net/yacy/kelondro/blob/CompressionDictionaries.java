@@ -0,0 +1,462 @@
+/**
+ *  CompressionDictionaries
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.blob;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+import net.yacy.cora.util.ConcurrentLog;
+
+/**
+ * Preset dictionaries for the deflate compression of similar entries.
+ * Entries are grouped by a part of their key (for url hashes this is the host hash);
+ * the dictionary of a group is trained from the first entries of that group, a global
+ * dictionary is trained from entries of different groups and used for all groups which
+ * have no own dictionary.
+ *
+ * A dictionary never changes once it is written. It is identified by its Adler-32 checksum,
+ * which deflate writes into the header of each stream compressed with a preset dictionary,
+ * so entries remain readable after the dictionary of their group was replaced by a newer version.
+ * Dictionaries are stored as files &lt;id&gt;.dict, the assignment of groups to their current
+ * dictionary is appended to the file groups.map.
+ */
+public class CompressionDictionaries {
+
+    private static final ConcurrentLog log = new ConcurrentLog("CompressionDictionaries");
+
+    /** the maximum length of a dictionary, deflate does not look back further than this */
+    public static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+
+    /** dictionaries which are shorter than that are not worth to be used */
+    private static final int MIN_DICTIONARY_LENGTH = 256;
+
+    /** the length of the shingles which are counted to find common content */
+    private static final int SHINGLE = 12;
+
+    /** only the beginning of a sample is used for the training */
+    private static final int MAX_SAMPLE_LENGTH = 16 * 1024;
+
+    /** the number of samples from which the dictionary of a group is trained */
+    private static final int GROUP_SAMPLES = 8;
+
+    /** the number of samples from different groups from which the global dictionary is trained */
+    private static final int GLOBAL_SAMPLES = 32;
+
+    /** the maximum number of groups which collect samples at the same time */
+    private static final int MAX_PENDING_GROUPS = 256;
+
+    private static final String GLOBAL = "*";
+    private static final String MAP_FILE = "groups.map";
+    private static final String DICT_SUFFIX = ".dict";
+    private static final String VERSION_LINE = "# version 1";
+
+    private final File location;
+    private final int groupOffset, groupLength;
+    private final int maxDictionaries;
+
+    /** all known dictionaries by their id, loaded when they are first used */
+    private final Map<Integer, byte[]> dictionaries;
+
+    /** the ids of the dictionaries on disk */
+    private final Set<Integer> stored;
+
+    /** the current dictionary for each group */
+    private final Map<String, Integer> groups;
+
+    /** samples of groups which have no dictionary yet; the eldest group is dropped if there are too many */
+    private final LinkedHashMap<String, List<byte[]>> pending;
+
+    /** samples for the global dictionary, at most one per group */
+    private final Map<String, byte[]> globalSamples;
+
+    /** groups for which the training did not find enough common content */
+    private final Set<String> useless;
+
+    private volatile boolean enabled;
+
+    /**
+     * @param location the directory for the dictionaries, it is created if it does not exist
+     * @param groupOffset the position of the group name in a key
+     * @param groupLength the length of the group name in a key, 0 to use only the global dictionary
+     * @param maxDictionaries the maximum number of group dictionaries
+     */
+    public CompressionDictionaries(final File location, final int groupOffset, final int groupLength, final int maxDictionaries) throws IOException {
+        this.location = location;
+        this.groupOffset = groupOffset;
+        this.groupLength = groupLength;
+        this.maxDictionaries = maxDictionaries;
+        this.dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+        this.stored = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.groups = new ConcurrentHashMap<String, Integer>();
+        this.pending = new LinkedHashMap<String, List<byte[]>>(MAX_PENDING_GROUPS, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, List<byte[]>> eldest) {
+                return this.size() > MAX_PENDING_GROUPS;
+            }
+        };
+        this.globalSamples = new LinkedHashMap<String, byte[]>();
+        this.useless = new HashSet<String>();
+        this.enabled = true;
+        if (!location.exists()) location.mkdirs();
+        if (!location.isDirectory()) throw new IOException("cannot create dictionary directory " + location);
+        load();
+    }
+
+    private void load() throws IOException {
+        final String[] files = this.location.list();
+        if (files != null) for (final String f: files) {
+            if (!f.endsWith(DICT_SUFFIX)) continue;
+            try {
+                this.stored.add((int) Long.parseLong(f.substring(0, f.length() - DICT_SUFFIX.length()), 16));
+            } catch (final NumberFormatException e) {
+                continue;
+            }
+        }
+        final File map = new File(this.location, MAP_FILE);
+        if (!map.exists()) return;
+        int lines = 0;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(map), StandardCharsets.US_ASCII));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                final int p = line.lastIndexOf('=');
+                if (line.startsWith("#") || p <= 0) continue;
+                try {
+                    final int id = (int) Long.parseLong(line.substring(p + 1), 16);
+                    if (this.stored.contains(id)) this.groups.put(line.substring(0, p), id);
+                } catch (final NumberFormatException e) {
+                    continue;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // later lines override earlier ones; rewrite the map if it contains outdated assignments
+        if (lines > this.groups.size() + 1) writeMap();
+        log.info("loaded " + this.groups.size() + " dictionary assignments, " + this.stored.size() + " dictionaries in " + this.location);
+    }
+
+    /**
+     * switch the use of dictionaries for new entries on or off;
+     * dictionaries are always available for the decompression of existing entries
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return the number of dictionaries
+     */
+    public int size() {
+        return this.stored.size();
+    }
+
+    private String group(final byte[] key) {
+        if (this.groupLength <= 0 || key == null || key.length < this.groupOffset + this.groupLength) return GLOBAL;
+        return new String(key, this.groupOffset, this.groupLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * select the dictionary for the compression of a new entry
+     * @param key the key of the entry
+     * @return the dictionary of the group of the key, the global dictionary or null if there is none
+     */
+    public byte[] select(final byte[] key) {
+        if (!this.enabled) return null;
+        Integer id = this.groups.get(group(key));
+        if (id == null) id = this.groups.get(GLOBAL);
+        return id == null ? null : get(id.intValue());
+    }
+
+    /**
+     * @param id the Adler-32 checksum of the dictionary
+     * @return the dictionary with the given id or null if it does not exist
+     */
+    public byte[] get(final int id) {
+        byte[] dictionary = this.dictionaries.get(id);
+        if (dictionary != null || !this.stored.contains(id)) return dictionary;
+        try {
+            dictionary = Files.readAllBytes(dictionaryFile(id).toPath());
+        } catch (final IOException e) {
+            log.warn("cannot read dictionary " + dictionaryFile(id) + ": " + e.getMessage());
+            return null;
+        }
+        if (checksum(dictionary) != id) {
+            log.warn("dictionary " + dictionaryFile(id) + " is damaged");
+            return null;
+        }
+        this.dictionaries.put(id, dictionary);
+        return dictionary;
+    }
+
+    /**
+     * offer the content of an entry which was compressed without the dictionary of its group
+     * as sample for the training; the training is done in the calling thread when enough samples exist
+     */
+    public void sample(final byte[] key, final byte[] b) {
+        if (!this.enabled || b.length < SHINGLE * 4) return;
+        final String group = group(key);
+        final byte[] sample = b.length > MAX_SAMPLE_LENGTH ? Arrays.copyOf(b, MAX_SAMPLE_LENGTH) : b;
+        List<byte[]> groupSamples = null;
+        List<byte[]> global = null;
+        synchronized (this) {
+            if (!this.groups.containsKey(GLOBAL) && !this.globalSamples.containsKey(group)) {
+                this.globalSamples.put(group, sample);
+                if (this.globalSamples.size() >= GLOBAL_SAMPLES) {
+                    global = new ArrayList<byte[]>(this.globalSamples.values());
+                    this.globalSamples.clear();
+                }
+            }
+            if (!GLOBAL.equals(group) && !this.groups.containsKey(group) && !this.useless.contains(group) && this.groups.size() < this.maxDictionaries) {
+                List<byte[]> s = this.pending.get(group);
+                if (s == null) {
+                    s = new ArrayList<byte[]>(GROUP_SAMPLES);
+                    this.pending.put(group, s);
+                }
+                s.add(sample);
+                if (s.size() >= GROUP_SAMPLES) {
+                    groupSamples = s;
+                    this.pending.remove(group);
+                }
+            }
+        }
+        if (global != null) learn(GLOBAL, global);
+        if (groupSamples != null) learn(group, groupSamples);
+    }
+
+    private void learn(final String group, final List<byte[]> samples) {
+        final byte[] dictionary = train(samples, MAX_DICTIONARY_LENGTH);
+        if (dictionary.length < MIN_DICTIONARY_LENGTH) {
+            synchronized (this) {
+                this.useless.add(group);
+            }
+            return;
+        }
+        try {
+            assign(group, dictionary);
+        } catch (final IOException e) {
+            log.warn("cannot store dictionary for group " + group + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * make a dictionary the current dictionary of a group
+     * @param group the group name, or "*" for the global dictionary
+     * @param dictionary the dictionary
+     * @return the id of the dictionary
+     */
+    synchronized int assign(final String group, final byte[] dictionary) throws IOException {
+        final int id = checksum(dictionary);
+        final byte[] existing = get(id);
+        if (existing == null) {
+            final File f = dictionaryFile(id);
+            final File tmp = new File(this.location, f.getName() + ".prt");
+            Files.write(tmp.toPath(), dictionary);
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                throw new IOException("cannot rename " + tmp + " to " + f);
+            }
+            this.stored.add(id);
+            this.dictionaries.put(id, dictionary);
+        } else if (!Arrays.equals(existing, dictionary)) {
+            // a checksum collision, the entries would not find their dictionary
+            throw new IOException("dictionary id " + Integer.toHexString(id) + " is already used");
+        }
+        this.groups.put(group, id);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(this.location, MAP_FILE), true), StandardCharsets.US_ASCII);
+        try {
+            writer.write(group + "=" + Integer.toHexString(id) + "\n");
+        } finally {
+            writer.close();
+        }
+        if (log.isFine()) log.fine("new dictionary " + Integer.toHexString(id) + " with " + dictionary.length + " bytes for group " + group);
+        return id;
+    }
+
+    private synchronized void writeMap() throws IOException {
+        final File map = new File(this.location, MAP_FILE);
+        final File tmp = new File(this.location, MAP_FILE + ".prt");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.US_ASCII);
+        try {
+            writer.write(VERSION_LINE + "\n");
+            for (final Map.Entry<String, Integer> entry: this.groups.entrySet()) {
+                writer.write(entry.getKey() + "=" + Integer.toHexString(entry.getValue()) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        map.delete();
+        if (!tmp.renameTo(map)) throw new IOException("cannot rename " + tmp + " to " + map);
+    }
+
+    private File dictionaryFile(final int id) {
+        return new File(this.location, Integer.toHexString(id) + DICT_SUFFIX);
+    }
+
+    /**
+     * @return the id of a dictionary as deflate writes it into the stream header
+     */
+    public static int checksum(final byte[] dictionary) {
+        final Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        return (int) adler.getValue();
+    }
+
+    /**
+     * Train a dictionary from samples: the shingles which appear in at least half of the samples
+     * (and at least in two of them) are marked, runs of marked shingles are the candidate segments.
+     * The segments which save most bytes are concatenated, the most valuable at the end of the
+     * dictionary because deflate encodes short distances with fewer bits.
+     * @param samples the samples
+     * @param maxLength the maximum length of the dictionary
+     * @return the dictionary, may be empty if the samples have nothing in common
+     */
+    public static byte[] train(final List<byte[]> samples, final int maxLength) {
+        final int threshold = Math.max(2, samples.size() / 2);
+
+        // count in how many samples each shingle appears
+        final Map<Long, Integer> frequency = new HashMap<Long, Integer>();
+        final Set<Long> seen = new HashSet<Long>();
+        for (final byte[] sample: samples) {
+            seen.clear();
+            for (int i = 0; i + SHINGLE <= sample.length; i++) {
+                final Long h = shingle(sample, i);
+                if (seen.add(h)) {
+                    final Integer c = frequency.get(h);
+                    frequency.put(h, c == null ? 1 : c.intValue() + 1);
+                }
+            }
+        }
+
+        // collect the runs of common shingles and their value
+        final Map<String, Long> segments = new HashMap<String, Long>();
+        for (final byte[] sample: samples) {
+            int start = -1;
+            int df = 0;
+            for (int i = 0; i + SHINGLE <= sample.length + 1; i++) {
+                final Integer c = i + SHINGLE <= sample.length ? frequency.get(shingle(sample, i)) : null;
+                if (c != null && c.intValue() >= threshold) {
+                    if (start < 0) {
+                        start = i;
+                        df = c.intValue();
+                    } else {
+                        df = Math.min(df, c.intValue());
+                    }
+                } else if (start >= 0) {
+                    final String segment = new String(sample, start, i - 1 - start + SHINGLE, StandardCharsets.ISO_8859_1);
+                    final Long value = segments.get(segment);
+                    final long v = (long) df * segment.length();
+                    if (value == null || value.longValue() < v) segments.put(segment, v);
+                    start = -1;
+                }
+            }
+        }
+
+        final List<Map.Entry<String, Long>> ranked = new ArrayList<Map.Entry<String, Long>>(segments.entrySet());
+        Collections.sort(ranked, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+                final int c = o2.getValue().compareTo(o1.getValue());
+                return c != 0 ? c : o1.getKey().compareTo(o2.getKey());
+            }
+        });
+
+        // choose the segments, skipping those which are contained in a more valuable one
+        final List<String> chosen = new ArrayList<String>();
+        final StringBuilder all = new StringBuilder(maxLength);
+        final Iterator<Map.Entry<String, Long>> i = ranked.iterator();
+        while (i.hasNext() && all.length() < maxLength) {
+            final String segment = i.next().getKey();
+            if (all.indexOf(segment) >= 0) continue;
+            final String s = segment.length() > maxLength - all.length() ? segment.substring(0, maxLength - all.length()) : segment;
+            chosen.add(s);
+            all.append(s);
+        }
+
+        final ByteArrayOutputStream dictionary = new ByteArrayOutputStream(all.length());
+        for (int j = chosen.size() - 1; j >= 0; j--) {
+            final byte[] b = chosen.get(j).getBytes(StandardCharsets.ISO_8859_1);
+            dictionary.write(b, 0, b.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static Long shingle(final byte[] b, final int offset) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + SHINGLE; i++) {
+            h ^= b[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * forget the samples; the dictionaries are kept because they are still useful for new entries
+     */
+    public synchronized void clear() {
+        this.pending.clear();
+        this.globalSamples.clear();
+        this.useless.clear();
+    }
+
+    public synchronized void close() {
+        clear();
+        try {
+            writeMap();
+        } catch (final IOException e) {
+            log.warn("cannot write " + MAP_FILE + ": " + e.getMessage());
+        }
+    }
+
+}
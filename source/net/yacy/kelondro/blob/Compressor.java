@@ -32,14 +32,28 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.order.CloneableIterator;
@@ -47,12 +61,14 @@ import net.yacy.cora.util.ByteArray;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.util.MemoryControl;
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
 
 
 public class Compressor implements BLOB, Iterable<byte[]> {
 
     private static byte[] gzipMagic  = {(byte) 'z', (byte) '|'}; // magic for gzip-encoded content
     private static byte[] plainMagic = {(byte) 'p', (byte) '|'}; // magic for plain content (no encoding)
+    private static byte[] dictMagic  = {(byte) 'd', (byte) '|'}; // magic for deflate-encoded content with a preset dictionary
 
     private final BLOB backend;
     
@@ -74,6 +90,39 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     /** The compression level */
     private volatile int compressionLevel;
 
+    /**
+     * entries which are handed over to the compression workers but not yet written to the backend, format is RAW (without magic).
+     * Guarded by its own monitor, which is also held when the writer appends an entry to the backend.
+     */
+    private final TreeMap<byte[], byte[]> inflight;
+
+    /** Total size (in bytes) of uncompressed entries in inflight */
+    private long inflightlength;
+
+    /** write-behind mode: compression jobs in the order of their hand-over, null in synchronous mode */
+    private volatile BlockingQueue<Job> queue;
+
+    /** write-behind mode: the compression workers, null in synchronous mode */
+    private volatile ExecutorService workers;
+
+    /** the number of compression workers, 0 in synchronous mode */
+    private volatile int threads;
+
+    /** write-behind mode: the thread which appends the compressed entries to the backend, null in synchronous mode */
+    private Thread writer;
+
+    /** statistics: number of compressed entries, their size before and after compression and the time used for the compression */
+    private final LongAdder compressedEntries, compressedInput, compressedOutput, compressionNanos;
+
+    /** preset dictionaries for the compression, null if entries are compressed without dictionary */
+    private volatile CompressionDictionaries dictionaries;
+
+    /** statistics: number of entries compressed with a preset dictionary */
+    private final LongAdder dictionaryEntries;
+
+    /** a job which tells the writer to terminate */
+    private static final Job POISON = new Job(null, null, null);
+
     /**
      * @param backend the backend storage
      * @param buffersize the maximum total size (in bytes) of uncompressed in-memory entries before compressing and flushing to the backend
@@ -87,9 +136,214 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         this.lock = new ReentrantLock();
         /* Ensure a value within the range supported by the Deflater class */
         this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+        this.inflight = new TreeMap<byte[], byte[]>(this.backend.ordering());
+        this.inflightlength = 0;
+        this.queue = null;
+        this.workers = null;
+        this.threads = 0;
+        this.writer = null;
+        this.compressedEntries = new LongAdder();
+        this.compressedInput = new LongAdder();
+        this.compressedOutput = new LongAdder();
+        this.compressionNanos = new LongAdder();
+        this.dictionaries = null;
+        this.dictionaryEntries = new LongAdder();
         initBuffer();
     }
 
+    /**
+     * An entry on its way from the buffer to the backend: the compression is done by a worker,
+     * the result is appended to the backend by the writer in the order of the jobs.
+     */
+    private static final class Job {
+        private final byte[] key, raw;
+        private final FutureTask<byte[]> compressed;
+        private Job(final byte[] key, final byte[] raw, final FutureTask<byte[]> compressed) {
+            this.key = key;
+            this.raw = raw;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Switch between synchronous compression and write-behind mode. In write-behind mode the entries
+     * which leave the buffer are compressed by a pool of workers in parallel and appended to the backend
+     * by a writer thread, so the threads which insert entries do not wait for the compression.
+     * Entries remain visible to get() while they are compressed.
+     * @param threads the number of compression workers; 0 for synchronous compression in the inserting thread
+     * @param queueSize the maximum number of entries waiting for compression; inserts wait if the queue is full
+     */
+    public void setWriteBehind(final int threads, final int queueSize) {
+        this.lock.lock();
+        try {
+            if (this.queue != null) {
+                // terminate the current workers after all entries are written
+                flushAll();
+                final BlockingQueue<Job> q = this.queue;
+                this.queue = null;
+                try {
+                    q.put(POISON);
+                    this.writer.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                this.workers.shutdown();
+                this.workers = null;
+                this.threads = 0;
+                this.writer = null;
+                q.clear();
+            }
+            if (threads <= 0) return;
+            this.workers = Executors.newFixedThreadPool(threads, new NamePrefixThreadFactory("Compressor.worker." + this.backend.name()));
+            this.threads = threads;
+            this.queue = new ArrayBlockingQueue<Job>(Math.max(1, queueSize));
+            final BlockingQueue<Job> q = this.queue;
+            this.writer = new Thread("Compressor.writer." + this.backend.name()) {
+                @Override
+                public void run() {
+                    try {
+                        Job job;
+                        while ((job = q.take()) != POISON) write(job);
+                    } catch (final InterruptedException e) {
+                        ConcurrentLog.warn("Compressor", "writer interrupted");
+                    }
+                }
+            };
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * move an entry from the buffer to the entries in compression and create the compression job.
+     * The caller must hold the lock and must remove the entry from the buffer.
+     */
+    private Job handOver(final byte[] key, final byte[] raw) {
+        synchronized (this.inflight) {
+            this.inflight.put(key, raw);
+            this.inflightlength += raw.length;
+        }
+        final int level = this.compressionLevel;
+        return new Job(key, raw, new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(key, raw, level);
+            }
+        }));
+    }
+
+    /**
+     * give the jobs to the workers and the writer; this may block if the queue is full.
+     * Must be called without holding the lock, otherwise inserts and reads would wait for the workers.
+     */
+    private void enqueue(final List<Job> jobs) {
+        for (final Job job: jobs) {
+            final BlockingQueue<Job> q = this.queue;
+            final ExecutorService w = this.workers;
+            boolean queued = false;
+            if (q != null && w != null) try {
+                q.put(job);
+                queued = true;
+                w.execute(job.compressed);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final RejectedExecutionException e) {
+                // the workers are terminated; the writer computes the result itself
+            }
+            if (!queued) {
+                // write-behind mode was switched off in the meantime
+                write(job);
+            }
+        }
+    }
+
+    /**
+     * append a compressed entry to the backend, unless it was deleted or replaced while it was compressed
+     */
+    private void write(final Job job) {
+        byte[] c;
+        job.compressed.run(); // does nothing if a worker has done the job already
+        try {
+            c = job.compressed.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            c = null;
+        } catch (final ExecutionException e) {
+            c = null;
+        }
+        if (c == null) c = markWithPlainMagic(job.raw);
+        synchronized (this.inflight) {
+            if (this.inflight.get(job.key) == job.raw) {
+                try {
+                    this.backend.insert(job.key, c);
+                } catch (final IOException e) {
+                    ConcurrentLog.warn("Compressor", "cannot write entry to " + this.backend.name() + ": " + e.getMessage());
+                }
+                this.inflight.remove(job.key);
+                this.inflightlength -= job.raw.length;
+            }
+            if (this.inflight.isEmpty()) this.inflight.notifyAll();
+        }
+    }
+
+    /**
+     * wait until all entries in compression are written to the backend
+     */
+    private void awaitInflight() {
+        synchronized (this.inflight) {
+            while (!this.inflight.isEmpty()) {
+                if (this.writer == null || !this.writer.isAlive()) break;
+                try {
+                    this.inflight.wait(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries which wait for compression or for the write to the backend
+     */
+    public int queueSize() {
+        synchronized (this.inflight) {
+            return this.inflight.size();
+        }
+    }
+
+    /**
+     * @return the number of compression workers, 0 in synchronous mode
+     */
+    public int compressionThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return the number of entries that have been compressed
+     */
+    public long compressedEntries() {
+        return this.compressedEntries.sum();
+    }
+
+    /**
+     * @return the ratio of compressed to uncompressed size of all compressed entries
+     */
+    public double compressionRatio() {
+        final long in = this.compressedInput.sum();
+        return in == 0 ? 1.0d : ((double) this.compressedOutput.sum()) / ((double) in);
+    }
+
+    /**
+     * @return the number of uncompressed bytes that one thread compresses in a second
+     */
+    public long compressionThroughput() {
+        final long nanos = this.compressionNanos.sum();
+        return nanos == 0 ? 0 : this.compressedInput.sum() * 1000000000L / nanos;
+    }
+
     @Override
     public long mem() {
         return this.backend.mem();
@@ -110,6 +364,11 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     	this.lock.lock();
     	try {
     		initBuffer();
+    		synchronized (this.inflight) {
+    		    this.inflight.clear();
+    		    this.inflightlength = 0;
+    		    this.inflight.notifyAll();
+    		}
     		this.backend.clear();
     	} finally {
     		this.lock.unlock();
@@ -132,17 +391,34 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     	try {
     		// no more thread is running, flush all queues
     		flushAll();
+    		setWriteBehind(0, 0);
     		this.backend.close(writeIDX);
     	} finally {
     		this.lock.unlock();
     	}
     }
 
-    private static byte[] compress(final byte[] b, final int compressionLevel) {
+    private byte[] compress(final byte[] key, final byte[] b, final int compressionLevel) {
         final int l = b.length;
         if (l < 100) return markWithPlainMagic(b);
-        final byte[] bb = compressAddMagic(b, compressionLevel);
-        if (bb.length >= l) return markWithPlainMagic(b);
+        final long start = System.nanoTime();
+        final CompressionDictionaries d = this.dictionaries;
+        final byte[] dictionary = d == null ? null : d.select(key);
+        byte[] bb = dictionary == null ? null : compressWithDictionary(b, dictionary, compressionLevel);
+        if (bb == null) {
+            bb = compressAddMagic(b, compressionLevel);
+            if (d != null) d.sample(key, b);
+        } else {
+            this.dictionaryEntries.increment();
+        }
+        this.compressionNanos.add(System.nanoTime() - start);
+        this.compressedEntries.increment();
+        this.compressedInput.add(l);
+        if (bb == null || bb.length >= l) {
+            this.compressedOutput.add(l + 2);
+            return markWithPlainMagic(b);
+        }
+        this.compressedOutput.add(bb.length);
         return bb;
     }
 
@@ -163,6 +439,26 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         }
     }
 
+    private static byte[] compressWithDictionary(final byte[] b, final byte[] dictionary, final int compressionLevel) {
+        // the zlib header contains the checksum of the dictionary, which identifies it on decompression
+        final Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(b);
+            deflater.finish();
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length / 5);
+            baos.write(dictMagic, 0, dictMagic.length);
+            final byte[] buf = new byte[1024 * 4];
+            while (!deflater.finished()) {
+                final int n = deflater.deflate(buf);
+                baos.write(buf, 0, n);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
     private static byte[] markWithPlainMagic(final byte[] b) {
         //System.out.print("+"); // DEBUG
         final byte[] r = new byte[b.length + 2];
@@ -172,10 +468,40 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         return r;
     }
 
-    private static byte[] decompress(final byte[] b) {
+    private byte[] decompress(final byte[] b) {
         // use a magic in the head of the bytes to identify compression type
         if (b == null) return null;
-        if (ByteArray.startsWith(b, gzipMagic)) {
+        if (ByteArray.startsWith(b, dictMagic)) {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(b, 2, b.length - 2);
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length * 4);
+                final byte[] buf = new byte[1024 * 4];
+                while (!inflater.finished()) {
+                    final int n = inflater.inflate(buf);
+                    if (n > 0) {
+                        baos.write(buf, 0, n);
+                    } else if (inflater.needsDictionary()) {
+                        final CompressionDictionaries d = this.dictionaries;
+                        final byte[] dictionary = d == null ? null : d.get(inflater.getAdler());
+                        if (dictionary == null) {
+                            ConcurrentLog.warn("Compressor", "missing dictionary " + Integer.toHexString(inflater.getAdler()) + " for an entry in " + this.backend.name());
+                            return null;
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        ConcurrentLog.warn("Compressor", "truncated entry in " + this.backend.name());
+                        return null;
+                    }
+                }
+                return baos.toByteArray();
+            } catch (final DataFormatException e) {
+                ConcurrentLog.logException(e);
+                return null;
+            } finally {
+                inflater.end();
+            }
+        } else if (ByteArray.startsWith(b, gzipMagic)) {
             //System.out.print("\\"); // DEBUG
             final ByteArrayInputStream bais = new ByteArrayInputStream(b);
             // eat up the magic
@@ -222,15 +548,25 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 			ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on get()");
 		}
         if(locked) {
+        	Job job = null;
         	try {
         		b = this.buffer.remove(key);
         		if (b != null) {
         			this.bufferlength = this.bufferlength - b.length;
-           			this.backend.insert(key, compress(b, this.compressionLevel));
+        			if (this.queue != null) {
+        				job = handOver(key, b);
+        			} else {
+        				this.backend.insert(key, compress(key, b, this.compressionLevel));
+        			}
         			return b;
         		}
+        		synchronized (this.inflight) {
+        			b = this.inflight.get(key);
+        		}
+        		if (b != null) return b;
         	} finally {
         		this.lock.unlock();
+        		if (job != null) enqueue(Collections.singletonList(job));
         	}
         	
             // return from the backend
@@ -262,7 +598,10 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     public boolean containsKey(final byte[] key) {
         this.lock.lock();
         try {
-            return this.buffer.containsKey(key) || this.backend.containsKey(key);
+            if (this.buffer.containsKey(key)) return true;
+            synchronized (this.inflight) {
+                return this.inflight.containsKey(key) || this.backend.containsKey(key);
+            }
         } finally {
         	this.lock.unlock();
         }
@@ -277,7 +616,9 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     public long length() {
         this.lock.lock();
         try {
-            return this.backend.length() + this.bufferlength;
+            synchronized (this.inflight) {
+                return this.backend.length() + this.bufferlength + this.inflightlength;
+            }
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
             return 0;
@@ -292,6 +633,10 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         try {
             byte[] b = this.buffer.get(key);
             if (b != null) return b.length;
+            synchronized (this.inflight) {
+                b = this.inflight.get(key);
+            }
+            if (b != null) return b.length;
             try {
                 b = this.backend.get(key);
                 if (b == null) return 0;
@@ -321,19 +666,29 @@ public class Compressor implements BLOB, Iterable<byte[]> {
 			ConcurrentLog.fine("Compressor", "Interrupted while acquiring a synchronzation lock on insert()");
 		}
     	if(locked) {
+    		final List<Job> jobs = new ArrayList<Job>();
     		try {
     			// first ensure that the files do not exist anywhere
     			delete(key);
 
     			// check if the buffer is full or could be full after this write
     			if (this.bufferlength + b.length * 2 > this.maxbufferlength) {
-    				// in case that we compress, just compress as much as is necessary to get enough room
-    				while (this.bufferlength + b.length * 2 > this.maxbufferlength) {
-    					if (this.buffer.isEmpty()) break;
-    					flushOne();
+    				if (this.queue != null) {
+    					// in write-behind mode, hand over as much as is necessary to get enough room
+    					while (this.bufferlength + b.length * 2 > this.maxbufferlength && !this.buffer.isEmpty()) {
+    						final Map.Entry<byte[], byte[]> entry = this.buffer.pollFirstEntry();
+    						this.bufferlength -= entry.getValue().length;
+    						jobs.add(handOver(entry.getKey(), entry.getValue()));
+    					}
+    				} else {
+    					// in case that we compress, just compress as much as is necessary to get enough room
+    					while (this.bufferlength + b.length * 2 > this.maxbufferlength) {
+    						if (this.buffer.isEmpty()) break;
+    						flushOne();
+    					}
+    					// in case that this was not enough, just flush all
+    					if (this.bufferlength + b.length * 2 > this.maxbufferlength) flushAll();
     				}
-    				// in case that this was not enough, just flush all
-    				if (this.bufferlength + b.length * 2 > this.maxbufferlength) flushAll();
     			}
 
     			// files are written uncompressed to the uncompressed-queue
@@ -344,6 +699,8 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     		} finally {
     			this.lock.unlock();
     		}
+    		// the compression jobs are queued outside of the lock, so other threads can read while this thread waits for room in the queue
+    		enqueue(jobs);
     		
     		if (MemoryControl.shortStatus()) {
     			flushAll();
@@ -357,7 +714,12 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     public void delete(final byte[] key) throws IOException {
     	this.lock.lock();
     	try {
-    		this.backend.delete(key);
+    		synchronized (this.inflight) {
+    			// an entry in compression must not be written after the deletion
+    			this.backend.delete(key);
+    			final byte[] b = this.inflight.remove(key);
+    			if (b != null) this.inflightlength -= b.length;
+    		}
     		final long rx = removeFromQueues(key);
     		if (rx > 0) this.bufferlength -= rx;
     	} finally {
@@ -369,7 +731,9 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     public int size() {
     	this.lock.lock();
     	try {
-    		return this.backend.size() + this.buffer.size();
+    		synchronized (this.inflight) {
+    			return this.backend.size() + this.inflight.size() + this.buffer.size();
+    		}
     	} finally {
     		this.lock.unlock();
     	}
@@ -381,6 +745,9 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     	try {
     		if (!this.backend.isEmpty()) return false;
     		if (!this.buffer.isEmpty()) return false;
+    		synchronized (this.inflight) {
+    			if (!this.inflight.isEmpty()) return false;
+    		}
     		return true;
     	} finally {
     		this.lock.unlock();
@@ -425,7 +792,7 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         final Map.Entry<byte[], byte[]> entry = this.buffer.entrySet().iterator().next();
         this.buffer.remove(entry.getKey());
         try {
-            this.backend.insert(entry.getKey(), compress(entry.getValue(), this.compressionLevel));
+            this.backend.insert(entry.getKey(), compress(entry.getKey(), entry.getValue(), this.compressionLevel));
             this.bufferlength -= entry.getValue().length;
             return true;
         } catch (final IOException e) {
@@ -435,16 +802,28 @@ public class Compressor implements BLOB, Iterable<byte[]> {
     }
 
     public void flushAll() {
+    	final List<Job> jobs = new ArrayList<Job>();
     	this.lock.lock();
     	try {
-    		while (!this.buffer.isEmpty()) {
-    			if (!flushOne()) {
-    				break;
+    		if (this.queue != null) {
+    			while (!this.buffer.isEmpty()) {
+    				final Map.Entry<byte[], byte[]> entry = this.buffer.pollFirstEntry();
+    				this.bufferlength -= entry.getValue().length;
+    				jobs.add(handOver(entry.getKey(), entry.getValue()));
+    			}
+    		} else {
+    			while (!this.buffer.isEmpty()) {
+    				if (!flushOne()) {
+    					break;
+    				}
     			}
     		}
     	} finally {
     		this.lock.unlock();
     	}
+    	// the writer does not need the lock, so it is safe to wait here even if the caller holds the lock
+    	enqueue(jobs);
+    	awaitInflight();
     }
 
     @Override
@@ -480,6 +859,22 @@ public class Compressor implements BLOB, Iterable<byte[]> {
         this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
     }
     
+    /**
+     * Use preset dictionaries for the compression of new entries. Entries which were compressed
+     * with a dictionary can only be read while the dictionaries are set.
+     * @param dictionaries the dictionaries or null to compress entries without dictionary
+     */
+    public void setDictionaries(final CompressionDictionaries dictionaries) {
+        this.dictionaries = dictionaries;
+    }
+
+    /**
+     * @return the number of entries which were compressed with a preset dictionary
+     */
+    public long dictionaryEntries() {
+        return this.dictionaryEntries.sum();
+    }
+
     /**
      * Set the new synchronization lock timeout.
      * @param lockTimeout the new synchronization lock timeout (in milliseconds).
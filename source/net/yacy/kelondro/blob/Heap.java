@@ -28,6 +28,7 @@ package net.yacy.kelondro.blob;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -90,6 +91,28 @@ public final class Heap extends HeapModifier implements BLOB {
         this.buffer = new TreeMap<byte[], byte[]>(ordering);
         this.buffersize = 0;
         ConcurrentLog.info("Heap", "initializing heap " + this.name());
+    }
+
+    /**
+     * create a heap file with a chosen kind of index, see HeapReader.setHashIndex()
+     * @param heapFile
+     * @param keylength
+     * @param ordering
+     * @param buffermax
+     * @param hashIndex if true, the index is a HashHandleMap, otherwise a RowHandleMap
+     * @throws IOException
+     */
+    public Heap(
+            final File heapFile,
+            final int keylength,
+            final ByteOrder ordering,
+            int buffermax,
+            final boolean hashIndex) throws IOException {
+        super(heapFile, keylength, ordering, hashIndex);
+        this.buffermax = buffermax;
+        this.buffer = new TreeMap<byte[], byte[]>(ordering);
+        this.buffersize = 0;
+        ConcurrentLog.info("Heap", "initializing heap " + this.name());
         /*
         // DEBUG
         Iterator<byte[]> i = index.keys(true, null);
@@ -150,6 +173,7 @@ public final class Heap extends HeapModifier implements BLOB {
         final int pos = (int) this.file.length();
         try {
             this.index.put(key, pos);
+            journal(key);
             this.file.seek(pos);
             this.file.writeInt(this.keylength + blob.length);
             this.file.write(key);
@@ -165,7 +189,7 @@ public final class Heap extends HeapModifier implements BLOB {
      * @throws IOException
      * @throws SpaceExceededException 
      */
-    public void flushBuffer() throws IOException {
+    public synchronized void flushBuffer() throws IOException {
         if (this.buffer == null) return;
         
         // check size of buffer
@@ -211,6 +235,7 @@ public final class Heap extends HeapModifier implements BLOB {
                 nextBuffer.put(entry.getKey(), blob);
                 continue flush;
             }
+            journal(key);
             b = AbstractWriter.int2array(this.keylength + blob.length);
             assert b.length == 4;
             assert posBuffer + 4 < ba.length : "posBuffer = " + posBuffer + ", ba.length = " + ba.length;
@@ -273,6 +298,28 @@ public final class Heap extends HeapModifier implements BLOB {
             return super.length(key);
         }
     }
+
+    /**
+     * read the first bytes of a BLOB
+     * @param key
+     * @param n the maximum number of bytes to read
+     * @return the first min(n, length) bytes of the BLOB or null if the BLOB does not exist
+     * @throws IOException
+     */
+    @Override
+    public byte[] head(byte[] key, final int n) throws IOException {
+        key = normalizeKey(key);
+
+        synchronized (this) {
+            // check the buffer
+            if (this.buffer != null) {
+                byte[] blob = this.buffer.get(key);
+                if (blob != null) return blob.length <= n ? blob : Arrays.copyOf(blob, n);
+            }
+
+            return super.head(key, n);
+        }
+    }
     
     /**
      * clears the content of the database
@@ -316,6 +363,16 @@ public final class Heap extends HeapModifier implements BLOB {
         this.close();
     }
     
+    /**
+     * flush the buffer and write a checkpoint
+     * @throws IOException
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        if (this.buffer != null && !this.buffer.isEmpty()) flushBuffer();
+        super.checkpoint();
+    }
+
     public int getBuffermax() {
         return this.buffermax;
     }
@@ -392,7 +449,9 @@ public final class Heap extends HeapModifier implements BLOB {
                 // we use that entry and stop looking for a larger entry
                 
                 // add the entry to the index
+                deleteCheckpoint();
                 this.index.put(key, entry.getKey());
+                journal(key);
                 
                 // write to file
                 this.file.seek(entry.getKey().longValue());
@@ -430,6 +489,7 @@ public final class Heap extends HeapModifier implements BLOB {
             // data structure in the file
             
             // write the new entry
+            deleteCheckpoint();
             this.file.seek(lseek);
             this.file.writeInt(reclen);
             this.file.write(key);
@@ -440,6 +500,7 @@ public final class Heap extends HeapModifier implements BLOB {
             
             // add the index to the new entry
             this.index.put(key, lseek);
+            journal(key);
             
             // define the new empty entry
             final int newfreereclen = lsize - reclen - 4;
@@ -0,0 +1,123 @@
+/**
+ *  HeapCompactor
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.blob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.yacy.cora.util.ConcurrentLog;
+
+/**
+ * The compactor removes the gaps of deleted records from heap files while the heaps are in use.
+ * All open heaps which can delete records (HeapModifier and Heap) are registered here; a background
+ * thread compacts those where the free space is larger than a given fraction of the file, the most
+ * fragmented heap first. The copying of a heap is limited by an I/O budget, see HeapModifier.compact().
+ */
+public final class HeapCompactor {
+
+    private final static ConcurrentLog log = new ConcurrentLog("COMPACTION");
+
+    /** heaps smaller than this are not worth a compaction */
+    private final static long MIN_LENGTH = 1024L * 1024L;
+
+    private static final Set<HeapModifier> heaps = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<HeapModifier, Boolean>()));
+    private static Thread worker = null;
+    private static long lastRun = System.currentTimeMillis();
+
+    public static void register(final HeapModifier heap) {
+        heaps.add(heap);
+    }
+
+    public static void unregister(final HeapModifier heap) {
+        heaps.remove(heap);
+    }
+
+    /**
+     * start a compaction of all fragmented heaps in a background thread, but only if no compaction
+     * is running and the last run is longer ago than the given time
+     * @param interval minimum time in milliseconds between two runs
+     * @param minFragmentation the fraction of free space in a heap file which causes a compaction
+     * @param bytesPerSecond the maximum number of bytes per second that are copied, 0 for no limit
+     * @return true if a compaction was started
+     */
+    public static synchronized boolean start(final long interval, final double minFragmentation, final long bytesPerSecond) {
+        if (worker != null && worker.isAlive()) return false;
+        if (System.currentTimeMillis() - lastRun < interval) return false;
+        worker = new Thread("HeapCompactor") {
+            @Override
+            public void run() {
+                compactAll(minFragmentation, bytesPerSecond);
+            }
+        };
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        return true;
+    }
+
+    /**
+     * compact all registered heaps which have at least the given fragmentation, the most fragmented heap first
+     * @param minFragmentation the fraction of free space in a heap file which causes a compaction
+     * @param bytesPerSecond the maximum number of bytes per second that are copied, 0 for no limit
+     * @return the number of compacted heaps
+     */
+    public static int compactAll(final double minFragmentation, final long bytesPerSecond) {
+        final List<HeapModifier> list;
+        synchronized (heaps) {
+            list = new ArrayList<HeapModifier>(heaps);
+        }
+        final List<HeapModifier> candidates = new ArrayList<HeapModifier>();
+        final List<Double> fragmentation = new ArrayList<Double>();
+        for (final HeapModifier heap: list) {
+            final double f = heap.fragmentation();
+            if (f < minFragmentation || heap.location().length() < MIN_LENGTH) continue;
+            // insertion sort, the list is short
+            int p = 0;
+            while (p < fragmentation.size() && fragmentation.get(p).doubleValue() >= f) p++;
+            candidates.add(p, heap);
+            fragmentation.add(p, Double.valueOf(f));
+        }
+        int c = 0;
+        for (final HeapModifier heap: candidates) {
+            if (Thread.currentThread().isInterrupted()) break;
+            try {
+                if (heap.compact(bytesPerSecond)) c++;
+            } catch (final IOException e) {
+                log.warn("compaction of " + heap.name() + " failed: " + e.getMessage(), e);
+            }
+        }
+        synchronized (HeapCompactor.class) {
+            lastRun = System.currentTimeMillis();
+        }
+        if (c > 0) log.info("compacted " + c + " of " + candidates.size() + " fragmented heaps");
+        return c;
+    }
+
+}
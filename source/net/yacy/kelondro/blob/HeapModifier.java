@@ -26,18 +26,28 @@ package net.yacy.kelondro.blob;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.SortedMap;
+import java.util.TreeSet;
 
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.storage.HandleMap;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.IndexCheckpoint;
 import net.yacy.kelondro.io.CachedFileWriter;
+import net.yacy.kelondro.io.Writer;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 
 
-public class HeapModifier extends HeapReader implements BLOB {
+public class HeapModifier extends HeapReader implements BLOB, IndexCheckpoint.Checkpointable {
 
     /*
      * This class adds a remove operation to a BLOBHeapReader. That means that a BLOBModifier can
@@ -46,6 +56,9 @@ public class HeapModifier extends HeapReader implements BLOB {
      * but cannot write new entries to the BLOB
      */
 
+    /** keys which were changed while a compaction copies the records, or null if no compaction is running */
+    private TreeSet<byte[]> compactionJournal = null;
+
     /**
      * create a heap file: a arbitrary number of BLOBs, indexed by an access key
      * The heap file will be indexed upon initialization.
@@ -56,6 +69,39 @@ public class HeapModifier extends HeapReader implements BLOB {
      */
     public HeapModifier(final File heapFile, final int keylength, final ByteOrder ordering) throws IOException {
         super(heapFile, keylength, ordering);
+        IndexCheckpoint.register(this);
+        HeapCompactor.register(this);
+        FileUtils.deletedelete(compactionFile());
+    }
+
+    /**
+     * create a heap file with a chosen kind of index, see HeapReader.setHashIndex()
+     * @param heapFile
+     * @param keylength
+     * @param ordering
+     * @param hashIndex if true, the index is a HashHandleMap, otherwise a RowHandleMap
+     * @throws IOException
+     */
+    public HeapModifier(final File heapFile, final int keylength, final ByteOrder ordering, final boolean hashIndex) throws IOException {
+        super(heapFile, keylength, ordering, hashIndex);
+        IndexCheckpoint.register(this);
+        HeapCompactor.register(this);
+        FileUtils.deletedelete(compactionFile());
+    }
+
+    /**
+     * write a checkpoint of the index and the gaps if the heap file was changed
+     * since the last checkpoint and there is no dump of the index for the current file
+     * @throws IOException
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        if (this.index == null || this.free == null || this.file == null || hasIndexDump()) return;
+        final long length = this.file.length();
+        if (length == this.checkpointLength) return;
+        synchronized (this.index) {
+            if (IndexCheckpoint.write(this.heapFile, this.index, this.keylength, this.free, length)) this.checkpointLength = length;
+        }
     }
 
     /**
@@ -64,12 +110,14 @@ public class HeapModifier extends HeapReader implements BLOB {
      */
     @Override
     public synchronized void clear() throws IOException {
+        this.compactionJournal = null; // stops a running compaction
         this.index.clear();
         this.free.clear();
         this.file.close();
         this.file = null;
         FileUtils.deletedelete(this.heapFile);
         super.deleteFingerprint();
+        super.deleteCheckpoint();
         this.file = new CachedFileWriter(this.heapFile);
     }
 
@@ -78,6 +126,9 @@ public class HeapModifier extends HeapReader implements BLOB {
      */
     @Override
     public synchronized void close(boolean writeIDX) {
+        IndexCheckpoint.unregister(this);
+        HeapCompactor.unregister(this);
+        this.compactionJournal = null; // stops a running compaction
         shrinkWithGapsAtEnd();
         super.close(writeIDX);
     }
@@ -124,6 +175,7 @@ public class HeapModifier extends HeapReader implements BLOB {
                 throw new IOException(this.heapFile.getName() + ": too long size " + size + " in record at " + seek);
             }
             super.deleteFingerprint();
+            super.deleteCheckpoint();
 
             // add entry to free array
             this.free.put(seek, size);
@@ -135,6 +187,7 @@ public class HeapModifier extends HeapReader implements BLOB {
 
             // remove entry from index
             this.index.remove(key);
+            journal(key);
 
             // recursively merge gaps
             tryMergeNextGaps(seek, size);
@@ -233,6 +286,7 @@ public class HeapModifier extends HeapReader implements BLOB {
                 int size = this.free.get(seek).intValue();
                 if (seek.longValue() + size + 4 != this.file.length()) return;
                 // shrink the file
+                deleteCheckpoint();
                 this.file.setLength(seek.longValue());
                 this.free.remove(seek);
             }
@@ -241,6 +295,164 @@ public class HeapModifier extends HeapReader implements BLOB {
         }
     }
 
+    /**
+     * the fragmentation of the heap file
+     * @return the fraction of the file length which is used by gaps
+     */
+    public synchronized double fragmentation() {
+        if (this.free == null || this.file == null) return 0.0d;
+        final long length = this.heapFile.length();
+        if (length == 0) return 0.0d;
+        long gaps = 0;
+        for (final Integer size: this.free.values()) gaps += 4 + size.intValue();
+        return ((double) gaps) / ((double) length);
+    }
+
+    private File compactionFile() {
+        return new File(this.heapFile.getParentFile(), this.heapFile.getName() + ".compact");
+    }
+
+    /**
+     * record a change of a key for a running compaction. Must be called by every method that
+     * changes the index or a record in the file; the caller must hold the lock of this heap.
+     * @param key
+     */
+    protected void journal(final byte[] key) {
+        if (this.compactionJournal != null) this.compactionJournal.add(key);
+    }
+
+    /**
+     * copy the live records of the heap into a fresh file in key order and replace the heap file with it.
+     * Readers and writers are only blocked while one record is copied and when the new file is swapped in;
+     * records that are changed during the copy are copied again before the swap.
+     * @param bytesPerSecond the maximum number of bytes per second that are copied, 0 for no limit
+     * @return true if the heap was compacted, false if the compaction was stopped because the heap was closed or cleared
+     * @throws IOException
+     */
+    public boolean compact(final long bytesPerSecond) throws IOException {
+        final long start = System.currentTimeMillis();
+        final File compactFile = compactionFile();
+        final TreeSet<byte[]> journal;
+        final List<byte[]> keys;
+        final double fragmentationBefore;
+        final long lengthBefore;
+        synchronized (this) {
+            if (this.index == null || this.file == null || this.compactionJournal != null) return false;
+            fragmentationBefore = fragmentation();
+            lengthBefore = this.heapFile.length();
+            keys = new ArrayList<byte[]>(this.index.size());
+            synchronized (this.index) {
+                final Iterator<byte[]> i = this.index.keys(true, null);
+                while (i.hasNext()) keys.add(i.next());
+            }
+            journal = new TreeSet<byte[]>(this.ordering);
+            this.compactionJournal = journal;
+        }
+        FileUtils.deletedelete(compactFile);
+        final CachedFileWriter target = new CachedFileWriter(compactFile);
+        final HandleMap targetIndex = newIndex(Math.max(100, keys.size()));
+        final Gap targetFree = new Gap();
+        boolean swapped = false;
+        try {
+            // copy all records in key order
+            long pos = 0;
+            for (final byte[] key: keys) {
+                final byte[] record;
+                synchronized (this) {
+                    if (this.compactionJournal != journal) return false; // closed or cleared
+                    synchronized (this.index) {
+                        record = readRecord(key);
+                    }
+                }
+                if (record == null) continue; // deleted in the meantime, the key is in the journal
+                pos = appendRecord(target, targetIndex, key, record, pos);
+
+                // keep the I/O budget
+                if (bytesPerSecond > 0) {
+                    final long wait = start + pos * 1000L / bytesPerSecond - System.currentTimeMillis();
+                    if (wait >= 10) try {Thread.sleep(wait);} catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+
+            // replay the changes and swap the files
+            synchronized (this) {
+                if (this.compactionJournal != journal) return false;
+                synchronized (this.index) {
+                    for (final byte[] key: journal) {
+                        final long old = targetIndex.get(key);
+                        if (old >= 0) {
+                            // the copy is outdated, make it a gap
+                            target.seek(old);
+                            final int reclen = target.readInt();
+                            target.write(new byte[reclen], 0, reclen);
+                            targetFree.put(old, reclen);
+                            targetIndex.remove(key);
+                        }
+                        final byte[] record = readRecord(key);
+                        if (record != null) pos = appendRecord(target, targetIndex, key, record, pos);
+                    }
+                    target.close();
+                    this.file.close();
+                    try {
+                        Files.move(compactFile.toPath(), this.heapFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (final AtomicMoveNotSupportedException e) {
+                        Files.move(compactFile.toPath(), this.heapFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    swapped = true;
+                    super.deleteFingerprint();
+                    super.deleteCheckpoint();
+                    this.file = new CachedFileWriter(this.heapFile);
+                    this.index.close();
+                    this.index = targetIndex;
+                    this.free = targetFree;
+                    this.compactionJournal = null;
+                    ConcurrentLog.info("HeapModifier", "compacted " + this.heapFile.getName() + " in " + (System.currentTimeMillis() - start) + " ms: " +
+                            lengthBefore + " -> " + this.heapFile.length() + " bytes, fragmentation " +
+                            Math.round(fragmentationBefore * 1000.0d) / 10.0d + "% -> " + Math.round(fragmentation() * 1000.0d) / 10.0d + "%, " +
+                            journal.size() + " records changed during compaction");
+                    return true;
+                }
+            }
+        } catch (final SpaceExceededException e) {
+            throw new IOException("not enough memory for the index of the compacted heap: " + e.getMessage(), e);
+        } finally {
+            if (!swapped) {
+                synchronized (this) {
+                    if (this.compactionJournal == journal) this.compactionJournal = null;
+                }
+                target.close();
+                targetIndex.close();
+                FileUtils.deletedelete(compactFile);
+            }
+        }
+    }
+
+    /**
+     * read the key and blob of a record as stored in the file; the caller must hold the locks of this and the index
+     * @return the record without the length prefix or null if the key is not in the heap file
+     */
+    private byte[] readRecord(final byte[] key) throws IOException {
+        final long seek = this.index.get(key);
+        if (seek < 0) return null;
+        this.file.seek(seek);
+        final int reclen = this.file.readInt();
+        if (reclen < this.keylength || seek + 4 + reclen > this.file.length()) throw new IOException(this.heapFile.getName() + ": bad record length " + reclen + " at " + seek);
+        final byte[] record = new byte[reclen];
+        this.file.readFully(record, 0, reclen);
+        return record;
+    }
+
+    private static long appendRecord(final Writer target, final HandleMap targetIndex, final byte[] key, final byte[] record, final long pos) throws IOException, SpaceExceededException {
+        target.seek(pos);
+        target.writeInt(record.length);
+        target.write(record);
+        targetIndex.put(key, pos);
+        return pos + 4 + record.length;
+    }
+
 	@Override
     public void insert(byte[] key, byte[] b) throws IOException {
 		throw new UnsupportedOperationException("put is not supported in BLOBHeapModifier");
@@ -277,6 +489,7 @@ public class HeapModifier extends HeapReader implements BLOB {
                 if (!MemoryControl.request(len, true)) return 0; // not enough memory available for this blob
             }
             super.deleteFingerprint();
+            super.deleteCheckpoint();
 
             // read the key
             final byte[] keyf = new byte[this.keylength];
@@ -294,6 +507,7 @@ public class HeapModifier extends HeapReader implements BLOB {
                 // even if the reduction is zero then it is still be possible that the record has been changed
                 this.file.seek(pos + 4 + key.length);
                 this.file.write(blob);
+                journal(key);
                 return 0;
             }
 
@@ -319,6 +533,7 @@ public class HeapModifier extends HeapReader implements BLOB {
 
             // add a new free entry
             this.free.put(pos + 4 + blob.length + key.length, newfreereclen);
+            journal(key);
 
             assert mem() <= m : "m = " + m + ", mem() = " + mem();
             return reduction;
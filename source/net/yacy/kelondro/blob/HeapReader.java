@@ -46,6 +46,8 @@ import net.yacy.cora.storage.HandleMap;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.LookAheadIterator;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.IndexCheckpoint;
+import net.yacy.kelondro.index.HashHandleMap;
 import net.yacy.kelondro.index.RowHandleMap;
 import net.yacy.kelondro.io.CachedFileWriter;
 import net.yacy.kelondro.io.Writer;
@@ -60,6 +62,8 @@ public class HeapReader {
 
 	private final static ConcurrentLog log = new ConcurrentLog("HeapReader");
 
+    private static boolean hashIndexDefault = false; // if true, new heaps use a HashHandleMap as index
+
     // input values
     protected int                keylength;  // the length of the primary key
     protected File               heapFile;   // the file of the heap
@@ -71,11 +75,29 @@ public class HeapReader {
     protected Gap                free;       // set of {seek, size} pairs denoting space and position of free records
     private   File               fingerprintFileIdx, fingerprintFileGap; // files with dumped indexes. Will be deleted if file is written
     private   Date               closeDate;  // records a time when the file was closed; used for debugging
+    protected long               checkpointLength; // length of the file covered by the checkpoint or -1 if there is no checkpoint
+    private   final boolean      hashIndex;  // if true, the index is a HashHandleMap, otherwise a RowHandleMap
 
     public HeapReader(
             final File heapFile,
             final int keylength,
             final ByteOrder ordering) throws IOException {
+        this(heapFile, keylength, ordering, hashIndexDefault);
+    }
+
+    /**
+     * @param heapFile
+     * @param keylength
+     * @param ordering
+     * @param hashIndex if true, the index is a HashHandleMap with constant-time lookups but expensive ordered access
+     * @throws IOException
+     */
+    public HeapReader(
+            final File heapFile,
+            final int keylength,
+            final ByteOrder ordering,
+            final boolean hashIndex) throws IOException {
+        this.hashIndex = hashIndex;
         this.ordering = ordering;
         this.heapFile = heapFile;
         this.keylength = keylength;
@@ -88,34 +110,20 @@ public class HeapReader {
         // read or initialize the index
         this.fingerprintFileIdx = null;
         this.fingerprintFileGap = null;
+        this.checkpointLength = -1;
         if (initIndexReadDump()) {
             // verify that everything worked just fine
-            // pick some elements of the index
-            Iterator<byte[]> i = this.index.keys(true, null);
-            int c = 3;
-            byte[] b, b1 = new byte[this.keylength];
-            long pos;
-            boolean ok = true;
-            while (i.hasNext() && c-- > 0) {
-                b = i.next();
-                pos = this.index.get(b);
-                this.file.seek(pos + 4);
-                this.file.readFully(b1, 0, b1.length);
-                if (!this.ordering.equal(b, b1)) {
-                    ok = false;
-                    break;
-                }
-            }
-            if (!ok) {
+            if (!verifyIndex()) {
                 log.warn("verification of idx file for " + heapFile.toString() + " failed, re-building index");
                 initIndexReadFromHeap();
             } else {
                 log.info("using a dump of the index of " + heapFile.toString() + ".");
             }
-        } else {
-            // if we did not have a dump, create a new index
+        } else if (!initIndexReadCheckpoint()) {
+            // if we did not have a dump or a checkpoint, create a new index
             initIndexReadFromHeap();
         }
+        if (this.checkpointLength < 0) IndexCheckpoint.delete(this.heapFile);
 
         // merge gaps that follow directly
         mergeFreeEntries();
@@ -127,6 +135,27 @@ public class HeapReader {
         // the file will be opened again automatically when the next access to it comes.
     }
 
+    /**
+     * set the kind of index for heaps which are opened after this call with the default constructor.
+     * A HashHandleMap index makes the access to single blobs faster but the ordered iteration
+     * of keys slower, because the keys must be sorted for each iteration.
+     * @param hashIndex if true, heaps use a HashHandleMap, otherwise a RowHandleMap
+     */
+    public static void setHashIndex(final boolean hashIndex) {
+        hashIndexDefault = hashIndex;
+    }
+
+    /**
+     * create an empty index of the kind that was chosen for this heap
+     * @param initialSpace
+     * @return a new HashHandleMap or RowHandleMap
+     */
+    protected HandleMap newIndex(final int initialSpace) {
+        return this.hashIndex ?
+                new HashHandleMap(this.keylength, this.ordering, 8, initialSpace, this.heapFile.getAbsolutePath()) :
+                new RowHandleMap(this.keylength, this.ordering, 8, initialSpace, this.heapFile.getAbsolutePath());
+    }
+
     public long mem() {
         return this.index.mem(); // don't add the memory for free here since then the asserts for memory management don't work
     }
@@ -176,7 +205,9 @@ public class HeapReader {
         // there is an index and a gap file:
         // read the index file:
         try {
-            this.index = new RowHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx);
+            this.index = this.hashIndex ?
+                    new HashHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx) :
+                    new RowHandleMap(this.keylength, this.ordering, 8, this.fingerprintFileIdx);
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
             return false;
@@ -205,6 +236,111 @@ public class HeapReader {
         return !this.index.isEmpty();
     }
 
+    /**
+     * pick some elements of the index and check if the keys can be found in the file
+     * @return true if all checked keys are at their positions
+     * @throws IOException
+     */
+    private boolean verifyIndex() throws IOException {
+        Iterator<byte[]> i = this.index.keys(true, null);
+        int c = 3;
+        byte[] b, b1 = new byte[this.keylength];
+        long pos;
+        while (i.hasNext() && c-- > 0) {
+            b = i.next();
+            pos = this.index.get(b);
+            this.file.seek(pos + 4);
+            this.file.readFully(b1, 0, b1.length);
+            if (!this.ordering.equal(b, b1)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * read the index and the gaps from a checkpoint and add the records which
+     * have been appended to the heap file after the checkpoint was written
+     * @return true if the checkpoint could be used
+     * @throws IOException
+     */
+    private boolean initIndexReadCheckpoint() throws IOException {
+        if (!IndexCheckpoint.exists(this.heapFile)) return false;
+        final long length = this.file.length();
+        this.index = newIndex(100);
+        this.free = new Gap();
+        long covered = -1;
+        try {
+            covered = IndexCheckpoint.read(this.heapFile, this.index, this.free);
+        } catch (final IOException e) {
+            log.warn("cannot use checkpoint of " + this.heapFile.toString() + ": " + e.getMessage());
+        } catch (final SpaceExceededException e) {
+            log.warn("cannot use checkpoint of " + this.heapFile.toString() + ": " + e.getMessage());
+        }
+        if (covered < 0 || covered > length || !verifyIndex() || !replayCheckpointTail(covered, length)) {
+            log.warn("checkpoint of " + this.heapFile.toString() + " does not fit to the heap, re-building index");
+            this.index.close();
+            this.index = null;
+            this.free = null;
+            IndexCheckpoint.delete(this.heapFile);
+            return false;
+        }
+        this.checkpointLength = covered;
+        log.info("using a checkpoint of the index of " + this.heapFile.toString() + ", " + (length - covered) + " bytes appended since then.");
+        return true;
+    }
+
+    /**
+     * read the records after the covered part of the heap file into the index and gaps.
+     * In contrast to initIndexReadFromHeap() nothing is repaired here, any inconsistency
+     * lets the checkpoint fail
+     * @param covered length of the file covered by the checkpoint
+     * @param length length of the file
+     * @return true if all appended records could be read
+     * @throws IOException
+     */
+    private boolean replayCheckpointTail(final long covered, final long length) throws IOException {
+        long seek = covered;
+        int reclen;
+        byte[] key;
+        while (seek < length) {
+            if (seek + 4 + this.keylength > length) return false;
+            this.file.seek(seek);
+            reclen = this.file.readInt();
+            if (reclen < this.keylength || seek + 4 + reclen > length) return false;
+            key = new byte[this.keylength];
+            this.file.readFully(key, 0, key.length);
+            if (key[0] == 0) {
+                this.free.put(seek, reclen);
+            } else if (this.ordering.wellformed(key)) {
+                try {
+                    this.index.put(key, seek);
+                } catch (final SpaceExceededException e) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+            seek += 4L + reclen;
+        }
+        return true;
+    }
+
+    /**
+     * delete the checkpoint: this must happen before the heap file is changed in
+     * any other way than appending new records
+     */
+    protected void deleteCheckpoint() {
+        if (this.checkpointLength < 0) return;
+        IndexCheckpoint.delete(this.heapFile);
+        this.checkpointLength = -1;
+    }
+
+    /**
+     * @return true if there is a dump of the index that fits to the current heap file
+     */
+    protected boolean hasIndexDump() {
+        return this.fingerprintFileIdx != null && this.fingerprintFileIdx.exists();
+    }
+
     /**
      * deletion of the fingerprint: this should happen if the heap is written or entries are deleted
      * if the files are not deleted then it may be possible that they are not used anyway because the
@@ -252,7 +388,9 @@ public class HeapReader {
         log.info("generating index for " + this.heapFile.toString() + ", " + (this.file.length() / 1024 / 1024) + " MB. Please wait.");
 
         this.free = new Gap();
-        RowHandleMap.initDataConsumer indexready = RowHandleMap.asynchronusInitializer(this.name() + ".initializer", this.keylength, this.ordering, 8, Math.max(10, (int) (Runtime.getRuntime().freeMemory() / (10 * 1024 * 1024))));
+        // a hash index is filled directly; the RowHandleMap is filled concurrently because it must be sorted at the end
+        final HandleMap hashindex = this.hashIndex ? new HashHandleMap(this.keylength, this.ordering, 8, (int) Math.min(Integer.MAX_VALUE, this.file.length() / 1024), this.heapFile.getAbsolutePath()) : null;
+        RowHandleMap.initDataConsumer indexready = this.hashIndex ? null : RowHandleMap.asynchronusInitializer(this.name() + ".initializer", this.keylength, this.ordering, 8, Math.max(10, (int) (Runtime.getRuntime().freeMemory() / (10 * 1024 * 1024))));
         byte[] key = new byte[this.keylength];
         int reclen;
         long seek = 0;
@@ -287,7 +425,13 @@ public class HeapReader {
                 if (reclen > 0) this.free.put(seek, reclen);
             } else {
                 if (this.ordering.wellformed(key)) {
-                    indexready.consume(key, seek);
+                    if (hashindex == null) {
+                        indexready.consume(key, seek);
+                    } else try {
+                        hashindex.putUnique(key, seek);
+                    } catch (final SpaceExceededException e) {
+                        throw new IOException("cannot create index for " + this.heapFile.toString() + ": " + e.getMessage());
+                    }
                     key = new byte[this.keylength];
                 } else {
                     // free the lost space
@@ -302,15 +446,19 @@ public class HeapReader {
             seek += 4L + reclen;
         }
         }
-        indexready.finish();
+        if (hashindex != null) {
+            this.index = hashindex;
+        } else {
+            indexready.finish();
 
-        // finish the index generation
-        try {
-            this.index = indexready.result();
-        } catch (final InterruptedException e) {
-        	ConcurrentLog.logException(e);
-        } catch (final ExecutionException e) {
-        	ConcurrentLog.logException(e);
+            // finish the index generation
+            try {
+                this.index = indexready.result();
+            } catch (final InterruptedException e) {
+                ConcurrentLog.logException(e);
+            } catch (final ExecutionException e) {
+                ConcurrentLog.logException(e);
+            }
         }
         log.info("finished index generation for " + this.heapFile.toString() + ", " + this.index.size() + " entries, " + this.free.size() + " gaps.");
     }
@@ -329,6 +477,7 @@ public class HeapReader {
                 // check if they follow directly
                 if (lastFree.getKey() + lastFree.getValue() + 4 == nextFree.getKey()) {
                     // merge those records
+                    deleteCheckpoint();
                     this.file.seek(lastFree.getKey());
                     lastFree.setValue(lastFree.getValue() + nextFree.getValue() + 4); // this updates also the free map
                     this.file.writeInt(lastFree.getValue());
@@ -597,6 +746,33 @@ public class HeapReader {
         }
     }
 
+    /**
+     * read the first bytes of a BLOB; this avoids loading a large BLOB if only a header is needed
+     * @param key
+     * @param n the maximum number of bytes to read
+     * @return the first min(n, length) bytes of the BLOB or null if the BLOB does not exist
+     * @throws IOException
+     */
+    public byte[] head(byte[] key, final int n) throws IOException {
+        assert (this.index != null) : "index == null; closeDate=" + this.closeDate + ", now=" + new Date();
+        if (this.index == null) return null;
+        key = normalizeKey(key);
+
+        synchronized (this.index) {
+            final long pos = this.index.get(key);
+            if (pos < 0) return null;
+
+            // access the file and read the size and the beginning of the container
+            this.file.seek(pos);
+            final int len = this.file.readInt() - this.keylength;
+            if (len < 0) return null;
+            this.file.seek(pos + 4 + this.keylength);
+            final byte[] head = new byte[Math.min(n, len)];
+            this.file.readFully(head, 0, head.length);
+            return head;
+        }
+    }
+
     /**
      * close the BLOB table
      */
@@ -735,8 +911,20 @@ public class HeapReader {
         private DataInputStream is;
         int keylen;
         private final File blobFile;
+        private final int headLength;
 
         public entries(final File blobFile, final int keylen) throws IOException {
+            this(blobFile, keylen, Integer.MAX_VALUE);
+        }
+
+        /**
+         * iterate the entries of a heap file but read only the first bytes of every BLOB
+         * @param blobFile
+         * @param keylen
+         * @param headLength the maximum number of bytes which are read from every BLOB, the remaining bytes are skipped
+         * @throws IOException
+         */
+        public entries(final File blobFile, final int keylen, final int headLength) throws IOException {
             if (!(blobFile.exists())) throw new IOException("file " + blobFile + " does not exist");
             FileInputStream fis = null;
             try {
@@ -752,6 +940,7 @@ public class HeapReader {
             }
             this.keylen = keylen;
             this.blobFile = blobFile;
+            this.headLength = headLength;
         }
 
         @Override
@@ -760,7 +949,7 @@ public class HeapReader {
             if (this.is != null) try { this.is.close(); } catch (final IOException e) {}
             this.is = null;
             try {
-                return new entries(this.blobFile, this.keylen);
+                return new entries(this.blobFile, this.keylen, this.headLength);
             } catch (final IOException e) {
             	ConcurrentLog.logException(e);
                 return null;
@@ -806,11 +995,16 @@ public class HeapReader {
                         return null;    // a strange case that can only happen in case of corrupted data
                     }
                     try {
-                        payload = new byte[len - this.keylen]; // the remaining record entries
+                        payload = new byte[Math.min(len - this.keylen, this.headLength)]; // the remaining record entries
                         if (this.is.read(payload) < payload.length) {
                             try {this.is.close();} catch (final IOException e) {}
                             return null;
                         }
+                        final int skip = len - this.keylen - payload.length;
+                        if (skip > 0 && this.is.skipBytes(skip) != skip) {
+                            try {this.is.close();} catch (final IOException e) {}
+                            return null;
+                        }
                         return new entry(key, payload);
                     } catch (final OutOfMemoryError ee) {
                         // the allocation of memory for the payload may fail
@@ -43,6 +43,7 @@ public final class HeapWriter {
 
     private final static ConcurrentLog log = new ConcurrentLog("HeapWriter");
     public final static byte[] ZERO = new byte[]{0};
+    public final static int THROTTLE_SLICE = 64 * 1024; // number of written bytes between two calls of a throttle
 
     private final int          keylength;     // the length of the primary key
     private HandleMap          index;         // key/seek relation for used records
@@ -50,6 +51,8 @@ public final class HeapWriter {
     private final File         heapFileREADY; // the final file of the heap when the file is closed
     private DataOutputStream   os;            // the output stream where the BLOB is written
     private long               seek;          // the current write position
+    private Throttle           throttle;      // limits the write rate, may be null
+    private long               unthrottled;   // bytes written since the last call to the throttle
     //private HashSet<String>    doublecheck;// only for testing
 
     /*
@@ -100,6 +103,28 @@ public final class HeapWriter {
         	throw e;
         }
         this.seek = 0;
+        this.throttle = null;
+        this.unthrottled = 0;
+    }
+
+    /**
+     * a limit of the rate at which records are written
+     */
+    public interface Throttle {
+
+        /**
+         * called after a slice of THROTTLE_SLICE or more bytes was written; may block to slow down the writer
+         * @param bytes the number of bytes which were written since the last call
+         */
+        public void transfer(long bytes);
+
+    }
+
+    /**
+     * @param throttle a throttle which is called whenever a slice of the file was written, or null
+     */
+    public void setThrottle(final Throttle throttle) {
+        this.throttle = throttle;
     }
 
     /**
@@ -124,6 +149,13 @@ public final class HeapWriter {
         this.os.write(blob);
         this.seek += chunkl + 4;
         //os.flush(); // necessary? may cause bad IO performance :-(
+        if (this.throttle != null) {
+            this.unthrottled += chunkl + 4;
+            if (this.unthrottled >= THROTTLE_SLICE) {
+                this.throttle.transfer(this.unthrottled);
+                this.unthrottled = 0;
+            }
+        }
     }
 
     /**
@@ -180,7 +212,7 @@ public final class HeapWriter {
         FileUtils.deletedelete(f);
         for (String s: l) {
             if (s.startsWith(n) &&
-                (s.endsWith(".idx") || s.endsWith(".gap")))
+                (s.endsWith(".idx") || s.endsWith(".gap") || s.endsWith(".bloom")))
                FileUtils.deletedelete(new File(p, s));
         }
     }
@@ -50,7 +50,8 @@ public class Stack {
      * @throws IOException
      */
     public Stack(final File stackFile) throws IOException {
-        this.stack = new Heap(stackFile, 8, NaturalOrder.naturalOrder, 0);
+        // the stack needs the smallest and largest key for each pop, therefore the index must be ordered
+        this.stack = new Heap(stackFile, 8, NaturalOrder.naturalOrder, 0, false);
         this.lastHandle = 0;
     }
 
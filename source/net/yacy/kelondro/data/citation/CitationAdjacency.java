@@ -0,0 +1,569 @@
+/**
+ *  CitationAdjacency
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.data.citation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A compact store of the citation graph: for every cited url the sorted list of the urls which link to it.
+ * A url hash is split into its url part (the first six characters) and its host part (the last six characters),
+ * both are decoded into 36 bit numbers. The referrers of a target are sorted by host and url and written
+ * delta encoded as varints in one byte array, with one offset for every target (compressed sparse rows).
+ * For every target the number of host-internal and host-external referrers and the number of external hosts
+ * are stored, so these numbers are available with one binary search and without decoding any referrer.
+ *
+ * New links are collected in a small buffer which is written as a new block when it is full or when the
+ * store is read. Blocks of a similar size are merged, so there are only a logarithmic number of blocks.
+ * Removed targets are masked in all blocks which existed at the time of the removal until these blocks are merged.
+ * At close the blocks are merged into one which is written to a file; the file is deleted when it is read again,
+ * so a missing file after a crash tells the owner to build the store again from the citation index.
+ */
+public final class CitationAdjacency {
+
+    private static final ConcurrentLog log = new ConcurrentLog("CitationAdjacency");
+    private static final int MAGIC = 0x43534131; // "CSA1"
+    private static final int hashLength = 12;
+    public static int bufferMaxEdges = 65536;
+
+    private final File file;
+    private final boolean restored;
+    private long[] buffer; // four numbers for every link: target host, target url, referrer host, referrer url
+    private int bufferSize; // number of links in the buffer
+    private Block[] blocks; // from old to new
+    private final Map<String, Long> removed; // mapping from removed targets to the newest block sequence at the time of removal
+    private long sequence;
+
+    /**
+     * the numbers of referrers of a target
+     */
+    public static final class Counts {
+        public final int internal, external, externalHosts;
+        private Counts(final int internal, final int external, final int externalHosts) {
+            this.internal = internal;
+            this.external = external;
+            this.externalHosts = externalHosts;
+        }
+        public int all() {
+            return this.internal + this.external;
+        }
+    }
+
+    private static final Counts NONE = new Counts(0, 0, 0);
+
+    /**
+     * open a citation store
+     * @param file the file where the store is written at close; if it exists, the store is read from it and the file is deleted
+     */
+    public CitationAdjacency(final File file) {
+        this.file = file;
+        this.buffer = new long[1024];
+        this.bufferSize = 0;
+        this.blocks = new Block[0];
+        this.removed = new ConcurrentHashMap<String, Long>();
+        this.sequence = 0;
+        boolean restored = false;
+        if (file.exists()) {
+            DataInputStream is = null;
+            try {
+                is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+                if (is.readInt() == MAGIC) {
+                    final Block block = Block.read(is, ++this.sequence);
+                    if (block.size() > 0) this.blocks = new Block[]{block};
+                    restored = true;
+                }
+            } catch (final IOException e) {
+                log.warn("cannot read " + file + ", the citation store must be built again: " + e.getMessage());
+            } finally {
+                if (is != null) try {is.close();} catch (final IOException e) {}
+            }
+            FileUtils.deletedelete(file);
+        }
+        this.restored = restored;
+    }
+
+    /**
+     * @return true if the store was read from its file; if false, the owner should add all citations again
+     */
+    public boolean restored() {
+        return this.restored;
+    }
+
+    /**
+     * add the links of a document
+     * @param source the url hash of the linking document
+     * @param targets the url hashes of the link targets
+     */
+    public synchronized void add(final byte[] source, final Collection<byte[]> targets) {
+        if (!wellformed(source)) return;
+        final long sh = host(source), su = url(source);
+        for (final byte[] target: targets) {
+            if (wellformed(target)) append(host(target), url(target), sh, su);
+        }
+    }
+
+    /**
+     * add the referrers of one target
+     * @param target the url hash of the link target
+     * @param sources the url hashes of the linking documents
+     */
+    public synchronized void addReferrers(final byte[] target, final Collection<byte[]> sources) {
+        if (!wellformed(target)) return;
+        final long th = host(target), tu = url(target);
+        for (final byte[] source: sources) {
+            if (wellformed(source)) append(th, tu, host(source), url(source));
+        }
+    }
+
+    private void append(final long th, final long tu, final long sh, final long su) {
+        if (this.bufferSize * 4 == this.buffer.length) this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        final int p = this.bufferSize++ * 4;
+        this.buffer[p] = th;
+        this.buffer[p + 1] = tu;
+        this.buffer[p + 2] = sh;
+        this.buffer[p + 3] = su;
+        if (this.bufferSize >= bufferMaxEdges) flush();
+    }
+
+    /**
+     * @param target the url hash of a link target
+     * @return the numbers of host-internal and host-external referrers and of external hosts which link to the target
+     */
+    public synchronized Counts count(final byte[] target) {
+        if (!wellformed(target)) return NONE;
+        flush();
+        final long th = host(target), tu = url(target);
+        if (this.blocks.length == 1 && this.removed.isEmpty()) {
+            // the common case after a restart or a merge: the numbers are stored
+            final Block block = this.blocks[0];
+            final int i = block.find(th, tu);
+            return i < 0 ? NONE : block.counts(i);
+        }
+        final long[] sources = sources(target, th, tu);
+        return sources.length == 0 ? NONE : counts(th, sources, sources.length / 2);
+    }
+
+    /**
+     * @param target the url hash of a link target
+     * @return the url hashes of all documents which link to the target, ordered by host
+     */
+    public synchronized List<byte[]> referrers(final byte[] target) {
+        if (!wellformed(target)) return new ArrayList<byte[]>(0);
+        flush();
+        return hashes(sources(target, host(target), url(target)));
+    }
+
+    /**
+     * remove all links to a target
+     * @param target the url hash of the link target
+     * @return the url hashes of the documents which linked to the target
+     */
+    public synchronized List<byte[]> remove(final byte[] target) {
+        if (!wellformed(target)) return new ArrayList<byte[]>(0);
+        flush();
+        final long[] sources = sources(target, host(target), url(target));
+        if (sources.length > 0) this.removed.put(ASCII.String(target), this.sequence);
+        return hashes(sources);
+    }
+
+    /**
+     * @return the number of stored links; links which were added several times are counted once for every block
+     */
+    public synchronized long size() {
+        long size = this.bufferSize;
+        for (final Block block: this.blocks) size += block.edges;
+        return size;
+    }
+
+    public synchronized void clear() {
+        this.bufferSize = 0;
+        this.blocks = new Block[0];
+        this.removed.clear();
+    }
+
+    /**
+     * merge all blocks and write them to the file of the store
+     */
+    public synchronized void close() {
+        flush();
+        Block block = this.blocks.length == 0 ? new BlockWriter().finish(0) : this.blocks[0];
+        for (int i = 1; i < this.blocks.length; i++) block = merge(block, this.blocks[i]);
+        if (this.blocks.length == 1 && !this.removed.isEmpty()) block = merge(block, new BlockWriter().finish(this.sequence));
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".prt");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+            os.writeInt(MAGIC);
+            block.write(os);
+            os.close();
+            os = null;
+            if (this.file.exists()) FileUtils.deletedelete(this.file);
+            if (!tmp.renameTo(this.file)) log.warn("cannot rename " + tmp + " to " + this.file);
+        } catch (final IOException e) {
+            log.warn("cannot write " + this.file + ": " + e.getMessage());
+        } finally {
+            if (os != null) try {os.close();} catch (final IOException e) {}
+        }
+        this.bufferSize = 0;
+        this.blocks = new Block[0];
+        this.removed.clear();
+    }
+
+    /**
+     * write the buffer as a new block and merge the newest blocks as long as they have a similar size
+     */
+    private void flush() {
+        if (this.bufferSize == 0) return;
+        final long[] edges = this.buffer;
+        final Integer[] order = new Integer[this.bufferSize];
+        for (int i = 0; i < order.length; i++) order[i] = i * 4;
+        Arrays.sort(order, (a, b) -> {
+            for (int k = 0; k < 4; k++) {
+                final int c = Long.compare(edges[a + k], edges[b + k]);
+                if (c != 0) return c;
+            }
+            return 0;
+        });
+        final BlockWriter writer = new BlockWriter();
+        long[] sources = new long[16];
+        int n = 0;
+        for (int i = 0; i < order.length; i++) {
+            final int p = order[i];
+            if (n > 0 && (edges[p] != writer.th || edges[p + 1] != writer.tu)) {
+                writer.add(sources, n);
+                n = 0;
+            }
+            if (n == 0) {
+                writer.th = edges[p];
+                writer.tu = edges[p + 1];
+            } else if (sources[n * 2 - 2] == edges[p + 2] && sources[n * 2 - 1] == edges[p + 3]) {
+                continue; // double link
+            }
+            if (n * 2 == sources.length) sources = Arrays.copyOf(sources, sources.length * 2);
+            sources[n * 2] = edges[p + 2];
+            sources[n * 2 + 1] = edges[p + 3];
+            n++;
+        }
+        if (n > 0) writer.add(sources, n);
+        this.bufferSize = 0;
+
+        Block[] b = Arrays.copyOf(this.blocks, this.blocks.length + 1);
+        b[b.length - 1] = writer.finish(++this.sequence);
+        while (b.length >= 2 && b[b.length - 1].edges * 2 >= b[b.length - 2].edges) {
+            final Block merged = merge(b[b.length - 2], b[b.length - 1]);
+            b = Arrays.copyOf(b, b.length - 1);
+            b[b.length - 1] = merged;
+        }
+        this.blocks = b;
+
+        // masks of removed targets are obsolete when all blocks are newer than the removal
+        if (!this.removed.isEmpty()) {
+            long oldest = Long.MAX_VALUE;
+            for (final Block block: this.blocks) oldest = Math.min(oldest, block.sequence);
+            final Iterator<Long> i = this.removed.values().iterator();
+            while (i.hasNext()) if (i.next().longValue() < oldest) i.remove();
+        }
+    }
+
+    private boolean masked(final Block block, final int i) {
+        if (this.removed.isEmpty()) return false;
+        final Long sequence = this.removed.get(ASCII.String(hash(block.targets[i * 2], block.targets[i * 2 + 1])));
+        return sequence != null && block.sequence <= sequence.longValue();
+    }
+
+    private boolean masked(final Block block, final String target) {
+        final Long sequence = this.removed.get(target);
+        return sequence != null && block.sequence <= sequence.longValue();
+    }
+
+    /**
+     * merge two blocks; links of removed targets are dropped
+     * @param a the older block
+     * @param b the newer block
+     * @return a block with the sequence number of the newer block
+     */
+    private Block merge(final Block a, final Block b) {
+        final BlockWriter writer = new BlockWriter();
+        final int as = a.size(), bs = b.size();
+        int i = 0, j = 0;
+        while (i < as || j < bs) {
+            final int c = i >= as ? 1 : j >= bs ? -1 : compare(a.targets, i, b.targets, j);
+            final long[] sa = c <= 0 && !masked(a, i) ? a.sources(i) : null;
+            final long[] sb = c >= 0 && !masked(b, j) ? b.sources(j) : null;
+            if (c <= 0) {writer.th = a.targets[i * 2]; writer.tu = a.targets[i * 2 + 1];}
+            else {writer.th = b.targets[j * 2]; writer.tu = b.targets[j * 2 + 1];}
+            if (c <= 0) i++;
+            if (c >= 0) j++;
+            final long[] sources = union(sa, sb);
+            if (sources.length > 0) writer.add(sources, sources.length / 2);
+        }
+        return writer.finish(Math.max(a.sequence, b.sequence));
+    }
+
+    /**
+     * @return the union of the referrers of one target in all blocks, sorted and without doubles
+     */
+    private long[] sources(final byte[] target, final long th, final long tu) {
+        final String key = this.removed.isEmpty() ? null : ASCII.String(target);
+        long[] sources = null;
+        for (final Block block: this.blocks) {
+            final int i = block.find(th, tu);
+            if (i < 0 || (key != null && masked(block, key))) continue;
+            sources = union(sources, block.sources(i));
+        }
+        return sources == null ? new long[0] : sources;
+    }
+
+    private static long[] union(final long[] a, final long[] b) {
+        if (a == null) return b == null ? new long[0] : b;
+        if (b == null) return a;
+        final long[] u = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            final int c = i >= a.length ? 1 : j >= b.length ? -1 : compare(a, i / 2, b, j / 2);
+            if (c <= 0) {u[k++] = a[i]; u[k++] = a[i + 1];}
+            else {u[k++] = b[j]; u[k++] = b[j + 1];}
+            if (c <= 0) i += 2;
+            if (c >= 0) j += 2;
+        }
+        return k == u.length ? u : Arrays.copyOf(u, k);
+    }
+
+    private static int compare(final long[] a, final int i, final long[] b, final int j) {
+        final int c = Long.compare(a[i * 2], b[j * 2]);
+        return c != 0 ? c : Long.compare(a[i * 2 + 1], b[j * 2 + 1]);
+    }
+
+    private static Counts counts(final long th, final long[] sources, final int n) {
+        int internal = 0, external = 0, externalHosts = 0;
+        for (int i = 0; i < n; i++) {
+            final long sh = sources[i * 2];
+            if (sh == th) {
+                internal++;
+            } else {
+                if (i == 0 || sources[i * 2 - 2] != sh) externalHosts++; // the referrers are sorted by host
+                external++;
+            }
+        }
+        return new Counts(internal, external, externalHosts);
+    }
+
+    private static List<byte[]> hashes(final long[] sources) {
+        final List<byte[]> hashes = new ArrayList<byte[]>(sources.length / 2);
+        for (int i = 0; i < sources.length; i += 2) hashes.add(hash(sources[i], sources[i + 1]));
+        return hashes;
+    }
+
+    private static boolean wellformed(final byte[] hash) {
+        return hash != null && hash.length == hashLength && Base64Order.enhancedCoder.wellformed(hash);
+    }
+
+    private static long host(final byte[] hash) {
+        return Base64Order.enhancedCoder.decodeLong(hash, 6, 6);
+    }
+
+    private static long url(final byte[] hash) {
+        return Base64Order.enhancedCoder.decodeLong(hash, 0, 6);
+    }
+
+    private static byte[] hash(final long host, final long url) {
+        final byte[] hash = new byte[hashLength];
+        Base64Order.enhancedCoder.encodeLong(url, hash, 0, 6);
+        Base64Order.enhancedCoder.encodeLong(host, hash, 6, 6);
+        return hash;
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(final byte[] b, final int[] p) {
+        long v = 0;
+        int shift = 0;
+        while (p[0] < b.length) {
+            final byte x = b[p[0]++];
+            v |= ((long) (x & 0x7F)) << shift;
+            if ((x & 0x80) == 0) return v;
+            shift += 7;
+        }
+        return v;
+    }
+
+    /**
+     * an immutable set of targets, sorted by host and url, with their referrers
+     */
+    private static final class Block {
+        private final long sequence;
+        private final long[] targets; // two numbers for every target: host and url
+        private final int[] offsets; // start of the referrers of every target in data, plus the end of data
+        private final int[] counts; // three numbers for every target: internal, external and external host referrers
+        private final byte[] data;
+        private final long edges;
+
+        private Block(final long sequence, final long[] targets, final int[] offsets, final int[] counts, final byte[] data) {
+            this.sequence = sequence;
+            this.targets = targets;
+            this.offsets = offsets;
+            this.counts = counts;
+            this.data = data;
+            long edges = 0;
+            for (int i = 0; i < counts.length; i += 3) edges += counts[i] + counts[i + 1];
+            this.edges = edges;
+        }
+
+        private int size() {
+            return this.targets.length / 2;
+        }
+
+        private int find(final long th, final long tu) {
+            int low = 0, high = size() - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                int c = Long.compare(this.targets[mid * 2], th);
+                if (c == 0) c = Long.compare(this.targets[mid * 2 + 1], tu);
+                if (c < 0) low = mid + 1;
+                else if (c > 0) high = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        private Counts counts(final int i) {
+            return new Counts(this.counts[i * 3], this.counts[i * 3 + 1], this.counts[i * 3 + 2]);
+        }
+
+        private long[] sources(final int i) {
+            final int n = this.counts[i * 3] + this.counts[i * 3 + 1];
+            final long[] sources = new long[n * 2];
+            final int[] p = new int[]{this.offsets[i]};
+            long sh = 0, su = 0;
+            for (int k = 0; k < n; k++) {
+                final long dh = readVarint(this.data, p);
+                if (dh == 0) {
+                    su += readVarint(this.data, p);
+                } else {
+                    sh += dh;
+                    su = readVarint(this.data, p);
+                }
+                sources[k * 2] = sh;
+                sources[k * 2 + 1] = su;
+            }
+            return sources;
+        }
+
+        private void write(final DataOutputStream os) throws IOException {
+            os.writeInt(size());
+            for (final long t: this.targets) os.writeLong(t);
+            for (final int o: this.offsets) os.writeInt(o);
+            for (final int c: this.counts) os.writeInt(c);
+            os.writeInt(this.data.length);
+            os.write(this.data);
+        }
+
+        private static Block read(final DataInputStream is, final long sequence) throws IOException {
+            final int size = is.readInt();
+            final long[] targets = new long[size * 2];
+            for (int i = 0; i < targets.length; i++) targets[i] = is.readLong();
+            final int[] offsets = new int[size + 1];
+            for (int i = 0; i < offsets.length; i++) offsets[i] = is.readInt();
+            final int[] counts = new int[size * 3];
+            for (int i = 0; i < counts.length; i++) counts[i] = is.readInt();
+            final byte[] data = new byte[is.readInt()];
+            is.readFully(data);
+            return new Block(sequence, targets, offsets, counts, data);
+        }
+    }
+
+    /**
+     * collects targets in ascending order and writes their referrers delta encoded
+     */
+    private static final class BlockWriter {
+        private long th, tu; // the current target
+        private long[] targets = new long[64];
+        private int[] offsets = new int[33];
+        private int[] counts = new int[96];
+        private int size = 0;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        /**
+         * write the referrers of the current target
+         * @param sources referrer host and url for every referrer, sorted and without doubles
+         * @param n the number of referrers
+         */
+        private void add(final long[] sources, final int n) {
+            if (this.size * 2 == this.targets.length) {
+                this.targets = Arrays.copyOf(this.targets, this.targets.length * 2);
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2 + 1);
+                this.counts = Arrays.copyOf(this.counts, this.counts.length * 2);
+            }
+            this.targets[this.size * 2] = this.th;
+            this.targets[this.size * 2 + 1] = this.tu;
+            this.offsets[this.size] = this.data.size();
+            long ph = 0, pu = 0;
+            for (int i = 0; i < n; i++) {
+                final long sh = sources[i * 2], su = sources[i * 2 + 1];
+                writeVarint(this.data, sh - ph);
+                writeVarint(this.data, sh == ph ? su - pu : su);
+                ph = sh;
+                pu = su;
+            }
+            final Counts c = CitationAdjacency.counts(this.th, sources, n);
+            this.counts[this.size * 3] = c.internal;
+            this.counts[this.size * 3 + 1] = c.external;
+            this.counts[this.size * 3 + 2] = c.externalHosts;
+            this.size++;
+        }
+
+        private Block finish(final long sequence) {
+            final int[] offsets = Arrays.copyOf(this.offsets, this.size + 1);
+            offsets[this.size] = this.data.size();
+            return new Block(sequence, Arrays.copyOf(this.targets, this.size * 2), offsets, Arrays.copyOf(this.counts, this.size * 3), this.data.toByteArray());
+        }
+    }
+}
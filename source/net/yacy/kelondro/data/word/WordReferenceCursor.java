@@ -0,0 +1,218 @@
+/**
+ *  WordReferenceCursor
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.data.word;
+
+import java.util.Collection;
+
+import net.yacy.cora.date.MicroDate;
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.kelondro.index.Row.Entry;
+import net.yacy.kelondro.index.RowCollection;
+import net.yacy.kelondro.rwi.AbstractReference;
+import net.yacy.kelondro.rwi.Reference;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * A flyweight word reference which is moved over the rows of a reference container.
+ * All values are read from the row bytes of the container, so ranking computations
+ * on all references of a container do not create objects for each reference.
+ * The arrays and the Bitfield returned by urlhash(), getLanguage() and flags() are
+ * re-used: they are valid until the cursor is moved. Use vars() to get a reference
+ * object which can be stored.
+ */
+public final class WordReferenceCursor extends AbstractReference implements WordReference {
+
+    private final RowCollection.Cursor cursor;
+    private final byte[] urlhash, language, flagbytes;
+    private final Bitfield flags;
+
+    public WordReferenceCursor(final ReferenceContainer<WordReference> container) {
+        assert container.row().objectsize == WordReferenceRow.urlEntryRow.objectsize;
+        this.cursor = container.cursor();
+        this.urlhash = new byte[WordReferenceRow.urlEntryRow.width(WordReferenceRow.col_urlhash)];
+        this.language = new byte[WordReferenceRow.urlEntryRow.width(WordReferenceRow.col_language)];
+        this.flagbytes = new byte[WordReferenceRow.urlEntryRow.width(WordReferenceRow.col_flags)];
+        this.flags = new Bitfield(this.flagbytes);
+    }
+
+    /**
+     * move the cursor in front of the first reference
+     */
+    public void reset() {
+        this.cursor.reset();
+    }
+
+    /**
+     * move the cursor to the next reference
+     * @return false if there is no next reference
+     */
+    public boolean next() {
+        if (!this.cursor.next()) return false;
+        this.cursor.writeToArray(WordReferenceRow.col_flags, this.flagbytes, 0);
+        return true;
+    }
+
+    public int size() {
+        return this.cursor.size();
+    }
+
+    /**
+     * @return a reference object with the values of the current reference
+     */
+    public WordReferenceVars vars(final boolean local) {
+        return new WordReferenceVars(new WordReferenceRow(this.cursor.get()), local);
+    }
+
+    @Override
+    public Entry toKelondroEntry() {
+        return this.cursor.get();
+    }
+
+    @Override
+    public String toPropertyForm() {
+        return new WordReferenceRow(this.cursor.get()).toPropertyForm();
+    }
+
+    @Override
+    public byte[] urlhash() {
+        this.cursor.writeToArray(WordReferenceRow.col_urlhash, this.urlhash, 0);
+        return this.urlhash;
+    }
+
+    @Override
+    public String hosthash() {
+        return ASCII.String(urlhash(), 6, 6);
+    }
+
+    @Override
+    public int virtualAge() {
+        return (int) this.cursor.getColLong(WordReferenceRow.col_lastModified);
+    }
+
+    @Override
+    public long lastModified() {
+        return MicroDate.reverseMicroDateDays(this.cursor.getColLong(WordReferenceRow.col_lastModified));
+    }
+
+    @Override
+    public int hitcount() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_hitcount);
+    }
+
+    @Override
+    public int posintext() {
+        return (int) this.cursor.getColLong(WordReferenceRow.col_posintext);
+    }
+
+    @Override
+    public int distance() {
+        return (int) this.cursor.getColLong(WordReferenceRow.col_worddistance);
+    }
+
+    @Override
+    public Collection<Integer> positions() {
+        return null;
+    }
+
+    @Override
+    public int posinphrase() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_posinphrase);
+    }
+
+    @Override
+    public int posofphrase() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_posofphrase);
+    }
+
+    @Override
+    public int wordsintext() {
+        return (int) this.cursor.getColLong(WordReferenceRow.col_wordsInText);
+    }
+
+    @Override
+    public int phrasesintext() {
+        return (int) this.cursor.getColLong(WordReferenceRow.col_phrasesInText);
+    }
+
+    @Override
+    public byte[] getLanguage() {
+        this.cursor.writeToArray(WordReferenceRow.col_language, this.language, 0);
+        for (final byte b: this.language) if (b != 0) return this.language;
+        return null;
+    }
+
+    @Override
+    public char getType() {
+        return (char) this.cursor.getColByte(WordReferenceRow.col_doctype);
+    }
+
+    @Override
+    public int wordsintitle() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_wordsInTitle);
+    }
+
+    @Override
+    public int llocal() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_llocal);
+    }
+
+    @Override
+    public int lother() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_lother);
+    }
+
+    @Override
+    public int urllength() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_urlLength);
+    }
+
+    @Override
+    public int urlcomps() {
+        return 0xff & this.cursor.getColByte(WordReferenceRow.col_urlComps);
+    }
+
+    @Override
+    public Bitfield flags() {
+        return this.flags;
+    }
+
+    @Override
+    public double termFrequency() {
+        return (((double) hitcount()) / ((double) (wordsintext() + wordsintitle() + 1)));
+    }
+
+    @Override
+    public void join(final Reference oe) {
+        throw new UnsupportedOperationException("");
+    }
+
+    @Override
+    public String toString() {
+        return toPropertyForm();
+    }
+
+}
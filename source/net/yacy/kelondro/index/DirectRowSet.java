@@ -0,0 +1,827 @@
+/**
+ *  DirectRowSet
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.sorting.Array;
+import net.yacy.cora.sorting.Sortable;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.MemoryControl;
+
+/**
+ * A DirectRowSet has the same structure as the RowSet: all rows are stored in one chunk
+ * with a sorted and an unsorted region. The chunk is a direct ByteBuffer outside of the java heap,
+ * so large indexes do not add to the heap that must be traversed by the garbage collector.
+ * The native memory is accounted in MemoryControl, see MemoryControl.allocateDirect().
+ * Rows are copied into heap objects whenever they are read, there is no shared access to the chunk.
+ */
+public final class DirectRowSet implements RowStore, Sortable<Row.Entry>, Iterable<Row.Entry> {
+
+    private static final ByteBuffer EMPTY_CACHE = ByteBuffer.allocateDirect(0);
+    private static final int movechunk = 4096;
+
+    private final Row rowdef;
+    private ByteBuffer chunkcache;
+    private int chunkcount;
+    private int sortBound;
+    private long lastTimeWrote;
+    private final byte[] keybuffer; // a re-used buffer for key comparisons, only used inside synchronized methods
+
+    public DirectRowSet(final Row rowdef) {
+        assert rowdef.objectOrder != null;
+        this.rowdef = rowdef;
+        this.chunkcache = EMPTY_CACHE;
+        this.chunkcount = 0;
+        this.sortBound = 0;
+        this.lastTimeWrote = System.currentTimeMillis();
+        this.keybuffer = new byte[rowdef.primaryKeyLength];
+    }
+
+    public DirectRowSet(final Row rowdef, final int objectCount) throws SpaceExceededException {
+        this(rowdef);
+        ensureSize(objectCount);
+    }
+
+    /**
+     * copy the rows into a new native buffer
+     * @return the copy or null if the native memory limit does not allow the copy
+     */
+    @Override
+    public synchronized DirectRowSet clone() {
+        final DirectRowSet c = new DirectRowSet(this.rowdef);
+        try {
+            c.ensureSize(this.chunkcount);
+        } catch (final SpaceExceededException e) {
+            ConcurrentLog.warn("DirectRowSet", "clone failed: " + e.getMessage());
+            return null;
+        }
+        final int len = this.chunkcount * this.rowdef.objectsize;
+        final ByteBuffer src = this.chunkcache.duplicate();
+        src.position(0);
+        src.limit(len);
+        c.chunkcache.position(0);
+        c.chunkcache.put(src);
+        c.chunkcount = this.chunkcount;
+        c.sortBound = this.sortBound;
+        c.lastTimeWrote = this.lastTimeWrote;
+        return c;
+    }
+
+    /**
+     * copy the rows into a RowSet on the java heap
+     * @return the copy
+     */
+    public synchronized RowSet heapCopy() {
+        final byte[] cache = new byte[this.chunkcount * this.rowdef.objectsize];
+        final ByteBuffer src = this.chunkcache.duplicate();
+        src.position(0);
+        src.get(cache);
+        return new RowSet(this.rowdef, this.chunkcount, cache, this.sortBound);
+    }
+
+    @Override
+    public Row row() {
+        return this.rowdef;
+    }
+
+    @Override
+    public long mem() {
+        return this.chunkcache.capacity();
+    }
+
+    public final long lastWrote() {
+        return this.lastTimeWrote;
+    }
+
+    private final void ensureSize(final int elements) throws SpaceExceededException {
+        if (elements == 0) return;
+        final long needed = ((long) elements) * this.rowdef.objectsize;
+        if (this.chunkcache.capacity() >= needed) return;
+        long allocram = Math.max(1024, (needed * RowCollection.growfactorLarge100) / 100L);
+        allocram -= allocram % this.rowdef.objectsize;
+        if (allocram > Integer.MAX_VALUE || !MemoryControl.requestDirect(allocram)) {
+            allocram = (needed * RowCollection.growfactorSmall100) / 100L;
+            allocram -= allocram % this.rowdef.objectsize;
+        }
+        if (allocram > Integer.MAX_VALUE) throw new SpaceExceededException(allocram, "DirectRowSet grow");
+        final ByteBuffer newChunkcache = MemoryControl.allocateDirect((int) allocram);
+        final ByteBuffer src = this.chunkcache.duplicate();
+        src.position(0);
+        src.limit(this.chunkcount * this.rowdef.objectsize);
+        newChunkcache.put(src);
+        MemoryControl.freeDirect(this.chunkcache);
+        this.chunkcache = newChunkcache;
+    }
+
+    @Override
+    public synchronized void trim() {
+        final int needed = this.chunkcount * this.rowdef.objectsize;
+        if (needed >= this.chunkcache.capacity()) return;
+        if (needed == 0) {
+            MemoryControl.freeDirect(this.chunkcache);
+            this.chunkcache = EMPTY_CACHE;
+            return;
+        }
+        final ByteBuffer newChunkcache;
+        try {
+            newChunkcache = MemoryControl.allocateDirect(needed);
+        } catch (final SpaceExceededException e) {
+            return; // not critical, we keep the larger buffer
+        }
+        final ByteBuffer src = this.chunkcache.duplicate();
+        src.position(0);
+        src.limit(needed);
+        newChunkcache.put(src);
+        MemoryControl.freeDirect(this.chunkcache);
+        this.chunkcache = newChunkcache;
+    }
+
+    private final void checkShrink() {
+        if (this.rowdef.objectsize * this.chunkcount < this.chunkcache.capacity() / 2) trim();
+    }
+
+    @Override
+    public void optimize() {
+        sort();
+        trim();
+    }
+
+    // low-level access to the chunk; all these methods must be called from synchronized methods
+
+    private final void read(final int addr, final byte[] b, final int off, final int len) {
+        this.chunkcache.position(addr);
+        this.chunkcache.get(b, off, len);
+    }
+
+    private final void write(final int addr, final byte[] b, final int off, final int len) {
+        this.chunkcache.position(addr);
+        this.chunkcache.put(b, off, len);
+    }
+
+    /**
+     * move a memory region inside the chunk; the regions may overlap
+     */
+    private final void move(final int from, final int to, final int len) {
+        if (len <= 0 || from == to) return;
+        final byte[] b = new byte[Math.min(len, movechunk)];
+        if (from > to) {
+            for (int done = 0; done < len; done += b.length) {
+                final int l = Math.min(b.length, len - done);
+                read(from + done, b, 0, l);
+                write(to + done, b, 0, l);
+            }
+        } else {
+            for (int rest = len; rest > 0; rest -= b.length) {
+                final int l = Math.min(b.length, rest);
+                read(from + rest - l, b, 0, l);
+                write(to + rest - l, b, 0, l);
+            }
+        }
+    }
+
+    private final byte[] readRow(final int index) {
+        final byte[] b = new byte[this.rowdef.objectsize];
+        read(index * this.rowdef.objectsize, b, 0, b.length);
+        return b;
+    }
+
+    protected synchronized final byte[] getKey(final int index) {
+        if (this.chunkcache == null || index >= this.chunkcount) return null; // case may appear during shutdown
+        final byte[] b = new byte[this.rowdef.primaryKeyLength];
+        read(index * this.rowdef.objectsize, b, 0, b.length);
+        return b;
+    }
+
+    @Override
+    public synchronized final Row.Entry get(final int index, final boolean clone) {
+        assert (index >= 0) : "get: access with index " + index + " is below zero";
+        if (this.chunkcache == null || index >= this.chunkcount) return null; // case may appear during shutdown
+        // the row is always copied out of the direct buffer, therefore a clone is never necessary
+        return this.rowdef.newEntry(readRow(index), 0, false);
+    }
+
+    private final void set(final int index, final Row.Entry a) throws SpaceExceededException {
+        assert (index >= 0) : "set: access with index " + index + " is below zero";
+        ensureSize(index + 1);
+        final byte[] column = a.bytes();
+        final boolean sameKey = match(column, 0, index);
+        write(index * this.rowdef.objectsize, column, 0, this.rowdef.objectsize);
+        if (index >= this.chunkcount) this.chunkcount = index + 1;
+        if (!sameKey && index < this.sortBound) this.sortBound = index;
+        this.lastTimeWrote = System.currentTimeMillis();
+    }
+
+    private final void addRow(final byte[] a, final boolean sorted) throws SpaceExceededException {
+        assert a.length >= this.rowdef.objectsize : "a.length = " + a.length + ", objectsize = " + this.rowdef.objectsize;
+        ensureSize(this.chunkcount + 1);
+        write(this.rowdef.objectsize * this.chunkcount, a, 0, this.rowdef.objectsize);
+        this.chunkcount++;
+        if (sorted) {
+            this.sortBound = this.chunkcount;
+        } else if (this.chunkcount == 1) {
+            this.sortBound = 1;
+        } else if (this.sortBound + 1 == this.chunkcount && compare(this.chunkcount - 2, this.chunkcount - 1) < 0) {
+            // if possible, increase the sortbound value to suppress unnecessary sorting
+            this.sortBound = this.chunkcount;
+        }
+        this.lastTimeWrote = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void addUnique(final Row.Entry row) throws SpaceExceededException {
+        addRow(row.bytes(), false);
+    }
+
+    public synchronized void add(final byte[] a) throws SpaceExceededException {
+        assert a.length == this.rowdef.objectsize : "a.length = " + a.length + ", objectsize = " + this.rowdef.objectsize;
+        addRow(a, false);
+    }
+
+    private final void removeRow(final int p, final boolean keepOrder) {
+        assert p >= 0 && p < this.chunkcount : "p = " + p + ", chunkcount = " + this.chunkcount;
+        final int objectsize = this.rowdef.objectsize;
+        if (keepOrder && (p < this.sortBound)) {
+            // remove by shift
+            move((p + 1) * objectsize, p * objectsize, (this.chunkcount - p - 1) * objectsize);
+            this.sortBound--;
+        } else {
+            // remove by copying the top-element to the remove position
+            if (p != this.chunkcount - 1) move((this.chunkcount - 1) * objectsize, p * objectsize, objectsize);
+            if (this.sortBound > p) this.sortBound = p;
+        }
+        this.chunkcount--;
+        this.lastTimeWrote = System.currentTimeMillis();
+        checkShrink();
+    }
+
+    @Override
+    public synchronized final void delete(final int p) {
+        removeRow(p, true);
+    }
+
+    @Override
+    public synchronized Row.Entry removeOne() {
+        if (this.chunkcount == 0) return null;
+        final Row.Entry r = get(this.chunkcount - 1, true);
+        if (this.chunkcount == this.sortBound) this.sortBound--;
+        this.chunkcount--;
+        this.lastTimeWrote = System.currentTimeMillis();
+        checkShrink();
+        return r;
+    }
+
+    @Override
+    public synchronized List<Row.Entry> top(int count) {
+        if (count > this.chunkcount) count = this.chunkcount;
+        final ArrayList<Row.Entry> list = new ArrayList<Row.Entry>();
+        for (int cursor = this.chunkcount - 1; count > 0 && cursor >= 0; count--, cursor--) {
+            list.add(get(cursor, true));
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized List<Row.Entry> random(int count) {
+        if (count > this.chunkcount) count = this.chunkcount;
+        final ArrayList<Row.Entry> list = new ArrayList<Row.Entry>();
+        if (this.chunkcount == 0 || count == 0) return list;
+        final int stepsize = this.chunkcount / count;
+        for (int cursor = 0; count > 0 && cursor < this.chunkcount; count--, cursor += stepsize) {
+            list.add(get(cursor, true));
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized byte[] smallestKey() {
+        if (this.chunkcount == 0) return null;
+        sort();
+        return getKey(0);
+    }
+
+    @Override
+    public synchronized byte[] largestKey() {
+        if (this.chunkcount == 0) return null;
+        sort();
+        return getKey(this.chunkcount - 1);
+    }
+
+    @Override
+    public synchronized void clear() {
+        MemoryControl.freeDirect(this.chunkcache);
+        this.chunkcache = EMPTY_CACHE;
+        this.chunkcount = 0;
+        this.sortBound = 0;
+        this.lastTimeWrote = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() {
+        clear();
+    }
+
+    @Override
+    public int size() {
+        return this.chunkcount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.chunkcount == 0;
+    }
+
+    @Override
+    public int sorted() {
+        return this.sortBound;
+    }
+
+    @Override
+    public synchronized boolean isSorted() {
+        return this.chunkcount <= 1 || this.chunkcount == this.sortBound;
+    }
+
+    // sorting; the Sortable interface is used by the same quicksort as in RowCollection
+
+    @Override
+    public int compare(final Row.Entry o1, final Row.Entry o2) {
+        return o1.compareTo(o2);
+    }
+
+    @Override
+    public Row.Entry buffer() {
+        return this.rowdef.newEntry();
+    }
+
+    @Override
+    public void swap(final int i, final int j, final Row.Entry buffer) {
+        if (i == j) return;
+        final byte[] swapspace = buffer.bytes();
+        final int objectsize = this.rowdef.objectsize;
+        read(i * objectsize, swapspace, 0, objectsize);
+        move(j * objectsize, i * objectsize, objectsize);
+        write(j * objectsize, swapspace, 0, objectsize);
+    }
+
+    @Override
+    public final void sort() {
+        if (this.sortBound == this.chunkcount) return; // this is sorted
+        synchronized (this) {
+            if (this.sortBound == this.chunkcount) return; // check again
+            Array.sort(this);
+            this.sortBound = this.chunkcount;
+        }
+    }
+
+    @Override
+    public synchronized void uniq() {
+        Array.uniq(this);
+    }
+
+    @Override
+    public synchronized ArrayList<RowCollection> removeDoubles() throws SpaceExceededException {
+        // removes double-occurrences of chunks, including the remaining non-double entry of each group.
+        // all removed chunks are returned as heap collections
+        sort();
+        final ArrayList<RowCollection> report = new ArrayList<RowCollection>();
+        if (this.chunkcount < 2) return report;
+        int i = this.chunkcount - 2;
+        RowSet collection = new RowSet(this.rowdef, 2);
+        while (i >= 0) {
+            if (match(i, i + 1)) {
+                collection.addUnique(get(i + 1, false));
+                removeRow(i + 1, false);
+            } else if (!collection.isEmpty()) {
+                // finish collection of double occurrences
+                collection.addUnique(get(i + 1, false));
+                removeRow(i + 1, false);
+                report.add(collection);
+                collection = new RowSet(this.rowdef, 2);
+            }
+            i--;
+        }
+        if (!collection.isEmpty()) {
+            collection.addUnique(get(0, false));
+            removeRow(0, false);
+            report.add(collection);
+        }
+        sort();
+        return report;
+    }
+
+    private final int compare(final int i, final int j) {
+        if (i == j) return 0;
+        final byte[] a = getKey(i);
+        read(j * this.rowdef.objectsize, this.keybuffer, 0, this.rowdef.primaryKeyLength);
+        return this.rowdef.objectOrder.compare(a, 0, this.keybuffer, 0, this.rowdef.primaryKeyLength);
+    }
+
+    private final int compare(final byte[] a, final int astart, final int chunknumber) {
+        assert (chunknumber < this.chunkcount);
+        read(chunknumber * this.rowdef.objectsize, this.keybuffer, 0, this.rowdef.primaryKeyLength);
+        return this.rowdef.objectOrder.compare(a, astart, this.keybuffer, 0, this.rowdef.primaryKeyLength);
+    }
+
+    private final boolean match(final int i, final int j) {
+        return compare(i, j) == 0;
+    }
+
+    private final boolean match(final byte[] a, final int astart, final int chunknumber) {
+        if (chunknumber >= this.chunkcount) return false;
+        final int base = chunknumber * this.rowdef.objectsize;
+        for (int k = 0; k < this.rowdef.primaryKeyLength; k++) {
+            if (a[astart + k] != this.chunkcache.get(base + k)) return false;
+        }
+        return true;
+    }
+
+    // search
+
+    private final int collectionReSortLimit() {
+        return Math.min(3000, Math.max(100, this.chunkcount / 3));
+    }
+
+    private final int find(final byte[] a, final int astart) {
+        // returns the chunknumber; -1 if not found
+        if ((this.chunkcount - this.sortBound) > collectionReSortLimit()) sort();
+        final int p = binarySearch(a, astart);
+        if (p >= 0) return p;
+        for (int i = this.sortBound; i < this.chunkcount; i++) {
+            if (match(a, astart, i)) return i;
+        }
+        return -1;
+    }
+
+    private final int binarySearch(final byte[] key, final int astart) {
+        int l = 0;
+        int rbound = this.sortBound;
+        int p, d;
+        while (l < rbound) {
+            p = (l + rbound) >> 1;
+            d = compare(key, astart, p);
+            if (d == 0) return p;
+            if (d < 0) rbound = p; else l = p + 1;
+        }
+        return -1;
+    }
+
+    private final int binaryPosition(final byte[] key, final int astart) {
+        int l = 0;
+        int rbound = this.sortBound;
+        int p, d;
+        while (l < rbound) {
+            p = (l + rbound) >> 1;
+            d = compare(key, astart, p);
+            if (d == 0) return p;
+            if (d < 0) rbound = p; else l = p + 1;
+        }
+        return l;
+    }
+
+    @Override
+    public synchronized boolean has(final byte[] key) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        return find(key, 0) >= 0;
+    }
+
+    @Override
+    public synchronized Row.Entry get(final byte[] key, final boolean forcecopy) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        final int index = find(key, 0);
+        if (index < 0) return null;
+        return get(index, forcecopy);
+    }
+
+    // shared access: only absolute reads of the buffer are used, therefore concurrent readers do not disturb each other
+
+    private final int compareShared(final byte[] a, final int chunknumber, final byte[] keybuffer) {
+        final int base = chunknumber * this.rowdef.objectsize;
+        for (int k = 0; k < keybuffer.length; k++) keybuffer[k] = this.chunkcache.get(base + k);
+        return this.rowdef.objectOrder.compare(a, 0, keybuffer, 0, keybuffer.length);
+    }
+
+    private final int findShared(final byte[] a) {
+        final byte[] keybuffer = new byte[this.rowdef.primaryKeyLength];
+        int l = 0;
+        int rbound = this.sortBound;
+        int p, d;
+        while (l < rbound) {
+            p = (l + rbound) >> 1;
+            d = compareShared(a, p, keybuffer);
+            if (d == 0) return p;
+            if (d < 0) rbound = p; else l = p + 1;
+        }
+        for (int i = this.sortBound; i < this.chunkcount; i++) {
+            if (match(a, 0, i)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasShared(final byte[] key) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        return findShared(key) >= 0;
+    }
+
+    @Override
+    public Row.Entry getShared(final byte[] key, final boolean forcecopy) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        final int index = findShared(key);
+        if (index < 0) return null;
+        final byte[] b = new byte[this.rowdef.objectsize];
+        final int base = index * this.rowdef.objectsize;
+        for (int k = 0; k < b.length; k++) b[k] = this.chunkcache.get(base + k);
+        return this.rowdef.newEntry(b, 0, false);
+    }
+
+    @Override
+    public Map<byte[], Row.Entry> get(final Collection<byte[]> keys, final boolean forcecopy) throws IOException, InterruptedException {
+        final Map<byte[], Row.Entry> map = new TreeMap<byte[], Row.Entry>(row().objectOrder);
+        Row.Entry entry;
+        for (final byte[] key: keys) {
+            entry = get(key, forcecopy);
+            if (entry != null) map.put(key, entry);
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized boolean put(final Row.Entry entry) throws SpaceExceededException {
+        assert (entry != null);
+        final int index = find(entry.getPrimaryKeyBytes(), 0);
+        if (index < 0) {
+            addRow(entry.bytes(), false);
+            return true;
+        }
+        final int sb = this.sortBound; // we replace at the same place, the sortBound is not altered
+        set(index, entry);
+        this.sortBound = sb;
+        return false;
+    }
+
+    @Override
+    public synchronized Row.Entry replace(final Row.Entry entry) throws SpaceExceededException {
+        assert (entry != null);
+        final int index = find(entry.getPrimaryKeyBytes(), 0);
+        if (index < 0) {
+            addRow(entry.bytes(), false);
+            return null;
+        }
+        final Row.Entry oldentry = get(index, true);
+        final int sb = this.sortBound;
+        set(index, entry);
+        this.sortBound = sb;
+        return oldentry;
+    }
+
+    @Override
+    public synchronized long inc(final byte[] key, final int col, final long add, final Row.Entry initrow) throws SpaceExceededException {
+        assert key.length == this.rowdef.primaryKeyLength;
+        final int index = find(key, 0);
+        if (index >= 0) {
+            final Row.Entry entry = get(index, false);
+            final long l = entry.incCol(col, add);
+            set(index, entry);
+            return l;
+        } else if (initrow != null) {
+            addRow(initrow.bytes(), false);
+            return initrow.getColLong(col);
+        }
+        return Long.MIN_VALUE;
+    }
+
+    @Override
+    public synchronized boolean delete(final byte[] a) {
+        boolean exists = false;
+        int index;
+        while ((index = find(a, 0)) >= 0) {
+            exists = true;
+            removeRow(index, true); // keep order of collection!
+        }
+        return exists;
+    }
+
+    @Override
+    public synchronized Row.Entry remove(final byte[] a) {
+        Row.Entry entry = null;
+        int index;
+        while ((index = find(a, 0)) >= 0) {
+            entry = get(index, true);
+            removeRow(index, true); // keep order of collection!
+        }
+        return entry;
+    }
+
+    /**
+     * merge this row set with another row set.
+     * The result is a new DirectRowSet which is sorted and does not contain any doubles.
+     * Both input sets are sorted during the merge, otherwise they are not altered.
+     * @param c
+     * @return the merged set
+     * @throws SpaceExceededException
+     */
+    public final DirectRowSet merge(final DirectRowSet c) throws SpaceExceededException {
+        assert c != null;
+        assert this.rowdef == c.rowdef : this.rowdef.toString() + " != " + c.rowdef.toString();
+        this.sort();
+        c.sort();
+        final DirectRowSet r = new DirectRowSet(this.rowdef, this.size() + c.size());
+        synchronized (this) {
+            synchronized (c) {
+                int c0i = 0, c1i = 0, o;
+                final int c0s = this.size(), c1s = c.size();
+                byte[] r0 = c0s > 0 ? this.readRow(0) : null;
+                byte[] r1 = c1s > 0 ? c.readRow(0) : null;
+                while (c0i < c0s && c1i < c1s) {
+                    o = this.rowdef.objectOrder.compare(r0, 0, r1, 0, this.rowdef.primaryKeyLength);
+                    if (o <= 0) {
+                        r.addRow(r0, true);
+                        if (++c0i < c0s) r0 = this.readRow(c0i);
+                        if (o == 0 && ++c1i < c1s) r1 = c.readRow(c1i);
+                    } else {
+                        r.addRow(r1, true);
+                        if (++c1i < c1s) r1 = c.readRow(c1i);
+                    }
+                }
+                while (c0i < c0s) r.addRow(this.readRow(c0i++), true);
+                while (c1i < c1s) r.addRow(c.readRow(c1i++), true);
+            }
+        }
+        return r;
+    }
+
+    // iteration
+
+    public synchronized Iterator<byte[]> keys() {
+        sort();
+        return keys(true, null);
+    }
+
+    @Override
+    public synchronized CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) {
+        sort();
+        return new keyIterator(up, firstKey);
+    }
+
+    private final class keyIterator implements CloneableIterator<byte[]> {
+
+        private final boolean up;
+        private int p;
+        private final int bound;
+
+        public keyIterator(final boolean up, byte[] firstKey) {
+            sort();
+            this.up = up;
+            if (firstKey != null && firstKey.length == 0) firstKey = null;
+            this.bound = DirectRowSet.this.sortBound;
+            if (firstKey == null) {
+                this.p = up ? 0 : this.bound - 1;
+            } else {
+                synchronized (DirectRowSet.this) {
+                    this.p = up ? binaryPosition(firstKey, 0) : this.bound - 1;
+                }
+            }
+        }
+
+        @Override
+        public final keyIterator clone(final Object second) {
+            return new keyIterator(this.up, (byte[]) second);
+        }
+
+        @Override
+        public final boolean hasNext() {
+            if (this.p < 0 || this.p >= size()) return false;
+            return (this.up) ? this.p < this.bound : this.p >= 0;
+        }
+
+        @Override
+        public final byte[] next() {
+            final byte[] key = getKey(this.p);
+            if (this.up) this.p++; else this.p--;
+            return key;
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Override
+    public synchronized CloneableIterator<Row.Entry> rows(final boolean up, final byte[] firstKey) {
+        return new rowIterator(up, firstKey);
+    }
+
+    @Override
+    public synchronized CloneableIterator<Row.Entry> rows() {
+        return new rowIterator(true, null);
+    }
+
+    @Override
+    public synchronized Iterator<Row.Entry> iterator() {
+        return new rowIterator(true, null);
+    }
+
+    private final class rowIterator implements CloneableIterator<Row.Entry> {
+
+        private final boolean up;
+        private int p;
+        private final int bound;
+
+        public rowIterator(final boolean up, final byte[] firstKey) {
+            sort();
+            this.up = up;
+            this.bound = DirectRowSet.this.sortBound;
+            if (firstKey == null) {
+                this.p = up ? 0 : this.bound - 1;
+            } else {
+                synchronized (DirectRowSet.this) {
+                    this.p = binaryPosition(firstKey, 0);
+                }
+            }
+        }
+
+        @Override
+        public final rowIterator clone(final Object second) {
+            return new rowIterator(this.up, (byte[]) second);
+        }
+
+        @Override
+        public final boolean hasNext() {
+            if (this.p < 0 || this.p >= size()) return false;
+            return (this.up) ? this.p < this.bound : this.p >= 0;
+        }
+
+        @Override
+        public final Row.Entry next() {
+            final Row.Entry entry = get(this.p, true);
+            if (this.up) this.p++; else this.p--;
+            return entry;
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Override
+    public String filename() {
+        return null;
+    }
+
+    @Override
+    public void deleteOnExit() {
+        // do nothing, there is no file
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder s = new StringBuilder(80);
+        for (int i = 0; i < this.chunkcount; i++) {
+            if (i > 0) s.append(", ");
+            s.append(get(i, false).toString());
+        }
+        return s.toString();
+    }
+
+}
@@ -0,0 +1,657 @@
+/**
+ *  HashHandleMap
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.MemoryControl;
+
+/**
+ * A HandleMap which stores the key/value pairs in an open-addressing hash table with linear probing.
+ * All slots are stored in one flat ByteBuffer: a status byte, the key and the value in idxbytes
+ * big-endian bytes. There are no objects per entry, so the map does not add to the work of the
+ * garbage collector and a lookup is one hash computation and (mostly) one slot comparison.
+ * If the name of the map matches the memory.directIndex configuration, the table is allocated
+ * in native memory, see RAMIndex.setDirectIndexNames().
+ *
+ * The map has no order: ordered access with keys(), smallestKey() and largestKey() is computed
+ * on demand and is therefore expensive. Use the RowHandleMap if ordered access is a hot path.
+ * Dumps are written and read in the same format as the dumps of the RowHandleMap.
+ */
+public final class HashHandleMap implements HandleMap, Iterable<Map.Entry<byte[], Long>> {
+
+    private static final int minCapacity = 16;
+    private static final int maxInitialCapacity = 1 << 16;
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+
+    private final String name;
+    private final int keylength;
+    private final int idxbytes;
+    private final int slotsize;
+    private final ByteOrder ordering;
+    private final boolean direct;
+    private ByteBuffer table;
+    private int capacity; // number of slots, always a power of two
+    private int mask;
+    private int size;
+    private int threshold; // the size when the table must grow, 3/4 of the capacity
+
+    /**
+     * initialize a HashHandleMap
+     * @param keylength the length of the keys; keys with a different length are cut or filled with zeros
+     * @param objectOrder the order of the keys, used for the ordered access and dumps
+     * @param idxbytes the number of bytes used to store a value
+     * @param expectedspace the expected number of entries; the table grows if necessary
+     * @param name the name of the map
+     */
+    public HashHandleMap(final int keylength, final ByteOrder objectOrder, final int idxbytes, final int expectedspace, final String name) {
+        assert idxbytes > 0 && idxbytes <= 8 : "idxbytes = " + idxbytes;
+        this.name = name;
+        this.keylength = keylength;
+        this.idxbytes = idxbytes;
+        this.slotsize = 1 + keylength + idxbytes;
+        this.ordering = objectOrder;
+        this.direct = RAMIndex.isDirectIndex(name);
+        init(capacityFor(Math.min(maxInitialCapacity, Math.max(0, expectedspace))));
+    }
+
+    /**
+     * initialize a HashHandleMap with the content of a dumped index.
+     * The dump may be written by a RowHandleMap or a HashHandleMap with the same key length and idxbytes
+     * @param keylength
+     * @param objectOrder
+     * @param idxbytes
+     * @param file
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public HashHandleMap(final int keylength, final ByteOrder objectOrder, final int idxbytes, final File file) throws IOException, SpaceExceededException {
+        this(keylength, objectOrder, idxbytes, (int) Math.min(maxInitialCapacity, file.length() / (keylength + idxbytes)), file.getAbsolutePath());
+        final long entries = file.length() / (keylength + idxbytes);
+        if (!file.getName().endsWith(".gz")) resize(capacityFor(entries));
+        InputStream is = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+        try {
+            if (file.getName().endsWith(".gz")) is = new GZIPInputStream(is);
+            final byte[] a = new byte[keylength + idxbytes];
+            final byte[] key = new byte[keylength];
+            int c, p;
+            while (true) {
+                // a gzip stream may deliver less than requested, therefore we must fill the record
+                p = 0;
+                while (p < a.length && (c = is.read(a, p, a.length - p)) > 0) p += c;
+                if (p < a.length) break;
+                System.arraycopy(a, 0, key, 0, keylength);
+                if (!this.ordering.wellformed(key)) continue;
+                put(key, decode(a, keylength));
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private final void init(final int newCapacity) {
+        this.capacity = newCapacity;
+        this.mask = newCapacity - 1;
+        this.threshold = newCapacity / 4 * 3;
+        this.size = 0;
+        try {
+            this.table = allocate(newCapacity);
+        } catch (final SpaceExceededException e) {
+            // the initial table is small; if this fails the next put will fail as well
+            ConcurrentLog.warn("HashHandleMap", "cannot allocate table for " + this.name + ": " + e.getMessage());
+            this.table = ByteBuffer.allocate(newCapacity * this.slotsize);
+        }
+    }
+
+    private final ByteBuffer allocate(final int slots) throws SpaceExceededException {
+        final long bytes = (long) slots * (long) this.slotsize;
+        if (bytes > Integer.MAX_VALUE) throw new SpaceExceededException(bytes, "HashHandleMap table size");
+        if (this.direct) {
+            try {
+                return MemoryControl.allocateDirect((int) bytes);
+            } catch (final SpaceExceededException e) {
+                // fall back to the java heap
+            }
+        }
+        if (!MemoryControl.request(bytes + 32, true)) throw new SpaceExceededException(bytes + 32, "HashHandleMap grow");
+        return ByteBuffer.allocate((int) bytes);
+    }
+
+    private static final int capacityFor(final long entries) {
+        int c = minCapacity;
+        while (c < (1 << 30) && (long) c / 4 * 3 <= entries) c <<= 1;
+        return c;
+    }
+
+    /**
+     * move all entries to a new table with the given number of slots
+     * @param newCapacity the new number of slots, a power of two which is larger than the size
+     * @throws SpaceExceededException
+     */
+    private final void resize(final int newCapacity) throws SpaceExceededException {
+        if (newCapacity == this.capacity) return;
+        final ByteBuffer newTable = allocate(newCapacity);
+        final ByteBuffer oldTable = this.table;
+        final int oldCapacity = this.capacity;
+        final int newMask = newCapacity - 1;
+        for (int s = 0; s < oldCapacity; s++) {
+            final int pos = s * this.slotsize;
+            if (oldTable.get(pos) == FREE) continue;
+            int t = hash(oldTable, pos + 1, this.keylength) & newMask;
+            while (newTable.get(t * this.slotsize) != FREE) t = (t + 1) & newMask;
+            final int npos = t * this.slotsize;
+            for (int i = 0; i < this.slotsize; i++) newTable.put(npos + i, oldTable.get(pos + i));
+        }
+        this.table = newTable;
+        this.capacity = newCapacity;
+        this.mask = newMask;
+        this.threshold = newCapacity / 4 * 3;
+        MemoryControl.freeDirect(oldTable);
+    }
+
+    private static final int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final int hash(final byte[] key, final int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + key[i];
+        return mix(h);
+    }
+
+    private static final int hash(final ByteBuffer b, final int offset, final int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + b.get(offset + i);
+        return mix(h);
+    }
+
+    private final byte[] normalizeKey(final byte[] key) {
+        if (key.length == this.keylength) return key;
+        final byte[] k = new byte[this.keylength];
+        System.arraycopy(key, 0, k, 0, Math.min(key.length, this.keylength));
+        return k;
+    }
+
+    /**
+     * find the slot of a key
+     * @param key a key with the length keylength
+     * @return the slot number if the key is in the table, otherwise -(free slot number) - 1
+     */
+    private final int find(final byte[] key) {
+        int s = hash(key, this.keylength) & this.mask;
+        while (true) {
+            final int pos = s * this.slotsize;
+            if (this.table.get(pos) == FREE) return -s - 1;
+            if (keyEquals(pos, key)) return s;
+            s = (s + 1) & this.mask;
+        }
+    }
+
+    private final boolean keyEquals(final int pos, final byte[] key) {
+        for (int i = 0; i < this.keylength; i++) {
+            if (this.table.get(pos + 1 + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private final byte[] keyAt(final int s) {
+        final byte[] key = new byte[this.keylength];
+        final int pos = s * this.slotsize + 1;
+        for (int i = 0; i < this.keylength; i++) key[i] = this.table.get(pos + i);
+        return key;
+    }
+
+    private final long valueAt(final int s) {
+        final int pos = s * this.slotsize + 1 + this.keylength;
+        long v = 0;
+        for (int i = 0; i < this.idxbytes; i++) v = (v << 8) | (this.table.get(pos + i) & 0xFF);
+        return v;
+    }
+
+    private final void setValue(final int s, long v) {
+        final int pos = s * this.slotsize + 1 + this.keylength;
+        for (int i = this.idxbytes - 1; i >= 0; i--) {
+            this.table.put(pos + i, (byte) (v & 0xFF));
+            v >>= 8;
+        }
+    }
+
+    private final long decode(final byte[] a, final int offset) {
+        long v = 0;
+        for (int i = 0; i < this.idxbytes; i++) v = (v << 8) | (a[offset + i] & 0xFF);
+        return v;
+    }
+
+    /**
+     * write a new entry to a free slot; the table must have space for another entry
+     */
+    private final void insert(final int s, final byte[] key, final long l) {
+        final int pos = s * this.slotsize;
+        this.table.put(pos, USED);
+        for (int i = 0; i < this.keylength; i++) this.table.put(pos + 1 + i, key[i]);
+        setValue(s, l);
+        this.size++;
+    }
+
+    /**
+     * remove the entry in the given slot and move following entries of the same probe sequence
+     * back, so that no entry is separated from its home slot by a free slot
+     */
+    private final void delete(int s) {
+        this.table.put(s * this.slotsize, FREE);
+        this.size--;
+        int t = s;
+        while (true) {
+            t = (t + 1) & this.mask;
+            final int tpos = t * this.slotsize;
+            if (this.table.get(tpos) == FREE) return;
+            final int home = hash(this.table, tpos + 1, this.keylength) & this.mask;
+            // the entry at t can be moved to s if its home slot is not in the cyclic range (s, t]
+            if (s <= t ? (home <= s || home > t) : (home <= s && home > t)) {
+                final int spos = s * this.slotsize;
+                for (int i = 0; i < this.slotsize; i++) this.table.put(spos + i, this.table.get(tpos + i));
+                this.table.put(tpos, FREE);
+                s = t;
+            }
+        }
+    }
+
+    private final void ensureSpace() throws SpaceExceededException {
+        if (this.size >= this.threshold) resize(this.capacity << 1);
+    }
+
+    @Override
+    public synchronized long mem() {
+        return this.table.capacity();
+    }
+
+    /**
+     * @return true if the table is stored in native memory outside of the java heap
+     */
+    public synchronized boolean isDirect() {
+        return this.table.isDirect();
+    }
+
+    @Override
+    public synchronized void optimize() {
+        final int c = capacityFor(this.size);
+        if (c < this.capacity / 2) try {
+            resize(c);
+        } catch (final SpaceExceededException e) {
+            // keep the larger table
+        }
+    }
+
+    /**
+     * write a dump of the index to a file. All entries are written in order
+     * in the format of the RowHandleMap dumps
+     * @param file
+     * @return the number of written entries
+     * @throws IOException
+     */
+    @Override
+    public final int dump(final File file) throws IOException {
+        final byte[][] keys;
+        final long[] values;
+        synchronized (this) {
+            keys = sortedKeys();
+            values = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) values[i] = valueAt(find(keys[i]));
+        }
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp), 4 * 1024 * 1024);
+        try {
+            if (file.getName().endsWith(".gz")) os = new GZIPOutputStream(os, 65536){{def.setLevel(Deflater.BEST_COMPRESSION);}};
+            final byte[] v = new byte[this.idxbytes];
+            for (int i = 0; i < keys.length; i++) {
+                long l = values[i];
+                for (int j = this.idxbytes - 1; j >= 0; j--) {
+                    v[j] = (byte) (l & 0xFF);
+                    l >>= 8;
+                }
+                os.write(keys[i]);
+                os.write(v);
+            }
+            os.flush();
+        } finally {
+            os.close();
+        }
+        tmp.renameTo(file);
+        assert file.exists() : file.toString();
+        assert !tmp.exists() : tmp.toString();
+        return keys.length;
+    }
+
+    /**
+     * @return all keys in the order of the map
+     */
+    private final byte[][] sortedKeys() {
+        final byte[][] keys = new byte[this.size][];
+        int c = 0;
+        for (int s = 0; s < this.capacity; s++) {
+            if (this.table.get(s * this.slotsize) != FREE) keys[c++] = keyAt(s);
+        }
+        assert c == keys.length;
+        Arrays.sort(keys, this.ordering);
+        return keys;
+    }
+
+    @Override
+    public synchronized void clear() {
+        MemoryControl.freeDirect(this.table);
+        init(minCapacity);
+    }
+
+    @Override
+    public synchronized byte[] smallestKey() {
+        return extremeKey(-1);
+    }
+
+    @Override
+    public synchronized byte[] largestKey() {
+        return extremeKey(1);
+    }
+
+    private final byte[] extremeKey(final int sig) {
+        int best = -1;
+        byte[] bestKey = null, key;
+        for (int s = 0; s < this.capacity; s++) {
+            if (this.table.get(s * this.slotsize) == FREE) continue;
+            key = keyAt(s);
+            if (best < 0 || this.ordering.compare(key, bestKey) * sig > 0) {
+                best = s;
+                bestKey = key;
+            }
+        }
+        return bestKey;
+    }
+
+    @Override
+    public synchronized boolean has(final byte[] key) {
+        assert (key != null);
+        return find(normalizeKey(key)) >= 0;
+    }
+
+    @Override
+    public synchronized long get(final byte[] key) {
+        assert (key != null);
+        final int s = find(normalizeKey(key));
+        if (s < 0) return -1;
+        return valueAt(s);
+    }
+
+    /**
+     * Adds the key-value pair to the index.
+     * @param key the index key
+     * @param l the value
+     * @return the previous entry of the index
+     * @throws SpaceExceededException
+     */
+    @Override
+    public synchronized long put(final byte[] key, final long l) throws SpaceExceededException {
+        assert l >= 0 : "l = " + l;
+        assert (key != null);
+        final byte[] k = normalizeKey(key);
+        int s = find(k);
+        if (s >= 0) {
+            final long old = valueAt(s);
+            setValue(s, l);
+            return old;
+        }
+        if (this.size >= this.threshold) {
+            ensureSpace();
+            s = find(k);
+        }
+        insert(-s - 1, k, l);
+        return -1;
+    }
+
+    /**
+     * in contrast to the RowHandleMap a double key cannot be stored; the value of an existing key is replaced
+     */
+    @Override
+    public void putUnique(final byte[] key, final long l) throws SpaceExceededException {
+        put(key, l);
+    }
+
+    @Override
+    public synchronized long add(final byte[] key, final long a) throws SpaceExceededException {
+        assert key != null;
+        final byte[] k = normalizeKey(key);
+        int s = find(k);
+        if (s < 0) {
+            if (this.size >= this.threshold) {
+                ensureSpace();
+                s = find(k);
+            }
+            insert(-s - 1, k, a);
+            return 1;
+        }
+        final long i = valueAt(s) + a;
+        setValue(s, i);
+        return i;
+    }
+
+    @Override
+    public long inc(final byte[] key) throws SpaceExceededException {
+        return add(key, 1);
+    }
+
+    @Override
+    public long dec(final byte[] key) throws SpaceExceededException {
+        return add(key, -1);
+    }
+
+    /**
+     * a hash map cannot contain double keys
+     * @return an empty list
+     */
+    @Override
+    public ArrayList<long[]> removeDoubles() {
+        return new ArrayList<long[]>(0);
+    }
+
+    /**
+     * @return up to count keys; the map has no order, so the choice of the keys is arbitrary
+     */
+    @Override
+    public synchronized ArrayList<byte[]> top(final int count) {
+        final ArrayList<byte[]> list = new ArrayList<byte[]>();
+        for (int s = this.capacity - 1; s >= 0 && list.size() < count; s--) {
+            if (this.table.get(s * this.slotsize) != FREE) list.add(keyAt(s));
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized long remove(final byte[] key) {
+        assert (key != null);
+        final int s = find(normalizeKey(key));
+        if (s < 0) return -1;
+        final long l = valueAt(s);
+        delete(s);
+        return l;
+    }
+
+    @Override
+    public synchronized long removeone() {
+        for (int s = this.capacity - 1; s >= 0; s--) {
+            if (this.table.get(s * this.slotsize) == FREE) continue;
+            final long l = valueAt(s);
+            delete(s);
+            return l;
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * iterate the keys in the order of the map. The keys are sorted when the iterator is created,
+     * changes of the map after that are not visible in the iteration
+     */
+    @Override
+    public synchronized CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) {
+        return new keyIterator(sortedKeys(), up, firstKey);
+    }
+
+    @Override
+    public synchronized void close() {
+        MemoryControl.freeDirect(this.table);
+        this.table = null;
+    }
+
+    private final class keyIterator implements CloneableIterator<byte[]> {
+
+        private final byte[][] keys;
+        private final boolean up;
+        private int p;
+        private byte[] last;
+
+        private keyIterator(final byte[][] keys, final boolean up, final byte[] firstKey) {
+            this.keys = keys;
+            this.up = up;
+            this.last = null;
+            if (firstKey == null) {
+                this.p = up ? 0 : keys.length - 1;
+            } else {
+                int i = Arrays.binarySearch(keys, normalizeKey(firstKey), HashHandleMap.this.ordering);
+                if (i < 0) i = up ? -i - 1 : -i - 2; // the next larger or the next smaller key
+                this.p = i;
+            }
+        }
+
+        @Override
+        public CloneableIterator<byte[]> clone(final Object modifier) {
+            return new keyIterator(this.keys, this.up, (byte[]) modifier);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.p >= 0 && this.p < this.keys.length;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            this.last = this.keys[this.p];
+            this.p += this.up ? 1 : -1;
+            return this.last;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) throw new IllegalStateException();
+            HashHandleMap.this.remove(this.last);
+            this.last = null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * iterate all entries in the order of the table slots. The iteration is not ordered and may miss
+     * or repeat entries if the map is changed during the iteration. The iterator does not support remove()
+     * because the backward shift of a deletion moves later entries into slots which were already visited.
+     */
+    @Override
+    public Iterator<Map.Entry<byte[], Long>> iterator() {
+        return new Iterator<Map.Entry<byte[], Long>>() {
+
+            private int s = -1; // the slot of the next entry
+            private Map.Entry<byte[], Long> next = advance();
+
+            private Map.Entry<byte[], Long> advance() {
+                synchronized (HashHandleMap.this) {
+                    if (HashHandleMap.this.table == null) return null;
+                    while (++this.s < HashHandleMap.this.capacity) {
+                        if (HashHandleMap.this.table.get(this.s * HashHandleMap.this.slotsize) != FREE) {
+                            return new AbstractMap.SimpleImmutableEntry<byte[], Long>(keyAt(this.s), valueAt(this.s));
+                        }
+                    }
+                    return null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], Long> next() {
+                if (this.next == null) throw new NoSuchElementException();
+                final Map.Entry<byte[], Long> e = this.next;
+                this.next = advance();
+                return e;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,291 @@
+/**
+ *  IndexCheckpoint
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import net.yacy.cora.order.Digest;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A checkpoint is a dump of the key/position index of a data file (a table or a heap file)
+ * together with the length of the data file at the time when the checkpoint was written.
+ * If a data file is only appended after a checkpoint was written, the index can be restored
+ * from the checkpoint and the entries that were appended after the checkpoint; the data file
+ * needs not to be scanned completely. Any other write operation to the data file makes the
+ * checkpoint invalid and the owner of the data file must delete the checkpoint.
+ *
+ * The checkpoint file format is:
+ * magic (4 bytes), version (int), data file path (UTF), key length (int), covered length of the
+ * data file (long), number of index entries (int), the index entries as {key, position (long)},
+ * number of gap entries (int), the gap entries as {position (long), size (int)}, CRC32 of everything before (long).
+ * The file is read in one sequential pass.
+ *
+ * All checkpoints are stored in one directory, the file name is the hash of the data file path.
+ * If no directory is set with setLocation(), no checkpoints are written or read.
+ */
+public final class IndexCheckpoint {
+
+    private final static ConcurrentLog log = new ConcurrentLog("CHECKPOINT");
+
+    private final static int MAGIC = 0x5943504b; // "YCPK"
+    private final static int VERSION = 1;
+    private final static String SUFFIX = ".ckp";
+
+    /**
+     * owners of data files which can write a checkpoint
+     */
+    public interface Checkpointable {
+
+        /**
+         * write a checkpoint if the data file was changed since the last checkpoint
+         * @throws IOException
+         */
+        public void checkpoint() throws IOException;
+    }
+
+    private static File location = null;
+    private static final Set<Checkpointable> participants = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Checkpointable, Boolean>()));
+    private static long lastCheckpoint = System.currentTimeMillis();
+
+    /**
+     * set the directory for all checkpoint files and delete checkpoints of data files
+     * that do not exist any more
+     * @param path the directory or null to switch off checkpoints
+     */
+    public static void setLocation(final File path) {
+        location = path;
+        if (path == null) return;
+        path.mkdirs();
+        final String[] l = path.list();
+        if (l == null) return;
+        for (final String s: l) {
+            if (!s.endsWith(SUFFIX)) continue;
+            final File f = new File(path, s);
+            try {
+                final File data = dataFile(f);
+                if (data == null || !data.exists()) FileUtils.deletedelete(f);
+            } catch (final IOException e) {
+                FileUtils.deletedelete(f);
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return location != null;
+    }
+
+    /**
+     * @param data a data file
+     * @return the checkpoint file for the data file or null if checkpoints are switched off
+     */
+    public static File file(final File data) {
+        final File path = location;
+        if (path == null) return null;
+        return new File(path, Digest.encodeMD5Hex(data.getAbsolutePath()) + SUFFIX);
+    }
+
+    public static boolean exists(final File data) {
+        final File f = file(data);
+        return f != null && f.exists();
+    }
+
+    public static void delete(final File data) {
+        final File f = file(data);
+        if (f != null && f.exists()) FileUtils.deletedelete(f);
+    }
+
+    public static void register(final Checkpointable c) {
+        participants.add(c);
+    }
+
+    public static void unregister(final Checkpointable c) {
+        participants.remove(c);
+    }
+
+    /**
+     * write checkpoints for all registered data files that have been changed, but only
+     * if the last run is longer ago than the given time
+     * @param interval minimum time in milliseconds between two runs
+     * @return the number of data files that have been asked for a checkpoint
+     */
+    public static int checkpointAll(final long interval) {
+        if (location == null || System.currentTimeMillis() - lastCheckpoint < interval) return 0;
+        final ArrayList<Checkpointable> list;
+        synchronized (participants) {
+            list = new ArrayList<Checkpointable>(participants);
+        }
+        for (final Checkpointable c: list) {
+            try {
+                c.checkpoint();
+            } catch (final IOException e) {
+                log.warn("cannot write checkpoint: " + e.getMessage(), e);
+            }
+        }
+        lastCheckpoint = System.currentTimeMillis();
+        return list.size();
+    }
+
+    /**
+     * write a checkpoint. The caller must prevent any change to the index and gaps during this call.
+     * @param data the data file
+     * @param index the index of the data file
+     * @param keylength the length of the keys in the index
+     * @param gaps a map of {position, size} pairs of free space in the data file or null
+     * @param covered the length of the data file (in bytes or records, as the owner counts) that is represented by the index
+     * @return true if a checkpoint was written, false if checkpoints are switched off
+     * @throws IOException
+     */
+    public static boolean write(final File data, final HandleMap index, final int keylength, final Map<Long, Integer> gaps, final long covered) throws IOException {
+        final File f = file(data);
+        if (f == null) return false;
+        final long start = System.currentTimeMillis();
+        final File tmp = new File(f.getParentFile(), f.getName() + ".prt");
+        final CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 1024), new CRC32());
+        final DataOutputStream os = new DataOutputStream(cos);
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeUTF(data.getAbsolutePath());
+            os.writeInt(keylength);
+            os.writeLong(covered);
+            os.writeInt(index.size());
+            int c = 0;
+            for (final Map.Entry<byte[], Long> entry: index) {
+                os.write(entry.getKey(), 0, keylength);
+                os.writeLong(entry.getValue().longValue());
+                c++;
+            }
+            if (c != index.size()) throw new IOException("index of " + data + " changed while writing the checkpoint");
+            if (gaps == null) {
+                os.writeInt(0);
+            } else {
+                os.writeInt(gaps.size());
+                for (final Map.Entry<Long, Integer> entry: gaps.entrySet()) {
+                    os.writeLong(entry.getKey().longValue());
+                    os.writeInt(entry.getValue().intValue());
+                }
+            }
+            os.flush();
+            os.writeLong(cos.getChecksum().getValue());
+        } finally {
+            os.close();
+        }
+        // replace the old checkpoint
+        if (f.exists()) FileUtils.deletedelete(f);
+        if (!tmp.renameTo(f)) throw new IOException("cannot rename " + tmp + " to " + f);
+        if (log.isFine()) log.fine("wrote checkpoint for " + data + " with " + index.size() + " entries in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return true;
+    }
+
+    /**
+     * read a checkpoint into an empty index.
+     * @param data the data file
+     * @param index an empty index that is filled with the content of the checkpoint
+     * @param gaps a map that is filled with the gaps or null if the owner does not have gaps
+     * @return the covered length of the data file or -1 if there is no checkpoint
+     * @throws IOException if the checkpoint is corrupt or does not belong to the data file
+     * @throws SpaceExceededException
+     */
+    public static long read(final File data, final HandleMap index, final Map<Long, Integer> gaps) throws IOException, SpaceExceededException {
+        final File f = file(data);
+        if (f == null || !f.exists()) return -1;
+        final long start = System.currentTimeMillis();
+        final CheckedInputStream cis = new CheckedInputStream(new BufferedInputStream(new FileInputStream(f), 1024 * 1024), new CRC32());
+        final DataInputStream is = new DataInputStream(cis);
+        final long covered;
+        try {
+            if (is.readInt() != MAGIC) throw new IOException("not a checkpoint: " + f);
+            final int version = is.readInt();
+            if (version != VERSION) throw new IOException("unsupported checkpoint version " + version + ": " + f);
+            final String path = is.readUTF();
+            if (!path.equals(data.getAbsolutePath())) throw new IOException("checkpoint " + f + " belongs to " + path);
+            final int keylength = is.readInt();
+            covered = is.readLong();
+            int count = is.readInt();
+            // read the entries in chunks; this is one sequential read of the whole file
+            final int entrylength = keylength + 8;
+            final byte[] chunk = new byte[entrylength * Math.max(1, Math.min(count, 65536))];
+            while (count > 0) {
+                final int n = Math.min(count, chunk.length / entrylength);
+                is.readFully(chunk, 0, n * entrylength);
+                for (int i = 0; i < n; i++) {
+                    final byte[] key = new byte[keylength];
+                    System.arraycopy(chunk, i * entrylength, key, 0, keylength);
+                    index.putUnique(key, readLong(chunk, i * entrylength + keylength));
+                }
+                count -= n;
+            }
+            count = is.readInt();
+            for (int i = 0; i < count; i++) {
+                final long pos = is.readLong();
+                final int size = is.readInt();
+                if (gaps != null) gaps.put(pos, size);
+            }
+            final long checksum = cis.getChecksum().getValue();
+            if (is.readLong() != checksum) throw new IOException("checksum error in checkpoint " + f);
+        } finally {
+            is.close();
+        }
+        log.info("read checkpoint for " + data + " with " + index.size() + " entries in " + (System.currentTimeMillis() - start) + " milliseconds");
+        return covered;
+    }
+
+    private static File dataFile(final File checkpoint) throws IOException {
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint), 4096));
+        try {
+            if (is.readInt() != MAGIC) return null;
+            is.readInt(); // version
+            return new File(is.readUTF());
+        } finally {
+            is.close();
+        }
+    }
+
+    private static long readLong(final byte[] b, final int offset) {
+        long l = 0;
+        for (int i = 0; i < 8; i++) l = (l << 8) | (b[offset + i] & 0xff);
+        return l;
+    }
+
+}
@@ -31,7 +31,11 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.yacy.cora.order.CloneableIterator;
 import net.yacy.cora.util.SpaceExceededException;
@@ -39,42 +43,214 @@ import net.yacy.kelondro.index.Row.Entry;
 import net.yacy.kelondro.util.MergeIterator;
 import net.yacy.kelondro.util.StackIterator;
 
-
+/**
+ * A RAMIndex holds the rows in two RowStores: index0 is filled during the initialization and is sorted
+ * afterwards, all later rows go into index1.
+ * Lookups with has() and get() share a read lock, all other operations take the write lock. Lookups never
+ * sort the unsorted region of a store, this is done by the next write. Indexes which are named in
+ * setConcurrentIndexNames() even sort and grow index1 in a copy while readers continue to use the old store;
+ * readers are then only blocked while the store is exchanged and while single rows are written.
+ */
 public final class RAMIndex implements Index, Iterable<Row.Entry> {
 
     private static final Map<String, RAMIndex> objectTracker = Collections.synchronizedSortedMap(new TreeMap<String, RAMIndex>());
 
+    /** names or name fragments of indexes which shall store their rows in native memory */
+    private static final Set<String> directIndexNames = new CopyOnWriteArraySet<String>();
+
+    /** names or name fragments of indexes which shall re-organize their rows without blocking readers */
+    private static final Set<String> concurrentIndexNames = new CopyOnWriteArraySet<String>();
+
     private final String name;
     private final Row rowdef;
-    private RowSet index0;
-    private RowSet index1;
+    private final boolean direct;
+    private final boolean concurrent;
+    private RowStore index0;
+    private RowStore index1;
     private final Row.EntryComparator entryComparator;
+    private final ReentrantReadWriteLock lock;
+    private final LongAdder lockRequests, lockWaits; // contention statistics
     //private final int spread;
 
     public RAMIndex(final String name, final Row rowdef) {
+        this(name, rowdef, isDirectIndex(name));
+    }
+
+    /**
+     * create a RAM index
+     * @param name the name of the index, must be unique
+     * @param rowdef the row definition
+     * @param direct if true, the rows are stored outside of the java heap in native memory
+     */
+    public RAMIndex(final String name, final Row rowdef, final boolean direct) {
         this.name = name;
         this.rowdef = rowdef;
+        this.direct = direct;
+        this.concurrent = matches(concurrentIndexNames, name);
         this.entryComparator = new Row.EntryComparator(rowdef.objectOrder);
+        this.lock = new ReentrantReadWriteLock();
+        this.lockRequests = new LongAdder();
+        this.lockWaits = new LongAdder();
         reset();
         objectTracker.put(name, this);
     }
 
-    private RAMIndex(final String name, final Row rowdef, final RowSet index0, final RowSet index1, final Row.EntryComparator entryComparator) {
+    private RAMIndex(final String name, final Row rowdef, final boolean direct, final RowStore index0, final RowStore index1, final Row.EntryComparator entryComparator) {
         this.name = name;
         this.rowdef = rowdef;
+        this.direct = direct;
+        this.concurrent = matches(concurrentIndexNames, name);
         this.index0 = index0;
         this.index1 = index1;
         this.entryComparator = entryComparator;
+        this.lock = new ReentrantReadWriteLock();
+        this.lockRequests = new LongAdder();
+        this.lockWaits = new LongAdder();
         objectTracker.put(name, this);
     }
 
+    private static Set<String> names(final Set<String> set, final Collection<String> names) {
+        set.clear();
+        for (final String n: names) {
+            if (n != null && !n.trim().isEmpty()) set.add(n.trim());
+        }
+        return set;
+    }
+
+    private static boolean matches(final Set<String> set, final String name) {
+        if (name == null) return false;
+        for (final String n: set) {
+            if (name.contains(n)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * set the names of the indexes which shall store their rows in native memory.
+     * This affects only indexes which are created after this call.
+     * @param names a collection of index names or fragments of index names
+     */
+    public static void setDirectIndexNames(final Collection<String> names) {
+        names(directIndexNames, names);
+    }
+
+    static boolean isDirectIndex(final String name) {
+        return matches(directIndexNames, name);
+    }
+
+    /**
+     * set the names of the indexes which shall sort and grow their rows in a copy, so that readers are not
+     * blocked by the re-organization. This needs temporary memory for the copy of the store.
+     * This affects only indexes which are created after this call.
+     * @param names a collection of index names or fragments of index names
+     */
+    public static void setConcurrentIndexNames(final Collection<String> names) {
+        names(concurrentIndexNames, names);
+    }
+
+    /**
+     * @return true if the rows of this index are stored in native memory outside of the java heap
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * @return true if this index re-organizes its rows without blocking readers
+     */
+    public boolean isConcurrent() {
+        return this.concurrent;
+    }
+
+    /**
+     * @return the number of lock acquisitions of this index
+     */
+    public long lockRequests() {
+        return this.lockRequests.sum();
+    }
+
+    /**
+     * @return the number of lock acquisitions which had to wait for another thread
+     */
+    public long lockWaits() {
+        return this.lockWaits.sum();
+    }
+
+    private void lockRead() {
+        this.lockRequests.increment();
+        if (this.lock.isWriteLocked() || this.lock.hasQueuedThreads()) this.lockWaits.increment();
+        this.lock.readLock().lock();
+    }
+
+    private void unlockRead() {
+        this.lock.readLock().unlock();
+    }
+
+    /**
+     * get the exclusive access to the stores. The caller must hold the monitor of this object,
+     * which serializes all writers; readers only use the read lock.
+     */
+    private void lockWrite() {
+        reorganize();
+        this.lockRequests.increment();
+        if (this.lock.isWriteLocked() || this.lock.getReadLockCount() > 0 || this.lock.hasQueuedThreads()) this.lockWaits.increment();
+        this.lock.writeLock().lock();
+    }
+
+    private void unlockWrite() {
+        this.lock.writeLock().unlock();
+    }
+
+    /**
+     * if index1 would be sorted or grown by the next write, do this in a sorted copy
+     * while readers still use the current store; then exchange the stores.
+     * The caller must hold the monitor of this object.
+     */
+    private void reorganize() {
+        if (!this.concurrent || !(this.index1 instanceof RowSet)) return;
+        final RowSet store = (RowSet) this.index1;
+        if (!store.needsReorganization()) return;
+        final RowSet copy;
+        try {
+            copy = store.sortedCopy(store.size() / 4 + 100);
+        } catch (final SpaceExceededException e) {
+            return; // the store will be sorted or grown in place
+        }
+        this.lockRequests.increment();
+        if (this.lock.getReadLockCount() > 0 || this.lock.hasQueuedThreads()) this.lockWaits.increment();
+        this.lock.writeLock().lock();
+        try {
+            this.index1 = copy;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private RowStore newStore() {
+        return this.direct ? new DirectRowSet(this.rowdef) : new RowSet(this.rowdef);
+    }
+
+    private RowStore newStore(final int initialspace) throws SpaceExceededException {
+        return this.direct ? new DirectRowSet(this.rowdef, initialspace) : new RowSet(this.rowdef, initialspace);
+    }
+
     public static final Iterator<Map.Entry<String, RAMIndex>> objects() {
         return objectTracker.entrySet().iterator();
     }
 
     @Override
     public RAMIndex clone() {
-        return new RAMIndex(this.name + ".clone", this.rowdef, this.index0.clone(), this.index1.clone(), this.entryComparator);
+        final RowStore clone0 = this.index0.clone();
+        final RowStore clone1 = clone0 == null ? null : this.index1.clone();
+        if (clone1 != null) return new RAMIndex(this.name + ".clone", this.rowdef, this.direct, clone0, clone1, this.entryComparator);
+
+        // the native memory limit does not allow a direct copy, the clone is made on the java heap
+        if (clone0 != null) clone0.close();
+        return new RAMIndex(this.name + ".clone", this.rowdef, false, heapCopy(this.index0), heapCopy(this.index1), this.entryComparator);
+    }
+
+    private static RowStore heapCopy(final RowStore store) {
+        return store instanceof DirectRowSet ? ((DirectRowSet) store).heapCopy() : store.clone();
     }
 
     @Override
@@ -83,21 +259,36 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
 	}
 
     @Override
-    public void optimize() {
-        if (this.index0 != null) this.index0.optimize();
-        if (this.index1 != null) this.index1.optimize();
+    public synchronized void optimize() {
+        lockWrite();
+        try {
+            if (this.index0 != null) this.index0.optimize();
+            if (this.index1 != null) this.index1.optimize();
+        } finally {
+            unlockWrite();
+        }
     }
 
     public final synchronized void reset() {
-        this.index0 = null; // first flush RAM to make room
-        this.index0 = new RowSet(this.rowdef);
-        this.index1 = null; // to show that this is the initialization phase
+        lockWrite();
+        try {
+            this.index0 = null; // first flush RAM to make room
+            this.index0 = newStore();
+            this.index1 = null; // to show that this is the initialization phase
+        } finally {
+            unlockWrite();
+        }
     }
 
     public final synchronized void reset(final int initialspace) throws SpaceExceededException {
-        this.index0 = null; // first flush RAM to make room
-        this.index0 = new RowSet(this.rowdef, initialspace);
-        this.index1 = null; // to show that this is the initialization phase
+        lockWrite();
+        try {
+            this.index0 = null; // first flush RAM to make room
+            this.index0 = newStore(initialspace);
+            this.index1 = null; // to show that this is the initialization phase
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
@@ -111,38 +302,71 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
             this.index0.sort();
             this.index0.uniq();
             this.index0.trim();
-            this.index1 = new RowSet(this.rowdef); //new RowSetArray(rowdef, spread);
+            this.index1 = newStore(); //new RowSetArray(rowdef, spread);
         }
     }
 
     @Override
     public final synchronized byte[] smallestKey() {
-        final byte[] b0 = this.index0.smallestKey();
-        if (b0 == null) return null;
-        if (this.index1 == null) return b0;
-        final byte[] b1 = this.index0.smallestKey();
-        if (b1 == null || this.rowdef.objectOrder.compare(b1, b0) > 0) return b0;
-        return b1;
+        lockWrite();
+        try {
+            final byte[] b0 = this.index0.smallestKey();
+            if (b0 == null) return null;
+            if (this.index1 == null) return b0;
+            final byte[] b1 = this.index0.smallestKey();
+            if (b1 == null || this.rowdef.objectOrder.compare(b1, b0) > 0) return b0;
+            return b1;
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
     public final synchronized byte[] largestKey() {
-        final byte[] b0 = this.index0.largestKey();
-        if (b0 == null) return null;
-        if (this.index1 == null) return b0;
-        final byte[] b1 = this.index0.largestKey();
-        if (b1 == null || this.rowdef.objectOrder.compare(b0, b1) > 0) return b0;
-        return b1;
+        lockWrite();
+        try {
+            final byte[] b0 = this.index0.largestKey();
+            if (b0 == null) return null;
+            if (this.index1 == null) return b0;
+            final byte[] b1 = this.index0.largestKey();
+            if (b1 == null || this.rowdef.objectOrder.compare(b0, b1) > 0) return b0;
+            return b1;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * finish the initialization phase; this is a write which is only done once
+     */
+    private void initialized() {
+        synchronized (this) {
+            lockWrite();
+            try {
+                finishInitialization();
+            } finally {
+                unlockWrite();
+            }
+        }
     }
 
     @Override
-    public final synchronized Row.Entry get(final byte[] key, final boolean forceclone) {
+    public final Row.Entry get(final byte[] key, final boolean forceclone) {
         assert (key != null);
-        finishInitialization();
-        assert this.index0.isSorted();
-        final Row.Entry indexentry = this.index0.get(key, forceclone);
-        if (indexentry != null) return indexentry;
-        return this.index1.get(key, forceclone);
+        while (true) {
+            lockRead();
+            try {
+                if (this.index1 != null) {
+                    assert this.index0.isSorted();
+                    final Row.Entry indexentry = this.index0.getShared(key, forceclone);
+                    if (indexentry != null) return indexentry;
+                    return this.index1.getShared(key, forceclone);
+                }
+            } finally {
+                unlockRead();
+            }
+            initialized();
+        }
     }
 
     @Override
@@ -157,27 +381,41 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
     }
 
     @Override
-    public final synchronized boolean has(final byte[] key) {
+    public final boolean has(final byte[] key) {
 		assert (key != null);
-        finishInitialization();
-        assert this.index0.isSorted();
-        if (this.index0.has(key)) return true;
-        return this.index1.has(key);
+        while (true) {
+            lockRead();
+            try {
+                if (this.index1 != null) {
+                    assert this.index0.isSorted();
+                    if (this.index0.hasShared(key)) return true;
+                    return this.index1.hasShared(key);
+                }
+            } finally {
+                unlockRead();
+            }
+            initialized();
+        }
 	}
 
 	@Override
     public final synchronized Row.Entry replace(final Row.Entry entry) throws SpaceExceededException {
         assert (entry != null);
-        finishInitialization();
-        // if the new entry is within the initialization part, just overwrite it
-        assert this.index0.isSorted();
-        final byte[] key = entry.getPrimaryKeyBytes();
-        if (this.index0.has(key)) {
-            // replace the entry
-            return this.index0.replace(entry);
+        lockWrite();
+        try {
+            finishInitialization();
+            // if the new entry is within the initialization part, just overwrite it
+            assert this.index0.isSorted();
+            final byte[] key = entry.getPrimaryKeyBytes();
+            if (this.index0.has(key)) {
+                // replace the entry
+                return this.index0.replace(entry);
+            }
+            // else place it in the index1
+            return this.index1.replace(entry);
+        } finally {
+            unlockWrite();
         }
-        // else place it in the index1
-        return this.index1.replace(entry);
     }
 
 	/**
@@ -192,17 +430,22 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
         assert (entry != null);
         if (entry == null) return true;
         synchronized (this) {
-            finishInitialization();
-            // if the new entry is within the initialization part, just overwrite it
-            assert this.index0.isSorted();
-            final byte[] key = entry.getPrimaryKeyBytes();
-            if (this.index0.has(key)) {
-                // replace the entry
-                this.index0.put(entry);
-                return false;
+            lockWrite();
+            try {
+                finishInitialization();
+                // if the new entry is within the initialization part, just overwrite it
+                assert this.index0.isSorted();
+                final byte[] key = entry.getPrimaryKeyBytes();
+                if (this.index0.has(key)) {
+                    // replace the entry
+                    this.index0.put(entry);
+                    return false;
+                }
+                // else place it in the index1
+                return this.index1.put(entry);
+            } finally {
+                unlockWrite();
             }
-            // else place it in the index1
-            return this.index1.put(entry);
         }
     }
 
@@ -211,13 +454,18 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
     	assert (entry != null);
     	if (entry == null) return;
     	synchronized (this) {
-            if (this.index1 == null) {
-                // we are in the initialization phase
-            	this.index0.addUnique(entry);
-            	return;
-            }
-            // initialization is over, add to secondary index
-            this.index1.addUnique(entry);
+    	    lockWrite();
+    	    try {
+                if (this.index1 == null) {
+                    // we are in the initialization phase
+                	this.index0.addUnique(entry);
+                	return;
+                }
+                // initialization is over, add to secondary index
+                this.index1.addUnique(entry);
+    	    } finally {
+    	        unlockWrite();
+    	    }
     	}
     }
 
@@ -228,89 +476,124 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
 
 	public final synchronized long inc(final byte[] key, final int col, final long add, final Row.Entry initrow) throws SpaceExceededException {
         assert (key != null);
-        finishInitialization();
-        assert this.index0.isSorted();
-        final long l = this.index0.inc(key, col, add, null);
-        if (l != Long.MIN_VALUE) return l;
-        return this.index1.inc(key, col, add, initrow);
+        lockWrite();
+        try {
+            finishInitialization();
+            assert this.index0.isSorted();
+            final long l = this.index0.inc(key, col, add, null);
+            if (l != Long.MIN_VALUE) return l;
+            return this.index1.inc(key, col, add, initrow);
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
     public final synchronized ArrayList<RowCollection> removeDoubles() throws SpaceExceededException {
-	    // finish initialization phase explicitely
-        this.index0.sort();
-	    if (this.index1 == null) {
-	        return this.index0.removeDoubles();
-	    }
-	    final ArrayList<RowCollection> d0 = this.index0.removeDoubles();
-	    final ArrayList<RowCollection> d1 = this.index1.removeDoubles();
-        d0.addAll(d1);
-        return d0;
+        lockWrite();
+        try {
+    	    // finish initialization phase explicitely
+            this.index0.sort();
+    	    if (this.index1 == null) {
+    	        return this.index0.removeDoubles();
+    	    }
+    	    final ArrayList<RowCollection> d0 = this.index0.removeDoubles();
+    	    final ArrayList<RowCollection> d1 = this.index1.removeDoubles();
+            d0.addAll(d1);
+            return d0;
+        } finally {
+            unlockWrite();
+        }
 	}
 
     @Override
     public final synchronized boolean delete(final byte[] key) {
-        finishInitialization();
-        // if the new entry is within the initialization part, just delete it
-        boolean b = this.index0.delete(key);
-        if (b) {
-            assert !this.index0.has(key); // check if remove worked
-            return true;
+        lockWrite();
+        try {
+            finishInitialization();
+            // if the new entry is within the initialization part, just delete it
+            boolean b = this.index0.delete(key);
+            if (b) {
+                assert !this.index0.has(key); // check if remove worked
+                return true;
+            }
+            // else remove it from the index1
+            b = this.index1.delete(key);
+            assert this.index1.has(key) : "removed " + ((b) ? " true" : " false") + ", and index entry still exists"; // check if remove worked
+            return b;
+        } finally {
+            unlockWrite();
         }
-        // else remove it from the index1
-        b = this.index1.delete(key);
-        assert this.index1.has(key) : "removed " + ((b) ? " true" : " false") + ", and index entry still exists"; // check if remove worked
-        return b;
     }
 
     @Override
     public final synchronized Row.Entry remove(final byte[] key) {
-        finishInitialization();
-        // if the new entry is within the initialization part, just delete it
-        int s = this.index0.size();
-        final Row.Entry indexentry = this.index0.remove(key);
-        if (indexentry != null) {
-            assert this.index0.size() < s: "s = " + s + ", index0.size() = " + this.index0.size();
-            assert !this.index0.has(key); // check if remove worked
-            return indexentry;
-        }
-        // else remove it from the index1
-        s = this.index1.size();
-        final Row.Entry removed = this.index1.remove(key);
-        assert removed == null || this.index1.size() < s: "s = " + s + ", index1.size() = " + this.index1.size();
-        assert !this.index1.has(key) : "removed " + ((removed == null) ? " is null" : " is not null") + ", and index entry still exists"; // check if remove worked
-        return removed;
+        lockWrite();
+        try {
+            finishInitialization();
+            // if the new entry is within the initialization part, just delete it
+            int s = this.index0.size();
+            final Row.Entry indexentry = this.index0.remove(key);
+            if (indexentry != null) {
+                assert this.index0.size() < s: "s = " + s + ", index0.size() = " + this.index0.size();
+                assert !this.index0.has(key); // check if remove worked
+                return indexentry;
+            }
+            // else remove it from the index1
+            s = this.index1.size();
+            final Row.Entry removed = this.index1.remove(key);
+            assert removed == null || this.index1.size() < s: "s = " + s + ", index1.size() = " + this.index1.size();
+            assert !this.index1.has(key) : "removed " + ((removed == null) ? " is null" : " is not null") + ", and index entry still exists"; // check if remove worked
+            return removed;
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
     public final synchronized Row.Entry removeOne() {
-        if (this.index1 != null && !this.index1.isEmpty()) {
-            return this.index1.removeOne();
-        }
-        if (this.index0 != null && !this.index0.isEmpty()) {
-        	return this.index0.removeOne();
+        lockWrite();
+        try {
+            if (this.index1 != null && !this.index1.isEmpty()) {
+                return this.index1.removeOne();
+            }
+            if (this.index0 != null && !this.index0.isEmpty()) {
+            	return this.index0.removeOne();
+            }
+            return null;
+        } finally {
+            unlockWrite();
         }
-        return null;
     }
 
     @Override
     public synchronized List<Row.Entry> top(final int count) throws IOException {
-        final List<Row.Entry> list = new ArrayList<Row.Entry>();
-        List<Row.Entry> list0 = this.index1.top(count);
-        list.addAll(list0);
-        list0 = this.index0.top(count - list.size());
-        list.addAll(list0);
-        return list;
+        lockWrite();
+        try {
+            final List<Row.Entry> list = new ArrayList<Row.Entry>();
+            List<Row.Entry> list0 = this.index1.top(count);
+            list.addAll(list0);
+            list0 = this.index0.top(count - list.size());
+            list.addAll(list0);
+            return list;
+        } finally {
+            unlockWrite();
+        }
     }
     
     @Override
     public synchronized List<Row.Entry> random(final int count) throws IOException {
-        final List<Row.Entry> list = new ArrayList<Row.Entry>();
-        List<Row.Entry> list0 = this.index1.random(count);
-        list.addAll(list0);
-        list0 = this.index0.random(count - list.size());
-        list.addAll(list0);
-        return list;
+        lockWrite();
+        try {
+            final List<Row.Entry> list = new ArrayList<Row.Entry>();
+            List<Row.Entry> list0 = this.index1.random(count);
+            list.addAll(list0);
+            list0 = this.index0.random(count - list.size());
+            list.addAll(list0);
+            return list;
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
@@ -354,63 +637,73 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
 
     @Override
     public final synchronized CloneableIterator<byte[]> keys(final boolean up, final byte[] firstKey) {
-        // returns the key-iterator of the underlying kelondroIndex
-        if (this.index1 == null) {
-            // finish initialization phase
-            this.index0.sort();
-            this.index0.uniq();
-            this.index1 = new RowSet(this.rowdef); //new RowSetArray(rowdef, spread);
-            return this.index0.keys(up, firstKey);
-        }
-        assert (this.index1 != null);
-        if (this.index0 == null) {
+        lockWrite();
+        try {
+            // returns the key-iterator of the underlying kelondroIndex
+            if (this.index1 == null) {
+                // finish initialization phase
+                this.index0.sort();
+                this.index0.uniq();
+                this.index1 = newStore(); //new RowSetArray(rowdef, spread);
+                return this.index0.keys(up, firstKey);
+            }
+            assert (this.index1 != null);
+            if (this.index0 == null) {
+                //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
+                return this.index1.keys(up, firstKey);
+            }
+            // index0 should be sorted
+            // sort index1 to enable working of the merge iterator
             //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-            return this.index1.keys(up, firstKey);
-        }
-        // index0 should be sorted
-        // sort index1 to enable working of the merge iterator
-        //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-        final CloneableIterator<byte[]> k0 = this.index0.keys(up, firstKey);
-        final CloneableIterator<byte[]> k1 = this.index1.keys(up, firstKey);
-        if (k0 == null) return k1;
-        if (k1 == null) return k0;
-        return new MergeIterator<byte[]>(
-                k0,
-                k1,
-                this.rowdef.objectOrder,
-                MergeIterator.simpleMerge,
-                up);
+            final CloneableIterator<byte[]> k0 = this.index0.keys(up, firstKey);
+            final CloneableIterator<byte[]> k1 = this.index1.keys(up, firstKey);
+            if (k0 == null) return k1;
+            if (k1 == null) return k0;
+            return new MergeIterator<byte[]>(
+                    k0,
+                    k1,
+                    this.rowdef.objectOrder,
+                    MergeIterator.simpleMerge,
+                    up);
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
     public final synchronized CloneableIterator<Row.Entry> rows(final boolean up, final byte[] firstKey) {
-        // returns the row-iterator of the underlying kelondroIndex
-        if (this.index1 == null) {
-            // finish initialization phase
-            this.index0.sort();
-            this.index0.uniq();
-            this.index1 = new RowSet(this.rowdef); //new RowSetArray(rowdef, spread);
-            return this.index0.rows(up, firstKey);
-        }
-        assert (this.index1 != null);
-        if (this.index0 == null) {
+        lockWrite();
+        try {
+            // returns the row-iterator of the underlying kelondroIndex
+            if (this.index1 == null) {
+                // finish initialization phase
+                this.index0.sort();
+                this.index0.uniq();
+                this.index1 = newStore(); //new RowSetArray(rowdef, spread);
+                return this.index0.rows(up, firstKey);
+            }
+            assert (this.index1 != null);
+            if (this.index0 == null) {
+                //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
+                return this.index1.rows(up, firstKey);
+            }
+            // index0 should be sorted
+            // sort index1 to enable working of the merge iterator
+            //index1.sort();
             //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-            return this.index1.rows(up, firstKey);
-        }
-        // index0 should be sorted
-        // sort index1 to enable working of the merge iterator
-        //index1.sort();
-        //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-        final CloneableIterator<Row.Entry> k0 = this.index0.rows(up, firstKey);
-        final CloneableIterator<Row.Entry> k1 = this.index1.rows(up, firstKey);
-        if (k0 == null) return k1;
-        if (k1 == null) return k0;
-        return new MergeIterator<Row.Entry>(
-                k0,
-                k1,
-                this.entryComparator,
-                MergeIterator.simpleMerge,
-                up);
+            final CloneableIterator<Row.Entry> k0 = this.index0.rows(up, firstKey);
+            final CloneableIterator<Row.Entry> k1 = this.index1.rows(up, firstKey);
+            if (k0 == null) return k1;
+            if (k1 == null) return k0;
+            return new MergeIterator<Row.Entry>(
+                    k0,
+                    k1,
+                    this.entryComparator,
+                    MergeIterator.simpleMerge,
+                    up);
+        } finally {
+            unlockWrite();
+        }
     }
 
     @Override
@@ -420,31 +713,41 @@ public final class RAMIndex implements Index, Iterable<Row.Entry> {
 
     @Override
     public final synchronized CloneableIterator<Row.Entry> rows() {
-        // returns the row-iterator of the underlying kelondroIndex
-        if (this.index1 == null) {
-            // finish initialization phase
-            this.index0.sort();
-            this.index0.uniq();
-            this.index1 = new RowSet(this.rowdef); //new RowSetArray(rowdef, spread);
-            return this.index0.rows();
-        }
-        assert (this.index1 != null);
-        if (this.index0 == null) {
+        lockWrite();
+        try {
+            // returns the row-iterator of the underlying kelondroIndex
+            if (this.index1 == null) {
+                // finish initialization phase
+                this.index0.sort();
+                this.index0.uniq();
+                this.index1 = newStore(); //new RowSetArray(rowdef, spread);
+                return this.index0.rows();
+            }
+            assert (this.index1 != null);
+            if (this.index0 == null) {
+                //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
+                return this.index1.rows();
+            }
+            // index0 should be sorted
+            // sort index1 to enable working of the merge iterator
+            //index1.sort();
             //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-            return this.index1.rows();
+            return new StackIterator<Row.Entry>(this.index0.rows(), this.index1.rows(), null, true);
+        } finally {
+            unlockWrite();
         }
-        // index0 should be sorted
-        // sort index1 to enable working of the merge iterator
-        //index1.sort();
-        //assert consistencyAnalysis0() : "consistency problem: " + consistencyAnalysis();
-        return new StackIterator<Row.Entry>(this.index0.rows(), this.index1.rows(), null, true);
     }
 
     @Override
     public final synchronized void close() {
-        if (this.index0 != null) this.index0.close();
-        if (this.index1 != null) this.index1.close();
-        objectTracker.remove(this.name);
+        lockWrite();
+        try {
+            if (this.index0 != null) this.index0.close();
+            if (this.index1 != null) this.index1.close();
+            objectTracker.remove(this.name);
+        } finally {
+            unlockWrite();
+        }
     }
 
 	@Override
@@ -238,6 +238,37 @@ public final class Row implements Serializable {
 
     }
 
+    /**
+     * decode a cardinal cell
+     * @param b the array which contains the cell
+     * @param start the position of the cell within b
+     * @param encoder the encoder of the column
+     * @param length the width of the cell
+     * @return the decoded number
+     */
+    public static final long decodeLong(final byte[] b, final int start, final int encoder, final int length) {
+        switch (encoder) {
+        case Column.encoder_none:
+            throw new kelondroException("ROW", "getColLong has celltype none, no encoder given");
+        case Column.encoder_b64e:
+            // start - fix for badly stored parameters
+            if ((length >= 3) && (b[start] == '[') && (b[start + 1] == 'B') && (b[start + 2] == '@')) return 0;
+            if ((length == 2) && (b[start] == '[') && (b[start + 1] == 'B')) return 0;
+            if ((length == 1) && (b[start] == '[')) return 0;
+            boolean maxvalue = true;
+            for (int i = 0; i < length; i++) if (b[start + i] != '_') {maxvalue = false; break;}
+            if (maxvalue) return 0;
+            // stop - fix for badly stored parameters
+            return Base64Order.enhancedCoder.decodeLong(b, start, length);
+        case Column.encoder_b256:
+            return NaturalOrder.decodeLong(b, start, length);
+        case Column.encoder_bytes:
+            throw new kelondroException("ROW", "getColLong of celltype bytes not applicable");
+        default:
+            throw new kelondroException("ROW", "getColLong did not find appropriate encoding");
+        }
+    }
+
     public class Entry implements Comparable<Entry>, Comparator<Entry>, Cloneable, Serializable {
 
         private static final long serialVersionUID=-2576312347345553495L;
@@ -545,26 +576,7 @@ public final class Row implements Serializable {
         }
 
         protected final long getColLong(final int encoder, final int clstrt, final int length) {
-            switch (encoder) {
-            case Column.encoder_none:
-                throw new kelondroException("ROW", "getColLong has celltype none, no encoder given");
-            case Column.encoder_b64e:
-                // start - fix for badly stored parameters
-                if ((length >= 3) && (this.rowinstance[this.offset + clstrt] == '[') && (this.rowinstance[this.offset + clstrt + 1] == 'B') && (this.rowinstance[this.offset + clstrt + 2] == '@')) return 0;
-                if ((length == 2) && (this.rowinstance[this.offset + clstrt] == '[') && (this.rowinstance[this.offset + clstrt + 1] == 'B')) return 0;
-                if ((length == 1) && (this.rowinstance[this.offset + clstrt] == '[')) return 0;
-                boolean maxvalue = true;
-                for (int i = 0; i < length; i++) if (this.rowinstance[this.offset + clstrt + i] != '_') {maxvalue = false; break;}
-                if (maxvalue) return 0;
-                // stop - fix for badly stored parameters
-                return Base64Order.enhancedCoder.decodeLong(this.rowinstance, this.offset + clstrt, length);
-            case Column.encoder_b256:
-                return NaturalOrder.decodeLong(this.rowinstance, this.offset + clstrt, length);
-            case Column.encoder_bytes:
-                throw new kelondroException("ROW", "getColLong of celltype bytes not applicable");
-            default:
-                throw new kelondroException("ROW", "getColLong did not find appropriate encoding");
-            }
+            return decodeLong(this.rowinstance, this.offset + clstrt, encoder, length);
         }
 
         public final byte getColByte(final int column) {
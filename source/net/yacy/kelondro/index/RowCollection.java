@@ -313,7 +313,7 @@ public class RowCollection implements Sortable<Row.Entry>, Iterable<Row.Entry>,
         if (allocram < this.chunkcache.length / 2 && MemoryControl.request(allocram + 32, true)) trim();
     }
     
-    protected synchronized void trim() {
+    public synchronized void trim() {
         if (this.chunkcache.length == 0) return;
         final long needed = this.chunkcount * this.rowdef.objectsize;
         assert needed <= this.chunkcache.length;
@@ -371,6 +371,84 @@ public class RowCollection implements Sortable<Row.Entry>, Iterable<Row.Entry>,
         return entry;
     }
 
+    /**
+     * @return a cursor which reads the rows of this collection in place
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A cursor visits the rows of the collection without creating a Row.Entry for every row:
+     * the columns are read directly from the chunk. The cursor works on the chunk as it was
+     * when the cursor was created; the collection must not be modified while the cursor is used.
+     */
+    public final class Cursor {
+
+        private final byte[] chunk;
+        private final int count;
+        private int index, offset;
+
+        private Cursor() {
+            synchronized (RowCollection.this) {
+                this.chunk = RowCollection.this.chunkcache;
+                this.count = RowCollection.this.chunkcount;
+            }
+            reset();
+        }
+
+        /**
+         * move the cursor in front of the first row
+         */
+        public void reset() {
+            this.index = -1;
+            this.offset = -RowCollection.this.rowdef.objectsize;
+        }
+
+        /**
+         * move the cursor to the next row
+         * @return false if there is no next row
+         */
+        public boolean next() {
+            if (this.index + 1 >= this.count) return false;
+            this.index++;
+            this.offset += RowCollection.this.rowdef.objectsize;
+            return true;
+        }
+
+        public int index() {
+            return this.index;
+        }
+
+        public int size() {
+            return this.count;
+        }
+
+        public Row row() {
+            return RowCollection.this.rowdef;
+        }
+
+        public long getColLong(final int column) {
+            final Column c = RowCollection.this.rowdef.row[column];
+            return Row.decodeLong(this.chunk, this.offset + RowCollection.this.rowdef.colstart[column], c.encoder, c.cellwidth);
+        }
+
+        public byte getColByte(final int column) {
+            return this.chunk[this.offset + RowCollection.this.rowdef.colstart[column]];
+        }
+
+        public void writeToArray(final int column, final byte[] target, final int targetOffset) {
+            System.arraycopy(this.chunk, this.offset + RowCollection.this.rowdef.colstart[column], target, targetOffset, RowCollection.this.rowdef.row[column].cellwidth);
+        }
+
+        /**
+         * @return a copy of the current row
+         */
+        public Row.Entry get() {
+            return RowCollection.this.rowdef.newEntry(this.chunk, this.offset, true);
+        }
+    }
+
     public synchronized final void set(final int index, final Row.Entry a) throws SpaceExceededException {
         assert (index >= 0) : "set: access with index " + index + " is below zero";
         ensureSize(index + 1);
@@ -827,7 +905,7 @@ public class RowCollection implements Sortable<Row.Entry>, Iterable<Row.Entry>,
         if (i == p) return j; else if (j == p) return i; else return p;
     }
 
-    protected synchronized void uniq() {
+    public synchronized void uniq() {
         Array.uniq(this);
     }
 
@@ -103,11 +103,13 @@ public final class RowHandleMap implements HandleMap, Iterable<Map.Entry<byte[],
         try {
         	if (file.getName().endsWith(".gz")) is = new GZIPInputStream(is);
         	final byte[] a = new byte[keylength + idxbytes];
-        	int c;
+        	int c, p;
         	Row.Entry entry;
         	while (true) {
-        		c = is.read(a);
-        		if (c <= 0) break;
+        		// a gzip stream may deliver less than requested, therefore we must fill the record
+        		p = 0;
+        		while (p < a.length && (c = is.read(a, p, a.length - p)) > 0) p += c;
+        		if (p < a.length) break;
         		entry = this.rowdef.newEntry(a); // may be null if a is not well-formed
         		if (entry != null) this.index.addUnique(entry);
         	}
@@ -115,7 +117,7 @@ public final class RowHandleMap implements HandleMap, Iterable<Map.Entry<byte[],
         	is.close();
         }
         is = null;
-        assert this.index.size() == file.length() / (keylength + idxbytes);
+        assert file.getName().endsWith(".gz") || this.index.size() == file.length() / (keylength + idxbytes);
         optimize();
     }
 
@@ -44,7 +44,7 @@ import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.util.MemoryControl;
 
 
-public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>, Serializable {
+public class RowSet extends RowCollection implements RowStore, Iterable<Row.Entry>, Serializable {
 
     private static final long serialVersionUID=-6036029762440788566L;
 
@@ -145,6 +145,46 @@ public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>,
         return get(index, forcecopy);
     }
 
+    @Override
+    public final boolean hasShared(final byte[] key) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        return findShared(key) >= 0;
+    }
+
+    @Override
+    public final Row.Entry getShared(final byte[] key, final boolean forcecopy) {
+        assert key.length == this.rowdef.primaryKeyLength;
+        final int index = findShared(key);
+        if (index < 0) return null;
+        return this.rowdef.newEntry(this.chunkcache, index * this.rowdef.objectsize, forcecopy);
+    }
+
+    /**
+     * @return true if the next write may re-sort the unsorted region or must grow the chunk
+     */
+    public final boolean needsReorganization() {
+        return (this.chunkcount - this.sortBound) >= collectionReSortLimit() ||
+               (this.chunkcount + 1) * this.rowdef.objectsize > this.chunkcache.length;
+    }
+
+    /**
+     * create a sorted copy of this set. The copy does not share the chunk with this set,
+     * therefore this set can be read concurrently while the copy is sorted.
+     * @param space the number of rows which can be added to the copy before it must grow
+     * @return the sorted copy
+     * @throws SpaceExceededException
+     */
+    public final synchronized RowSet sortedCopy(final int space) throws SpaceExceededException {
+        final long needed = (long) (this.chunkcount + space) * (long) this.rowdef.objectsize;
+        if (needed > Integer.MAX_VALUE || !MemoryControl.request(needed + 32, true))
+            throw new SpaceExceededException(needed + 32, "RowSet sortedCopy");
+        final byte[] cache = new byte[(int) needed];
+        System.arraycopy(this.chunkcache, 0, cache, 0, this.chunkcount * this.rowdef.objectsize);
+        final RowSet copy = new RowSet(this.rowdef, this.chunkcount, cache, this.sortBound);
+        copy.sort();
+        return copy;
+    }
+
     @Override
     public Map<byte[], Row.Entry> get(final Collection<byte[]> keys, final boolean forcecopy) throws IOException, InterruptedException {
         final Map<byte[], Row.Entry> map = new TreeMap<byte[], Row.Entry>(row().objectOrder);
@@ -307,6 +347,14 @@ public class RowSet extends RowCollection implements Index, Iterable<Row.Entry>,
         return iterativeSearch(a, astart, this.sortBound, this.chunkcount);
     }
 
+    private final int findShared(final byte[] a) {
+        // like find(), but the unsorted area is never sorted here
+        if (this.rowdef.objectOrder == null) return iterativeSearch(a, 0, 0, this.chunkcount);
+        final int p = binarySearch(a, 0);
+        if (p >= 0) return p;
+        return iterativeSearch(a, 0, this.sortBound, this.chunkcount);
+    }
+
     private final int iterativeSearch(final byte[] key, final int astart, final int leftBorder, final int rightBound) {
         // returns the chunknumber
         for (int i = leftBorder; i < rightBound; i++) {
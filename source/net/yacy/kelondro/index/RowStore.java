@@ -0,0 +1,129 @@
+/**
+ *  RowStore
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.yacy.kelondro.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.yacy.cora.order.CloneableIterator;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * A RowStore is an in-memory index which holds its rows in one continuous chunk of memory
+ * with a sorted and an unsorted region. The RowSet keeps that chunk on the java heap,
+ * the DirectRowSet keeps it in native memory. The RAMIndex uses this interface to be
+ * independent from the place where the rows are stored.
+ */
+public interface RowStore extends Index {
+
+    /**
+     * sort the unsorted region of the store into the sorted region
+     */
+    public void sort();
+
+    /**
+     * remove double entries; this requires that the store is sorted
+     */
+    public void uniq();
+
+    /**
+     * shrink the allocated memory to the size that is needed to store the current rows
+     */
+    public void trim();
+
+    public boolean isSorted();
+
+    /**
+     * @return the number of rows in the sorted region
+     */
+    public int sorted();
+
+    public long inc(final byte[] key, final int col, final long add, final Row.Entry initrow) throws SpaceExceededException;
+
+    /**
+     * check if a key exists without synchronization and without sorting the unsorted region.
+     * This may only be called if no other thread can change the store at the same time,
+     * i.e. while the caller holds a read lock which excludes all writers
+     * @param key
+     * @return true if the key exists
+     */
+    public boolean hasShared(final byte[] key);
+
+    /**
+     * get a row without synchronization and without sorting the unsorted region,
+     * see hasShared() for the conditions of concurrent access
+     * @param key
+     * @param forcecopy
+     * @return the row or null if the key does not exist
+     */
+    public Row.Entry getShared(final byte[] key, final boolean forcecopy);
+
+    // the following methods are inherited from Index, but a RowStore does not do any IO
+
+    @Override
+    public Row.Entry get(byte[] key, boolean forcecopy);
+
+    @Override
+    public Row.Entry replace(Row.Entry row) throws SpaceExceededException;
+
+    @Override
+    public boolean put(Row.Entry row) throws SpaceExceededException;
+
+    @Override
+    public void addUnique(Row.Entry row) throws SpaceExceededException;
+
+    @Override
+    public ArrayList<RowCollection> removeDoubles() throws SpaceExceededException;
+
+    @Override
+    public boolean delete(byte[] key);
+
+    @Override
+    public Row.Entry remove(byte[] key);
+
+    @Override
+    public Row.Entry removeOne();
+
+    @Override
+    public List<Row.Entry> top(int count);
+
+    @Override
+    public List<Row.Entry> random(int count);
+
+    @Override
+    public CloneableIterator<byte[]> keys(boolean up, byte[] firstKey);
+
+    @Override
+    public CloneableIterator<Row.Entry> rows(boolean up, byte[] firstKey);
+
+    @Override
+    public CloneableIterator<Row.Entry> rows();
+
+    /**
+     * @return a copy of the store or null if there is not enough memory of the kind the store uses
+     */
+    public RowStore clone();
+
+}
@@ -80,6 +80,10 @@ public final class BufferedRecords {
         return this.efs == null ? 0 : this.efs.size();
     }
 
+    public final boolean isMapped() {
+        return this.efs != null && this.efs.isMapped();
+    }
+
     public final File filename() {
         return this.efs.filename();
     }
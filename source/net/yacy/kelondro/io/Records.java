@@ -29,6 +29,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.util.ConcurrentLog;
@@ -52,6 +59,11 @@ import net.yacy.kelondro.util.MemoryControl;
  * by overwriting the data with zero bytes
  * All access to the file is made with byte[] that are generated outside of this class
  * This class only references byte[] that are handed over to methods of this class.
+ * Optionally the file can be memory-mapped: then all records that are already written to the
+ * file are read and overwritten within mapped windows of a fixed size instead of using seek/read
+ * on the file. A window is mapped when a record inside of it is accessed for the first time.
+ * Appended records still go through the write buffer; only the last window, which ends at the
+ * end of the file, is mapped again when records behind it are requested.
  */
 public final class Records {
 
@@ -73,10 +85,65 @@ public final class Records {
      */
     private static final int maxWriteBuffer = 16 * 1024;
 
+    /**
+     * size of a mapped window; windows always contain a whole number of records
+     * so that no record crosses the border between two windows
+     */
+    private static final long windowSize = 64L * 1024L * 1024L;
+
+    /**
+     * the mapped windows of the file, null for windows that are not mapped yet,
+     * or null if the file is not memory-mapped
+     */
+    private MappedByteBuffer[] windows;
+    private final int windowRecords;
+
+    /**
+     * sun.misc.Unsafe.invokeCleaner releases a mapping at once; it does not exist in java 8,
+     * there the mappings are released by the garbage collector
+     */
+    private static final Object unsafe;
+    private static final Method invokeCleaner;
+    static {
+        Object u = null;
+        Method m = null;
+        try {
+            final Class<?> c = Class.forName("sun.misc.Unsafe");
+            m = c.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            m = null;
+        }
+        unsafe = u;
+        invokeCleaner = m;
+    }
 
     public Records(final File tablefile, final int recordsize) {
+        this(tablefile, recordsize, false);
+    }
+
+    /**
+     * @param tablefile the file with the records
+     * @param recordsize number of bytes in one record
+     * @param mapped if true, records in the file are accessed through a memory-mapping
+     */
+    public Records(final File tablefile, final int recordsize, final boolean mapped) {
+        this(tablefile, recordsize, mapped, (int) Math.max(1, windowSize / recordsize));
+    }
+
+    /**
+     * @param tablefile the file with the records
+     * @param recordsize number of bytes in one record
+     * @param mapped if true, records in the file are accessed through a memory-mapping
+     * @param windowRecords number of records in one mapped window
+     */
+    Records(final File tablefile, final int recordsize, final boolean mapped, final int windowRecords) {
         this.tablefile = tablefile;
         this.recordsize = recordsize;
+        this.windows = mapped ? new MappedByteBuffer[0] : null;
+        this.windowRecords = windowRecords;
 
         // initialize zero buffer
         this.zero = new byte[recordsize];
@@ -117,8 +184,9 @@ public final class Records {
         this.buffercount = 0;
     }
 
-    public void clear() {
+    public synchronized void clear() {
         try {
+            unmap(0);
             this.raf.setLength(0);
             int buffersize = Math.max(1, (maxWriteBuffer / recordsize)) * recordsize;
             this.buffer = new byte[buffersize];
@@ -180,6 +248,73 @@ public final class Records {
         return records;
     }
 
+    /**
+     * @return true if the records in the file are accessed through a memory-mapping
+     */
+    public final boolean isMapped() {
+        return this.windows != null;
+    }
+
+    /**
+     * release the windows which start behind the end of the file, before the file is truncated.
+     * The window with the new end of the file is kept, records behind the end are not accessed;
+     * a window which is mapped again is not larger than the file, so the file does not grow.
+     * @param filesize the new number of records in the file
+     */
+    private final void unmap(final long filesize) {
+        if (this.windows == null) return;
+        for (int w = (int) ((filesize + this.windowRecords - 1) / this.windowRecords); w < this.windows.length; w++) {
+            release(this.windows[w]);
+            this.windows[w] = null;
+        }
+    }
+
+    /**
+     * release a mapping at once instead of waiting for the garbage collector; the buffer must not be used any more
+     * @param buffer a mapped window or null
+     */
+    private static void release(final MappedByteBuffer buffer) {
+        if (buffer == null || invokeCleaner == null) return;
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // the mapping is released by the garbage collector
+        }
+    }
+
+    /**
+     * get the window that contains the record at index, positioned at the record.
+     * Windows are mapped up to the end of the file; if the record is behind the end of its window,
+     * the window is mapped again and the superseded mapping is released
+     * @param index a record inside the file
+     * @param filesize number of records in the file
+     * @return the positioned window or null if the file is not mapped
+     */
+    private final MappedByteBuffer segment(final long index, final long filesize) {
+        if (this.windows == null) return null;
+        final int w = (int) (index / this.windowRecords);
+        final int offset = (int) (index % this.windowRecords) * this.recordsize;
+        if (w >= this.windows.length) this.windows = Arrays.copyOf(this.windows, w + 1);
+        MappedByteBuffer window = this.windows[w];
+        if (window == null || window.capacity() < offset + this.recordsize) try {
+            final long first = (long) w * this.windowRecords;
+            final long length = Math.min(this.windowRecords, filesize - first) * this.recordsize;
+            release(window);
+            this.windows[w] = null;
+            window = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, first * this.recordsize, length);
+            this.windows[w] = window;
+        } catch (final IOException e) {
+            // i.e. not enough address space; use the file without mapping
+            ConcurrentLog.warn("KELONDRO", "cannot map " + this.tablefile + ", switching to seek/read: " + e.getMessage());
+            unmap(0);
+            this.windows = null;
+            return null;
+        }
+        // cast to Buffer because the covariant return type of later JDKs does not exist in java 8
+        ((Buffer) window).position(offset);
+        return window;
+    }
+
     /**
      * checks if the index is inside the buffer
      *
@@ -216,8 +351,10 @@ public final class Records {
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
         }
+        unmap(0);
         this.raf = null;
         this.buffer = null;
+        if (this.windows != null) this.windows = new MappedByteBuffer[0];
     }
 
     /**
@@ -235,6 +372,11 @@ public final class Records {
         final int q = inBuffer(index, filesize);
         if (q < 0) {
             // copy records from file to given buffer
+            final MappedByteBuffer segment = segment(index, filesize);
+            if (segment != null) {
+                segment.get(b, start, this.recordsize);
+                return;
+            }
             this.raf.seek(this.recordsize * index);
             this.raf.readFully(b, start, this.recordsize);
             return;
@@ -282,6 +424,11 @@ public final class Records {
         } else {
             // write the record directly to the file,
             // do not care about the cache; this case was checked before
+            final MappedByteBuffer segment = segment(index, filesize);
+            if (segment != null) {
+                segment.put(b, start, this.recordsize);
+                return;
+            }
             this.raf.seek(index * this.recordsize);
             this.raf.write(b, start, this.recordsize);
         }
@@ -332,8 +479,13 @@ public final class Records {
             return isClean(this.buffer, q * this.recordsize, this.recordsize);
         }
         byte[] b = new byte[this.recordsize];
-        this.raf.seek(index * this.recordsize);
-        this.raf.readFully(b, 0, this.recordsize);
+        final MappedByteBuffer segment = segment(index, filesize);
+        if (segment != null) {
+            segment.get(b, 0, this.recordsize);
+        } else {
+            this.raf.seek(index * this.recordsize);
+            this.raf.readFully(b, 0, this.recordsize);
+        }
         return isClean(b, 0, this.recordsize);
     }
 
@@ -359,6 +511,11 @@ public final class Records {
             return;
         }
 
+        final MappedByteBuffer segment = segment(index, filesize);
+        if (segment != null) {
+            segment.put(this.zero, 0, this.recordsize);
+            return;
+        }
         this.raf.seek(index * this.recordsize);
         this.raf.write(this.zero, 0, this.recordsize);
     }
@@ -401,8 +558,13 @@ public final class Records {
         // read entry from the file
         long endpos = this.raf.length() - this.recordsize;
         if (endpos >= 0) { // prevent seek error for 0 size file
-            this.raf.seek(endpos);
-            this.raf.readFully(b, start, this.recordsize);
+            final MappedByteBuffer segment = segment(endpos / this.recordsize, filesize());
+            if (segment != null) {
+                segment.get(b, start, this.recordsize);
+            } else {
+                this.raf.seek(endpos);
+                this.raf.readFully(b, start, this.recordsize);
+            }
         } else {
             endpos = 0;
             System.arraycopy(this.zero, 0, b, start, this.recordsize);
@@ -412,6 +574,7 @@ public final class Records {
         this.raf.write(this.zero, 0, this.recordsize);
 
         // shrink file
+        unmap(endpos / this.recordsize);
         this.raf.setLength(endpos);
     }
 
@@ -438,8 +601,10 @@ public final class Records {
             return;
         }
         // shrink file
-        if (this.raf.length() > 0) // already 0 length, nothing to shrink (prevent seek io error)
+        if (this.raf.length() > 0) { // already 0 length, nothing to shrink (prevent seek io error)
+            unmap(filesize() - 1);
             this.raf.setLength(this.raf.length() - this.recordsize);
+        }
     }
 
     public final void deleteOnExit() {
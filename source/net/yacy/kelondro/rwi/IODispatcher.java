@@ -28,9 +28,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.kelondro.blob.ArrayStack;
+import net.yacy.kelondro.blob.HeapWriter;
 import net.yacy.kelondro.util.MemoryControl;
 
 
@@ -45,30 +49,102 @@ import net.yacy.kelondro.util.MemoryControl;
  * to use this class, first instantiate a object and then start the concurrent execution
  * of merging with a call to the start() - method. To shut down all mergings, call terminate()
  * only once.
+ *
+ * Dumps are executed in the dispatcher thread. Merges are executed by a number of merge workers,
+ * which share a disk bandwidth budget: whenever a merge has written a slice of its file, the bytes it
+ * read and wrote are booked on the budget and the worker waits until the budget allows the transfer.
  */
 public class IODispatcher extends Thread {
 
     private static final ConcurrentLog log = new ConcurrentLog("IODispatcher");
 
-    private   Semaphore                    controlQueue; // controls that only one io job is running
+    private static int mergeWorkerCount = 1;
+    private static int mergeFanIn = 4;
+    private static long mergeBandwidth = 0; // bytes per second, 0 = unlimited
+
+    private   Semaphore                    controlQueue; // controls that only one dump job is running
     private   final Semaphore              termination; // released if thread is safe to terminate
     private   ArrayBlockingQueue<MergeJob> mergeQueue;
     private   ArrayBlockingQueue<DumpJob<? extends Reference>> dumpQueue;
-    private   boolean                      terminate;
+    private volatile boolean               terminate;
     private final int                      writeBufferSize;
+    private final MergeWorker[]            mergeWorkers;
+    private final AtomicInteger            runningMerges;
+    private final long                     bandwidth;
+    private       long                     bandwidthBooked; // time when all booked transfers are done within the budget
+    private final LongAdder                dumpedBytes, mergeReadBytes, mergeWrittenBytes, merges;
 
     public IODispatcher(final int dumpQueueLength, final int mergeQueueLength, final int writeBufferSize) {
     	super("IODispatcher");
         this.termination = new Semaphore(0);
         this.controlQueue = new Semaphore(0);
         this.dumpQueue = new ArrayBlockingQueue<DumpJob<? extends Reference>>(dumpQueueLength);
-        this.mergeQueue = new ArrayBlockingQueue<MergeJob>(mergeQueueLength);
+        this.mergeQueue = new ArrayBlockingQueue<MergeJob>(Math.max(mergeQueueLength, mergeWorkerCount));
         this.writeBufferSize = writeBufferSize;
         this.terminate = false;
+        this.mergeWorkers = new MergeWorker[mergeWorkerCount];
+        this.runningMerges = new AtomicInteger(0);
+        this.bandwidth = mergeBandwidth;
+        this.bandwidthBooked = 0;
+        this.dumpedBytes = new LongAdder();
+        this.mergeReadBytes = new LongAdder();
+        this.mergeWrittenBytes = new LongAdder();
+        this.merges = new LongAdder();
+    }
+
+    /**
+     * set the number of threads which merge BLOB files concurrently.
+     * The setting is applied to dispatchers which are created afterwards.
+     * @param workers the number of merge threads, 0 for one thread on every second processor core
+     */
+    public static void setMergeWorkers(final int workers) {
+        mergeWorkerCount = workers > 0 ? workers : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * set the number of BLOB files of the same size tier which are merged at once
+     * @param fanIn the number of files, at least 2
+     */
+    public static void setMergeFanIn(final int fanIn) {
+        mergeFanIn = Math.max(2, fanIn);
+    }
+
+    /**
+     * set the disk bandwidth which may be used by all merge workers together.
+     * The setting is applied to dispatchers which are created afterwards.
+     * @param bytesPerSecond the sum of read and written bytes per second, 0 for no limit
+     */
+    public static void setMergeBandwidth(final long bytesPerSecond) {
+        mergeBandwidth = Math.max(0, bytesPerSecond);
+    }
+
+    public int fanIn() {
+        return mergeFanIn;
+    }
+
+    public int mergeWorkers() {
+        return this.mergeWorkers.length;
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        for (int i = 0; i < this.mergeWorkers.length; i++) {
+            this.mergeWorkers[i] = new MergeWorker(i);
+            this.mergeWorkers[i].start();
+        }
     }
 
     public void terminate() {
         this.terminate = true; // asure current run() loop will termiate
+        for (final MergeWorker worker: this.mergeWorkers) {
+            if (worker == null) continue;
+            try {
+                worker.join();
+            } catch (final InterruptedException e) {
+                ConcurrentLog.logException(e);
+            }
+        }
         if (this.termination != null && this.controlQueue != null && isAlive()) {
             this.controlQueue.release();
             // await termination
@@ -80,15 +156,34 @@ public class IODispatcher extends Thread {
         }
     }
 
+	protected void dump(final ReferenceContainerCache<? extends Reference> cache, final File file, final ReferenceContainerArray<? extends Reference> array) {
+	    dump(cache, file, array, null);
+	}
+
+    /**
+     * dump a cache to a file and mount the file to the array
+     * @param cache the cache
+     * @param file the new file
+     * @param array the array which gets the file
+     * @param mounted if not null, the cache is not cleared during the dump, so it can still be read until the file is mounted;
+     * the runnable is called when the file is mounted (or if the dump failed)
+     */
     @SuppressWarnings("unchecked")
-	protected synchronized void dump(final ReferenceContainerCache<? extends Reference> cache, final File file, final ReferenceContainerArray<? extends Reference> array) {
+	protected synchronized void dump(final ReferenceContainerCache<? extends Reference> cache, final File file, final ReferenceContainerArray<? extends Reference> array, final Runnable mounted) {
         if (this.dumpQueue == null || this.controlQueue == null || !isAlive()) {
             log.warn("emergency dump of file " + file.getName());
-             if (!cache.isEmpty()) cache.dump(file, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+            if (mounted == null) {
+                if (!cache.isEmpty()) array.dump(cache, file, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+            } else {
+                @SuppressWarnings("rawtypes")
+                final
+                DumpJob<? extends Reference> job = new DumpJob(cache, file, array, mounted);
+                job.dump();
+            }
         } else {
             @SuppressWarnings("rawtypes")
             final
-            DumpJob<? extends Reference> job = new DumpJob(cache, file, array);
+            DumpJob<? extends Reference> job = new DumpJob(cache, file, array, mounted);
             // check if the dispatcher is running
             if (isAlive()) {
                 try {
@@ -96,7 +191,11 @@ public class IODispatcher extends Thread {
                     log.info("appended dump job for file " + file.getName());
                 } catch (final IllegalStateException e) {
                     log.warn("could not append dump job, emergency dump of file " + file.getName());
-                    cache.dump(file, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+                    if (mounted == null) {
+                        array.dump(cache, file, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+                    } else {
+                        job.dump();
+                    }
                 } finally {
                     this.controlQueue.release();
                 }
@@ -107,53 +206,108 @@ public class IODispatcher extends Thread {
         }
     }
 
+    /**
+     * @return the number of dump and merge jobs which wait for execution
+     */
     protected synchronized int queueLength() {
-        return (this.controlQueue == null || !isAlive()) ? 0 : this.controlQueue.availablePermits();
+        if (this.controlQueue == null || this.mergeQueue == null || !isAlive()) return 0;
+        return this.controlQueue.availablePermits() + this.mergeQueue.size();
+    }
+
+    /**
+     * @return the number of merge jobs which wait for execution or are running
+     */
+    public int mergeBacklog() {
+        final ArrayBlockingQueue<MergeJob> q = this.mergeQueue;
+        return (q == null ? 0 : q.size()) + this.runningMerges.get();
+    }
+
+    /**
+     * @return the number of finished merges
+     */
+    public long mergeCount() {
+        return this.merges.sum();
+    }
+
+    /**
+     * @return the number of bytes which were read by merges
+     */
+    public long mergeReadBytes() {
+        return this.mergeReadBytes.sum();
+    }
+
+    /**
+     * the write amplification is the number of bytes written by dumps and merges
+     * divided by the number of bytes written by dumps
+     * @return the write amplification or 0 if nothing was dumped yet
+     */
+    public double writeAmplification() {
+        final long dumped = this.dumpedBytes.sum();
+        return dumped == 0 ? 0.0d : (double) (dumped + this.mergeWrittenBytes.sum()) / (double) dumped;
+    }
+
+    protected void merge(final File f1, final File f2, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile, final boolean packed) {
+        merge(f2 == null ? new File[]{f1} : new File[]{f1, f2}, factory, array, newFile, packed);
     }
 
-    protected synchronized void merge(final File f1, final File f2, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile) {
+    /**
+     * merge the given files into a new file and mount it to the array; a single file is rewritten
+     */
+    protected synchronized void merge(final File[] files, final ReferenceFactory<? extends Reference> factory, final ArrayStack array, final File newFile, final boolean packed) {
+        final MergeJob job = new MergeJob(files, factory, array, newFile, packed);
         if (this.mergeQueue == null || this.controlQueue == null || !isAlive()) {
-            if (f2 == null) {
-                log.warn("emergency rewrite of file " + f1.getName() + " to " + newFile.getName());
-            } else {
-                log.warn("emergency merge of files " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-            }
-            array.mergeMount(f1, f2, factory, newFile, (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize));
+            log.warn("emergency merge of files " + job.names() + " to " + newFile.getName());
+            job.merge();
         } else {
-            final MergeJob job = new MergeJob(f1, f2, factory, array, newFile);
-            if (isAlive()) {
-                try {
-                    this.mergeQueue.add(job);
-                    if (f2 == null) {
-                        log.info("appended rewrite job of file " + f1.getName() + " to " + newFile.getName());
-                    } else {
-                        log.info("appended merge job of files " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-                    }
-                } catch (final IllegalStateException e) { // because mergeQueue size is 1, IllegalStateException could happen frequently (serial execution ensured in run() )
-                	log.warn("Could not add merge job to queue: " + e.getMessage());
-                } finally {
-                    this.controlQueue.release();
-                }
-            } else {
-                job.merge();
-                if (f2 == null) {
-                    log.warn("dispatcher not running, merged files " + f1.getName() + " to " + newFile.getName());
-                } else {
-                    log.warn("dispatcher not running, rewrote file " + f1.getName() + ", " + f2.getName() + " to " + newFile.getName());
-                }
+            try {
+                this.mergeQueue.add(job);
+                log.info("appended merge job of files " + job.names() + " to " + newFile.getName());
+            } catch (final IllegalStateException e) { // the merge queue is short, the workers take jobs as soon as they are free
+            	log.warn("Could not add merge job to queue: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * book a transfer of bytes on the disk bandwidth budget
+     * @param bytes the number of bytes which shall be read and written
+     * @return the time in milliseconds until the budget allows the transfer
+     */
+    private synchronized long bookBandwidth(final long bytes) {
+        if (this.bandwidth <= 0) return 0;
+        final long now = System.currentTimeMillis();
+        // budget which was not used in the last second may be used now, older budget expires
+        this.bandwidthBooked = Math.max(this.bandwidthBooked, now - 1000) + bytes * 1000L / this.bandwidth;
+        return this.bandwidthBooked - now;
+    }
+
+    /**
+     * the throttle of the merges: wait until the budget allows a transfer. The wait is done in short
+     * intervals and ends when the dispatcher is terminated, so a termination is not delayed by the budget.
+     * @param written the number of bytes which were written, a merge reads about the same number of bytes
+     */
+    private void throttle(final long written) {
+        final long wait = bookBandwidth(2 * written);
+        if (wait <= 0) return;
+        final long until = System.currentTimeMillis() + wait;
+        long now;
+        while (!this.terminate && (now = System.currentTimeMillis()) < until) {
+            try {
+                Thread.sleep(Math.min(100, until - now));
+            } catch (final InterruptedException e) {
+                return;
             }
         }
     }
 
     @Override
     public void run() {
-        MergeJob mergeJob;
         DumpJob<? extends Reference> dumpJob;
         try {
             loop: while (true) try {
                 this.controlQueue.acquire();
 
-                // prefer dump actions to flush memory to disc
+                // dump actions flush memory to disc, merges are done by the merge workers
                 if (!this.dumpQueue.isEmpty()) {
                 	File f = null;
                     try {
@@ -171,30 +325,6 @@ public class IODispatcher extends Thread {
                     continue loop;
                 }
 
-                // otherwise do a merge operation
-                if (!this.mergeQueue.isEmpty() && !MemoryControl.shortStatus()) {
-                	File f = null, f1 = null, f2 = null;
-                    try {
-                        mergeJob = this.mergeQueue.take();
-                        f = mergeJob.newFile;
-                        f1 = mergeJob.f1;
-                        f2 = mergeJob.f2;
-                        mergeJob.merge();
-                    } catch (final InterruptedException e) {
-                        log.severe("main run job was interrupted (2)", e);
-                    } catch (final Throwable e) {
-                        if (f2 == null) {
-                            log.severe("main run job had errors (2), dump to " + f + " failed. Input file is " + f1, e);
-                        } else {
-                            log.severe("main run job had errors (2), dump to " + f + " failed. Input files are " + f1 + " and " + f2, e);
-                        }
-                    } finally {
-                        // make sure (on error) loop never hangs on controlQueue.acquire() (after/on error)
-                        if (this.terminate) this.controlQueue.release();
-                    }
-                    continue loop;
-                }
-
                 // check termination
                 if (this.terminate) {
                     log.info("caught termination signal");
@@ -216,54 +346,120 @@ public class IODispatcher extends Thread {
         }
     }
 
+    private class MergeWorker extends Thread {
+        private MergeWorker(final int number) {
+            super("IODispatcher.MergeWorker-" + number);
+        }
+        @Override
+        public void run() {
+            while (!IODispatcher.this.terminate) {
+                MergeJob job = null;
+                try {
+                    if (MemoryControl.shortStatus()) {
+                        Thread.sleep(1000);
+                        continue;
+                    }
+                    job = IODispatcher.this.mergeQueue.poll(1000, TimeUnit.MILLISECONDS);
+                    if (job == null) continue;
+                    IODispatcher.this.runningMerges.incrementAndGet();
+                    try {
+                        job.merge();
+                    } finally {
+                        IODispatcher.this.runningMerges.decrementAndGet();
+                    }
+                } catch (final InterruptedException e) {
+                    log.severe("merge worker was interrupted", e);
+                } catch (final Throwable e) {
+                    log.severe("merge worker had errors, merge to " + (job == null ? null : job.newFile) + " failed. Input files are " + (job == null ? null : job.names()), e);
+                }
+            }
+            // finish remaining jobs without waiting for the budget, the files are not mounted otherwise
+            final ArrayBlockingQueue<MergeJob> q = IODispatcher.this.mergeQueue;
+            MergeJob job;
+            while (q != null && (job = q.poll()) != null) try {
+                job.merge();
+            } catch (final Throwable e) {
+                log.severe("merge worker had errors, merge to " + job.newFile + " failed. Input files are " + job.names(), e);
+            }
+        }
+    }
+
     private class DumpJob<ReferenceType extends Reference> {
         private final ReferenceContainerCache<ReferenceType> cache;
         private final File file;
         private final ReferenceContainerArray<ReferenceType> array;
-        private DumpJob(final ReferenceContainerCache<ReferenceType> cache, final File file, final ReferenceContainerArray<ReferenceType> array) {
+        private final Runnable mounted;
+        private DumpJob(final ReferenceContainerCache<ReferenceType> cache, final File file, final ReferenceContainerArray<ReferenceType> array, final Runnable mounted) {
             this.cache = cache;
             this.file = file;
             this.array = array;
+            this.mounted = mounted;
         }
         private void dump() {
             try {
-                if (!this.cache.isEmpty()) this.cache.dump(this.file, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize), true);
+                if (!this.cache.isEmpty()) this.array.dump(this.cache, this.file, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize), this.mounted == null);
+                IODispatcher.this.dumpedBytes.add(this.file.length());
                 this.array.mountBLOBFile(this.file);
             } catch (final IOException e) {
                 ConcurrentLog.logException(e);
+            } finally {
+                if (this.mounted != null) this.mounted.run();
             }
         }
     }
 
     private class MergeJob {
 
-        private final File f1, f2, newFile;
+        private final File[] files;
+        private final File newFile;
         private final ArrayStack array;
         private final ReferenceFactory<? extends Reference> factory;
+        private final boolean packed;
 
         private MergeJob(
-                final File f1,
-                final File f2,
+                final File[] files,
                 final ReferenceFactory<? extends Reference> factory,
                 final ArrayStack array,
-                final File newFile) {
-            this.f1 = f1;
-            this.f2 = f2;
+                final File newFile,
+                final boolean packed) {
+            this.files = files;
             this.factory = factory;
             this.newFile = newFile;
             this.array = array;
+            this.packed = packed;
+        }
+
+        private long length() {
+            long l = 0;
+            for (final File f: this.files) l += f.length();
+            return l;
+        }
+
+        private String names() {
+            final StringBuilder sb = new StringBuilder();
+            for (final File f: this.files) {
+                if (sb.length() > 0) sb.append(", ");
+                sb.append(f.getName());
+            }
+            return sb.toString();
         }
 
         private File merge() {
-        	if (!this.f1.exists()) {
-        	    log.warn("merge of file (1) " + this.f1.getName() + " failed: file does not exists");
-        		return null;
-        	}
-        	if (this.f2 != null && !this.f2.exists()) {
-        	    log.warn("merge of file (2) " + this.f2.getName() + " failed: file does not exists");
-        		return null;
-        	}
-            return this.array.mergeMount(this.f1, this.f2, this.factory, this.newFile, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize));
+            for (final File f: this.files) {
+                if (!f.exists()) {
+                    log.warn("merge of file " + f.getName() + " failed: file does not exists");
+                    return null;
+                }
+            }
+            final long length = length();
+            final HeapWriter.Throttle throttle = IODispatcher.this.bandwidth > 0 ? IODispatcher.this::throttle : null;
+            final File result = this.array.mergeMount(this.files, this.factory, this.newFile, (int) Math.min(MemoryControl.available() / 3, IODispatcher.this.writeBufferSize), this.packed, throttle);
+            if (result != null) {
+                IODispatcher.this.mergeReadBytes.add(length);
+                IODispatcher.this.mergeWrittenBytes.add(result.length());
+                IODispatcher.this.merges.increment();
+            }
+            return result;
         }
     }
 
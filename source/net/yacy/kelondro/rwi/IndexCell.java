@@ -29,22 +29,31 @@ package net.yacy.kelondro.rwi;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.order.CloneableIterator;
 import net.yacy.cora.order.Order;
 import net.yacy.cora.sorting.Rating;
-import net.yacy.cora.storage.ComparableARC;
 import net.yacy.cora.storage.HandleSet;
 import net.yacy.cora.util.ByteArray;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.kelondro.util.MergeIterator;
 import net.yacy.search.EventTracker;
@@ -60,6 +69,12 @@ import net.yacy.search.Switchboard;
  * in normal operation, there are only a number of read-only BLOB files and a single RAM cache that is
  * kept in the RAM as long as a given limit of entries is reached. Then the cache is flushed and becomes
  * another BLOB file in the index array.
+ * The RAM cache is partitioned by the term hash into shards with their own locks, so that indexing threads
+ * do not wait for each other. A full shard is swapped for an empty one and dumped in the background;
+ * until the dump is mounted as BLOB file, the swapped shard is still searched.
+ * If the write-ahead log is switched on, every change of a shard is also appended to a log file of the shard,
+ * which is committed every few seconds by the flush thread. A shutdown only closes the logs instead of
+ * dumping the RAM cache, and the logs are replayed when the cell is opened again.
  */
 
 public final class IndexCell<ReferenceType extends Reference> extends AbstractBufferedIndex<ReferenceType> implements BufferedIndex<ReferenceType>, Iterable<ReferenceContainer<ReferenceType>> {
@@ -68,9 +83,22 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     private static final long dumpCycle    = 600000;
 
     // class variables
+    private static int bufferShards = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static boolean writeAheadLog = false;
+
     private final ReferenceContainerArray<ReferenceType> array;
-    private       ReferenceContainerCache<ReferenceType> ram;
-    private final ComparableARC<byte[], Integer>         countCache;
+    private final AtomicReferenceArray<ReferenceContainerCache<ReferenceType>> ram; // the RAM cache, partitioned by term hash
+    private final ReentrantReadWriteLock[]               ramLocks; // writers share the read lock of a shard, it is swapped with the write lock
+    private final List<ReferenceContainerCache<ReferenceType>> flushing; // swapped shards which are not yet mounted as BLOB file
+    private final Map<ReferenceContainerCache<ReferenceType>, Long> swapTimes; // the time when the swapped shards were swapped
+    private final ReferenceLog[]                         logs; // the write-ahead logs of the shards, null if there is no log
+    private final List<ReferenceLog>                     flushingLogs; // the closed logs of swapped shards
+    private final File                                   cellPath;
+    private final String                                 prefix;
+    private final AtomicLong                             logGeneration;
+    private final AtomicLong                             dumpCount; // number of RAM dumps which were mounted as BLOB file
+    private final ByteOrder                              termOrder;
+    private final int                                    termSize;
     private       int                                    maxRamEntries;
     private       IODispatcher                           merger; // pointer to shared merger
     private       long                                   lastCleanup;
@@ -78,6 +106,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     private final long                                   targetFileSize, maxFileSize;
     private final int                                    writeBufferSize;
     private final Map<byte[], HandleSet>                 removeDelayedURLs; // mapping from word hashes to a list of url hashes
+    private final Tombstones                             tombstones; // deleted urls whose references are ignored until the BLOB files are merged
     private       boolean                                flushShallRun;
     private final Thread                                 flushThread;
 
@@ -97,8 +126,17 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
         this.merger = merger;
         this.array = new ReferenceContainerArray<ReferenceType>(cellPath, prefix, factory, termOrder, termSize);
-        this.ram = new ReferenceContainerCache<ReferenceType>(factory, termOrder, termSize);
-        this.countCache = new ComparableARC<byte[], Integer>(1000, termOrder);
+        this.termOrder = termOrder;
+        this.termSize = termSize;
+        this.ram = new AtomicReferenceArray<ReferenceContainerCache<ReferenceType>>(bufferShards);
+        this.ramLocks = new ReentrantReadWriteLock[bufferShards];
+        for (int i = 0; i < bufferShards; i++) {
+            this.ram.set(i, newBuffer());
+            this.ramLocks[i] = new ReentrantReadWriteLock();
+        }
+        this.flushing = new CopyOnWriteArrayList<ReferenceContainerCache<ReferenceType>>();
+        this.swapTimes = Collections.synchronizedMap(new WeakHashMap<ReferenceContainerCache<ReferenceType>, Long>());
+        this.dumpCount = new AtomicLong(0);
         this.maxRamEntries = maxRamEntries;
         this.lastCleanup = System.currentTimeMillis();
         this.lastDump = System.currentTimeMillis();
@@ -106,6 +144,19 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         this.maxFileSize = maxFileSize;
         this.writeBufferSize = writeBufferSize;
         this.removeDelayedURLs = new TreeMap<byte[], HandleSet>(Word.commonHashOrder);
+        this.tombstones = new Tombstones(new File(cellPath, prefix + ".tombstones.gz"));
+        this.array.setTombstones(this.tombstones);
+
+        // open the write-ahead logs and replay the logs of the last run
+        this.cellPath = cellPath;
+        this.prefix = prefix;
+        final File[] oldLogs = logFiles(cellPath, prefix);
+        this.logGeneration = new AtomicLong(Math.max(System.currentTimeMillis(), oldLogs.length == 0 ? 0 : logGeneration(oldLogs[oldLogs.length - 1], prefix)));
+        this.logs = writeAheadLog ? new ReferenceLog[bufferShards] : null;
+        if (this.logs != null) for (int i = 0; i < bufferShards; i++) this.logs[i] = newLog();
+        this.flushingLogs = new CopyOnWriteArrayList<ReferenceLog>();
+        if (oldLogs.length > 0) replay(oldLogs);
+
         this.flushShallRun = true;
         this.flushThread = new FlushThread(cellPath.toString());
         this.flushThread.start();
@@ -121,6 +172,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             while (IndexCell.this.flushShallRun) {
                 try {
                     flushBuffer();
+                    syncLogs();
                 } catch (final Throwable e) {
                     ConcurrentLog.logException(e);
                 }
@@ -128,35 +180,54 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
             }
         }
 
+        private boolean dumpAll(final long t) {
+            final int size = ramSize();
+            return size >= IndexCell.this.maxRamEntries ||
+                   (size > 3000 && !MemoryControl.request(80L * 1024L * 1024L, false)) ||
+                   (size > 0 && IndexCell.this.lastDump + dumpCycle < t);
+        }
+
         private void flushBuffer() {
 
             // dump the cache if necessary
             final long t = System.currentTimeMillis();
-            if ((IndexCell.this.ram.size() >= IndexCell.this.maxRamEntries ||
-                (IndexCell.this.ram.size() > 3000 && !MemoryControl.request(80L * 1024L * 1024L, false)) ||
-                (!IndexCell.this.ram.isEmpty() && IndexCell.this.lastDump + dumpCycle < t))) {
+            if (dumpAll(t) || fullShard()) {
                 synchronized (IndexCell.this.merger) {
-                    if (IndexCell.this.ram.size() >= IndexCell.this.maxRamEntries ||
-                        (IndexCell.this.ram.size() > 3000 && !MemoryControl.request(80L * 1024L * 1024L, false)) ||
-                        (!IndexCell.this.ram.isEmpty() && IndexCell.this.lastDump + dumpCycle < t)) try {
-                            IndexCell.this.lastDump = System.currentTimeMillis();
+                    final boolean all = dumpAll(t);
+                    if (all || fullShard()) try {
+                        IndexCell.this.lastDump = System.currentTimeMillis();
                         // removed delayed
                         try {removeDelayed();} catch (final IOException e) {}
-                        // dump the ram
-                        final File dumpFile = IndexCell.this.array.newContainerBLOBFile();
-                        // a critical point: when the ram is handed to the dump job,
+                        // a critical point: when a shard is handed to the dump job,
                         // don't write into it any more. Use a fresh one instead
-                        ReferenceContainerCache<ReferenceType> ramdump;
-                        final ByteOrder termOrder = IndexCell.this.ram.termKeyOrdering();
-                        final int termSize = IndexCell.this.ram.termKeyLength();
-                        synchronized (this) {
-                            ramdump = IndexCell.this.ram;
-                            // get a fresh ram cache
-                            IndexCell.this.ram = new ReferenceContainerCache<ReferenceType>(IndexCell.this.factory, termOrder, termSize);
+                        final List<ReferenceLog> swappedLogs = new ArrayList<ReferenceLog>();
+                        final List<ReferenceContainerCache<ReferenceType>> swapped = swap(all, swappedLogs);
+                        // the logs of the swapped shards are kept until the dump is mounted
+                        for (final ReferenceLog log: swappedLogs) log.close();
+                        IndexCell.this.flushingLogs.addAll(swappedLogs);
+                        if (!swapped.isEmpty()) {
+                            // the shards do not share terms, so they are dumped together into one file
+                            final ReferenceContainerCache<ReferenceType> ramdump;
+                            if (swapped.size() == 1) {
+                                ramdump = swapped.get(0);
+                            } else {
+                                ramdump = newBuffer();
+                                for (final ReferenceContainerCache<ReferenceType> shard: swapped) ramdump.absorb(shard);
+                            }
+                            final File dumpFile = IndexCell.this.array.newContainerBLOBFile();
+                            // the swapped shards are searched until the dump is mounted
+                            IndexCell.this.merger.dump(ramdump, dumpFile, IndexCell.this.array, new Runnable() {
+                                @Override
+                                public void run() {
+                                    IndexCell.this.flushing.removeAll(swapped);
+                                    IndexCell.this.dumpCount.incrementAndGet();
+                                    if (dumpFile.exists() || ramdump.isEmpty()) {
+                                        IndexCell.this.flushingLogs.removeAll(swappedLogs);
+                                        for (final ReferenceLog log: swappedLogs) log.delete();
+                                    }
+                                }
+                            });
                         }
-                        // WARNING : if this cell is queried before this dump termination, terms are no longer in the cache and would therefore not be found
-                        // dump the buffer
-                        IndexCell.this.merger.dump(ramdump, dumpFile, IndexCell.this.array);
                         IndexCell.this.lastDump = System.currentTimeMillis();
                     } catch (final Throwable e) {
                         // catch all exceptions
@@ -172,6 +243,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
                     if (IndexCell.this.array.entries() > 50 || (IndexCell.this.lastCleanup + cleanupCycle < System.currentTimeMillis())) try {
                         IndexCell.this.lastCleanup = System.currentTimeMillis(); // set time to prevent that this is called to soon again
                         IndexCell.this.shrink(IndexCell.this.targetFileSize, IndexCell.this.maxFileSize);
+                        IndexCell.this.expireTombstones();
                         IndexCell.this.lastCleanup = System.currentTimeMillis(); // set again to mark end of procedure
                     } catch (final Throwable e) {
                         // catch all exceptions
@@ -183,12 +255,325 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     }
 
+    /**
+     * set the number of shards of the RAM cache of cells which are created afterwards
+     * @param shards the number of shards, 0 for one shard per processor
+     */
+    public static void setBufferShards(final int shards) {
+        bufferShards = shards > 0 ? shards : Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * switch the write-ahead log of the RAM cache of cells which are created afterwards on or off
+     * @param wal true to log the changes of the RAM cache, false to dump the RAM cache at shutdown
+     */
+    public static void setWriteAheadLog(final boolean wal) {
+        writeAheadLog = wal;
+    }
+
+    private ReferenceContainerCache<ReferenceType> newBuffer() {
+        return new ReferenceContainerCache<ReferenceType>(this.factory, this.termOrder, this.termSize);
+    }
+
+    private ReferenceLog newLog() {
+        return new ReferenceLog(new File(this.cellPath, this.prefix + "." + this.logGeneration.incrementAndGet() + ".wal"), this.termSize, this.factory.getRow());
+    }
+
+    /**
+     * @return the write-ahead logs of a cell, the oldest first
+     */
+    private static File[] logFiles(final File cellPath, final String prefix) {
+        final File[] files = cellPath.listFiles((dir, name) -> name.startsWith(prefix + ".") && name.endsWith(".wal") && logGeneration(new File(dir, name), prefix) >= 0);
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(logGeneration(a, prefix), logGeneration(b, prefix)));
+        return files;
+    }
+
+    private static long logGeneration(final File file, final String prefix) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4));
+        } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * replay the write-ahead logs of the last run into the RAM cache; the references of deleted urls are
+     * dropped by the remove records which are logged when the urls are deleted.
+     * The replayed logs are deleted, except damaged logs which are kept for inspection.
+     * If there is no write-ahead log in this run, the references are written to a BLOB file at once.
+     */
+    private void replay(final File[] files) throws IOException {
+        final long start = System.currentTimeMillis();
+        final ReferenceContainerCache<ReferenceType> replayed = newBuffer();
+        int records = 0;
+        for (final File file: files) try {
+            records += ReferenceLog.replay(file, this.factory, replayed);
+        } catch (final IOException e) {
+            ConcurrentLog.severe("IndexCell", "cannot replay " + file + ": " + e.getMessage(), e);
+            ReferenceLog.keepDamaged(file);
+        }
+        final ReferenceContainerCache<ReferenceType> dump = this.logs == null ? newBuffer() : null;
+        try {
+            // the iterated containers are copies
+            for (final ReferenceContainer<ReferenceType> container: replayed) {
+                if (dump == null) ramAdd(container); else dump.add(container); // ramAdd logs the references again in the new logs
+            }
+        } catch (final SpaceExceededException e) {
+            throw new IOException("not enough memory to replay the write-ahead log: " + e.getMessage());
+        }
+        if (dump == null) {
+            syncLogs();
+        } else if (!dump.isEmpty()) {
+            final File dumpFile = this.array.newContainerBLOBFile();
+            this.array.dump(dump, dumpFile, this.writeBufferSize, true);
+            this.array.mountBLOBFile(dumpFile);
+        }
+        for (final File file: files) FileUtils.deletedelete(file);
+        ConcurrentLog.info("IndexCell", "replayed " + records + " records of " + files.length + " write-ahead logs with " + replayed.size() + " terms in " + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    /**
+     * commit the records which were added to the write-ahead logs since the last sync;
+     * this is done by the flush thread, the method is package-private to be called by tests
+     */
+    void syncLogs() {
+        if (this.logs == null) return;
+        for (int i = 0; i < this.logs.length; i++) {
+            final Lock lock = this.ramLocks[i].readLock();
+            lock.lock();
+            try {
+                this.logs[i].sync();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean logsFailed() {
+        for (final ReferenceLog log: this.logs) if (log.failed()) return true;
+        return false;
+    }
+
+    private int shard(final byte[] termHash) {
+        int h = 0;
+        for (final byte b: termHash) h = 31 * h + b;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % this.ram.length();
+    }
+
+    /**
+     * @return the shard of a term and the swapped shards which are not yet mounted; a term may be in any of them
+     */
+    private List<ReferenceContainerCache<ReferenceType>> buffers(final byte[] termHash) {
+        final ReferenceContainerCache<ReferenceType> shard = this.ram.get(shard(termHash));
+        if (this.flushing.isEmpty()) return Collections.singletonList(shard);
+        final List<ReferenceContainerCache<ReferenceType>> buffers = new ArrayList<ReferenceContainerCache<ReferenceType>>(this.flushing.size() + 1);
+        buffers.add(shard);
+        for (final ReferenceContainerCache<ReferenceType> buffer: this.flushing) if (buffer != shard) buffers.add(buffer);
+        return buffers;
+    }
+
+    /**
+     * @return a cache with all containers of the shards, and of the swapped shards if wanted;
+     * the containers are not copied
+     */
+    private ReferenceContainerCache<ReferenceType> ramSnapshot(final boolean withFlushing) {
+        if (this.ram.length() == 1 && (!withFlushing || this.flushing.isEmpty())) return this.ram.get(0);
+        final ReferenceContainerCache<ReferenceType> snapshot = newBuffer();
+        final List<ReferenceContainerCache<ReferenceType>> unfiltered = new ArrayList<ReferenceContainerCache<ReferenceType>>();
+        if (withFlushing) for (final ReferenceContainerCache<ReferenceType> buffer: this.flushing) {
+            final Long swapped = this.swapTimes.get(buffer);
+            if (swapped == null || !this.tombstones.applies(swapped.longValue())) {
+                unfiltered.add(buffer);
+                continue;
+            }
+            // the iterated containers are copies; they are added before the shards are absorbed, so that no shard is changed
+            for (final ReferenceContainer<ReferenceType> container: buffer) try {
+                this.tombstones.apply(container, swapped.longValue());
+                snapshot.add(container);
+            } catch (final SpaceExceededException e) {
+                ConcurrentLog.logException(e);
+            }
+        }
+        for (int i = 0; i < this.ram.length(); i++) snapshot.absorb(this.ram.get(i));
+        for (final ReferenceContainerCache<ReferenceType> buffer: unfiltered) snapshot.absorb(buffer);
+        return snapshot;
+    }
+
+    /**
+     * remove the references of deleted urls from a container of a RAM buffer. The shards in use are cleaned when
+     * urls are deleted, only swapped shards may hold references which were added before a deletion.
+     * @param buffer the shard or swapped shard which holds the container
+     * @param container a container of the buffer, it is modified
+     */
+    private void applyTombstones(final ReferenceContainerCache<ReferenceType> buffer, final ReferenceContainer<ReferenceType> container) {
+        final Long swapped = this.swapTimes.get(buffer);
+        if (swapped != null) this.tombstones.apply(container, swapped.longValue());
+    }
+
+    private int ramSize() {
+        int size = 0;
+        for (int i = 0; i < this.ram.length(); i++) size += this.ram.get(i).size();
+        return size;
+    }
+
+    private boolean fullShard() {
+        final int limit = Math.max(1, this.maxRamEntries / this.ram.length());
+        for (int i = 0; i < this.ram.length(); i++) if (this.ram.get(i).size() >= limit) return true;
+        return false;
+    }
+
+    /**
+     * swap shards for fresh ones; the swapped shards are added to the flushing list
+     * @param all true to swap all shards with content, false to swap only full shards
+     * @param swappedLogs the write-ahead logs of the swapped shards are added to this list
+     * @return the swapped shards
+     */
+    private List<ReferenceContainerCache<ReferenceType>> swap(final boolean all, final List<ReferenceLog> swappedLogs) {
+        final int limit = Math.max(1, this.maxRamEntries / this.ram.length());
+        final List<ReferenceContainerCache<ReferenceType>> swapped = new ArrayList<ReferenceContainerCache<ReferenceType>>();
+        final Long time = Long.valueOf(System.currentTimeMillis());
+        for (int i = 0; i < this.ram.length(); i++) {
+            final ReferenceContainerCache<ReferenceType> shard = this.ram.get(i);
+            if (shard.isEmpty() || (!all && shard.size() < limit)) continue;
+            final Lock lock = this.ramLocks[i].writeLock();
+            lock.lock();
+            try {
+                // readers must find the shard either in the ram or in the flushing list
+                this.swapTimes.put(shard, time);
+                this.flushing.add(shard);
+                this.ram.set(i, newBuffer());
+                if (this.logs != null) {
+                    swappedLogs.add(this.logs[i]);
+                    this.logs[i] = newLog();
+                }
+            } finally {
+                lock.unlock();
+            }
+            swapped.add(shard);
+        }
+        return swapped;
+    }
+
+    /**
+     * @return a copy of the references of a term in the RAM, because the containers in the RAM are changed by concurrent writers
+     */
+    private ReferenceContainer<ReferenceType> ramGet(final byte[] termHash, final HandleSet urlselection) {
+        ReferenceContainer<ReferenceType> result = null;
+        for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) {
+            ReferenceContainer<ReferenceType> c = buffer.get(termHash, urlselection);
+            if (c == null) continue;
+            try {
+                synchronized (c) {
+                    c = c.topLevelClone();
+                }
+                applyTombstones(buffer, c);
+            } catch (final SpaceExceededException e) {
+                ConcurrentLog.logException(e);
+            }
+            if (result == null) {
+                result = c;
+            } else try {
+                result = result.merge(c);
+            } catch (final SpaceExceededException e) {
+                if (c.size() > result.size()) result = c;
+            }
+        }
+        return result;
+    }
+
+    private void ramAdd(final ReferenceContainer<ReferenceType> newEntries) throws SpaceExceededException {
+        final int i = shard(newEntries.getTermHash());
+        final Lock lock = this.ramLocks[i].readLock();
+        lock.lock();
+        try {
+            if (this.logs != null) this.logs[i].add(newEntries);
+            this.ram.get(i).add(newEntries);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ramAdd(final byte[] termHash, final ReferenceType entry) throws SpaceExceededException {
+        final int i = shard(termHash);
+        final Lock lock = this.ramLocks[i].readLock();
+        lock.lock();
+        try {
+            if (this.logs != null) this.logs[i].add(termHash, entry);
+            this.ram.get(i).add(termHash, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReferenceContainer<ReferenceType> ramRemove(final byte[] termHash) {
+        final int i = shard(termHash);
+        final Lock lock = this.ramLocks[i].readLock();
+        lock.lock();
+        try {
+            if (this.logs != null) this.logs[i].delete(termHash);
+            ReferenceContainer<ReferenceType> result = null;
+            for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) {
+                final ReferenceContainer<ReferenceType> c = buffer.remove(termHash);
+                if (c == null) continue;
+                applyTombstones(buffer, c);
+                if (result == null) {
+                    result = c;
+                } else try {
+                    result = result.merge(c);
+                } catch (final SpaceExceededException e) {
+                    if (c.size() > result.size()) result = c;
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int ramRemove(final byte[] termHash, final HandleSet urlHashes) {
+        final int i = shard(termHash);
+        final Lock lock = this.ramLocks[i].readLock();
+        lock.lock();
+        try {
+            if (this.logs != null) this.logs[i].remove(termHash, urlHashes);
+            int removed = 0;
+            for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) removed += buffer.remove(termHash, urlHashes);
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean ramRemove(final byte[] termHash, final byte[] urlHashBytes) {
+        final int i = shard(termHash);
+        final Lock lock = this.ramLocks[i].readLock();
+        lock.lock();
+        try {
+            if (this.logs != null) this.logs[i].remove(termHash, urlHashBytes);
+            boolean removed = false;
+            for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) removed |= buffer.remove(termHash, urlHashBytes);
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private boolean shrink(final long targetFileSize, final long maxFileSize) {
         if (this.array.entries() < 2) return false;
         boolean donesomething = false;
 
-        // first try to merge small files that match
+        // first merge full tiers of files with a similar size, this keeps one merge job per worker busy
         int term = 10;
+        while (term-- > 0 && this.merger.queueLength() < this.merger.mergeWorkers()) {
+            if (!this.array.shrinkTier(this.merger, targetFileSize, maxFileSize)) break;
+            donesomething = true;
+        }
+
+        // then try to merge small files that match
+        term = 10;
         while (term-- > 0 && (this.merger.queueLength() < 3 || this.array.entries() >= 50)) {
             if (!this.array.shrinkBestSmallFiles(this.merger, targetFileSize)) break;
             donesomething = true;
@@ -237,10 +622,13 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     private Collection<byte[]> keys4LargeReferences(int minsize, long maxtime) throws IOException {
         long timeout = System.currentTimeMillis() + maxtime;
         ArrayList<byte[]> keys = new ArrayList<byte[]>();
-        Iterator<ByteArray> ci = this.ram.keys();
-        while (ci.hasNext()) {
-            byte[] k = ci.next().asBytes();
-            if (this.ram.count(k) >= minsize) keys.add(k);
+        for (int i = 0; i < this.ram.length(); i++) {
+            final ReferenceContainerCache<ReferenceType> shard = this.ram.get(i);
+            Iterator<ByteArray> ci = shard.keys();
+            while (ci.hasNext()) {
+                byte[] k = ci.next().asBytes();
+                if (shard.count(k) >= minsize) keys.add(k);
+            }
         }
         CloneableIterator<byte[]> ki = this.array.keys(true, false);
         while (ki.hasNext()) {
@@ -262,7 +650,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public int termKeyLength() {
-        return this.ram.termKeyLength();
+        return this.termSize;
     }
 
     /**
@@ -273,14 +661,15 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     @Override
     public void add(final ReferenceContainer<ReferenceType> newEntries) throws IOException, SpaceExceededException {
         try {
-            this.ram.add(newEntries);
+            ramAdd(newEntries);
             final long t = System.currentTimeMillis();
-            if (this.ram.size() % 1000 == 0 || this.lastCleanup + cleanupCycle < t || this.lastDump + dumpCycle < t) {
-                EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
+            final int size = ramSize();
+            if (size % 1000 == 0 || this.lastCleanup + cleanupCycle < t || this.lastDump + dumpCycle < t) {
+                EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(size), true);
             }
         } catch (final SpaceExceededException e) {
-            EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
-            this.ram.add(newEntries);
+            EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(ramSize()), true);
+            ramAdd(newEntries);
         }
 
     }
@@ -288,14 +677,15 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
     @Override
     public void add(final byte[] termHash, final ReferenceType entry) throws IOException, SpaceExceededException {
         try {
-            this.ram.add(termHash, entry);
+            ramAdd(termHash, entry);
             final long t = System.currentTimeMillis();
-            if (this.ram.size() % 1000 == 0 || this.lastCleanup + cleanupCycle < t || this.lastDump + dumpCycle < t) {
-                EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
+            final int size = ramSize();
+            if (size % 1000 == 0 || this.lastCleanup + cleanupCycle < t || this.lastDump + dumpCycle < t) {
+                EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(size), true);
             }
         } catch (final SpaceExceededException e) {
-            EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(this.ram.size()), true);
-            this.ram.add(termHash, entry);
+            EventTracker.update(EventTracker.EClass.WORDCACHE, Long.valueOf(ramSize()), true);
+            ramAdd(termHash, entry);
         }
     }
 
@@ -304,41 +694,29 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public boolean has(final byte[] termHash) {
-        if (this.ram.has(termHash)) return true;
+        for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) if (buffer.has(termHash)) return true;
         return this.array.has(termHash);
     }
 
     /**
      * count number of references for a given term
-     * this method may cause strong IO load if called too frequently.
+     * the number of references in the BLOB files is taken from the term statistics, so this does not cause IO.
+     * The references of deleted urls are counted until the BLOB files which contain them are merged:
+     * the merge drops them and decrements the term statistics, so the count may be too high while there are tombstones.
      */
     @Override
     public int count(final byte[] termHash) {
-        final Integer cachedCount = this.countCache.get(termHash);
-        if (cachedCount != null) return cachedCount.intValue();
-
-        int countFile = 0;
-        // read fresh values from file
-        try {
-            countFile = this.array.count(termHash);
-        } catch (final Throwable e) {
-            ConcurrentLog.logException(e);
-        }
-        assert countFile >= 0;
+        int c = this.array.count(termHash);
+        assert c >= 0;
 
-        // count from container in ram
-        final ReferenceContainer<ReferenceType> countRam = this.ram.get(termHash, null);
-        assert countRam == null || countRam.size() >= 0;
-        int c = countRam == null ? countFile : countFile + countRam.size();
+        // count from containers in ram
+        for (final ReferenceContainerCache<ReferenceType> buffer: buffers(termHash)) c += buffer.count(termHash);
         // exclude entries from delayed remove
         synchronized (this.removeDelayedURLs) {
             final HandleSet s = this.removeDelayedURLs.get(termHash);
             if (s != null) c -= s.size();
             if (c < 0) c = 0;
         }
-        // put count result into cache
-        if (MemoryControl.shortStatus()) this.countCache.clear();
-        this.countCache.insert(termHash, c);
         return c;
     }
 
@@ -346,15 +724,17 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      * all containers in the BLOBs and the RAM are merged and returned.
      * Please be aware that the returned values may be top-level cloned ReferenceContainers or direct links to containers
      * If the containers are modified after they are returned, they MAY alter the stored index.
+     * If a url selection is given, only the references to the selected urls are returned, and only the blocks of
+     * packed containers which may contain them are decoded.
      * @throws IOException
      * @return a container with merged ReferenceContainer from RAM and the file array or null if there is no data to be returned
      */
     @Override
     public ReferenceContainer<ReferenceType> get(final byte[] termHash, final HandleSet urlselection) throws IOException {
-        final ReferenceContainer<ReferenceType> c0 = this.ram.get(termHash, null);
+        final ReferenceContainer<ReferenceType> c0 = ramGet(termHash, urlselection);
         ReferenceContainer<ReferenceType> c1 = null;
         try {
-            c1 = this.array.get(termHash);
+            c1 = this.array.get(termHash, urlselection);
         } catch (final SpaceExceededException e2) {
             ConcurrentLog.logException(e2);
         }
@@ -402,7 +782,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         if (c1 != null) {
             this.array.delete(termHash);
         }
-        final ReferenceContainer<ReferenceType> c0 = this.ram.remove(termHash);
+        final ReferenceContainer<ReferenceType> c0 = ramRemove(termHash);
         if (c1 == null) return c0;
         if (c0 == null) return c1;
         try {
@@ -430,7 +810,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         if (c1 != null) {
             this.array.delete(termHash);
         }
-        this.ram.delete(termHash);
+        ramRemove(termHash);
         return;
     }
 
@@ -467,7 +847,62 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
                 if (urls != null) remove(b, urls);
             }
         }
-        this.countCache.clear();
+    }
+
+    /**
+     * remove all references of urls. The references in the RAM are removed at once, the references in the
+     * swapped shards and in the BLOB files are ignored from now on and dropped when the files are merged.
+     * References which are added after the removal are not affected. Other than the removal of
+     * references from selected word hashes, this does not depend on the number of words of the urls.
+     * @param urlHashes the urls
+     * @throws SpaceExceededException if the urls cannot be recorded
+     */
+    public void removeURLs(final HandleSet urlHashes) throws SpaceExceededException {
+        if (urlHashes.isEmpty()) return;
+        // shards are swapped and named for a dump while the merger is locked; a dump file which is named
+        // after the deletion time must not contain references of the deleted urls
+        synchronized (this.merger) {
+            // new BLOB files may be named a little ahead of the clock, the deletion must not be older than their names
+            final long time = Math.max(System.currentTimeMillis(), this.array.newestBLOBTime());
+            for (int i = 0; i < this.ram.length(); i++) {
+                final Lock lock = this.ramLocks[i].writeLock();
+                lock.lock();
+                try {
+                    final ReferenceContainerCache<ReferenceType> shard = this.ram.get(i);
+                    // the removal is logged, so that a replay of the log does not restore the references
+                    if (this.logs != null) {
+                        for (final Map.Entry<byte[], HandleSet> entry: shard.findReferences(urlHashes).entrySet()) this.logs[i].remove(entry.getKey(), entry.getValue());
+                    }
+                    shard.removeReferences(urlHashes);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // the swapped shards are not changed while they are dumped; their logs are replayed before the logs
+            // of the shards in use, so the removal of their references is logged in the logs of the shards
+            if (this.logs != null) for (final ReferenceContainerCache<ReferenceType> buffer: this.flushing) {
+                for (final Map.Entry<byte[], HandleSet> entry: buffer.findReferences(urlHashes).entrySet()) {
+                    final int i = shard(entry.getKey());
+                    final Lock lock = this.ramLocks[i].readLock();
+                    lock.lock();
+                    try {
+                        this.logs[i].remove(entry.getKey(), entry.getValue());
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            this.tombstones.add(urlHashes, time);
+        }
+    }
+
+    /**
+     * forget the tombstones of deleted urls when all BLOB files which were written before the deletion are merged
+     */
+    private void expireTombstones() {
+        if (this.tombstones.isEmpty() || !this.flushing.isEmpty() || this.merger.mergeBacklog() > 0) return;
+        final int expired = this.tombstones.expire(this.array.oldestCreation());
+        if (expired > 0) ConcurrentLog.info("IndexCell", "forgot " + expired + " tombstones of deleted urls, " + this.tombstones.size() + " remaining");
     }
 
     /**
@@ -479,8 +914,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public int remove(final byte[] termHash, final HandleSet urlHashes) throws IOException {
-        this.countCache.remove(termHash);
-        final int removed = this.ram.remove(termHash, urlHashes);
+        final int removed = ramRemove(termHash, urlHashes);
         int reduced;
         //final long am = this.array.mem();
         try {
@@ -495,8 +929,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public boolean remove(final byte[] termHash, final byte[] urlHashBytes) throws IOException {
-        this.countCache.remove(termHash);
-        final boolean removed = this.ram.remove(termHash, urlHashBytes);
+        final boolean removed = ramRemove(termHash, urlHashBytes);
         int reduced;
         //final long am = this.array.mem();
         try {
@@ -552,15 +985,16 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public CloneableIterator<ReferenceContainer<ReferenceType>> referenceContainerIterator(final byte[] startTermHash, final boolean rot, final boolean excludePrivate, final boolean ram) {
-        final Order<ReferenceContainer<ReferenceType>> containerOrder = new ReferenceContainerOrder<ReferenceType>(this.factory, this.ram.rowdef().getOrdering().clone());
+        final Order<ReferenceContainer<ReferenceType>> containerOrder = new ReferenceContainerOrder<ReferenceType>(this.factory, this.factory.getRow().getOrdering().clone());
         containerOrder.rotate(new ReferenceContainer<ReferenceType>(this.factory, startTermHash));
+        final ReferenceContainerCache<ReferenceType> snapshot = ramSnapshot(true);
         if (ram) {
-            return this.ram.referenceContainerIterator(startTermHash, rot, excludePrivate);
+            return snapshot.referenceContainerIterator(startTermHash, rot, excludePrivate);
         }
         return new MergeIterator<ReferenceContainer<ReferenceType>>(
-            this.ram.referenceContainerIterator(startTermHash, rot, excludePrivate),
+            snapshot.referenceContainerIterator(startTermHash, rot, excludePrivate),
             new MergeIterator<ReferenceContainer<ReferenceType>>(
-                this.ram.referenceContainerIterator(startTermHash, false, excludePrivate),
+                snapshot.referenceContainerIterator(startTermHash, false, excludePrivate),
                 this.array.referenceContainerIterator(startTermHash, false, excludePrivate),
                 containerOrder,
                 ReferenceContainer.containerMergeMethod,
@@ -576,18 +1010,19 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public synchronized void clear() throws IOException {
-        this.countCache.clear();
         this.removeDelayedURLs.clear();
-        this.ram.clear();
+        this.tombstones.clear();
+        for (int i = 0; i < this.ram.length(); i++) this.ram.get(i).clear();
+        for (final ReferenceContainerCache<ReferenceType> buffer: this.flushing) buffer.clear();
+        if (this.logs != null) for (final ReferenceLog log: this.logs) log.clear();
+        for (final ReferenceLog log: this.flushingLogs) log.delete();
+        this.flushingLogs.clear();
         this.array.clear();
+        this.dumpCount.incrementAndGet();
         if (Switchboard.getSwitchboard() != null &&
                 Switchboard.getSwitchboard().peers != null &&
                 Switchboard.getSwitchboard().peers.mySeed() != null) Switchboard.getSwitchboard().peers.mySeed().resetCounters();
     }
-    
-    public synchronized void clearCache() {
-        this.countCache.clear();
-    }
 
     /**
      * when a cell is closed, the current RAM is dumped to a file which will be opened as
@@ -596,18 +1031,27 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
      */
     @Override
     public synchronized void close() {
-        this.countCache.clear();
         try {removeDelayed();} catch (final IOException e) {}
-        if (!this.ram.isEmpty()) this.ram.dump(this.array.newContainerBLOBFile(), (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
-        // close all
+        // stop the flush thread first, so that no shard is swapped during the dump
         this.flushShallRun = false;
         if (this.flushThread != null) try { this.flushThread.join(); } catch (final InterruptedException e) {}
-        this.ram.close();
+        // shards which are swapped already are dumped by the merger
+        if (this.logs != null && !logsFailed()) {
+            // the RAM cache is not dumped, the logs are replayed when the cell is opened again
+            for (final ReferenceLog log: this.logs) log.close();
+        } else {
+            final ReferenceContainerCache<ReferenceType> ramdump = ramSnapshot(false);
+            if (!ramdump.isEmpty()) this.array.dump(ramdump, this.array.newContainerBLOBFile(), (int) Math.min(MemoryControl.available() / 3, this.writeBufferSize), true);
+            if (this.logs != null) for (final ReferenceLog log: this.logs) log.delete();
+        }
+        // close all
+        for (int i = 0; i < this.ram.length(); i++) this.ram.get(i).close();
         this.array.close();
+        this.tombstones.close();
     }
 
     public boolean isEmpty() {
-        if (this.ram.size() > 0) return false;
+        if (ramSize() > 0) return false;
         for (int s: this.array.sizes()) if (s > 0) return false;
         return true;
     }
@@ -624,7 +1068,7 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         final int[] as = this.array.sizes();
         final int[] asr = new int[as.length + 1];
         System.arraycopy(as, 0, asr, 0, as.length);
-        asr[as.length] = this.ram.size();
+        asr[as.length] = ramSize();
         return asr;
     }
 
@@ -640,6 +1084,15 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         return this.array.entries();
     }
 
+    /**
+     * the number of RAM dumps which were mounted as BLOB file, including clear operations.
+     * The number changes whenever references of the RAM buffer become part of the BLOB array.
+     * @return a counter which starts with zero when the cell is opened
+     */
+    public long getDumpCount() {
+        return this.dumpCount.get();
+    }
+
     @Override
     public int minMem() {
         return 10 * 1024 * 1024;
@@ -657,7 +1110,9 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public int getBufferMaxReferences() {
-        return this.ram.maxReferences();
+        int max = 0;
+        for (int i = 0; i < this.ram.length(); i++) max = Math.max(max, this.ram.get(i).maxReferences());
+        return max;
     }
 
     @Override
@@ -667,12 +1122,15 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
 
     @Override
     public int getBufferSize() {
-        return this.ram.size();
+        return ramSize();
     }
 
     @Override
     public long getBufferSizeBytes() {
-        return this.ram.usedMemory();
+        long b = 0L;
+        for (int i = 0; i < this.ram.length(); i++) b += this.ram.get(i).usedMemory();
+        for (final ReferenceContainerCache<ReferenceType> buffer: this.flushing) b += buffer.usedMemory();
+        return b;
     }
 
     @Override
@@ -680,4 +1138,12 @@ public final class IndexCell<ReferenceType extends Reference> extends AbstractBu
         this.maxRamEntries = maxWords;
     }
 
+    /**
+     * select the block format of ReferenceContainerCodec for all containers that are written from now on
+     * @param packed
+     */
+    public void setPackedReferences(final boolean packed) {
+        this.array.setPackedReferences(packed);
+    }
+
 }
@@ -31,6 +31,8 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
@@ -59,6 +61,8 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
 
     private   byte[] termHash;
     protected ReferenceFactory<ReferenceType> factory;
+    private transient ReferenceContainerCodec.Bounds bounds; // the block bounds which were stored with the rows
+    private transient long boundsWritten;
     public static int maxReferences = 0; // overwrite this to enable automatic index shrinking. 0 means no shrinking
 
     public ReferenceContainer(final ReferenceFactory<ReferenceType> factory, final byte[] termHash, final RowSet collection) {
@@ -113,6 +117,27 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
         return this.termHash;
     }
 
+    /**
+     * attach the block bounds which were read together with the rows of this container.
+     * The time of the last write is set to the time when the rows were written, so every
+     * later modification of the container is detected and the bounds are dropped.
+     * @param bounds the bounds of the rows
+     * @param written the time when the rows and the bounds were written
+     */
+    public synchronized void setBounds(final ReferenceContainerCodec.Bounds bounds, final long written) {
+        this.lastTimeWrote = written;
+        this.boundsWritten = written;
+        this.bounds = bounds;
+    }
+
+    /**
+     * @return the block bounds if they were stored with the rows and the container was not modified since, null otherwise
+     */
+    public synchronized ReferenceContainerCodec.Bounds bounds() {
+        if (this.bounds != null && (this.lastTimeWrote != this.boundsWritten || this.bounds.size() != size() || sorted() != size())) this.bounds = null;
+        return this.bounds;
+    }
+
     public void add(final Reference entry) throws SpaceExceededException {
         // add without double-occurrence test
         assert entry.toKelondroEntry().objectsize() == super.rowdef.objectsize;
@@ -169,6 +194,16 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
         return x;
     }
 
+    /**
+     * compare the url hash of a row with a key without copying the row
+     * @param row the row number
+     * @param key an url hash
+     * @return a negative number, zero or a positive number if the url hash of the row is lower, equal or greater than the key
+     */
+    public int compareKey(final int row, final byte[] key) {
+        return -compare(key, 0, row);
+    }
+
     public ReferenceType getReference(final byte[] urlHash) {
         final Row.Entry entry = super.get(urlHash, false);
         if (entry == null) return null;
@@ -318,13 +353,187 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
         if (includeContainers == null) return ReferenceContainer.emptyContainer(factory, null, 0);
 
         // join the result
-        final ReferenceContainer<ReferenceType> rcLocal = ReferenceContainer.joinContainers(factory, includeContainers, maxDistance);
+        final ReferenceContainer<ReferenceType> rcLocal = ReferenceContainer.joinExcludeGalloping(factory, includeContainers, excludeContainers, maxDistance);
         if (rcLocal == null) return ReferenceContainer.emptyContainer(factory, null, 0);
-        excludeContainers(factory, rcLocal, excludeContainers);
 
         return rcLocal;
     }
 
+    /**
+     * join all include containers and remove all references which appear in one of the exclude containers in one pass.
+     * The containers are intersected smallest-first on their sorted url hash arrays: the cursor of every other container
+     * is moved forward with an exponential (galloping) search, so large containers are skipped in big steps when the
+     * small ones are sparse and scanned almost sequentially when the containers are similar in size.
+     * References are only produced for the url hashes which survive the intersection and the exclusion.
+     * @param factory the reference factory
+     * @param includeContainers the containers of all include words
+     * @param excludeContainers the containers of all exclude words, may be null
+     * @param maxDistance the maximum word distance of the joined references
+     * @return the joined container or null if the conjunction is empty
+     * @throws SpaceExceededException
+     */
+    public static <ReferenceType extends Reference> ReferenceContainer<ReferenceType> joinExcludeGalloping(
+            final ReferenceFactory<ReferenceType> factory,
+            final Collection<ReferenceContainer<ReferenceType>> includeContainers,
+            final Collection<ReferenceContainer<ReferenceType>> excludeContainers,
+            final int maxDistance) throws SpaceExceededException {
+
+        // order the include containers by their size; this is a conjunction, an empty container makes the result empty
+        final List<ReferenceContainer<ReferenceType>> include = new ArrayList<ReferenceContainer<ReferenceType>>(includeContainers.size());
+        for (final ReferenceContainer<ReferenceType> c: includeContainers) {
+            if (c == null || c.isEmpty()) return null;
+            include.add(c);
+        }
+        if (include.isEmpty()) return null;
+        Collections.sort(include, new Comparator<ReferenceContainer<ReferenceType>>() {
+            @Override
+            public int compare(final ReferenceContainer<ReferenceType> a, final ReferenceContainer<ReferenceType> b) {
+                return a.size() < b.size() ? -1 : a.size() > b.size() ? 1 : 0;
+            }
+        });
+        final List<ReferenceContainer<ReferenceType>> exclude = new ArrayList<ReferenceContainer<ReferenceType>>();
+        if (excludeContainers != null) for (final ReferenceContainer<ReferenceType> c: excludeContainers) {
+            if (c != null && !c.isEmpty()) exclude.add(c);
+        }
+        final ReferenceContainer<ReferenceType> smallest = include.get(0);
+        if (include.size() == 1 && exclude.isEmpty()) return smallest;
+
+        // the array join needs equal row definitions, otherwise use the pairwise join on references
+        final String signature = smallest.rowdef.getOrdering().signature();
+        for (final ReferenceContainer<ReferenceType> c: include) if (!c.rowdef.equals(smallest.rowdef) || !signature.equals(c.rowdef.getOrdering().signature())) {
+            return excludeContainers(factory, joinContainers(factory, includeContainers, maxDistance), excludeContainers);
+        }
+        for (final ReferenceContainer<ReferenceType> c: exclude) if (!c.rowdef.equals(smallest.rowdef) || !signature.equals(c.rowdef.getOrdering().signature())) {
+            return excludeContainers(factory, joinContainers(factory, includeContainers, maxDistance), excludeContainers);
+        }
+
+        // take sorted snapshots of the url hash arrays
+        final int n = include.size() + exclude.size();
+        final Gallop[] cursors = new Gallop[n];
+        for (int i = 0; i < include.size(); i++) cursors[i] = new Gallop(include.get(i), smallest.size());
+        for (int i = 0; i < exclude.size(); i++) cursors[include.size() + i] = new Gallop(exclude.get(i), smallest.size());
+
+        // if the smaller container is so small that the larger one is probed with a binary search, the pairwise join does
+        // the same lookups (joinConstructiveByTest) with less setup, and excludeDestructive chooses its method by the same estimate;
+        // with more than two words the array join is kept, because the pairwise join computes the distance from intermediate results
+        if (include.size() == 2 && !cursors[1].gallop) {
+            final ReferenceContainer<ReferenceType> joined = excludeContainers(factory, joinConstructive(factory, smallest, include.get(1), maxDistance), exclude);
+            return joined == null || joined.isEmpty() ? null : joined;
+        }
+
+        final ReferenceContainer<ReferenceType> conj = new ReferenceContainer<ReferenceType>(factory, null, 0);
+        final Gallop first = cursors[0];
+        int row = 0;
+        candidates: while (row < first.size) {
+            // find a url hash which is contained in all include containers
+            int i = 1;
+            while (i < include.size()) {
+                final Gallop c = cursors[i];
+                c.pos = c.seek(first.chunk, row * first.objectsize);
+                if (c.pos >= c.size) break candidates; // no more common url hashes
+                if (c.compare(c.pos, first.chunk, row * first.objectsize) != 0) {
+                    // the other container has a larger url hash: gallop the smallest container to that url hash and start again
+                    row = first.seek(row + 1, c.chunk, c.pos * c.objectsize);
+                    if (row >= first.size) break candidates;
+                    i = 1;
+                    continue;
+                }
+                i++;
+            }
+
+            // check the exclusions
+            boolean excluded = false;
+            for (int e = include.size(); e < n; e++) {
+                final Gallop c = cursors[e];
+                if (c.pos >= c.size) continue;
+                c.pos = c.seek(first.chunk, row * first.objectsize);
+                if (c.pos < c.size && c.compare(c.pos, first.chunk, row * first.objectsize) == 0) {excluded = true; break;}
+            }
+
+            // produce the joined reference only for the survivors
+            if (!excluded) {
+                if (include.size() == 1) {
+                    conj.addUnique(smallest.get(row, true));
+                } else {
+                    final ReferenceType ie = factory.produceFast(factory.produceSlow(smallest.get(row, true)), true);
+                    for (i = 1; i < include.size(); i++) ie.join(factory.produceSlow(include.get(i).get(cursors[i].pos, true)));
+                    if (ie.distance() <= maxDistance) conj.add(ie);
+                }
+            }
+            row++;
+        }
+        if (conj.isEmpty()) return null;
+        return conj;
+    }
+
+    /**
+     * a cursor on the sorted url hash array of a container
+     */
+    private static class Gallop {
+        private final byte[] chunk;
+        private final int size, objectsize, keylength;
+        private final ByteOrder ordering;
+        private final boolean gallop;
+        private int pos;
+
+        /**
+         * @param container the container
+         * @param probes the number of url hashes which are searched at most, the size of the smallest include container
+         */
+        private Gallop(final ReferenceContainer<?> container, final int probes) {
+            container.sort();
+            synchronized (container) {
+                this.chunk = container.chunkcache;
+                this.size = container.chunkcount;
+            }
+            this.objectsize = container.rowdef.objectsize;
+            this.keylength = container.rowdef.width(0);
+            this.ordering = container.rowdef.getOrdering();
+            // decide which search is cheaper: a gallop over the expected gap between two probes takes
+            // about 2 * log2(gap) steps, a binary search over the whole container takes log2(size) steps
+            final int gap = this.size / Math.max(1, probes);
+            this.gallop = 2 * log2(gap) <= log2(this.size);
+            this.pos = 0;
+        }
+
+        private int compare(final int row, final byte[] key, final int keyoffset) {
+            return this.ordering.compare(this.chunk, row * this.objectsize, key, keyoffset, this.keylength);
+        }
+
+        private int seek(final byte[] key, final int keyoffset) {
+            return seek(this.pos, key, keyoffset);
+        }
+
+        /**
+         * find the first row at or after the start row with a url hash which is not smaller than the given key
+         * @return the row or size if all remaining url hashes are smaller
+         */
+        private int seek(final int start, final byte[] key, final int keyoffset) {
+            if (start >= this.size || compare(start, key, keyoffset) >= 0) return start;
+            int lo = start, hi = this.size;
+            if (this.gallop) {
+                // gallop: double the step until we pass the key
+                int step = 1;
+                hi = start + 1;
+                while (hi < this.size && compare(hi, key, keyoffset) < 0) {
+                    lo = hi;
+                    step <<= 1;
+                    hi = start + step;
+                }
+                if (hi > this.size) hi = this.size;
+            }
+            // binary search in (lo, hi]; the url hashes are unique, so an equal one is the result
+            lo++;
+            while (lo < hi) {
+                final int m = (lo + hi) >>> 1;
+                final int d = compare(m, key, keyoffset);
+                if (d == 0) return m;
+                if (d < 0) lo = m + 1; else hi = m;
+            }
+            return lo;
+        }
+    }
+
     public static <ReferenceType extends Reference> ReferenceContainer<ReferenceType> joinContainers(
             final ReferenceFactory<ReferenceType> factory,
             final Collection<ReferenceContainer<ReferenceType>> containers,
@@ -437,7 +646,7 @@ public class ReferenceContainer<ReferenceType extends Reference> extends RowSet
                 assert (ie2.urlhash().length == keylength) : "ie1.urlHash() = " + ASCII.String(ie2.urlhash());
                 // this is a hit. Calculate word distance:
 
-                ie1 = factory.produceFast(ie2, true);
+                ie1 = factory.produceFast(ie1, true);
                 ie1.join(ie2);
                 if (ie1.distance() <= maxDistance) conj.add(ie1);
             }
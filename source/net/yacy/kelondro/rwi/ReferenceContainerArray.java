@@ -26,19 +26,23 @@ package net.yacy.kelondro.rwi;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.order.ByteOrder;
 import net.yacy.cora.order.CloneableIterator;
 import net.yacy.cora.sorting.Rating;
+import net.yacy.cora.storage.HandleSet;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.blob.ArrayStack;
 import net.yacy.kelondro.blob.BLOB;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.index.Row;
-import net.yacy.kelondro.index.RowSet;
 
 
 public final class ReferenceContainerArray<ReferenceType extends Reference> {
@@ -47,6 +51,12 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
 
     private final ReferenceFactory<ReferenceType> factory;
     private final ArrayStack array;
+    private final TermStatistics statistics;
+    private final Set<File> dumped; // files which were dumped but are not mounted yet
+    private volatile Tombstones tombstones; // deleted urls whose references are dropped when containers are read, may be null
+    private final File heapLocation;
+    private final String prefix;
+    private volatile boolean packed;
 
     /**
      * open a index container array based on BLOB dumps. The content of the BLOBs will not be read
@@ -73,14 +83,52 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
             0,
             true,
             true);
+        this.packed = false;
+        this.heapLocation = heapLocation;
+        this.prefix = prefix;
+        this.statistics = TermStatistics.open(new File(heapLocation, prefix + ".statistics.gz"), heapLocation, prefix, termOrder, factory.getRow());
+        this.array.setTermStatistics(this.statistics);
+        this.dumped = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * select the format of containers that are written by dumps, merges and rewrites.
+     * Both formats can always be read, so existing files are converted while they are merged.
+     * @param packed if true, the ReferenceContainerCodec block format is written, otherwise the RowSet export format
+     */
+    public void setPackedReferences(final boolean packed) {
+        this.packed = packed;
+    }
+
+    public boolean packedReferences() {
+        return this.packed;
     }
 
     public synchronized void close() {
         this.array.close(true);
+        // files which were dumped but not mounted are mounted when the array is opened again
+        for (final File file: this.dumped) if (file.exists()) this.statistics.add(file);
+        this.dumped.clear();
+        this.statistics.close(this.heapLocation, this.prefix);
     }
 
     public void clear() throws IOException {
     	this.array.clear();
+    	this.statistics.clear();
+    }
+
+    /**
+     * dump a RAM cache to a new BLOB file of this array.
+     * The file must be mounted with mountBLOBFile() afterwards or it is mounted when the array is opened again;
+     * its references are counted in the term statistics when it is mounted or when the array is closed.
+     * @param cache
+     * @param file a file from newContainerBLOBFile()
+     * @param writeBuffer
+     * @param destructive if true, the cache is cleared during the dump
+     */
+    public void dump(final ReferenceContainerCache<? extends Reference> cache, final File file, final int writeBuffer, final boolean destructive) {
+        this.dumped.add(file);
+        cache.dump(file, writeBuffer, destructive, this.packed);
     }
 
     public int[] sizes() {
@@ -92,11 +140,18 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
     }
 
     public File newContainerBLOBFile() {
-    	return this.array.newBLOB(new Date());
+    	return this.array.newBLOB();
     }
 
+    /**
+     * mount a new BLOB file to the array and count its references in the term statistics
+     * @param location
+     * @throws IOException
+     */
     public void mountBLOBFile(final File location) throws IOException {
         this.array.mountBLOB(location, false);
+        this.dumped.remove(location);
+        this.statistics.add(location);
     }
 
     public Row rowdef() {
@@ -303,18 +358,30 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
      * @throws SpaceExceededException
      */
     public ReferenceContainer<ReferenceType> get(final byte[] termHash) throws IOException, SpaceExceededException {
+        return get(termHash, null);
+    }
+
+    /**
+     * get the references of a term to a selection of urls; in packed containers only the blocks
+     * which may contain one of the selected urls are decoded
+     * @param termHash
+     * @param urlselection the url hashes of the references which are returned, null for all references
+     * @return the indexContainer if one exist, null otherwise
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    public ReferenceContainer<ReferenceType> get(final byte[] termHash, final HandleSet urlselection) throws IOException, SpaceExceededException {
         final long timeout = System.currentTimeMillis() + METHOD_MAXRUNTIME;
-        final Iterator<byte[]> entries = this.array.getAll(termHash).iterator();
+        final Iterator<Map.Entry<Long, byte[]>> entries = this.array.getAllCreated(termHash).iterator();
     	if (entries == null || !entries.hasNext()) return null;
-    	final byte[] a = entries.next();
     	int k = 1;
-    	ReferenceContainer<ReferenceType> c = new ReferenceContainer<ReferenceType>(this.factory, termHash, RowSet.importRowSet(a, this.factory.getRow()));
+    	ReferenceContainer<ReferenceType> c = container(termHash, entries.next(), urlselection);
     	if (System.currentTimeMillis() > timeout) {
     	    ConcurrentLog.warn("ReferenceContainerArray", "timout in get() (1): " + k + " tables searched. timeout = " + METHOD_MAXRUNTIME);
     	    return c;
     	}
     	while (entries.hasNext()) {
-    		c = c.merge(new ReferenceContainer<ReferenceType>(this.factory, termHash, RowSet.importRowSet(entries.next(), this.factory.getRow())));
+    		c = c.merge(container(termHash, entries.next(), urlselection));
     		k++;
     		if (System.currentTimeMillis() > timeout) {
     		    ConcurrentLog.warn("ReferenceContainerArray", "timout in get() (2): " + k + " tables searched. timeout = " + METHOD_MAXRUNTIME);
@@ -324,20 +391,71 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
     	return c;
     }
 
-    public int count(final byte[] termHash) throws IOException {
+    /**
+     * import a container of a BLOB file; the references of urls which were deleted after the file was written are removed.
+     * The block bounds of packed containers are attached to the container.
+     * @param termHash
+     * @param blob the creation time of the file and the BLOB
+     * @param urlselection the url hashes of the references which are imported, null for all references
+     * @return the container
+     * @throws SpaceExceededException
+     */
+    private ReferenceContainer<ReferenceType> container(final byte[] termHash, final Map.Entry<Long, byte[]> blob, final HandleSet urlselection) throws SpaceExceededException {
+        final ReferenceContainer<ReferenceType> c = new ReferenceContainer<ReferenceType>(this.factory, termHash, urlselection == null ?
+                ReferenceContainerCodec.importRowSet(blob.getValue(), this.factory.getRow()) :
+                ReferenceContainerCodec.select(blob.getValue(), this.factory.getRow(), urlselection));
+        if (urlselection == null) {
+            // the block bounds of a packed container stay valid as long as no tombstone removes a reference
+            final ReferenceContainerCodec.Bounds bounds = ReferenceContainerCodec.bounds(blob.getValue(), this.factory.getRow());
+            if (bounds != null) c.setBounds(bounds, blob.getKey().longValue());
+        }
+        final Tombstones t = this.tombstones;
+        if (t != null && !t.isEmpty()) t.apply(c, blob.getKey().longValue());
+        return c;
+    }
+
+    /**
+     * count the references of a term in all BLOB files
+     * @param termHash
+     * @return the number of references from the term statistics, or from the BLOB files while the statistics are computed
+     */
+    public int count(final byte[] termHash) {
+        if (this.statistics.isReady()) return this.statistics.get(termHash);
+        try {
+            return countBLOB(termHash);
+        } catch (final IOException e) {
+            ConcurrentLog.logException(e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return false while the term statistics are computed from the BLOB files
+     */
+    boolean statisticsReady() {
+        return this.statistics.isReady();
+    }
+
+    /**
+     * count the references of a term by reading the heads of the containers in all BLOB files
+     * @param termHash
+     * @return the number of references
+     * @throws IOException
+     */
+    public int countBLOB(final byte[] termHash) throws IOException {
         final long timeout = System.currentTimeMillis() + METHOD_MAXRUNTIME;
-        final Iterator<Long> entries = this.array.lengthAll(termHash).iterator();
+        final Iterator<byte[]> entries = this.array.headAll(termHash, ReferenceContainerCodec.HEAD_LENGTH).iterator();
         if (entries == null || !entries.hasNext()) return 0;
-        final Long a = entries.next();
+        final byte[] a = entries.next();
         int k = 1;
-        int c = RowSet.importRowCount(a, this.factory.getRow());
+        int c = ReferenceContainerCodec.count(a, this.factory.getRow());
         assert c >= 0;
         if (System.currentTimeMillis() > timeout) {
             ConcurrentLog.warn("ReferenceContainerArray", "timout in count() (1): " + k + " tables searched. timeout = " + METHOD_MAXRUNTIME);
             return c;
         }
         while (entries.hasNext()) {
-            c += RowSet.importRowCount(entries.next(), this.factory.getRow());
+            c += ReferenceContainerCodec.count(entries.next(), this.factory.getRow());
             assert c >= 0;
             k++;
             if (System.currentTimeMillis() > timeout) {
@@ -358,16 +476,50 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
     public void delete(final byte[] termHash) throws IOException {
         // returns the index that had been deleted
     	this.array.delete(termHash);
+    	this.statistics.remove(termHash);
     }
 
     public int reduce(final byte[] termHash, final ContainerReducer<ReferenceType> reducer) throws IOException, SpaceExceededException {
-        return this.array.reduce(termHash, new BLOBReducer(termHash, reducer));
+        final BLOBReducer blobReducer = new BLOBReducer(termHash, reducer);
+        final int reduced = this.array.reduce(termHash, blobReducer);
+        if (!blobReducer.overflow) return reduced;
+        // a packed container could not be reduced in place: replace all containers of the term by one reduced container
+        return reduced + rewrite(termHash, reducer);
+    }
+
+    /**
+     * delete the containers of a term in all BLOB files and write the reduced merge of them to a new BLOB file
+     * @param termHash
+     * @param reducer
+     * @return the size of the removed references in the unpacked format
+     * @throws IOException
+     * @throws SpaceExceededException
+     */
+    private int rewrite(final byte[] termHash, final ContainerReducer<ReferenceType> reducer) throws IOException, SpaceExceededException {
+        ReferenceContainer<ReferenceType> c = null;
+        // the new file is newer than the tombstones, so they are applied to the containers now
+        for (final Map.Entry<Long, byte[]> b: this.array.getAllCreated(termHash)) {
+            final ReferenceContainer<ReferenceType> r = container(termHash, b, null);
+            c = c == null ? r : c.merge(r);
+        }
+        if (c == null) return 0;
+        final int size = c.size();
+        final ReferenceContainer<ReferenceType> reduced = reducer.reduce(c);
+        delete(termHash);
+        if (reduced == null || reduced.isEmpty()) return size * this.factory.getRow().objectsize;
+        final ReferenceContainerCache<ReferenceType> cache = new ReferenceContainerCache<ReferenceType>(this.factory, this.array.ordering(), this.array.keylength());
+        cache.add(reduced);
+        final File file = newContainerBLOBFile();
+        dump(cache, file, Math.max(1024, reduced.size() * this.factory.getRow().objectsize), true);
+        mountBLOBFile(file);
+        return (size - reduced.size()) * this.factory.getRow().objectsize;
     }
 
     public class BLOBReducer implements BLOB.Reducer {
 
         ContainerReducer<ReferenceType> rewriter;
         byte[] wordHash;
+        boolean overflow; // true if a reduced container did not fit in place
 
         public BLOBReducer(final byte[] wordHash, final ContainerReducer<ReferenceType> rewriter) {
             this.rewriter = rewriter;
@@ -377,10 +529,25 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
         @Override
         public byte[] rewrite(final byte[] b) throws SpaceExceededException {
             if (b == null) return null;
-            final ReferenceContainer<ReferenceType> c = this.rewriter.reduce(new ReferenceContainer<ReferenceType>(ReferenceContainerArray.this.factory, this.wordHash, RowSet.importRowSet(b, ReferenceContainerArray.this.factory.getRow())));
+            final ReferenceContainer<ReferenceType> c = this.rewriter.reduce(new ReferenceContainer<ReferenceType>(ReferenceContainerArray.this.factory, this.wordHash, ReferenceContainerCodec.importRowSet(b, ReferenceContainerArray.this.factory.getRow())));
             if (c == null) return null;
-            final byte bb[] = c.exportCollection();
+            // the blob is rewritten in place, so the format of the blob is kept
+            final boolean packed = ReferenceContainerCodec.isPacked(b);
+            final byte bb[] = ReferenceContainerCodec.export(c, packed);
+            final int removed = ReferenceContainerCodec.count(b, ReferenceContainerArray.this.factory.getRow()) - c.size();
+            if (packed && bb.length > b.length - 4) {
+                // a smaller record must leave room for a gap entry; otherwise the record is padded to the old size
+                if (bb.length <= b.length) {
+                    ReferenceContainerArray.this.statistics.add(this.wordHash, -removed);
+                    return Arrays.copyOf(bb, b.length);
+                }
+                // removing entries may break up runs of equal values; the container is written again after the reduction
+                ConcurrentLog.info("ReferenceContainerArray", "reduced packed container for " + ASCII.String(this.wordHash) + " does not fit in place, rewriting it");
+                this.overflow = true;
+                return b;
+            }
             assert bb.length <= b.length;
+            ReferenceContainerArray.this.statistics.add(this.wordHash, -removed);
             return bb;
         }
     }
@@ -399,35 +566,79 @@ public final class ReferenceContainerArray<ReferenceType extends Reference> {
         return this.array.entries();
     }
 
+    /**
+     * @return the creation time of the oldest BLOB file or Long.MAX_VALUE if there is none
+     */
+    public long oldestCreation() {
+        return this.array.oldestCreation();
+    }
+
+    /**
+     * @return the time in the name of the latest new BLOB file; files which are named later have a later time
+     */
+    public long newestBLOBTime() {
+        return this.array.newestBLOBTime();
+    }
+
+    /**
+     * set the deleted urls whose references are dropped when containers are read and when the BLOB files are merged
+     * @param tombstones the deleted urls, may be null
+     */
+    public void setTombstones(final Tombstones tombstones) {
+        this.tombstones = tombstones;
+        this.array.setTombstones(tombstones);
+    }
+
+    /**
+     * start a k-way merge of the files of a full size tier
+     * @param merger
+     * @param targetFileSize the size of a file which is the result of merging the smallest tier
+     * @param maxFileSize the maximum size of the merged file
+     * @return true if a merge was started
+     */
+    public boolean shrinkTier(final IODispatcher merger, final long targetFileSize, final long maxFileSize) {
+        if (!this.statistics.isReady()) return false; // the merge would change the files which are counted
+        final int fanIn = merger.fanIn();
+        final File[] ff = this.array.unmountTier(fanIn, targetFileSize / fanIn, maxFileSize);
+        if (ff == null) return false;
+        ConcurrentLog.info("RICELL-shrink0", "unmountTier(" + fanIn + ", " + (targetFileSize / fanIn) + ", " + maxFileSize + "): " + ff.length + " files");
+        merger.merge(ff, this.factory, this.array, newContainerBLOBFile(), this.packed);
+        return true;
+    }
+
     public boolean shrinkBestSmallFiles(final IODispatcher merger, final long targetFileSize) {
+        if (!this.statistics.isReady()) return false;
         final File[] ff = this.array.unmountBestMatch(2.0f, targetFileSize);
         if (ff == null) return false;
         ConcurrentLog.info("RICELL-shrink1", "unmountBestMatch(2.0, " + targetFileSize + ")");
-        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile());
+        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile(), this.packed);
         return true;
     }
 
     public boolean shrinkAnySmallFiles(final IODispatcher merger, final long targetFileSize) {
+        if (!this.statistics.isReady()) return false;
         final File[] ff = this.array.unmountSmallest(targetFileSize);
         if (ff == null) return false;
         ConcurrentLog.info("RICELL-shrink2", "unmountSmallest(" + targetFileSize + ")");
-        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile());
+        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile(), this.packed);
         return true;
     }
 
     public boolean shrinkUpToMaxSizeFiles(final IODispatcher merger, final long maxFileSize) {
+        if (!this.statistics.isReady()) return false;
         final File[] ff = this.array.unmountBestMatch(2.0f, maxFileSize);
         if (ff == null) return false;
         ConcurrentLog.info("RICELL-shrink3", "unmountBestMatch(2.0, " + maxFileSize + ")");
-        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile());
+        merger.merge(ff[0], ff[1], this.factory, this.array, newContainerBLOBFile(), this.packed);
         return true;
     }
 
     public boolean shrinkOldFiles(final IODispatcher merger) {
+        if (!this.statistics.isReady()) return false;
         final File ff = this.array.unmountOldest();
         if (ff == null) return false;
         ConcurrentLog.info("RICELL-shrink4/rewrite", "unmountOldest()");
-        merger.merge(ff, null, this.factory, this.array, newContainerBLOBFile());
+        merger.merge(ff, null, this.factory, this.array, newContainerBLOBFile(), this.packed);
         return true;
     }
 }
@@ -34,6 +34,7 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.yacy.cora.document.encoding.ASCII;
@@ -47,6 +48,7 @@ import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.blob.HeapWriter;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.RowHandleSet;
 import net.yacy.kelondro.util.FileUtils;
 
 /**
@@ -113,6 +115,27 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
         return this.cache.keySet().iterator();
     }
 
+    /**
+     * put all containers of another cache into this cache without copying them.
+     * Containers of a term which is in both caches are merged into a new container.
+     * @param other a cache which is not written any more
+     */
+    void absorb(final ReferenceContainerCache<ReferenceType> other) {
+        if (this.cache == null || other.cache == null) return;
+        synchronized (this.cache) {
+            for (final Map.Entry<ByteArray, ReferenceContainer<ReferenceType>> entry: other.cache.entrySet()) {
+                final ReferenceContainer<ReferenceType> c = this.cache.get(entry.getKey());
+                if (c == null) {
+                    this.cache.put(entry.getKey(), entry.getValue());
+                } else try {
+                    this.cache.put(entry.getKey(), c.merge(entry.getValue()));
+                } catch (final SpaceExceededException e) {
+                    if (entry.getValue().size() > c.size()) this.cache.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * dump the cache to a file. This method can be used in a destructive way
      * which means that memory can be freed during the dump. This may be important
@@ -123,6 +146,17 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
      * @param destructive - if true then the cache is cleaned during the dump causing to free memory
      */
     public void dump(final File heapFile, final int writeBuffer, final boolean destructive) {
+        dump(heapFile, writeBuffer, destructive, false);
+    }
+
+    /**
+     * dump the cache to a file
+     * @param heapFile
+     * @param writeBuffer
+     * @param destructive - if true then the cache is cleaned during the dump causing to free memory
+     * @param packed - if true then the containers are written with the ReferenceContainerCodec block format
+     */
+    public void dump(final File heapFile, final int writeBuffer, final boolean destructive, final boolean packed) {
         assert this.cache != null;
         if (this.cache == null) return;
         log.info("creating rwi heap dump '" + heapFile.getName() + "', " + this.cache.size() + " rwi's");
@@ -157,7 +191,7 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
             if (container != null && term.length == this.termSize) {
                 //System.out.println("Dump: " + wordHash);
                 try {
-                    dump.add(term, container.exportCollection());
+                    dump.add(term, ReferenceContainerCodec.export(container, packed));
                 } catch (final IOException e) {
                     ConcurrentLog.logException(e);
                 } catch (final SpaceExceededException e) {
@@ -551,6 +585,60 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
     @Override
     public void removeDelayed() {}
 
+    /**
+     * find the references of urls in all containers
+     * @param urlHashes the urls
+     * @return a mapping from the terms to the urls which are referenced in the containers of the terms
+     * @throws SpaceExceededException
+     */
+    public Map<byte[], HandleSet> findReferences(final HandleSet urlHashes) throws SpaceExceededException {
+        final Map<byte[], HandleSet> found = new TreeMap<byte[], HandleSet>(this.termOrder);
+        if (this.cache == null || urlHashes.isEmpty()) return found;
+        for (final ReferenceContainer<ReferenceType> c: this.cache.values()) {
+            HandleSet urls = null;
+            synchronized (c) {
+                final Iterator<byte[]> k = c.keys();
+                while (k.hasNext()) {
+                    final byte[] urlhash = k.next();
+                    if (!urlHashes.has(urlhash)) continue;
+                    if (urls == null) urls = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+                    urls.put(urlhash);
+                }
+            }
+            if (urls != null) found.put(c.getTermHash(), urls);
+        }
+        return found;
+    }
+
+    /**
+     * remove the references of urls from all containers
+     * @param urlHashes the urls
+     * @return the number of removed references
+     */
+    public int removeReferences(final HandleSet urlHashes) {
+        assert this.cache != null;
+        if (this.cache == null || urlHashes.isEmpty()) return 0;
+        int count = 0;
+        synchronized (this.cache) {
+            final Iterator<ReferenceContainer<ReferenceType>> i = this.cache.values().iterator();
+            while (i.hasNext()) {
+                final ReferenceContainer<ReferenceType> c = i.next();
+                if (urlHashes.size() < c.size()) {
+                    count += c.removeEntries(urlHashes);
+                } else {
+                    // the container is smaller than the set, ask the set for every reference
+                    final Iterator<byte[]> k = c.keys();
+                    while (k.hasNext()) if (urlHashes.has(k.next())) {
+                        k.remove();
+                        count++;
+                    }
+                }
+                if (c.isEmpty()) i.remove();
+            }
+        }
+        return count;
+    }
+
     @Override
     public void add(final ReferenceContainer<ReferenceType> container) throws SpaceExceededException {
         // this puts the entries into the cache
@@ -558,20 +646,14 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
 
         // put new words into cache
         final ByteArray tha = new ByteArray(container.getTermHash());
-        int added = 0;
         synchronized (this.cache) {
             ReferenceContainer<ReferenceType> entries = this.cache.get(tha); // null pointer exception? wordhash != null! must be cache==null
             if (entries == null) {
-                entries = container.topLevelClone();
-                added = entries.size();
-            } else {
-                added = entries.putAllRecent(container);
+                // add(termHash, newEntry) does not lock the cache, so the container may have been created in the meantime
+                entries = this.cache.putIfAbsent(tha, container.topLevelClone());
+                if (entries == null) return;
             }
-            if (added > 0) {
-                this.cache.put(tha, entries);
-            }
-            entries = null;
-            return;
+            entries.putAllRecent(container);
         }
     }
 
@@ -581,31 +663,10 @@ public final class ReferenceContainerCache<ReferenceType extends Reference> exte
         if (this.cache == null) return;
         final ByteArray tha = new ByteArray(termHash);
 
-        // first access the cache without synchronization
-        ReferenceContainer<ReferenceType> container = this.cache.remove(tha);
-        if (container == null) container = new ReferenceContainer<ReferenceType>(this.factory, termHash, 1);
+        // the container is not taken out of the cache while the entry is added, so concurrent readers always find it;
+        // the container synchronizes concurrent writes itself
+        final ReferenceContainer<ReferenceType> container = this.cache.computeIfAbsent(tha, k -> new ReferenceContainer<ReferenceType>(this.factory, termHash));
         container.put(newEntry);
-
-        // synchronization: check if the entry is still empty and set new value
-        final ReferenceContainer<ReferenceType> container0 = this.cache.put(tha, container);
-        if (container0 != null) synchronized (this.cache) {
-            // no luck here, we get a lock exclusively to sort this out
-            final ReferenceContainer<ReferenceType> containerNew = this.cache.put(tha, container0);
-            if (containerNew == null) return;
-            if (container0 == containerNew) {
-                // The containers are the same, so nothing needs to be done
-                return;
-            }
-            // Now merge the smaller container into the lager.
-            // The other way around can become very slow
-            if (container0.size() >= containerNew.size()) {
-                container0.putAllRecent(containerNew);
-       	        this.cache.put(tha, container0);
-            } else {
-                containerNew.putAllRecent(container0);
-                this.cache.put(tha, containerNew);
-            }
-        }
     }
 
     @Override
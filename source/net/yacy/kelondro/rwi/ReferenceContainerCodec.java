@@ -0,0 +1,492 @@
+/**
+ *  ReferenceContainerCodec
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.rwi;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.RowCollection;
+import net.yacy.kelondro.index.RowSet;
+import net.yacy.kelondro.util.MemoryControl;
+
+/**
+ * Block based encoding of reference containers.
+ * The rows of a container are sorted by their primary key and written in blocks of
+ * BLOCK_SIZE rows. Within a block every key is stored as the length of the prefix it
+ * shares with the previous key followed by the remaining suffix; the first key of every
+ * block is kept in a block directory which allows to decode a single block only.
+ * All other columns are compared with the same column of the previous row: equal
+ * columns are marked in a bit mask, the others are written as unsigned varints
+ * (columns up to 8 bytes) or as raw bytes.
+ * Since version 2 the directory also holds the Bounds of the columns of every block,
+ * which are computed whenever a container is written or merged.
+ *
+ * The format starts with a magic that can never appear in the first byte of a
+ * collection written by RowCollection.exportCollection(), so both formats can be
+ * stored side by side in one BLOB array and are distinguished when they are read.
+ */
+public final class ReferenceContainerCodec {
+
+    public static final byte MAGIC0 = (byte) 0xFF;
+    public static final byte MAGIC1 = 'P';
+    public static final byte VERSION = 2;
+    public static final int BLOCK_SIZE = 128;
+
+    /** number of bytes at the beginning of an encoded container that are sufficient for count() */
+    public static final int HEAD_LENGTH = 14;
+
+    private ReferenceContainerCodec() {}
+
+    public static boolean isPacked(final byte[] b) {
+        return b != null && b.length >= 3 && b[0] == MAGIC0 && b[1] == MAGIC1;
+    }
+
+    /**
+     * encode a collection either in the packed or in the classic RowCollection format
+     * @param collection the rows to be exported
+     * @param packed true for the block format of this class
+     * @return the exported bytes
+     */
+    public static byte[] export(final RowCollection collection, final boolean packed) {
+        return packed ? pack(collection) : collection.exportCollection();
+    }
+
+    /**
+     * import a collection from a byte array; the format is detected from the magic
+     */
+    public static RowSet importRowSet(final byte[] b, final Row rowdef) throws SpaceExceededException {
+        return isPacked(b) ? unpack(b, rowdef) : RowSet.importRowSet(b, rowdef);
+    }
+
+    /**
+     * count the number of rows in an exported collection of any format
+     * @param head the first (at most HEAD_LENGTH) bytes of the exported collection
+     * @param rowdef the row definition
+     * @return the number of rows
+     */
+    public static int count(final byte[] head, final Row rowdef) {
+        if (isPacked(head)) {
+            final int[] p = new int[]{3};
+            return (int) readVarint(head, p);
+        }
+        if (head == null || head.length < 4) return 0;
+        final int size = (int) NaturalOrder.decodeLong(head, 0, 4);
+        return Math.max(0, size);
+    }
+
+    public static byte[] pack(final RowCollection collection) {
+        collection.sort();
+        final Row rowdef = collection.row();
+        final int size = collection.size();
+        final int keylength = rowdef.primaryKeyLength;
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final ByteArrayOutputStream directory = new ByteArrayOutputStream(blocks * (keylength + 4) + 16);
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(size * rowdef.objectsize / 3 + 16);
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * rowdef.objectsize / 3 + 16);
+        final int masklength = (rowdef.columns() + 6) / 8; // one bit for each column except the key
+        final byte[] mask = new byte[masklength];
+        final byte[] previous = new byte[rowdef.objectsize];
+        final byte[] current = new byte[rowdef.objectsize];
+        final Bounds bounds = new Bounds(rowdef, size);
+        for (int b = 0; b < blocks; b++) {
+            final int start = b * BLOCK_SIZE;
+            final int end = Math.min(size, start + BLOCK_SIZE);
+            block.reset();
+            Arrays.fill(previous, (byte) 0);
+            for (int i = start; i < end; i++) {
+                collection.get(i, false).writeToArray(current, 0);
+                if (i == start) {
+                    // the first key of the block is stored in the directory
+                    directory.write(current, 0, keylength);
+                    writeVarint(directory, end - start);
+                    System.arraycopy(current, 0, previous, 0, keylength);
+                }
+                int prefix = 0;
+                while (prefix < keylength && current[prefix] == previous[prefix]) prefix++;
+                block.write(prefix);
+                block.write(current, prefix, keylength - prefix);
+                Arrays.fill(mask, (byte) 0);
+                for (int c = 1; c < rowdef.columns(); c++) {
+                    if (equals(current, previous, rowdef.colstart[c], rowdef.width(c))) mask[(c - 1) >> 3] |= 1 << ((c - 1) & 7);
+                }
+                block.write(mask, 0, masklength);
+                for (int c = 1; c < rowdef.columns(); c++) {
+                    if ((mask[(c - 1) >> 3] & (1 << ((c - 1) & 7))) != 0) continue;
+                    final int offset = rowdef.colstart[c];
+                    final int width = rowdef.width(c);
+                    if (width <= 8) writeVarint(block, decode(current, offset, width)); else block.write(current, offset, width);
+                }
+                bounds.add(i, current);
+                System.arraycopy(current, 0, previous, 0, current.length);
+            }
+            bounds.write(directory, b);
+            writeVarint(directory, block.size());
+            final byte[] bb = block.toByteArray();
+            data.write(bb, 0, bb.length);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(directory.size() + data.size() + 16);
+        out.write(MAGIC0);
+        out.write(MAGIC1);
+        out.write(VERSION);
+        writeVarint(out, size);
+        writeVarint(out, BLOCK_SIZE);
+        writeVarint(out, blocks);
+        byte[] bb = directory.toByteArray();
+        out.write(bb, 0, bb.length);
+        bb = data.toByteArray();
+        out.write(bb, 0, bb.length);
+        return out.toByteArray();
+    }
+
+    public static RowSet unpack(final byte[] b, final Row rowdef) throws SpaceExceededException {
+        final Directory d = new Directory(b, rowdef);
+        final long alloc = ((long) d.size) * ((long) rowdef.objectsize);
+        if (alloc > Integer.MAX_VALUE) throw new SpaceExceededException((int) alloc, "unpack: alloc > Integer.MAX_VALUE");
+        MemoryControl.request((int) alloc, true);
+        final byte[] chunkcache;
+        try {
+            chunkcache = new byte[(int) alloc];
+        } catch (final OutOfMemoryError e) {
+            throw new SpaceExceededException((int) alloc, "unpack: OutOfMemoryError");
+        }
+        int row = 0;
+        for (int i = 0; i < d.blocks; i++) {
+            d.decode(i, chunkcache, row * rowdef.objectsize);
+            row += d.count[i];
+        }
+        return new RowSet(rowdef, d.size, chunkcache, d.size);
+    }
+
+    /**
+     * import only the rows with the given primary keys from a collection of any format.
+     * In a packed container only the blocks which may contain one of the keys are decoded,
+     * so a small selection of a large container touches only a few blocks.
+     * @param b the exported collection
+     * @param rowdef the row definition
+     * @param keys the primary keys of the selected rows
+     * @return the selected rows which are contained in the collection
+     * @throws SpaceExceededException
+     */
+    public static RowSet select(final byte[] b, final Row rowdef, final HandleSet keys) throws SpaceExceededException {
+        if (!isPacked(b)) {
+            final RowSet rows = RowSet.importRowSet(b, rowdef);
+            final RowSet selected = new RowSet(rowdef, Math.min(rows.size(), keys.size()));
+            for (final Row.Entry entry: rows) if (keys.has(entry.getPrimaryKeyBytes())) selected.addUnique(entry);
+            return selected;
+        }
+        final Directory d = new Directory(b, rowdef);
+        if (keys.size() >= d.size) {
+            // nearly every block would be decoded anyway
+            final RowSet rows = unpack(b, rowdef);
+            final RowSet selected = new RowSet(rowdef, Math.min(rows.size(), keys.size()));
+            for (final Row.Entry entry: rows) if (keys.has(entry.getPrimaryKeyBytes())) selected.addUnique(entry);
+            return selected;
+        }
+        final RowSet selected = new RowSet(rowdef, 0);
+        byte[] rows = new byte[BLOCK_SIZE * rowdef.objectsize];
+        int decoded = -1;
+        for (final byte[] key: keys) {
+            final int block = d.block(key);
+            if (block < 0) continue;
+            if (block != decoded) {
+                if (d.count[block] * rowdef.objectsize > rows.length) rows = new byte[d.count[block] * rowdef.objectsize];
+                d.decode(block, rows, 0);
+                decoded = block;
+            }
+            for (int i = 0; i < d.count[block]; i++) {
+                if (rowdef.objectOrder.compare(rows, i * rowdef.objectsize, key, 0, rowdef.primaryKeyLength) == 0) {
+                    selected.addUnique(rowdef.newEntry(rows, i * rowdef.objectsize, true));
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * read the bounds of the blocks which are stored in a packed container
+     * @param b the exported collection
+     * @param rowdef the row definition
+     * @return the bounds, or null if the collection is not packed or was packed without bounds
+     */
+    public static Bounds bounds(final byte[] b, final Row rowdef) {
+        if (!isPacked(b)) return null;
+        return new Directory(b, rowdef).bounds;
+    }
+
+    /**
+     * the minimum and the maximum value of the columns in every block of a sorted collection.
+     * The bounds are kept for all columns except the primary key which are not wider than 8 bytes;
+     * the value of a column is the unsigned big-endian number of its bytes, which is the value of
+     * cardinal columns. For bit fields the union of all bits is kept as well.
+     * A reader can use the bounds to skip or to rank blocks without decoding their rows.
+     */
+    public static final class Bounds {
+        private final Row rowdef;
+        private final int size, blocks, columns;
+        private final long[] lo, hi, or; // [block * columns + column]
+
+        private Bounds(final Row rowdef, final int size) {
+            this.rowdef = rowdef;
+            this.size = size;
+            this.blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            this.columns = rowdef.columns();
+            this.lo = new long[this.blocks * this.columns];
+            this.hi = new long[this.blocks * this.columns];
+            this.or = new long[this.blocks * this.columns];
+        }
+
+        /**
+         * compute the bounds of a collection which was not read from a packed container
+         * @param collection the rows; the collection is sorted
+         * @return the bounds of the blocks of BLOCK_SIZE rows
+         */
+        public static Bounds of(final RowCollection collection) {
+            collection.sort();
+            final Bounds bounds = new Bounds(collection.row(), collection.size());
+            final byte[] row = new byte[collection.row().objectsize];
+            for (int i = 0; i < bounds.size; i++) {
+                collection.get(i, false).writeToArray(row, 0);
+                bounds.add(i, row);
+            }
+            return bounds;
+        }
+
+        private boolean bounded(final int column) {
+            return column > 0 && this.rowdef.width(column) <= 8;
+        }
+
+        private void add(final int index, final byte[] row) {
+            final int base = (index / BLOCK_SIZE) * this.columns;
+            final boolean first = index % BLOCK_SIZE == 0;
+            for (int c = 1; c < this.columns; c++) {
+                if (!bounded(c)) continue;
+                final long v = decode(row, this.rowdef.colstart[c], this.rowdef.width(c));
+                if (first) {
+                    this.lo[base + c] = v;
+                    this.hi[base + c] = v;
+                    this.or[base + c] = v;
+                } else {
+                    if (v < this.lo[base + c]) this.lo[base + c] = v;
+                    if (v > this.hi[base + c]) this.hi[base + c] = v;
+                    this.or[base + c] |= v;
+                }
+            }
+        }
+
+        private void write(final ByteArrayOutputStream out, final int block) {
+            final int base = block * this.columns;
+            for (int c = 1; c < this.columns; c++) {
+                if (!bounded(c)) continue;
+                writeVarint(out, this.lo[base + c]);
+                writeVarint(out, this.hi[base + c] - this.lo[base + c]);
+                writeVarint(out, this.or[base + c]);
+            }
+        }
+
+        private void read(final byte[] b, final int[] p, final int block) {
+            final int base = block * this.columns;
+            for (int c = 1; c < this.columns; c++) {
+                if (!bounded(c)) continue;
+                this.lo[base + c] = readVarint(b, p);
+                this.hi[base + c] = this.lo[base + c] + readVarint(b, p);
+                this.or[base + c] = readVarint(b, p);
+            }
+        }
+
+        /**
+         * @return the number of rows of the collection
+         */
+        public int size() {
+            return this.size;
+        }
+
+        public int blocks() {
+            return this.blocks;
+        }
+
+        /**
+         * @return the smallest value of a column in a block
+         */
+        public long lo(final int block, final int column) {
+            return this.lo[block * this.columns + column];
+        }
+
+        /**
+         * @return the largest value of a column in a block
+         */
+        public long hi(final int block, final int column) {
+            return this.hi[block * this.columns + column];
+        }
+
+        /**
+         * @return the union of the bits of a column in a block
+         */
+        public long or(final int block, final int column) {
+            return this.or[block * this.columns + column];
+        }
+    }
+
+    /**
+     * the parsed header and block directory of a packed container
+     */
+    private static final class Directory {
+        private final byte[] b;
+        private final Row rowdef;
+        private final int size, blocks;
+        private final byte[] keys;
+        private final int[] count, start;
+        private final Bounds bounds; // null in containers of version 1
+
+        private Directory(final byte[] b, final Row rowdef) {
+            if (!isPacked(b) || (b[2] != 1 && b[2] != VERSION)) throw new IllegalArgumentException("not a packed reference container");
+            this.b = b;
+            this.rowdef = rowdef;
+            final int[] p = new int[]{3};
+            this.size = (int) readVarint(b, p);
+            readVarint(b, p); // the block size is implied by the row counts
+            this.blocks = (int) readVarint(b, p);
+            final int keylength = rowdef.primaryKeyLength;
+            this.keys = new byte[this.blocks * keylength];
+            this.count = new int[this.blocks];
+            this.start = new int[this.blocks];
+            final int[] length = new int[this.blocks];
+            this.bounds = b[2] == 1 ? null : new Bounds(rowdef, this.size);
+            for (int i = 0; i < this.blocks; i++) {
+                System.arraycopy(b, p[0], this.keys, i * keylength, keylength);
+                p[0] += keylength;
+                this.count[i] = (int) readVarint(b, p);
+                if (this.bounds != null) this.bounds.read(b, p, i);
+                length[i] = (int) readVarint(b, p);
+            }
+            int offset = p[0];
+            for (int i = 0; i < this.blocks; i++) {
+                this.start[i] = offset;
+                offset += length[i];
+            }
+            // records that are reduced in place may be padded at the end
+            if (offset > b.length) throw new IllegalArgumentException("packed reference container is truncated: " + b.length + ", expected " + offset);
+        }
+
+        /**
+         * @return the last block with a first key that is not greater than the given key, -1 if there is none
+         */
+        private int block(final byte[] key) {
+            final int keylength = this.rowdef.primaryKeyLength;
+            int l = 0, r = this.blocks - 1, block = -1;
+            while (l <= r) {
+                final int m = (l + r) >>> 1;
+                if (this.rowdef.objectOrder.compare(this.keys, m * keylength, key, 0, keylength) <= 0) {
+                    block = m;
+                    l = m + 1;
+                } else {
+                    r = m - 1;
+                }
+            }
+            return block;
+        }
+
+        private void decode(final int block, final byte[] target, final int targetOffset) {
+            final int keylength = this.rowdef.primaryKeyLength;
+            final int objectsize = this.rowdef.objectsize;
+            final int columns = this.rowdef.columns();
+            final int masklength = (columns + 6) / 8;
+            final int[] p = new int[]{this.start[block]};
+            int previous = -1;
+            for (int i = 0; i < this.count[block]; i++) {
+                final int row = targetOffset + i * objectsize;
+                final int prefix = this.b[p[0]++] & 0xff;
+                if (previous < 0) {
+                    System.arraycopy(this.keys, block * keylength, target, row, prefix);
+                } else {
+                    System.arraycopy(target, previous, target, row, prefix);
+                }
+                System.arraycopy(this.b, p[0], target, row + prefix, keylength - prefix);
+                p[0] += keylength - prefix;
+                final int mask = p[0];
+                p[0] += masklength;
+                for (int c = 1; c < columns; c++) {
+                    final int offset = this.rowdef.colstart[c];
+                    final int width = this.rowdef.width(c);
+                    if ((this.b[mask + ((c - 1) >> 3)] & (1 << ((c - 1) & 7))) != 0) {
+                        // same as in the previous row; the first row of a block is compared with zeros
+                        if (previous >= 0) System.arraycopy(target, previous + offset, target, row + offset, width);
+                        else Arrays.fill(target, row + offset, row + offset + width, (byte) 0);
+                    } else if (width <= 8) {
+                        encode(readVarint(this.b, p), target, row + offset, width);
+                    } else {
+                        System.arraycopy(this.b, p[0], target, row + offset, width);
+                        p[0] += width;
+                    }
+                }
+                previous = row;
+            }
+        }
+    }
+
+    private static boolean equals(final byte[] a, final byte[] b, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) if (a[i] != b[i]) return false;
+        return true;
+    }
+
+    private static long decode(final byte[] b, final int offset, final int width) {
+        long v = 0;
+        for (int i = offset; i < offset + width; i++) v = (v << 8) | (b[i] & 0xff);
+        return v;
+    }
+
+    private static void encode(long v, final byte[] b, final int offset, final int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            b[i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(final byte[] b, final int[] p) {
+        long v = 0;
+        int shift = 0;
+        while (p[0] < b.length) {
+            final byte x = b[p[0]++];
+            v |= ((long) (x & 0x7F)) << shift;
+            if ((x & 0x80) == 0) return v;
+            shift += 7;
+        }
+        return v;
+    }
+
+}
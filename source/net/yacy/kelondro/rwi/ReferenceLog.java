@@ -0,0 +1,304 @@
+/**
+ *  ReferenceLog
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.rwi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A write-ahead log of the changes of a RAM cache of references.
+ * Every change of a shard of the IndexCell RAM cache is appended to the log of the shard before it is applied.
+ * The records are written to a buffer and committed in groups with sync(), so a crash loses only the changes
+ * since the last sync. When a shard is dumped to a BLOB file, its log is not needed any more and deleted;
+ * the logs which are found when a cell is opened are replayed into the RAM cache.
+ *
+ * Every record starts with a type byte and the term hash:
+ * ADD is followed by the number of references and the rows of the references,
+ * REMOVE is followed by the number of url hashes and the url hashes, DELETE removes the whole container of the term.
+ */
+public final class ReferenceLog {
+
+    private static final ConcurrentLog log = new ConcurrentLog("ReferenceLog");
+
+    private static final byte ADD = 'a', REMOVE = 'r', DELETE = 'd';
+
+    private final File file;
+    private final int termSize;
+    private final Row payloadrow;
+    private final byte[] rowbuffer;
+    private FileOutputStream fos;
+    private DataOutputStream os;
+    private boolean failed; // true if a record could not be written, then the RAM cache must be dumped at close
+
+    /**
+     * create a new log file; if the file cannot be created, the log is marked as failed
+     * @param file the file, which must not exist
+     * @param termSize the length of the term hashes
+     * @param payloadrow the row of the references
+     */
+    public ReferenceLog(final File file, final int termSize, final Row payloadrow) {
+        this.file = file;
+        this.termSize = termSize;
+        this.payloadrow = payloadrow;
+        this.rowbuffer = new byte[payloadrow.objectsize];
+        this.failed = false;
+        try {
+            this.fos = new FileOutputStream(file);
+            this.os = new DataOutputStream(new BufferedOutputStream(this.fos, 64 * 1024));
+        } catch (final IOException e) {
+            this.fos = null;
+            this.os = null;
+            fail(e);
+        }
+    }
+
+    public File file() {
+        return this.file;
+    }
+
+    /**
+     * @return true if a record could not be written since the log was opened
+     */
+    public synchronized boolean failed() {
+        return this.failed;
+    }
+
+    private void fail(final IOException e) {
+        if (!this.failed) log.severe("cannot write to " + this.file + ", the RAM cache is dumped at close: " + e.getMessage(), e);
+        this.failed = true;
+    }
+
+    public synchronized void add(final byte[] termHash, final Reference entry) {
+        if (this.os == null || this.failed) return;
+        try {
+            this.os.writeByte(ADD);
+            this.os.write(termHash, 0, this.termSize);
+            this.os.writeInt(1);
+            entry.toKelondroEntry().writeToArray(this.rowbuffer, 0);
+            this.os.write(this.rowbuffer);
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void add(final ReferenceContainer<? extends Reference> container) {
+        if (this.os == null || this.failed) return;
+        try {
+            synchronized (container) {
+                this.os.writeByte(ADD);
+                this.os.write(container.getTermHash(), 0, this.termSize);
+                this.os.writeInt(container.size());
+                for (int i = 0; i < container.size(); i++) {
+                    container.get(i, false).writeToArray(this.rowbuffer, 0);
+                    this.os.write(this.rowbuffer);
+                }
+            }
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void remove(final byte[] termHash, final HandleSet urlHashes) {
+        if (this.os == null || this.failed) return;
+        try {
+            this.os.writeByte(REMOVE);
+            this.os.write(termHash, 0, this.termSize);
+            this.os.writeInt(urlHashes.size());
+            for (final byte[] urlHash: urlHashes) this.os.write(urlHash, 0, this.payloadrow.primaryKeyLength);
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void remove(final byte[] termHash, final byte[] urlHash) {
+        if (this.os == null || this.failed) return;
+        try {
+            this.os.writeByte(REMOVE);
+            this.os.write(termHash, 0, this.termSize);
+            this.os.writeInt(1);
+            this.os.write(urlHash, 0, this.payloadrow.primaryKeyLength);
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void delete(final byte[] termHash) {
+        if (this.os == null || this.failed) return;
+        try {
+            this.os.writeByte(DELETE);
+            this.os.write(termHash, 0, this.termSize);
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * commit all records which were written since the last sync to the disk
+     */
+    public synchronized void sync() {
+        if (this.os == null || this.failed) return;
+        try {
+            this.os.flush();
+            this.fos.getChannel().force(false);
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * remove all records from the log
+     */
+    public synchronized void clear() {
+        if (this.os == null) return;
+        try {
+            this.os.flush();
+            this.fos.getChannel().truncate(0);
+            this.failed = false;
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * sync and close the log; the file is kept and replayed when the cell is opened again
+     */
+    public synchronized void close() {
+        if (this.os == null) return;
+        sync();
+        try {
+            this.os.close();
+        } catch (final IOException e) {
+            fail(e);
+        }
+        this.os = null;
+        this.fos = null;
+    }
+
+    /**
+     * close the log and delete the file, this is done when the content of the log is written to a BLOB file
+     */
+    public synchronized void delete() {
+        if (this.os != null) try {
+            this.os.close();
+        } catch (final IOException e) {}
+        this.os = null;
+        this.fos = null;
+        FileUtils.deletedelete(this.file);
+    }
+
+    /**
+     * apply the records of a log file to a RAM cache. A record which was not written completely
+     * at the end of the file, because of a crash during a write, is ignored. If a record has an unknown type,
+     * the replay stops there like at an incomplete record, and the file is kept with the extension .damaged.
+     * @param file the log file
+     * @param factory the factory of the references
+     * @param cache the RAM cache
+     * @return the number of records
+     * @throws IOException if the file cannot be read
+     */
+    public static <ReferenceType extends Reference> int replay(final File file, final ReferenceFactory<ReferenceType> factory, final ReferenceContainerCache<ReferenceType> cache) throws IOException {
+        final Row payloadrow = factory.getRow();
+        final int termSize = cache.termKeyLength();
+        int records = 0;
+        boolean damaged = false;
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            byte type;
+            while (true) {
+                try {
+                    type = is.readByte();
+                } catch (final EOFException e) {
+                    break;
+                }
+                final byte[] termHash = new byte[termSize];
+                is.readFully(termHash);
+                if (type == ADD) {
+                    final int n = is.readInt();
+                    final ReferenceContainer<ReferenceType> container = new ReferenceContainer<ReferenceType>(factory, termHash, n);
+                    for (int i = 0; i < n; i++) {
+                        final byte[] row = new byte[payloadrow.objectsize];
+                        is.readFully(row);
+                        container.put(payloadrow.newEntry(row));
+                    }
+                    cache.add(container);
+                } else if (type == REMOVE) {
+                    final int n = is.readInt();
+                    final HandleSet urlHashes = new RowHandleSet(payloadrow.primaryKeyLength, payloadrow.objectOrder, n);
+                    for (int i = 0; i < n; i++) {
+                        final byte[] urlHash = new byte[payloadrow.primaryKeyLength];
+                        is.readFully(urlHash);
+                        urlHashes.put(urlHash);
+                    }
+                    cache.remove(termHash, urlHashes);
+                } else if (type == DELETE) {
+                    cache.delete(termHash);
+                } else {
+                    // the log is damaged; nothing behind this point can be read, but the records before are valid
+                    log.severe("unknown record type " + type + " in " + file.getName() + " after " + records + " records, the rest of the log is ignored");
+                    damaged = true;
+                    break;
+                }
+                records++;
+            }
+        } catch (final EOFException e) {
+            log.warn("the last record of " + file.getName() + " is incomplete, replayed " + records + " records");
+        } catch (final SpaceExceededException e) {
+            throw new IOException("not enough memory to replay " + file.getName() + ": " + e.getMessage());
+        } finally {
+            is.close();
+        }
+        if (damaged) keepDamaged(file);
+        return records;
+    }
+
+    /**
+     * rename a log file which cannot be replayed completely, so it is not deleted and can be inspected;
+     * the renamed file is not found as log file any more when the cell is opened again
+     * @param file the log file
+     */
+    public static void keepDamaged(final File file) {
+        final File damaged = new File(file.getParentFile(), file.getName() + ".damaged");
+        if (file.renameTo(damaged)) {
+            log.severe("kept the damaged write-ahead log as " + damaged.getName());
+        } else {
+            log.severe("cannot rename the damaged write-ahead log " + file.getName());
+        }
+    }
+}
@@ -27,17 +27,25 @@
 
 package net.yacy.kelondro.rwi;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.TreeMap;
 
 import net.yacy.cora.order.Base64Order;
 import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.index.RowHandleSet;
 
 
 public class TermSearch <ReferenceType extends Reference> {
 
-    private final ReferenceContainer<ReferenceType> joinResult;
+    private final ReferenceFactory<ReferenceType> termFactory;
+    private final int maxDistance;
+    private ReferenceContainer<ReferenceType> joinResult;
     private TreeMap<byte[], ReferenceContainer<ReferenceType>> inclusionContainers;
+    private final TreeMap<byte[], ReferenceContainer<ReferenceType>> exclusionContainers;
 
     public TermSearch(
             Index<ReferenceType> base,
@@ -56,20 +64,48 @@ public class TermSearch <ReferenceType extends Reference> {
             (this.inclusionContainers.size() < queryHashes.size()))
             this.inclusionContainers = new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder); // prevent that only a subset is returned
 
-        TreeMap<byte[], ReferenceContainer<ReferenceType>> exclusionContainers =
-            (this.inclusionContainers.isEmpty()) ?
-                new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder) :
-                base.searchConjunction(excludeHashes, urlselection);
-
-        // join and exclude the result
-        this.joinResult = ReferenceContainer.joinExcludeContainers(
-                termFactory,
-                this.inclusionContainers.values(),
-                exclusionContainers.values(),
-                maxDistance);
+        // only the references of the exclude words to urls of the smallest include container can remove a result,
+        // so only the blocks of the exclude containers which may contain these urls are read
+        this.exclusionContainers = new TreeMap<byte[], ReferenceContainer<ReferenceType>>(Base64Order.enhancedCoder);
+        if (!this.inclusionContainers.isEmpty() && !excludeHashes.isEmpty()) {
+            final HandleSet candidates = urlselection == null ? candidates(this.inclusionContainers.values()) : urlselection;
+            for (final byte[] excludeHash: excludeHashes) {
+                try {
+                    final ReferenceContainer<ReferenceType> container = base.get(excludeHash, candidates);
+                    if (container != null && !container.isEmpty()) this.exclusionContainers.put(excludeHash, container);
+                } catch (final IOException e) {
+                    ConcurrentLog.logException(e);
+                }
+            }
+        }
+
+        // the join is done when it is requested, so a caller that evaluates the containers itself does not pay for it
+        this.termFactory = termFactory;
+        this.maxDistance = maxDistance;
+        this.joinResult = null;
+    }
+
+    /**
+     * @return the url hashes of the smallest container, every joined reference has one of them
+     */
+    private static <ReferenceType extends Reference> HandleSet candidates(final Collection<ReferenceContainer<ReferenceType>> containers) throws SpaceExceededException {
+        ReferenceContainer<ReferenceType> smallest = null;
+        for (final ReferenceContainer<ReferenceType> c: containers) if (smallest == null || c.size() < smallest.size()) smallest = c;
+        final HandleSet candidates = new RowHandleSet(smallest.row().primaryKeyLength, smallest.row().objectOrder, smallest.size());
+        final Iterator<byte[]> keys = smallest.keys();
+        while (keys.hasNext()) candidates.put(keys.next());
+        return candidates;
     }
 
-    public ReferenceContainer<ReferenceType> joined() {
+    public synchronized ReferenceContainer<ReferenceType> joined() throws SpaceExceededException {
+        if (this.joinResult == null) {
+            // join and exclude the result
+            this.joinResult = ReferenceContainer.joinExcludeContainers(
+                    this.termFactory,
+                    this.inclusionContainers.values(),
+                    this.exclusionContainers.values(),
+                    this.maxDistance);
+        }
         return this.joinResult;
     }
 
@@ -77,4 +113,8 @@ public class TermSearch <ReferenceType extends Reference> {
         return this.inclusionContainers;
     }
 
+    public TreeMap<byte[], ReferenceContainer<ReferenceType>> exclusion() {
+        return this.exclusionContainers;
+    }
+
 }
@@ -0,0 +1,303 @@
+/**
+ *  TermStatistics
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.rwi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.yacy.cora.order.ByteOrder;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.blob.HeapReader;
+import net.yacy.kelondro.index.HashHandleMap;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A dictionary of the number of references of every term in the BLOB files of a ReferenceContainerArray.
+ * The numbers are maintained when RAM caches are dumped, when BLOB files are merged and when containers
+ * are deleted or reduced, so the number of references of a term can be read without asking any BLOB file.
+ * References of one url in several BLOB files are counted in every file until the files are merged.
+ *
+ * The dictionary is written to a file when the array is closed, together with a fingerprint of the names
+ * and lengths of the BLOB files. If the fingerprint does not match when the array is opened again, for example
+ * after a crash, the dictionary is computed again from the heads of the containers in the BLOB files.
+ * This is done in a concurrent thread; the changes of the counts which happen in the meantime are kept
+ * in a journal and applied when the computation is finished. Until then, isReady() is false.
+ */
+public final class TermStatistics {
+
+    private static final ConcurrentLog log = new ConcurrentLog("TermStatistics");
+    private static final int MAGIC = 0x54535431; // "TST1"
+
+    private final File file;
+    private final int termSize;
+    private final ByteOrder termOrder;
+    private final Row payloadrow;
+    private volatile HashHandleMap counts; // mapping from term hashes to the number of references
+    private volatile List<Map.Entry<byte[], Long>> journal; // changes during the computation of the counts, a null value removes a term
+    private volatile Thread rebuild; // the thread which computes the counts, null if the counts are complete
+
+    private TermStatistics(final File file, final ByteOrder termOrder, final Row payloadrow, final int expectedSize) {
+        this.file = file;
+        this.termSize = payloadrow.primaryKeyLength;
+        this.termOrder = termOrder;
+        this.payloadrow = payloadrow;
+        this.counts = new HashHandleMap(this.termSize, termOrder, 4, expectedSize, file.getName());
+        this.journal = null;
+        this.rebuild = null;
+    }
+
+    /**
+     * open the dictionary of the BLOB files of an array
+     * @param file the file of the dictionary
+     * @param heapLocation the directory of the BLOB files
+     * @param prefix the prefix of the BLOB files
+     * @param termOrder
+     * @param payloadrow the row of the references
+     * @return the dictionary, read from the file or computed from the BLOB files in a concurrent thread
+     */
+    public static TermStatistics open(final File file, final File heapLocation, final String prefix, final ByteOrder termOrder, final Row payloadrow) {
+        final int termSize = payloadrow.primaryKeyLength;
+        final long fingerprint = fingerprint(heapLocation, prefix);
+        if (file.exists()) {
+            DataInputStream is = null;
+            try {
+                is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536)));
+                if (is.readInt() == MAGIC && is.readLong() == fingerprint) {
+                    final int size = is.readInt();
+                    final TermStatistics statistics = new TermStatistics(file, termOrder, payloadrow, size);
+                    final byte[] term = new byte[termSize];
+                    for (int i = 0; i < size; i++) {
+                        is.readFully(term);
+                        statistics.counts.put(term, is.readInt());
+                    }
+                    return statistics;
+                }
+                log.info("the BLOB files of " + prefix + " were changed since " + file.getName() + " was written, the term statistics are computed again");
+            } catch (final IOException | SpaceExceededException e) {
+                log.warn("cannot read " + file + ", the term statistics are computed again: " + e.getMessage());
+            } finally {
+                if (is != null) try {is.close();} catch (final IOException e) {}
+            }
+        }
+
+        // compute the statistics from the BLOB files which are mounted when the array is opened
+        final TermStatistics statistics = new TermStatistics(file, termOrder, payloadrow, 0);
+        final File[] blobs = blobFiles(heapLocation, prefix);
+        if (blobs.length > 0) statistics.rebuild(blobs);
+        return statistics;
+    }
+
+    private void rebuild(final File[] blobs) {
+        this.journal = new ArrayList<Map.Entry<byte[], Long>>();
+        this.rebuild = new Thread("TermStatistics.rebuild(" + this.file.getName() + ")") {
+            @Override
+            public void run() {
+                final long start = System.currentTimeMillis();
+                final HashHandleMap rebuilt = new HashHandleMap(TermStatistics.this.termSize, TermStatistics.this.termOrder, 4, 0, TermStatistics.this.file.getName());
+                for (final File blob: blobs) {
+                    if (TermStatistics.this.rebuild != this) break;
+                    count(blob, rebuilt);
+                }
+                synchronized (TermStatistics.this) {
+                    if (TermStatistics.this.rebuild != this) {
+                        // the statistics were cleared or closed in the meantime
+                        rebuilt.close();
+                        return;
+                    }
+                    final HashHandleMap old = TermStatistics.this.counts;
+                    TermStatistics.this.counts = rebuilt;
+                    final List<Map.Entry<byte[], Long>> changes = TermStatistics.this.journal;
+                    TermStatistics.this.journal = null;
+                    TermStatistics.this.rebuild = null;
+                    for (final Map.Entry<byte[], Long> change: changes) {
+                        if (change.getValue() == null) remove(change.getKey()); else add(change.getKey(), change.getValue().longValue());
+                    }
+                    old.close();
+                }
+                log.info("computed the statistics of " + size() + " terms from " + blobs.length + " BLOB files in " + (System.currentTimeMillis() - start) + " milliseconds");
+            }
+        };
+        this.rebuild.start();
+    }
+
+    /**
+     * count the references of all containers of a BLOB file from the heads of the containers
+     * @param blob
+     * @param target the map which gets the counts, or null to add the counts to this dictionary
+     */
+    private void count(final File blob, final HashHandleMap target) {
+        HeapReader.entries entries = null;
+        try {
+            entries = new HeapReader.entries(blob, this.termSize, ReferenceContainerCodec.HEAD_LENGTH);
+            while (entries.hasNext()) {
+                final Map.Entry<byte[], byte[]> entry = entries.next();
+                if (entry == null) break;
+                if (target != null && this.rebuild != Thread.currentThread()) break; // the computation was cancelled
+                final int count = ReferenceContainerCodec.count(entry.getValue(), this.payloadrow);
+                if (target == null) add(entry.getKey(), count); else target.add(entry.getKey(), count);
+            }
+        } catch (final IOException | SpaceExceededException e) {
+            log.warn("cannot read " + blob + " for the term statistics: " + e.getMessage());
+        } finally {
+            if (entries != null) entries.close();
+        }
+    }
+
+    /**
+     * @return false while the counts are computed from the BLOB files, then get() cannot be used
+     */
+    public boolean isReady() {
+        return this.rebuild == null;
+    }
+
+    private static File[] blobFiles(final File heapLocation, final String prefix) {
+        final File[] files = heapLocation.listFiles((dir, name) -> name.startsWith(prefix + ".") && name.endsWith(".blob"));
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * @return a fingerprint of the names and lengths of the BLOB files which does not depend on their order
+     */
+    private static long fingerprint(final File heapLocation, final String prefix) {
+        long fingerprint = 0;
+        for (final File f: blobFiles(heapLocation, prefix)) fingerprint += f.getName().hashCode() * 1000003L + f.length();
+        return fingerprint;
+    }
+
+    /**
+     * @param termHash
+     * @return the number of references of the term in the BLOB files; this is only complete if isReady()
+     */
+    public int get(final byte[] termHash) {
+        return (int) Math.max(0, this.counts.get(termHash));
+    }
+
+    /**
+     * change the number of references of a term
+     * @param termHash
+     * @param delta the number of added references, negative for removed references
+     */
+    public synchronized void add(final byte[] termHash, final long delta) {
+        if (delta == 0) return;
+        if (this.journal != null) {
+            this.journal.add(new AbstractMap.SimpleImmutableEntry<byte[], Long>(termHash.clone(), delta));
+            return;
+        }
+        final long count = Math.max(0, this.counts.get(termHash)) + delta;
+        try {
+            if (count <= 0) this.counts.remove(termHash); else this.counts.put(termHash, Math.min(Integer.MAX_VALUE, count));
+        } catch (final SpaceExceededException e) {
+            log.warn("no space for the term statistics, the counts are not exact: " + e.getMessage());
+        }
+    }
+
+    /**
+     * add the references of all containers of a BLOB file which is mounted to the array
+     * @param blob the BLOB file
+     */
+    public void add(final File blob) {
+        count(blob, null);
+    }
+
+    public synchronized void remove(final byte[] termHash) {
+        if (this.journal != null) {
+            this.journal.add(new AbstractMap.SimpleImmutableEntry<byte[], Long>(termHash.clone(), null));
+            return;
+        }
+        this.counts.remove(termHash);
+    }
+
+    public synchronized int size() {
+        return this.counts.size();
+    }
+
+    public synchronized void clear() {
+        // the BLOB files are deleted, so a running computation is not needed any more
+        this.rebuild = null;
+        this.journal = null;
+        this.counts.clear();
+    }
+
+    /**
+     * write the dictionary to the file; this must be done after the BLOB files are closed
+     * @param heapLocation the directory of the BLOB files
+     * @param prefix the prefix of the BLOB files
+     */
+    public void close(final File heapLocation, final String prefix) {
+        final Thread running;
+        synchronized (this) {
+            running = this.rebuild;
+            if (running == null) {
+                write(heapLocation, prefix);
+            } else {
+                // the counts are not complete, they are computed again when the array is opened
+                this.rebuild = null;
+                this.journal = null;
+                if (this.file.exists()) FileUtils.deletedelete(this.file);
+            }
+            this.counts.close();
+        }
+        if (running != null) try {running.join();} catch (final InterruptedException e) {}
+    }
+
+    private void write(final File heapLocation, final String prefix) {
+        final File tmp = new File(this.file.getParentFile(), this.file.getName() + ".prt");
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 65536)));
+            os.writeInt(MAGIC);
+            os.writeLong(fingerprint(heapLocation, prefix));
+            os.writeInt(this.counts.size());
+            for (final Map.Entry<byte[], Long> entry: this.counts) {
+                os.write(entry.getKey(), 0, this.termSize);
+                os.writeInt(entry.getValue().intValue());
+            }
+            os.close();
+            os = null;
+            if (this.file.exists()) FileUtils.deletedelete(this.file);
+            if (!tmp.renameTo(this.file)) log.warn("cannot rename " + tmp + " to " + this.file);
+        } catch (final IOException e) {
+            log.warn("cannot write the term statistics to " + this.file + ": " + e.getMessage());
+        } finally {
+            if (os != null) try {os.close();} catch (final IOException e) {}
+            FileUtils.deletedelete(tmp);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ *  Tombstones
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.rwi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.index.RowHandleMap;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.BloomFilter;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * A set of deleted url hashes with the time of their deletion.
+ * Instead of removing the references of a deleted url from all containers, the url is recorded here:
+ * references which were written to a BLOB file before the url was deleted are ignored when containers
+ * are read and they are dropped when the BLOB file is merged. References which are written after the
+ * deletion, because the url is indexed again, are not affected. A tombstone can be forgotten when no
+ * BLOB file is left which was written before the deletion.
+ * A bloom filter in front of the set makes the check of references of urls which were not deleted cheap.
+ * The set is written to a file when it is closed and read again when it is opened.
+ */
+public final class Tombstones {
+
+    private static final ConcurrentLog log = new ConcurrentLog("Tombstones");
+
+    private final File file;
+    private final RowHandleMap deleted; // mapping from url hashes to the time of deletion
+    private volatile BloomFilter bloom;
+    private volatile long newest; // the time of the latest deletion, 0 if there is none
+
+    /**
+     * open the tombstones
+     * @param file the file where the tombstones are stored; a file name ending with .gz is compressed
+     */
+    public Tombstones(final File file) {
+        this.file = file;
+        RowHandleMap map = null;
+        if (file.exists()) try {
+            map = new RowHandleMap(Word.commonHashLength, Word.commonHashOrder, 6, file);
+        } catch (final IOException | SpaceExceededException e) {
+            log.warn("cannot read tombstones from " + file + ", deleted urls may appear again: " + e.getMessage());
+        }
+        this.deleted = map == null ? new RowHandleMap(Word.commonHashLength, Word.commonHashOrder, 6, 100, file.getAbsolutePath()) : map;
+        this.newest = 0;
+        for (final Map.Entry<byte[], Long> entry: this.deleted) this.newest = Math.max(this.newest, entry.getValue().longValue());
+        this.bloom = newBloom();
+    }
+
+    private BloomFilter newBloom() {
+        final BloomFilter b = new BloomFilter(2 * this.deleted.size() + 1000);
+        final Iterator<byte[]> i = this.deleted.keys(true, null);
+        while (i.hasNext()) b.add(i.next());
+        return b;
+    }
+
+    public boolean isEmpty() {
+        return this.newest == 0;
+    }
+
+    public int size() {
+        return this.deleted.size();
+    }
+
+    /**
+     * record the deletion of urls
+     * @param urlHashes the deleted urls
+     * @param time the time of the deletion
+     */
+    public synchronized void add(final HandleSet urlHashes, final long time) throws SpaceExceededException {
+        for (final byte[] urlhash: urlHashes) {
+            this.deleted.put(urlhash, time);
+            this.bloom.add(urlhash);
+        }
+        this.newest = Math.max(this.newest, time);
+        if (this.bloom.saturated()) this.bloom = newBloom();
+    }
+
+    /**
+     * @param urlhash
+     * @return the time when the url was deleted or -1 if there is no tombstone for the url
+     */
+    public long deleted(final byte[] urlhash) {
+        if (this.newest == 0 || !this.bloom.mightContain(urlhash)) return -1;
+        return this.deleted.get(urlhash);
+    }
+
+    /**
+     * @param written the time when references were written
+     * @return true if urls were deleted at or after that time, so that the references may be affected
+     */
+    public boolean applies(final long written) {
+        return this.newest != 0 && written <= this.newest;
+    }
+
+    /**
+     * remove the references of deleted urls from a container
+     * @param container the container, it is modified
+     * @param written the time when the container was written, Long.MIN_VALUE for containers of unknown age;
+     * tombstones which are older than the container do not apply to it
+     * @return the number of removed references
+     */
+    public <ReferenceType extends Reference> int apply(final ReferenceContainer<ReferenceType> container, final long written) {
+        if (container == null || !applies(written)) return 0;
+        HandleSet remove = null;
+        final Iterator<byte[]> i = container.keys();
+        byte[] urlhash;
+        while (i.hasNext()) {
+            urlhash = i.next();
+            final long time = deleted(urlhash);
+            if (time < 0 || time < written) continue; // a file which is written in the same millisecond may contain the references
+            if (remove == null) remove = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+            try {
+                remove.put(urlhash);
+            } catch (final SpaceExceededException e) {
+                break;
+            }
+        }
+        return remove == null ? 0 : container.removeEntries(remove);
+    }
+
+    /**
+     * forget the tombstones which do not apply to any BLOB file any more
+     * @param oldest the time when the oldest BLOB file was written which may contain references of deleted urls
+     * @return the number of forgotten tombstones
+     */
+    public synchronized int expire(final long oldest) {
+        if (this.newest == 0) return 0;
+        final List<byte[]> expired = new ArrayList<byte[]>();
+        long newest = 0;
+        for (final Map.Entry<byte[], Long> entry: this.deleted) {
+            final long time = entry.getValue().longValue();
+            if (time < oldest) expired.add(entry.getKey()); else newest = Math.max(newest, time);
+        }
+        if (expired.isEmpty()) return 0;
+        for (final byte[] urlhash: expired) this.deleted.remove(urlhash);
+        this.newest = newest;
+        this.bloom = newBloom();
+        return expired.size();
+    }
+
+    public synchronized void clear() {
+        this.deleted.clear();
+        this.newest = 0;
+        this.bloom = newBloom();
+    }
+
+    /**
+     * write the tombstones to the file
+     */
+    public synchronized void close() {
+        if (this.deleted.isEmpty()) {
+            if (this.file.exists()) FileUtils.deletedelete(this.file);
+            return;
+        }
+        try {
+            this.deleted.dump(this.file);
+        } catch (final IOException e) {
+            log.warn("cannot write tombstones to " + this.file + ": " + e.getMessage());
+        }
+    }
+}
@@ -45,6 +45,7 @@ import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.cora.util.SpaceExceededException;
 import net.yacy.kelondro.index.Column;
 import net.yacy.kelondro.index.Index;
+import net.yacy.kelondro.index.IndexCheckpoint;
 import net.yacy.kelondro.index.Row;
 import net.yacy.kelondro.index.Row.Entry;
 import net.yacy.kelondro.index.RowCollection;
@@ -54,6 +55,7 @@ import net.yacy.kelondro.io.BufferedRecords;
 import net.yacy.kelondro.io.Records;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
+import net.yacy.kelondro.util.OS;
 import net.yacy.kelondro.util.kelondroException;
 
 
@@ -67,7 +69,7 @@ import net.yacy.kelondro.util.kelondroException;
  * The content cache can also be deleted during run-time, if the available RAM gets too low.
  */
 
-public class Table implements Index, Iterable<Row.Entry> {
+public class Table implements Index, Iterable<Row.Entry>, IndexCheckpoint.Checkpointable {
 
     // static tracker objects
     private final static ConcurrentLog log = new ConcurrentLog("TABLE");
@@ -76,6 +78,9 @@ public class Table implements Index, Iterable<Row.Entry> {
     private final static TreeMap<String, Table> tableTracker = new TreeMap<String, Table>();
     private final static long maxarraylength = 134217727L; // (2^27-1) that may be the maximum size of array length in some JVMs
 
+    /** if true, tables without a RAM copy access their file through a memory-mapping */
+    private static boolean memoryMapped = false;
+
     private final long minmemremaining; // if less than this memory is remaininig, the memory copy of a table is abandoned
     private final int buffersize;
     private final Row rowdef;
@@ -83,6 +88,7 @@ public class Table implements Index, Iterable<Row.Entry> {
     private       HandleMap index;
     private       BufferedRecords file;
     private       RowSet table;
+    private       long checkpointSize; // number of records covered by the checkpoint or -1 if there is no checkpoint
 
     public Table(
     		final File tablefile,
@@ -156,38 +162,18 @@ public class Table implements Index, Iterable<Row.Entry> {
             final RowHandleMap errors = new RowHandleMap(rowdef.primaryKeyLength, NaturalOrder.naturalOrder, 4, records, tablefile.getAbsolutePath() + ".errors");
             if (log.isFine()) log.fine(tablefile + ": TABLE " + tablefile.toString() + " has table copy " + ((this.table == null) ? "DISABLED" : "ENABLED"));
 
+            // without a table copy the index can be restored from a checkpoint,
+            // otherwise all records must be read anyway
+            final long covered = (this.table == null && !freshFile) ? readCheckpoint(tablefile, fileSize) : -1;
+            if (covered < 0) IndexCheckpoint.delete(tablefile);
+            this.checkpointSize = covered;
+
             // read all elements from the file into the copy table
             if (log.isFine()) log.fine("initializing RAM index for TABLE " + tablefile.getName() + ", please wait.");
             int i = 0;
             byte[] key;
             if (this.table == null) {
-                final ChunkIterator ki = new ChunkIterator(tablefile, rowdef.objectsize, rowdef.primaryKeyLength);
-                try {
-                	while (ki.hasNext()) {
-                		key = ki.next();
-                		// write the key into the index table
-                		assert key != null;
-                		if (key == null) {i++; continue;}
-                		if (rowdef.objectOrder.wellformed(key)) {
-                			this.index.putUnique(key, i++);
-                		} else {
-                			errors.putUnique(key, i++);
-                		}
-                	}
-                } finally {
-					/* If any error occurred while looping over the iterator, we
-					 * must ensure the underlying stream is closed before
-					 * transmitting the exception to the upper layer
-					 */
-                	if(ki.hasNext()) {
-                		try {
-                			ki.close();
-                		} catch(IOException ioe) {
-                			/* Do not block if closing is not possible but anyway keep a trace in log */
-                			log.warn("Could not close input stream on the file " + tablefile);
-                		}
-                	}
-                }
+                if (covered < 0) initIndexFromFile(tablefile, errors);
             } else {
                 byte[] record;
                 key = new byte[rowdef.primaryKeyLength];
@@ -241,7 +227,17 @@ public class Table implements Index, Iterable<Row.Entry> {
             optimize();
 
             // open the file
-            this.file = new BufferedRecords(new Records(tablefile, rowdef.objectsize), this.buffersize);
+            this.file = new BufferedRecords(new Records(tablefile, rowdef.objectsize, this.table == null && memoryMapped), this.buffersize);
+
+            // add the records that have been appended after the checkpoint
+            if (covered >= 0 && !replayCheckpoint(covered, errors)) {
+                log.warn("checkpoint of " + tablefile.getName() + " does not fit to the table, re-building index");
+                IndexCheckpoint.delete(tablefile);
+                this.checkpointSize = -1;
+                this.index.clear();
+                errors.clear();
+                initIndexFromFile(tablefile, errors);
+            }
             assert this.file.size() == this.index.size() : "file.size() = " + this.file.size() + ", index.size() = " + this.index.size() + ", file = " + filename();
 
             // clean up the file by cleaning badly formed entries
@@ -271,6 +267,130 @@ public class Table implements Index, Iterable<Row.Entry> {
 
         // track this table
         synchronized (tableTracker) {tableTracker.put(tablefile.toString(), this);}
+        IndexCheckpoint.register(this);
+    }
+
+    /**
+     * read all keys from the table file into the index
+     * @param tablefile
+     * @param errors collects the keys that are not well-formed
+     */
+    private void initIndexFromFile(final File tablefile, final RowHandleMap errors) throws IOException, SpaceExceededException {
+        int i = 0;
+        byte[] key;
+        final ChunkIterator ki = new ChunkIterator(tablefile, this.rowdef.objectsize, this.rowdef.primaryKeyLength);
+        try {
+        	while (ki.hasNext()) {
+        		key = ki.next();
+        		// write the key into the index table
+        		assert key != null;
+        		if (key == null) {i++; continue;}
+        		if (this.rowdef.objectOrder.wellformed(key)) {
+        			this.index.putUnique(key, i++);
+        		} else {
+        			errors.putUnique(key, i++);
+        		}
+        	}
+        } finally {
+					/* If any error occurred while looping over the iterator, we
+					 * must ensure the underlying stream is closed before
+					 * transmitting the exception to the upper layer
+					 */
+        	if(ki.hasNext()) {
+        		try {
+        			ki.close();
+        		} catch(IOException ioe) {
+        			/* Do not block if closing is not possible but anyway keep a trace in log */
+        			log.warn("Could not close input stream on the file " + tablefile);
+        		}
+        	}
+        }
+    }
+
+    /**
+     * read the index from a checkpoint
+     * @param tablefile
+     * @param fileSize number of records in the table file
+     * @return the number of records covered by the checkpoint or -1 if the checkpoint does not exist or cannot be used
+     */
+    private long readCheckpoint(final File tablefile, final long fileSize) {
+        try {
+            final long covered = IndexCheckpoint.read(tablefile, this.index, null);
+            if (covered <= fileSize) return covered;
+            log.warn("checkpoint of " + tablefile.getName() + " covers " + covered + " records but the table has only " + fileSize);
+        } catch (final IOException e) {
+            log.warn("cannot use checkpoint of " + tablefile.getName() + ": " + e.getMessage());
+        } catch (final SpaceExceededException e) {
+            log.warn("cannot use checkpoint of " + tablefile.getName() + ": " + e.getMessage());
+        }
+        this.index.clear();
+        return -1;
+    }
+
+    /**
+     * check an index that was read from a checkpoint and add the records that
+     * have been appended to the table file after the checkpoint was written
+     * @param covered the number of records covered by the checkpoint
+     * @param errors collects the keys that are not well-formed
+     * @return false if the checkpoint does not fit to the table file
+     */
+    private boolean replayCheckpoint(final long covered, final RowHandleMap errors) throws IOException, SpaceExceededException {
+        if (this.index.size() != covered) return false;
+        final byte[] record = new byte[this.rowdef.objectsize];
+        // pick some elements of the index and the last covered record
+        final Iterator<byte[]> k = this.index.keys(true, null);
+        int c = 3;
+        byte[] key;
+        long pos;
+        while (k.hasNext() && c-- > 0) {
+            key = k.next();
+            pos = this.index.get(key);
+            if (pos < 0 || pos >= covered) return false;
+            this.file.get(pos, record, 0);
+            if (!this.rowdef.objectOrder.equal(key, 0, record, 0, this.rowdef.primaryKeyLength)) return false;
+        }
+        if (covered > 0) {
+            this.file.get(covered - 1, record, 0);
+            key = new byte[this.rowdef.primaryKeyLength];
+            System.arraycopy(record, 0, key, 0, key.length);
+            if (this.index.get(key) != covered - 1) return false;
+        }
+        // replay the tail
+        final long size = this.file.size();
+        for (long i = covered; i < size; i++) {
+            this.file.get(i, record, 0);
+            key = new byte[this.rowdef.primaryKeyLength];
+            System.arraycopy(record, 0, key, 0, key.length);
+            if (this.rowdef.objectOrder.wellformed(key)) {
+                this.index.putUnique(key, i);
+            } else {
+                errors.putUnique(key, i);
+            }
+        }
+        if (size > covered) log.info("restored index of " + filename() + " from checkpoint and " + (size - covered) + " appended records");
+        return true;
+    }
+
+    /**
+     * write a checkpoint of the index if the table was changed since the last checkpoint.
+     * Tables with a copy in RAM do not need a checkpoint because they read the whole file on start-up anyway.
+     */
+    @Override
+    public synchronized void checkpoint() throws IOException {
+        if (this.file == null || this.index == null || this.table != null) return;
+        final long size = this.file.size();
+        if (size == this.checkpointSize) return;
+        this.file.flushBuffer();
+        if (IndexCheckpoint.write(this.file.filename(), this.index, this.rowdef.primaryKeyLength, null, size)) this.checkpointSize = size;
+    }
+
+    /**
+     * delete the checkpoint; this must be done before records inside the file are moved or removed
+     */
+    private void invalidateCheckpoint() {
+        if (this.checkpointSize < 0) return;
+        IndexCheckpoint.delete(this.file.filename());
+        this.checkpointSize = -1;
     }
 
     public synchronized void warmUp() {
@@ -366,6 +486,16 @@ public class Table implements Index, Iterable<Row.Entry> {
         return tableTracker.keySet().iterator();
     }
 
+    /**
+     * Set the access mode for tables that are opened afterwards and do not have a RAM copy:
+     * such tables are read with a memory-mapping of the table file instead of seek/read.
+     * This is not possible on Windows because there a mapped file cannot be truncated.
+     * @param mapped true to use memory-mapped files
+     */
+    public static void setMemoryMapped(final boolean mapped) {
+        memoryMapped = mapped && !OS.isWindows;
+    }
+
     public static final TableStatistics memoryStats(final String filename) {
         // returns a map for each file in the tracker;
         // the map represents properties for each record objects,
@@ -392,6 +522,9 @@ public class Table implements Index, Iterable<Row.Entry> {
     	
     	/** Total size of values in bytes */
     	private long valueMem = 0;
+
+    	/** True when the table file is memory-mapped */
+    	private boolean mapped = false;
     	
     	/**
     	 * @return the size of a key chunk in bytes
@@ -428,6 +561,13 @@ public class Table implements Index, Iterable<Row.Entry> {
 			return this.valueMem;
 		}
     	
+    	/**
+    	 * @return true when the table file is accessed through a memory-mapping
+    	 */
+    	public boolean isMapped() {
+			return this.mapped;
+		}
+
     	/**
     	 * @return the total memory used by the table in bytes
     	 */
@@ -455,6 +595,8 @@ public class Table implements Index, Iterable<Row.Entry> {
         	stats.valueChunkSize = this.table.row().objectsize;
         	stats.valueMem = (long)this.table.row().objectsize * (long)this.table.size();
         }
+        final BufferedRecords f = this.file;
+        stats.mapped = f != null && f.isMapped();
 
         return stats;
     }
@@ -580,7 +722,13 @@ public class Table implements Index, Iterable<Row.Entry> {
     @Override
     public void close() {
     	String tablefile = null;
+        IndexCheckpoint.unregister(this);
         if (this.file != null) {
+            try {
+                checkpoint();
+            } catch (final IOException e) {
+                log.warn("cannot write checkpoint for " + this.file.filename() + ": " + e.getMessage());
+            }
         	tablefile = this.file.filename().toString();
         	this.file.close();
         }
@@ -771,6 +919,7 @@ public class Table implements Index, Iterable<Row.Entry> {
      */
     private void removeInFile(final int i) throws IOException, SpaceExceededException {
         assert i >= 0;
+        invalidateCheckpoint();
 
         final byte[] p = new byte[this.rowdef.objectsize];
         if (this.table == null) {
@@ -839,6 +988,7 @@ public class Table implements Index, Iterable<Row.Entry> {
         assert key.length == this.rowdef.primaryKeyLength;
         final int i = (int) this.index.get(key);
         if (i == -1) return null; // nothing to do
+        invalidateCheckpoint();
 
         // prepare result
         final byte[] b = new byte[this.rowdef.objectsize];
@@ -931,6 +1081,7 @@ public class Table implements Index, Iterable<Row.Entry> {
     public synchronized Entry removeOne() throws IOException {
         //assert this.file.size() == this.index.size() : "file.size() = " + this.file.size() + ", index.size() = " + this.index.size();
         assert this.table == null || this.table.size() == this.index.size() : "table.size() = " + this.table.size() + ", index.size() = " + this.index.size();
+        invalidateCheckpoint();
         final byte[] le = new byte[this.rowdef.objectsize];
         final long fsb = this.file.size();
         assert fsb != 0 : "file.size() = " + fsb;
@@ -989,6 +1140,7 @@ public class Table implements Index, Iterable<Row.Entry> {
 
     @Override
     public synchronized void clear() throws IOException {
+        invalidateCheckpoint();
         this.file.clear();
         // initialize index and copy table
         this.table = (this.table == null) ? null : new RowSet(this.taildef);
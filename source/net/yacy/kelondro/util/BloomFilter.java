@@ -0,0 +1,201 @@
+/**
+ *  BloomFilter
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.kelondro.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.yacy.cora.util.ConcurrentLog;
+
+/**
+ * A Bloom filter for byte[] keys. A negative answer of mightContain() is always correct,
+ * a positive answer is wrong with a probability of about one percent as long as the number
+ * of added keys does not exceed the capacity which was given at construction time.
+ * The filter uses ten bits and seven hash positions per key; the bits are stored in an
+ * AtomicLongArray, so keys can be added while other threads ask for keys.
+ */
+public final class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+    private static final int MAGIC = 0x59426c6d; // 'YBlm'
+
+    private final AtomicLongArray bits;
+    private final long bitcount;
+    private final int capacity;
+    private final AtomicInteger count;
+
+    /**
+     * create an empty filter
+     * @param capacity the number of keys that the filter shall hold with the designed false positive rate
+     */
+    public BloomFilter(final int capacity) {
+        this.capacity = Math.max(64, capacity);
+        final int words = (int) Math.min(Integer.MAX_VALUE - 8, ((long) this.capacity * BITS_PER_KEY + 63L) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.bitcount = ((long) words) << 6;
+        this.count = new AtomicInteger(0);
+    }
+
+    private BloomFilter(final int capacity, final int count, final long[] words) {
+        this.capacity = capacity;
+        this.bits = new AtomicLongArray(words);
+        this.bitcount = ((long) words.length) << 6;
+        this.count = new AtomicInteger(count);
+    }
+
+    public void add(final byte[] key) {
+        final long h = hash(key);
+        final long h1 = h & 0xffffffffL;
+        final long h2 = (h >>> 32) | 1L;
+        for (int i = 0; i < HASHES; i++) {
+            final long pos = ((h1 + i * h2) & Long.MAX_VALUE) % this.bitcount;
+            final int word = (int) (pos >>> 6);
+            final long mask = 1L << (pos & 63);
+            long w;
+            do {
+                w = this.bits.get(word);
+                if ((w & mask) != 0) break;
+            } while (!this.bits.compareAndSet(word, w, w | mask));
+        }
+        this.count.incrementAndGet();
+    }
+
+    /**
+     * test if a key may be in the filter
+     * @param key
+     * @return false if the key was never added, true if the key was probably added
+     */
+    public boolean mightContain(final byte[] key) {
+        final long h = hash(key);
+        final long h1 = h & 0xffffffffL;
+        final long h2 = (h >>> 32) | 1L;
+        for (int i = 0; i < HASHES; i++) {
+            final long pos = ((h1 + i * h2) & Long.MAX_VALUE) % this.bitcount;
+            if ((this.bits.get((int) (pos >>> 6)) & (1L << (pos & 63))) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of add() calls; this counts double entries twice
+     */
+    public int count() {
+        return this.count.get();
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return true if more keys were added than the filter was designed for; the false positive rate then grows
+     */
+    public boolean saturated() {
+        return this.count.get() > this.capacity;
+    }
+
+    public long mem() {
+        return this.bitcount >>> 3;
+    }
+
+    /**
+     * write the filter to a file
+     * @param file the target file
+     * @param fingerprint a value that identifies the state of the data that the filter describes; load() accepts the file only with the same fingerprint
+     * @throws IOException
+     */
+    public void dump(final File file, final long fingerprint) throws IOException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".prt");
+        final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+        try {
+            os.writeInt(MAGIC);
+            os.writeLong(fingerprint);
+            os.writeInt(this.capacity);
+            os.writeInt(this.count.get());
+            os.writeInt(this.bits.length());
+            for (int i = 0; i < this.bits.length(); i++) os.writeLong(this.bits.get(i));
+        } finally {
+            os.close();
+        }
+        if (file.exists()) FileUtils.deletedelete(file);
+        if (!tmp.renameTo(file)) throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+    /**
+     * read a filter that was written with dump()
+     * @param file
+     * @param fingerprint the fingerprint that was given to dump()
+     * @return the filter or null if the file does not exist, cannot be read or does not have the given fingerprint
+     */
+    public static BloomFilter load(final File file, final long fingerprint) {
+        if (!file.exists()) return null;
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (is.readInt() != MAGIC || is.readLong() != fingerprint) return null;
+            final int capacity = is.readInt();
+            final int count = is.readInt();
+            final int words = is.readInt();
+            if (capacity <= 0 || count < 0 || words <= 0 || ((long) words << 3) != file.length() - 24) return null;
+            final long[] w = new long[words];
+            for (int i = 0; i < words; i++) w[i] = is.readLong();
+            return new BloomFilter(capacity, count, w);
+        } catch (final IOException e) {
+            ConcurrentLog.warn("BloomFilter", "cannot read " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (is != null) try {is.close();} catch (final IOException e) {}
+        }
+    }
+
+    /**
+     * a 64 bit hash of the key; the two halves are used as independent hash values (Kirsch/Mitzenmacher)
+     */
+    private static long hash(final byte[] key) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (final byte b: key) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        // finalization mix of MurmurHash3, spreads the bits of short keys
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
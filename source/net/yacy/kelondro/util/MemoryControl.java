@@ -25,9 +25,12 @@
 
 package net.yacy.kelondro.util;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
 
 /**
  * Use this to get information about memory usage or try to free some memory
@@ -37,6 +40,8 @@ public class MemoryControl {
     private static AtomicBoolean shortStatus = new AtomicBoolean(false);
     private static boolean simulatedShortStatus = false, usingStandardStrategy = true;
     private static MemoryStrategy strategy;
+    private static final AtomicLong directUsed = new AtomicLong(0);
+    private static long directMax = Long.MAX_VALUE;
 
     private static MemoryStrategy getStrategy() {
     	if (strategy == null || MemoryStrategy.hasError()) {
@@ -181,6 +186,74 @@ public class MemoryControl {
     	getStrategy().setProperMbyte(mbyte);
     }
 
+    /**
+     * set the maximum amount of native (off-heap) memory that may be allocated with allocateDirect()
+     * @param mbyte the limit in megabytes
+     */
+    public static void setMaxDirectMbyte(final long mbyte) {
+        directMax = mbyte <= 0 ? Long.MAX_VALUE : mbyte * 1024L * 1024L;
+    }
+
+    /**
+     * @return the maximum amount of native memory in bytes that may be allocated with allocateDirect()
+     */
+    public static long maxDirect() {
+        return directMax;
+    }
+
+    /**
+     * @return the native memory in bytes that is currently allocated with allocateDirect()
+     */
+    public static long usedDirect() {
+        return directUsed.get();
+    }
+
+    /**
+     * @return the native memory in bytes that can still be allocated with allocateDirect()
+     */
+    public static long availableDirect() {
+        return Math.max(0, directMax - directUsed.get());
+    }
+
+    /**
+     * check for a specified amount of native memory
+     * @param size the requested amount of native memory in bytes
+     * @return true if the memory can be allocated within the configured limit
+     */
+    public static boolean requestDirect(final long size) {
+        return directUsed.get() + size <= directMax;
+    }
+
+    /**
+     * allocate a buffer in native memory outside of the java heap. The allocation is accounted
+     * and must be returned with freeDirect() when the buffer is not used any more.
+     * @param size the size of the buffer in bytes
+     * @return a direct byte buffer with the given capacity
+     * @throws SpaceExceededException if the configured limit would be exceeded or the allocation fails
+     */
+    public static ByteBuffer allocateDirect(final int size) throws SpaceExceededException {
+        if (directUsed.addAndGet(size) > directMax) {
+            directUsed.addAndGet(-size);
+            throw new SpaceExceededException(size, "direct memory limit of " + directMax + " bytes reached");
+        }
+        try {
+            return ByteBuffer.allocateDirect(size);
+        } catch (final OutOfMemoryError e) {
+            directUsed.addAndGet(-size);
+            throw new SpaceExceededException(size, "direct allocation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * return a buffer that was allocated with allocateDirect() to the accounting.
+     * The native memory itself is released when the buffer object is collected.
+     * @param buffer the buffer, may be null
+     */
+    public static void freeDirect(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        directUsed.addAndGet(-buffer.capacity());
+    }
+
     /**
      * main
      * @param args use 'force' to request by force, use 'std' / 'gen' to specify strategy
@@ -135,7 +135,7 @@ public class ResourceObserver {
                 // clear citations
                 if (sb.index.connectedCitation()) {
                     log.info("DISK SPACE EXHAUSTED - deleting citations");
-                    try {sb.index.urlCitation().clear();} catch (final IOException e) {}
+                    try {sb.index.clearCitation();} catch (final IOException e) {}
                     if (getNormalizedDiskFree() == Space.AMPLE && getNormalizedDiskUsed(false) == Space.AMPLE) break;
                 }
                 
@@ -61,6 +61,7 @@ import java.security.spec.InvalidKeySpecException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -187,12 +188,19 @@ import net.yacy.gui.Tray;
 import net.yacy.http.YaCyHttpServer;
 import net.yacy.kelondro.blob.ArrayStack;
 import net.yacy.kelondro.blob.BEncodedHeap;
+import net.yacy.kelondro.blob.HeapCompactor;
+import net.yacy.kelondro.blob.HeapReader;
 import net.yacy.kelondro.blob.Tables;
 import net.yacy.kelondro.blob.Tables.SortDirection;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
 import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.index.IndexCheckpoint;
+import net.yacy.kelondro.index.RAMIndex;
 import net.yacy.kelondro.logging.GuiHandler;
+import net.yacy.kelondro.rwi.IODispatcher;
+import net.yacy.kelondro.rwi.IndexCell;
 import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.table.Table;
 import net.yacy.kelondro.util.FileUtils;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.kelondro.util.OS;
@@ -225,12 +233,16 @@ import net.yacy.search.index.Segment;
 import net.yacy.search.index.Segment.ReferenceReportCache;
 import net.yacy.search.index.SingleDocumentMatcher;
 import net.yacy.search.query.AccessTracker;
+import net.yacy.search.query.QueryResultCache;
 import net.yacy.search.query.SearchEvent;
 import net.yacy.search.query.SearchEventCache;
+import net.yacy.search.query.SearchTaskGroup;
+import net.yacy.search.ranking.BlockMaxWand;
 import net.yacy.search.ranking.RankingProfile;
 import net.yacy.search.schema.CollectionConfiguration;
 import net.yacy.search.schema.CollectionSchema;
 import net.yacy.search.schema.WebgraphConfiguration;
+import net.yacy.search.snippet.SnippetStore;
 import net.yacy.search.snippet.TextSnippet;
 import net.yacy.server.serverCore;
 import net.yacy.server.serverSwitch;
@@ -371,10 +383,25 @@ public final class Switchboard extends serverSwitch {
         if ( MemoryControl.available() > 1024L * 1024L * 1024L * 2L ) {
             this.exceed134217727 = true;
         }
+        MemoryControl.setMaxDirectMbyte(getConfigLong("memory.directIndex.maxMB", 2048L));
+        RAMIndex.setDirectIndexNames(Arrays.asList(CommonPattern.COMMA.split(getConfig("memory.directIndex", ""))));
+        RAMIndex.setConcurrentIndexNames(Arrays.asList(CommonPattern.COMMA.split(getConfig("memory.concurrentIndex", ""))));
+        Table.setMemoryMapped(getConfigBool("table.mmap", false));
+        HeapReader.setHashIndex(getConfigBool("memory.hashIndex", false));
+        IndexCell.setBufferShards(getConfigInt("index.ramBuffer.shards", 0));
+        IndexCell.setWriteAheadLog(getConfigBool("index.ramBuffer.wal", true));
+        IODispatcher.setMergeWorkers(getConfigInt("index.merge.workers", 0));
+        IODispatcher.setMergeFanIn(getConfigInt("index.merge.fanIn", 4));
+        IODispatcher.setMergeBandwidth(getConfigLong("index.merge.bandwidth", 0L) * 1024L * 1024L);
+        SearchEventCache.setMaxWeight(getConfigLong("search.eventCache.maxMemory", 0L) * 1024L * 1024L);
+        QueryResultCache.setLimits(getConfigInt("search.resultCache.size", 1000), getConfigLong("search.resultCache.maxAge", 600L) * 1000L);
+        SearchTaskGroup.setMode(getConfigBool("search.executor.pooled", false), getConfigInt("search.executor.maxThreads", 64));
+        BlockMaxWand.setEnabled(getConfigBool("search.rwi.blockMaxWand", true));
 
         // load values from configs
         final File indexPath = getDataPath(SwitchboardConstants.INDEX_PRIMARY_PATH, SwitchboardConstants.INDEX_PATH_DEFAULT);
         this.log.config("Index Primary Path: " + indexPath.toString());
+        IndexCheckpoint.setLocation(getConfigBool("index.checkpoint", true) ? new File(indexPath, "CHECKPOINTS") : null);
         final File archivePath = getDataPath(SwitchboardConstants.INDEX_ARCHIVE_PATH, SwitchboardConstants.INDEX_ARCHIVE_DEFAULT);
         this.log.config("Index Archive Path: " + archivePath.toString());
         this.listsPath =
@@ -578,6 +605,8 @@ public final class Switchboard extends serverSwitch {
         ReferenceContainer.maxReferences = getConfigInt("index.maxReferences", 0);
         final File segmentsPath = new File(new File(indexPath, networkName), "SEGMENTS");
         try {this.index = new Segment(this.log, segmentsPath, archivePath, solrCollectionConfigurationWork, solrWebgraphConfigurationWork);} catch (IOException e) {ConcurrentLog.logException(e);}
+        this.index.setPackedReferences(getConfigBool("index.packedReferences", false));
+        this.index.setCitationAdjacency(getConfigBool("index.citationAdjacency", false));
         if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_RWI, true)) try {
             this.index.connectRWI(wordCacheMaxCount, fileSizeMax);
         } catch (final IOException e) {ConcurrentLog.logException(e);}
@@ -769,6 +798,10 @@ public final class Switchboard extends serverSwitch {
 						SwitchboardConstants.HTCACHE_SYNC_LOCK_TIMEOUT_DEFAULT),
 				getConfigInt(SwitchboardConstants.HTCACHE_COMPRESSION_LEVEL,
 						SwitchboardConstants.HTCACHE_COMPRESSION_LEVEL_DEFAULT));
+		Cache.setCompressionThreads(getConfigInt(SwitchboardConstants.HTCACHE_COMPRESSION_THREADS,
+				SwitchboardConstants.HTCACHE_COMPRESSION_THREADS_DEFAULT));
+		Cache.setCompressionDictionaries(getConfigBool(SwitchboardConstants.HTCACHE_COMPRESSION_DICTIONARIES,
+				SwitchboardConstants.HTCACHE_COMPRESSION_DICTIONARIES_DEFAULT));
         final File transactiondir = new File(this.htCachePath, "snapshots");
 		Transactions.init(transactiondir, getConfigLong(SwitchboardConstants.SNAPSHOTS_WKHTMLTOPDF_TIMEOUT,
 				SwitchboardConstants.SNAPSHOTS_WKHTMLTOPDF_TIMEOUT_DEFAULT));
@@ -968,6 +1001,7 @@ public final class Switchboard extends serverSwitch {
 
         // generate snippets cache
         this.log.config("Initializing Snippet Cache");
+        initSnippetStore();
         
 		TextSnippet.statistics.setEnabled(getConfigBool(SwitchboardConstants.DEBUG_SNIPPETS_STATISTICS_ENABLED,
 				SwitchboardConstants.DEBUG_SNIPPETS_STATISTICS_ENABLED_DEFAULT));
@@ -1511,6 +1545,8 @@ public final class Switchboard extends serverSwitch {
             final File segmentsPath = new File(new File(indexPrimaryPath, networkName), "SEGMENTS");
             final File archivePath = getDataPath(SwitchboardConstants.INDEX_ARCHIVE_PATH, SwitchboardConstants.INDEX_ARCHIVE_DEFAULT);
             this.index = new Segment(this.log, segmentsPath, archivePath, collectionConfiguration, webgraphConfiguration);
+            this.index.setPackedReferences(getConfigBool("index.packedReferences", false));
+            this.index.setCitationAdjacency(getConfigBool("index.citationAdjacency", false));
             if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_RWI, true)) this.index.connectRWI(wordCacheMaxCount, fileSizeMax);
             if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_CITATION, true)) this.index.connectCitation(wordCacheMaxCount, fileSizeMax);
 			if (this.getConfigBool(SwitchboardConstants.CORE_SERVICE_FULLTEXT,
@@ -1550,6 +1586,9 @@ public final class Switchboard extends serverSwitch {
             // create new web structure
             this.webStructure = new WebStructureGraph(new File(this.queuesRoot, "webStructure.map"));
 
+            // the snippets of the old network do not belong to the new index
+            initSnippetStore();
+
             // load domainList
             try {
                 this.domainList = null;
@@ -1765,6 +1804,33 @@ public final class Switchboard extends serverSwitch {
             + ppRamString(blogCommentDbFile.length() / 1024));
     }
 
+    /**
+     * open the persistent snippet store of the current network and warm it with the frequent queries of the query log
+     */
+    private void initSnippetStore() {
+        final SnippetStore old = TextSnippet.snippetsCache.getStore();
+        TextSnippet.snippetsCache.setStore(null);
+        if (old != null) old.close();
+        final int maxSize = getConfigInt("search.snippetStore.maxSize", 100000);
+        if (maxSize <= 0) return;
+        final File snippetsPath = new File(this.queuesRoot.getParentFile(), "SNIPPETS");
+        snippetsPath.mkdirs();
+        try {
+            final SnippetStore store = new SnippetStore(new File(snippetsPath, "snippets.heap"), maxSize);
+            TextSnippet.snippetsCache.setStore(store);
+            final int warmQueries = getConfigInt("search.snippetStore.warmQueries", 100);
+            final int warmResults = getConfigInt("search.snippetStore.warmResults", 10);
+            if (warmQueries > 0 && warmResults > 0) new Thread("Switchboard.warmSnippetStore") {
+                @Override
+                public void run() {
+                    store.warm(Switchboard.this.index, Switchboard.this.loader, AccessTracker.frequentQueries(warmQueries, 7L * 24L * 60L * 60L * 1000L), warmResults);
+                }
+            }.start();
+        } catch (final IOException e) {
+            this.log.warn("cannot open the snippet store: " + e.getMessage());
+        }
+    }
+
     public void initBookmarks() throws IOException {
         this.log.config("Loading Bookmarks DB");
         final File bookmarksFile = new File(this.workPath, "bookmarks.heap");
@@ -2020,6 +2086,7 @@ public final class Switchboard extends serverSwitch {
         this.index.close();
         this.peers.close();
         Cache.close();
+        if (TextSnippet.snippetsCache.getStore() != null) TextSnippet.snippetsCache.getStore().close();
         this.tables.close();
         Domains.close();
         AccessTracker.dumpLog();
@@ -2577,6 +2644,17 @@ public final class Switchboard extends serverSwitch {
         try {
             clearCaches();
 
+            // write index checkpoints of tables and heaps which have been changed
+            IndexCheckpoint.checkpointAll(getConfigLong("index.checkpoint.interval", 10L) * 60000L);
+
+            // remove the gaps of deleted records from heap files in the background
+            if (getConfigBool("index.compaction", true)) {
+                HeapCompactor.start(
+                        getConfigLong("index.compaction.interval", 60L) * 60000L,
+                        getConfigFloat("index.compaction.minFragmentation", 0.3f),
+                        getConfigLong("index.compaction.bandwidth", 4096L) * 1024L);
+            }
+
             // clear caches if necessary
             if ( !MemoryControl.request(128000000L, false) ) {
                 this.index.clearCaches();
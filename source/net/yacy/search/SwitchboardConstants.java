@@ -429,6 +429,18 @@ public final class SwitchboardConstants {
     /** Default timeout value (in milliseconds) for acquiring a synchronization lock on getContent/store Cache operations */
     public static final long HTCACHE_SYNC_LOCK_TIMEOUT_DEFAULT = 2000;
     
+    /** Key of the setting configuring the number of threads which compress cached content in the background */
+    public static final String HTCACHE_COMPRESSION_THREADS   = "proxyCache.compressionThreads";
+    
+    /** Default number of background compression threads; 0 compresses synchronously on store operations */
+    public static final int HTCACHE_COMPRESSION_THREADS_DEFAULT = 2;
+    
+    /** Key of the setting enabling shared compression dictionaries trained from cached content of the same host */
+    public static final String HTCACHE_COMPRESSION_DICTIONARIES   = "proxyCache.compressionDictionaries";
+    
+    /** Default setting for shared compression dictionaries */
+    public static final boolean HTCACHE_COMPRESSION_DICTIONARIES_DEFAULT = true;
+    
     public static final String RELEASE_PATH             = "releases";
     public static final String RELEASE_PATH_DEFAULT     = "DATA/RELEASE";
 
@@ -183,6 +183,22 @@ public final class Fulltext {
         return this.solrInstances.getEmbeddedConnector(corename);
     }
 
+    /**
+     * get the generation of the searchable default index. The generation changes whenever
+     * a commit makes changed documents visible; it is read from the embedded Solr index.
+     * @return the index generation or -1 if the index is not versioned (no embedded Solr or a remote Solr is attached)
+     */
+    public long generation() {
+        if (this.solrInstances.isConnectedRemote()) return -1;
+        final EmbeddedSolrConnector connector = this.solrInstances.getDefaultEmbeddedConnector();
+        if (connector == null) return -1;
+        try {
+            return connector.getIndexVersion();
+        } catch (final Throwable e) {
+            return -1;
+        }
+    }
+
     public SolrConnector getConnectorForRead(String corename) {
         if (this.solrInstances.isConnectedRemote()) return this.solrInstances.getRemoteConnector(corename);
         if (this.solrInstances.isConnectedEmbedded()) return this.solrInstances.getEmbeddedConnector(corename);
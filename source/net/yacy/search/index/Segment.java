@@ -29,6 +29,7 @@ package net.yacy.search.index;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -45,6 +46,7 @@ import java.util.regex.Pattern;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 
+import net.yacy.cora.date.ISO8601Formatter;
 import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.document.encoding.UTF8;
 import net.yacy.cora.document.id.DigestURL;
@@ -69,6 +71,7 @@ import net.yacy.document.Condenser;
 import net.yacy.document.Document;
 import net.yacy.document.Parser;
 import net.yacy.document.parser.htmlParser;
+import net.yacy.kelondro.data.citation.CitationAdjacency;
 import net.yacy.kelondro.data.citation.CitationReference;
 import net.yacy.kelondro.data.citation.CitationReferenceFactory;
 import net.yacy.kelondro.data.word.Word;
@@ -111,6 +114,7 @@ public class Segment {
     public static final int  writeBufferSize = 4 * 1024 * 1024;
     public static final String termIndexName = "text.index";
     public static final String citationIndexName = "citation.index";
+    public static final String citationAdjacencyName = "citation.adjacency";
     public static final String firstseenIndexName = "firstseen.index";
 
     // the reference factory
@@ -123,8 +127,12 @@ public class Segment {
     protected final Fulltext                       fulltext;
     protected       IndexCell<WordReference>       termIndex;
     protected       IndexCell<CitationReference>   urlCitationIndex;
+    protected       CitationAdjacency              citationAdjacency; // compact copy of the citation index for the postprocessing, null if not used
+    private volatile boolean                       citationAdjacencyComplete = false; // false while the citation adjacency is built from the citation index
     protected       IndexTable                     firstSeenIndex;
     protected       IODispatcher                   merger = null; // shared iodispatcher for kelondro indexes
+    private         boolean                        packedReferences = false; // write reference containers in the compressed block format
+    private         boolean                        useCitationAdjacency = false; // keep a CitationAdjacency next to the citation index
 
     /**
      * create a new Segment
@@ -145,6 +153,27 @@ public class Segment {
         this.firstSeenIndex = new IndexTable(new File(segmentPath, firstseenIndexName), 12, 8, false, false);
     }
     
+    /**
+     * select the format of the reference containers in the RWI and citation index files;
+     * existing files in the other format stay readable and are converted when they are merged
+     * @param packed if true, the compressed block format of ReferenceContainerCodec is written
+     */
+    public void setPackedReferences(final boolean packed) {
+        this.packedReferences = packed;
+        if (this.termIndex != null) this.termIndex.setPackedReferences(packed);
+        if (this.urlCitationIndex != null) this.urlCitationIndex.setPackedReferences(packed);
+    }
+
+    /**
+     * select if a compact adjacency store of the citations is kept next to the citation index; it is used to compute
+     * the reference counts and the citation rank during the postprocessing without probing the citation index.
+     * Must be set before the citation index is connected.
+     * @param use if true, the citation adjacency is opened together with the citation index
+     */
+    public void setCitationAdjacency(final boolean use) {
+        this.useCitationAdjacency = use;
+    }
+
     public boolean connectedRWI() {
         return this.termIndex != null;
     }
@@ -167,6 +196,7 @@ public class Segment {
                         maxFileSize,
                         writeBufferSize,
                         merger);
+        this.termIndex.setPackedReferences(this.packedReferences);
     }
 
     public void disconnectRWI() {
@@ -197,12 +227,54 @@ public class Segment {
                         maxFileSize,
                         writeBufferSize,
                         merger);
+        this.urlCitationIndex.setPackedReferences(this.packedReferences);
+        if (this.useCitationAdjacency) connectCitationAdjacency();
+    }
+
+    private void connectCitationAdjacency() {
+        final CitationAdjacency adjacency = new CitationAdjacency(new File(new File(this.segmentPath, "default"), citationAdjacencyName));
+        this.citationAdjacency = adjacency;
+        if (adjacency.restored()) {
+            this.citationAdjacencyComplete = true;
+            return;
+        }
+        // new links are written to both stores already, the old ones are copied in the background
+        this.citationAdjacencyComplete = false;
+        final IndexCell<CitationReference> citations = this.urlCitationIndex;
+        new Thread("Segment.connectCitationAdjacency") {
+            @Override
+            public void run() {
+                final long start = System.currentTimeMillis();
+                long count = 0;
+                try {
+                    final Iterator<ReferenceContainer<CitationReference>> i = citations.referenceContainerIterator(null, false, false);
+                    while (i.hasNext() && Segment.this.citationAdjacency == adjacency) {
+                        final ReferenceContainer<CitationReference> container = i.next();
+                        final List<byte[]> referrers = new ArrayList<byte[]>(container.size());
+                        final Iterator<CitationReference> ri = container.entries();
+                        while (ri.hasNext()) referrers.add(ri.next().urlhash());
+                        adjacency.addReferrers(container.getTermHash(), referrers);
+                        count += referrers.size();
+                    }
+                } catch (final Throwable e) {
+                    ConcurrentLog.logException(e);
+                }
+                if (Segment.this.citationAdjacency == adjacency) {
+                    Segment.this.citationAdjacencyComplete = true;
+                    Segment.this.log.info("copied " + count + " citations to the citation adjacency in " + (System.currentTimeMillis() - start) + " milliseconds");
+                }
+            }
+        }.start();
     }
 
     public void disconnectCitation() {
         if (this.urlCitationIndex == null) return;
         this.urlCitationIndex.close();
         this.urlCitationIndex = null;
+        if (this.citationAdjacency != null) {
+            this.citationAdjacency.close();
+            this.citationAdjacency = null;
+        }
     }
 
     public int citationCount() {
@@ -221,9 +293,35 @@ public class Segment {
         return this.termIndex;
     }
 
+    /**
+     * get the generation of the searchable content of this segment. Both parts only grow:
+     * the generation of the fulltext index changes with each commit, the term index contributes
+     * the number of RAM dumps which became part of the BLOB array.
+     * @return the generation or -1 if the fulltext index is not versioned
+     */
+    public long generation() {
+        final long fulltextGeneration = this.fulltext.generation();
+        if (fulltextGeneration < 0) return -1;
+        return (fulltextGeneration << 20) + (this.termIndex == null ? 0 : this.termIndex.getDumpCount());
+    }
+
     public IndexCell<CitationReference> urlCitation() {
         return this.urlCitationIndex;
     }
+
+    /**
+     * @return the compact copy of the citation index, null if it is not used
+     */
+    public CitationAdjacency citationAdjacency() {
+        return this.citationAdjacency;
+    }
+
+    /**
+     * @return the dispatcher which dumps and merges the BLOB files of the RWI and citation index, null if none is connected
+     */
+    public IODispatcher merger() {
+        return this.merger;
+    }
     
     public IndexTable firstSeen() {
         return this.firstSeenIndex;
@@ -258,13 +356,30 @@ public class Segment {
      * The class stores the number of links from domain-internal and domain-external backlinks,
      * and the host hashes of all externally linking documents,
      * all IDs from external hosts and all IDs from the same domain.
+     * If the citation adjacency is used, only the numbers are read at construction time and the
+     * sets of IDs are computed when they are requested.
      */
     public final class ReferenceReport {
-        private int internal, external;
+        private final byte[] id;
+        private int internal, external, externalHostCount;
         private HandleSet externalHosts, externalIDs, internalIDs;
+        private CitationAdjacency adjacency; // if not null, the sets are not yet computed and must be read from this adjacency
         public ReferenceReport(final byte[] id, final boolean acceptSelfReference) throws IOException, SpaceExceededException {
+            this.id = id;
             this.internal = 0;
             this.external = 0;
+            this.externalHostCount = -1;
+            final CitationAdjacency adjacency = Segment.this.citationAdjacency;
+            if (adjacency != null && Segment.this.citationAdjacencyComplete) {
+                final CitationAdjacency.Counts counts = adjacency.count(id);
+                if (counts.internal > 0 || !Segment.this.fulltext.useWebgraph()) {
+                    this.internal = counts.internal;
+                    this.external = counts.external;
+                    this.externalHostCount = counts.externalHosts;
+                    this.adjacency = adjacency;
+                    return;
+                }
+            }
             this.externalHosts = new RowHandleSet(6, Base64Order.enhancedCoder, 0);
             this.internalIDs = new RowHandleSet(Word.commonHashLength, Base64Order.enhancedCoder, 0);
             this.externalIDs = new RowHandleSet(Word.commonHashLength, Base64Order.enhancedCoder, 0);
@@ -328,15 +443,42 @@ public class Segment {
         public int getExternalCount() {
             return this.external;
         }
+        public int getExternalHostCount() {
+            return this.externalHostCount >= 0 ? this.externalHostCount : getExternalHostIDs().size();
+        }
         public HandleSet getExternalHostIDs() {
+            readIDs();
             return this.externalHosts;
         }
         public HandleSet getExternalIDs() {
+            readIDs();
             return this.externalIDs;
         }
         public HandleSet getInternallIDs() {
+            readIDs();
             return this.internalIDs;
         }
+        private synchronized void readIDs() {
+            if (this.adjacency == null) return;
+            this.externalHosts = new RowHandleSet(6, Base64Order.enhancedCoder, this.externalHostCount);
+            this.internalIDs = new RowHandleSet(Word.commonHashLength, Base64Order.enhancedCoder, this.internal);
+            this.externalIDs = new RowHandleSet(Word.commonHashLength, Base64Order.enhancedCoder, this.external);
+            try {
+                for (final byte[] ref: this.adjacency.referrers(this.id)) {
+                    if (ByteBuffer.equals(ref, 6, this.id, 6, 6)) {
+                        this.internalIDs.put(ref);
+                    } else {
+                        final byte[] hh = new byte[6]; // host hash
+                        System.arraycopy(ref, 6, hh, 0, 6);
+                        this.externalHosts.put(hh);
+                        this.externalIDs.put(ref);
+                    }
+                }
+            } catch (final SpaceExceededException e) {
+                ConcurrentLog.logException(e);
+            }
+            this.adjacency = null;
+        }
     }
     
     public long RWICount() {
@@ -462,15 +604,22 @@ public class Segment {
             if (this.termIndex != null) this.termIndex.clear();
             if (this.fulltext != null) this.fulltext.clearLocalSolr();
             if (this.fulltext != null) this.fulltext.clearRemoteSolr();
-            if (this.urlCitationIndex != null) this.urlCitationIndex.clear();
+            clearCitation();
         } catch (final IOException e) {
             ConcurrentLog.logException(e);
         }
     }
+
+    /**
+     * delete all entries of the citation index and of its adjacency copy
+     * @throws IOException
+     */
+    public void clearCitation() throws IOException {
+        if (this.citationAdjacency != null) this.citationAdjacency.clear();
+        if (this.urlCitationIndex != null) this.urlCitationIndex.clear();
+    }
     
     public void clearCaches() {
-        if (this.urlCitationIndex != null) this.urlCitationIndex.clearCache();
-        if (this.termIndex != null) this.termIndex.clearCache();
         this.fulltext.clearCaches();
     }
 
@@ -482,6 +631,10 @@ public class Segment {
     	if (this.termIndex != null) this.termIndex.close();
         if (this.fulltext != null) this.fulltext.close();
         if (this.urlCitationIndex != null) this.urlCitationIndex.close();
+        if (this.citationAdjacency != null) {
+            this.citationAdjacency.close();
+            this.citationAdjacency = null;
+        }
         if (this.firstSeenIndex != null) this.firstSeenIndex.close();
         if (this.merger != null) {
             this.merger.terminate();
@@ -666,7 +819,7 @@ public class Segment {
         // write the edges to the citation reference index
         if (this.connectedCitation()) try {
             // we use the subgraph to write the citation index, that shall cause that the webgraph and the citation index is identical
-            
+            final List<byte[]> anchors = new ArrayList<byte[]>();
             if (collectionConfig.contains(CollectionSchema.inboundlinks_protocol_sxt) || collectionConfig.contains(CollectionSchema.inboundlinks_urlstub_sxt)) {
                 Collection<Object> inboundlinks_urlstub = vector.getFieldValues(CollectionSchema.inboundlinks_urlstub_sxt.getSolrFieldName());
                 List<String> inboundlinks_protocol = inboundlinks_urlstub == null ? null : CollectionConfiguration.indexedList2protocolList(vector.getFieldValues(CollectionSchema.inboundlinks_protocol_sxt.getSolrFieldName()), inboundlinks_urlstub.size());
@@ -677,6 +830,7 @@ public class Segment {
                         String anchorhash = ASCII.String(new DigestURL(targetURL).hash());
                         if (referrerhash != null && anchorhash != null) {
                             urlCitationIndex.add(ASCII.getBytes(anchorhash), new CitationReference(ASCII.getBytes(referrerhash), loadDate.getTime()));
+                            anchors.add(ASCII.getBytes(anchorhash));
                         }
                     } catch (Throwable e) {
                         ConcurrentLog.logException(e);
@@ -693,12 +847,14 @@ public class Segment {
                         String anchorhash = ASCII.String(new DigestURL(targetURL).hash());
                         if (referrerhash != null && anchorhash != null) {
                             urlCitationIndex.add(ASCII.getBytes(anchorhash), new CitationReference(ASCII.getBytes(referrerhash), loadDate.getTime()));
+                            anchors.add(ASCII.getBytes(anchorhash));
                         }
                     } catch (Throwable e) {
                         ConcurrentLog.logException(e);
                     }
                 }
             }
+            if (this.citationAdjacency != null && !anchors.isEmpty()) this.citationAdjacency.add(ASCII.getBytes(id), anchors);
         } catch (Throwable e) {
             ConcurrentLog.logException(e);
         }
@@ -786,8 +942,67 @@ public class Segment {
         return vector;
     }
 
+    /**
+     * remove the references of urls from every word index and delete the url entries.
+     * The references are removed with tombstones of the urls, so the resources do not need to be loaded and parsed.
+     * @param urls the hashes of the urls that shall be removed
+     * @param loader
+     * @param agent
+     * @param cacheStrategy
+     */
     public void removeAllUrlReferences(final HandleSet urls, final LoaderDispatcher loader, final ClientIdentification.Agent agent, final CacheStrategy cacheStrategy) {
-        for (final byte[] urlhash: urls) removeAllUrlReferences(urlhash, loader, agent, cacheStrategy);
+        if (termIndex() != null) try {
+            termIndex().removeURLs(urls);
+        } catch (final SpaceExceededException e) {
+            // find the words of every resource instead
+            for (final byte[] urlhash: urls) removeAllUrlReferences(urlhash, loader, agent, cacheStrategy);
+            return;
+        }
+        for (final byte[] urlhash: urls) fulltext().remove(urlhash);
+    }
+
+    /**
+     * delete all documents of hosts and remove the references of their urls from every word index
+     * @param hosthashes the hashes of the hosts to be deleted
+     * @param freshdate either NULL or a date in the past which is the limit for deletion. Only documents older than this date are deleted
+     */
+    public void deleteStaleDomainHashes(final Set<String> hosthashes, final Date freshdate) {
+        removeDomainReferences(CollectionSchema.host_id_s, hosthashes, freshdate);
+        fulltext().deleteStaleDomainHashes(hosthashes, freshdate);
+    }
+
+    /**
+     * delete all documents of hosts and remove the references of their urls from every word index
+     * @param hostnames the names of the hosts to be deleted
+     * @param freshdate either NULL or a date in the past which is the limit for deletion. Only documents older than this date are deleted
+     */
+    public void deleteStaleDomainNames(final Set<String> hostnames, final Date freshdate) {
+        removeDomainReferences(CollectionSchema.host_s, hostnames, freshdate);
+        fulltext().deleteStaleDomainNames(hostnames, freshdate);
+    }
+
+    /**
+     * remove the references of the urls of hosts from every word index; the urls are taken from the fulltext index
+     * @param field the field of the hosts in the fulltext index
+     * @param hosts the hosts
+     * @param freshdate either NULL or a date in the past, only urls which are loaded before this date are removed
+     */
+    private void removeDomainReferences(final CollectionSchema field, final Set<String> hosts, final Date freshdate) {
+        if (termIndex() == null || hosts == null || hosts.isEmpty()) return;
+        final String constraint = (freshdate == null || freshdate.after(new Date())) ? null :
+                (CollectionSchema.load_date_dt.getSolrFieldName() + ":[* TO " + ISO8601Formatter.FORMATTER.format(freshdate) + "]");
+        final HandleSet urls = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 100);
+        try {
+            for (final String host: hosts) {
+                final String query = "({!cache=false raw f=" + field.getSolrFieldName() + "}" + host + ")";
+                final BlockingQueue<String> ids = this.fulltext.getDefaultConnector().concurrentIDsByQuery(constraint == null ? query : "(" + query + ") AND " + constraint, null, 0, Integer.MAX_VALUE, 600000, 200, 1);
+                String id;
+                while ((id = ids.take()) != AbstractSolrConnector.POISON_ID) urls.put(ASCII.getBytes(id));
+            }
+            termIndex().removeURLs(urls);
+        } catch (final InterruptedException | SpaceExceededException e) {
+            this.log.warn("cannot remove the references of the deleted hosts from the word index: " + e.getMessage());
+        }
     }
 
     /**
@@ -43,6 +43,7 @@ import java.util.List;
 import net.yacy.cora.date.GenericFormatter;
 import net.yacy.cora.document.WordCache;
 import net.yacy.cora.document.encoding.UTF8;
+import net.yacy.cora.sorting.ConcurrentScoreMap;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.kelondro.util.MemoryControl;
 import net.yacy.search.EventTracker;
@@ -104,7 +105,10 @@ public class AccessTracker {
     }
 
     public static void add(final Location location, final QueryParams query, int resultCount) {
-        if (location == Location.local) synchronized (localSearches) {add(localSearches, query, resultCount);}
+        if (location == Location.local) {
+            SearchTaskGroup.addLatency(System.currentTimeMillis() - query.starttime);
+            synchronized (localSearches) {add(localSearches, query, resultCount);}
+        }
         if (location == Location.remote) synchronized (remoteSearches) {add(remoteSearches, query, resultCount);}
     }
 
@@ -145,6 +149,33 @@ public class AccessTracker {
         return null;
     }
 
+    /**
+     * get the most frequent queries from the latest local searches and from the query log
+     * @param count the maximum number of queries
+     * @param period the time span in milliseconds before now which is read from the query log
+     * @return the query strings, most frequent first
+     */
+    public static List<String> frequentQueries(final int count, final long period) {
+        final ConcurrentScoreMap<String> queries = new ConcurrentScoreMap<String>();
+        synchronized (localSearches) {
+            for (final QueryParams query: localSearches) {
+                final String queryString = query.getQueryGoal().getQueryString(false);
+                if (queryString != null && !queryString.isEmpty()) queries.inc(queryString);
+            }
+        }
+        if (dumpFile != null && dumpFile.exists()) {
+            final Date now = new Date();
+            for (final EventTracker.Event event: readLog(dumpFile, new Date(now.getTime() - period), now)) {
+                final String line = (String) event.payload;
+                if (line.startsWith("qs ")) queries.inc(line.substring(3));
+            }
+        }
+        final List<String> frequent = new ArrayList<String>(Math.min(count, queries.size()));
+        final Iterator<String> i = queries.keys(false);
+        while (i.hasNext() && frequent.size() < count) frequent.add(i.next());
+        return frequent;
+    }
+
     public static long size(final Location location) {
         if (location == Location.local) synchronized (localSearches) {return localCount + localSearches.size();}
         if (location == Location.remote) synchronized (remoteSearches) {return remoteCount + remoteSearches.size();}
@@ -0,0 +1,205 @@
+/**
+ *  QueryResultCache
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.search.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the ranked results of finished search events, shared by all events with the same query.
+ * The key is the query id which is built from the normalized query terms, the modifiers, the content domain,
+ * the language and the ranking profile. An entry holds the url hashes of the result positions which had been
+ * computed and the navigator counts of the event; it is only valid as long as the generation of the index segment
+ * does not change. A search event which finds an entry covering the requested page replays the result from the
+ * metadata of the fulltext index instead of running the RWI join and the Solr query again.
+ */
+public class QueryResultCache {
+
+    public static final int maxPositions = 1000; // positions which are stored at most for one query
+
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private static volatile int maxSize = 0; // maximum number of entries; 0 = the cache is switched off
+    private static volatile long maxAge = 600000; // the time an entry is used after it was stored
+    public static final LongAdder cacheHit = new LongAdder(), cacheMiss = new LongAdder(), cacheStore = new LongAdder(), cacheStale = new LongAdder();
+
+    /**
+     * the result of a search event at a specific index generation
+     */
+    public static final class Entry {
+        private final long generation;
+        private final int total;
+        private final String[] ranked; // url hashes by result position, null where the position is unknown
+        private final Map<String, Map<String, Integer>> navigators;
+        private long created;
+        private volatile long lastAccess;
+
+        /**
+         * @param generation the generation of the index segment when the event was started
+         * @param total the number of results of the event
+         * @param ranked the url hashes by result position, null entries for unknown positions; positions beyond maxPositions are ignored
+         * @param navigators the navigator counts by navigator name
+         */
+        public Entry(final long generation, final int total, final String[] ranked, final Map<String, Map<String, Integer>> navigators) {
+            this.generation = generation;
+            this.total = total;
+            this.ranked = ranked.length > maxPositions ? Arrays.copyOf(ranked, maxPositions) : ranked;
+            this.navigators = navigators == null ? Collections.<String, Map<String, Integer>>emptyMap() : navigators;
+            this.created = System.currentTimeMillis();
+            this.lastAccess = this.created;
+        }
+
+        public long generation() {
+            return this.generation;
+        }
+
+        public int total() {
+            return this.total;
+        }
+
+        public Map<String, Map<String, Integer>> navigators() {
+            return this.navigators;
+        }
+
+        /**
+         * @param position the result position, starting at 0
+         * @return the url hash of the result at the position or null if the position is unknown
+         */
+        public String hash(final int position) {
+            return position >= 0 && position < this.ranked.length ? this.ranked[position] : null;
+        }
+
+        /**
+         * check if all results of a page are known
+         * @param offset the position of the first result of the page
+         * @param count the number of results of the page
+         * @return true if every position of the page which exists in the result is known
+         */
+        public boolean covers(final int offset, final int count) {
+            if (this.total <= 0 || offset < 0 || count <= 0 || offset >= this.total) return false;
+            final int end = Math.min(offset + count, this.total);
+            if (end > this.ranked.length) return false;
+            for (int i = offset; i < end; i++) if (this.ranked[i] == null) return false;
+            return true;
+        }
+
+        /**
+         * combine the positions of this entry with the positions of an older entry of the same generation;
+         * the total and the navigators of this entry are kept, the age is that of the older entry
+         * @param older an entry which was stored before
+         * @return a new entry with the known positions of both entries
+         */
+        public Entry merge(final Entry older) {
+            if (older == null || older.generation != this.generation) return this;
+            final String[] merged = Arrays.copyOf(this.ranked, Math.max(this.ranked.length, older.ranked.length));
+            for (int i = 0; i < older.ranked.length; i++) if (merged[i] == null) merged[i] = older.ranked[i];
+            final Entry entry = new Entry(this.generation, this.total, merged, this.navigators);
+            entry.created = Math.min(this.created, older.created); // the age is counted from the first store
+            return entry;
+        }
+    }
+
+    /**
+     * set the size and the lifetime of the cache
+     * @param size the maximum number of entries, 0 switches the cache off
+     * @param age the time in milliseconds an entry may be used after it was stored
+     */
+    public static void setLimits(final int size, final long age) {
+        maxSize = Math.max(0, size);
+        maxAge = Math.max(0, age);
+        if (maxSize == 0) entries.clear(); else shrink();
+    }
+
+    public static boolean enabled() {
+        return maxSize > 0;
+    }
+
+    public static int size() {
+        return entries.size();
+    }
+
+    public static void clear() {
+        entries.clear();
+    }
+
+    /**
+     * store the result of a search event; positions known from an entry of the same generation are kept
+     * @param key the query id
+     * @param entry the result
+     */
+    public static void put(final String key, final Entry entry) {
+        if (maxSize == 0 || entry == null || entry.generation < 0) return;
+        entries.merge(key, entry, (older, newer) -> newer.merge(older));
+        cacheStore.increment();
+        if (entries.size() > maxSize) shrink();
+    }
+
+    /**
+     * get the result of a query page
+     * @param key the query id
+     * @param generation the current generation of the index segment
+     * @param offset the position of the first result of the page
+     * @param count the number of results of the page
+     * @return an entry which covers the page or null if there is no such entry or the entry is outdated
+     */
+    public static Entry get(final String key, final long generation, final int offset, final int count) {
+        if (maxSize == 0) return null;
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            cacheMiss.increment();
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (generation < 0 || entry.generation != generation || now - entry.created > maxAge) {
+            entries.remove(key, entry);
+            cacheStale.increment();
+            return null;
+        }
+        if (!entry.covers(offset, count)) {
+            cacheMiss.increment();
+            return null;
+        }
+        entry.lastAccess = now;
+        cacheHit.increment();
+        return entry;
+    }
+
+    /**
+     * remove the least recently used entries until the size limit is kept
+     */
+    private static synchronized void shrink() {
+        while (entries.size() > maxSize) {
+            Map.Entry<String, Entry> oldest = null;
+            for (final Map.Entry<String, Entry> e: entries.entrySet()) {
+                if (oldest == null || e.getValue().lastAccess < oldest.getValue().lastAccess) oldest = e;
+            }
+            if (oldest == null) return;
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+}
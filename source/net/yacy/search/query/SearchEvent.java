@@ -28,7 +28,9 @@ package net.yacy.search.query;
 
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
@@ -41,10 +43,11 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
@@ -83,6 +86,7 @@ import net.yacy.document.Tokenizer;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
 import net.yacy.kelondro.data.word.Word;
 import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceCursor;
 import net.yacy.kelondro.data.word.WordReferenceFactory;
 import net.yacy.kelondro.data.word.WordReferenceVars;
 import net.yacy.kelondro.index.RowHandleSet;
@@ -103,6 +107,7 @@ import net.yacy.search.SwitchboardConstants;
 import net.yacy.search.index.Segment;
 import net.yacy.search.navigator.Navigator;
 import net.yacy.search.navigator.NavigatorPlugins;
+import net.yacy.search.ranking.BlockMaxWand;
 import net.yacy.search.ranking.ReferenceOrder;
 import net.yacy.search.schema.CollectionConfiguration;
 import net.yacy.search.schema.CollectionSchema;
@@ -150,6 +155,12 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
     private byte[] IAmaxcounthash, IAneardhthash;
     public Thread rwiProcess;
     public Thread localsolrsearch;
+
+    /** the generation of the index segment when this event was started */
+    private final long generation;
+
+    /** the cached result which is replayed by this event, null if this event searches the index */
+    private final QueryResultCache.Entry cachedResult;
     
     /** Offset of the next local Solr index request
      * Example : last local request with offset=10 and itemsPerPage=20, sets this attribute to 30. */
@@ -178,6 +189,26 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
     
 	/** Holds the total number of successful write operations performed on all the active navigators since their initialization. */
 	private final AtomicLong navGeneration = new AtomicLong();
+
+    /** listeners which are informed about new results and navigator updates */
+    private final List<ResultListener> resultListeners = new CopyOnWriteArrayList<ResultListener>();
+
+    /**
+     * A listener which is informed when this event has a new result or an updated navigator.
+     * The methods are called from the threads which feed the event and must return quickly.
+     */
+    public interface ResultListener {
+
+        /**
+         * @param result a result which was placed in the ranked result list
+         */
+        public void resultAdded(URIMetadataNode result);
+
+        /**
+         * a navigator counter was changed
+         */
+        public void navigatorUpdated();
+    }
     
     private final LoaderDispatcher                        loader;
     
@@ -208,6 +239,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
     /** flag counter */
     private final int[] flagcount;
     private final AtomicInteger feedersAlive, feedersTerminated, snippetFetchAlive;
+    private final SearchTaskGroup tasks; // the concurrent tasks of this event, cancelled together in cleanup()
     private boolean addRunning;
     private final AtomicInteger receivedRemoteReferences;
     private final ReferenceOrder order;
@@ -274,7 +306,16 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
 	@Override
 	public void updatedScoreMap() {
 		this.navGeneration.incrementAndGet();
+		for (final ResultListener listener: this.resultListeners) listener.navigatorUpdated();
 	}
+
+    public void addResultListener(final ResultListener listener) {
+        this.resultListeners.add(listener);
+    }
+
+    public void removeResultListener(final ResultListener listener) {
+        this.resultListeners.remove(listener);
+    }
     
     /**
      * @return the total number of results currently available and filtered (checking doubles and eventual query constraints/modifiers) from the different data sources 
@@ -320,7 +361,8 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         final int remote_maxcount,
         final long remote_maxtime,
         final boolean deleteIfSnippetFail,
-        final boolean addResultsToLocalIdx) {
+        final boolean addResultsToLocalIdx,
+        final QueryResultCache.Entry cachedResult) {
 
         long ab = MemoryControl.available();
         if (ab < 1024 * 1024 * 200) {
@@ -331,23 +373,22 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                 log.info("Cleaned up search event cache (1) " + eb + "->" + en + ", " + (ab - MemoryControl.available()) / 1024 / 1024 + " MB freed");
             }
         }
-        ab = MemoryControl.available();
-        int eb = SearchEventCache.size(); 
-        SearchEventCache.cleanupEvents(Math.max(1, (int) (MemoryControl.available() / (1024 * 1024 * 120))));
-        int en = SearchEventCache.size();
-        if (en < eb) {
-            log.info("Cleaned up search event cache (2) " + eb + "->" + en + ", " + (ab - MemoryControl.available()) / 1024 / 1024 + " MB freed");
-        }
         
         this.eventTime = System.currentTimeMillis(); // for lifetime check
         this.peers = peers;
         this.workTables = workTables;
         this.query = query;
         if(query != null) {
+        	this.tasks = new SearchTaskGroup(query.starttime + query.maxtime);
         	/* Image counter will eventually grow up faster than offset, but must start first with the same value as query offset */
         	this.imagePageCounter = query.offset;
+        	this.generation = query.getSegment().generation();
+        } else {
+        	this.tasks = new SearchTaskGroup(Long.MAX_VALUE); // without a query there is no time limit for the tasks
+        	this.generation = -1; // the result is not cached
         }
         this.loader = loader;
+        this.cachedResult = cachedResult;
         this.nodeStack = new WeakPriorityBlockingQueue<URIMetadataNode>(max_results_node, false);
         this.maxExpectedRemoteReferences = new AtomicInteger(0);
         this.expectedRemoteReferences = new AtomicInteger(0);
@@ -377,7 +418,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         this.protocolNavigator = protocolNavEnabled ? new ConcurrentScoreMap<>(this) : null;
         this.dateNavigator = dateNavEnabled ? new ConcurrentScoreMap<>(this) : null;
         this.topicNavigatorCount = topicsNavEnabled ? MAX_TOPWORDS : 0;
-        this.vocabularyNavigator = new TreeMap<String, ScoreMap<String>>();
+        this.vocabularyNavigator = Collections.synchronizedMap(new TreeMap<String, ScoreMap<String>>());
         // prepare configured search navigation (plugins)
         this.navigatorPlugins = NavigatorPlugins.initFromCfgStrings(navConfigs);
         if(this.navigatorPlugins != null) {
@@ -396,7 +437,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         this.heuristics = new TreeMap<byte[], HeuristicResult>(Base64Order.enhancedCoder);
         this.IAmaxcounthash = null;
         this.IAneardhthash = null;
-        this.remote = (peers != null && peers.sizeConnected() > 0) && (this.query.domType == QueryParams.Searchdom.CLUSTER || (this.query.domType == QueryParams.Searchdom.GLOBAL && Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.INDEX_RECEIVE_ALLOW_SEARCH, false)));
+        this.remote = cachedResult == null && isRemoteSearch(this.query, peers);
         this.addResultsToLocalIndex = addResultsToLocalIdx;
         /* Défault : no size limit to store remote result documents to local index. Use setter to eventually modify it. */
         this.remoteStoredDocMaxSize = -1;
@@ -441,7 +482,11 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         }
 
         // start a local solr search
-        if (!Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.DEBUG_SEARCH_LOCAL_SOLR_OFF, false)) {
+        if (cachedResult != null) {
+            // the result is replayed from the cache, the counts are those of the event which computed it
+            this.local_solr_stored.set(cachedResult.total());
+            restoreNavigators(cachedResult.navigators());
+        } else if (!Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.DEBUG_SEARCH_LOCAL_SOLR_OFF, false)) {
         	final boolean useSolrFacets = true;
 			this.localsolrsearch = RemoteSearch.solrRemoteSearch(this,
 					this.query.solrQuery(this.query.contentdom, this.query.isStrictContentDom(), useSolrFacets, this.excludeintext_image), this.query.offset,
@@ -451,7 +496,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         
         // start a local RWI search concurrently
         this.rwiProcess = null;
-        if (query.getSegment().connectedRWI() && !Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.DEBUG_SEARCH_LOCAL_DHT_OFF, false)) {
+        if (cachedResult == null && query.getSegment().connectedRWI() && !Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.DEBUG_SEARCH_LOCAL_DHT_OFF, false)) {
             // we start the local search only if this peer is doing a remote search or when it is doing a local search and the peer is old
             rwiProcess = new RWIProcess(this.localsolrsearch);
             rwiProcess.start();
@@ -470,7 +515,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                 // start this concurrently because the remote search needs an enumeration
                 // of the remote peers which may block in some cases when i.e. DHT is active
                 // at the same time.
-                new Thread("SearchEvent.primaryRemoteSearches") {
+                this.tasks.execute("SearchEvent.primaryRemoteSearches", new Runnable() {
                     @Override
                     public void run() {
                         RemoteSearch.primaryRemoteSearches(
@@ -480,7 +525,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                             Switchboard.urlBlacklist,
                             (SearchEvent.this.query.domType == QueryParams.Searchdom.GLOBAL) ? null : preselectedPeerHashes);
                     }
-                }.start();
+                });
             }
             if ( this.primarySearchThreadsL != null ) {
                 ConcurrentLog.fine("SEARCH_EVENT", "STARTING "
@@ -571,6 +616,13 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         // remove stopwords
         this.snippetFetchWords.removeAll(Switchboard.stopwords);
 
+        // replay the requested page of the cached result
+        if (cachedResult != null) {
+            this.oneFeederStarted();
+            this.localsolrsearch = new ResultReplay(cachedResult);
+            this.localsolrsearch.start();
+        }
+
         // clean up events
         SearchEventCache.cleanupEvents(false);
         EventTracker.update(EventTracker.EClass.SEARCH, new ProfilingGraph.EventSearch(this.query.id(true), SearchEventType.CLEANUP, "", 0, 0), false);
@@ -582,6 +634,186 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         SearchEventCache.put(this.query.id(false), this);
     }
 
+    /**
+     * @param query the search query
+     * @param peers the peer database, may be null
+     * @return true if a search event for the query asks remote peers
+     */
+    protected static boolean isRemoteSearch(final QueryParams query, final SeedDB peers) {
+        return (peers != null && peers.sizeConnected() > 0) && (query.domType == QueryParams.Searchdom.CLUSTER || (query.domType == QueryParams.Searchdom.GLOBAL && Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.INDEX_RECEIVE_ALLOW_SEARCH, false)));
+    }
+
+    /**
+     * @return true if this event replays a result from the query result cache instead of searching the index
+     */
+    public boolean isCachedResult() {
+        return this.cachedResult != null;
+    }
+
+    /**
+     * A concurrent task to replay a page of a cached result from the metadata of the fulltext index.
+     */
+    private class ResultReplay extends Thread {
+
+        private final QueryResultCache.Entry entry;
+
+        public ResultReplay(final QueryResultCache.Entry entry) {
+            super("SearchEvent.ResultReplay(" + SearchEvent.this.query.getQueryGoal().getQueryString(false) + ")");
+            this.entry = entry;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final int end = Math.min(SearchEvent.this.query.offset + SearchEvent.this.query.itemsPerPage, this.entry.total());
+                final List<URIMetadataNode> nodes = new ArrayList<URIMetadataNode>();
+                for (int position = SearchEvent.this.query.offset; position < end; position++) {
+                    final String hash = this.entry.hash(position);
+                    final URIMetadataNode node = hash == null ? null : SearchEvent.this.query.getSegment().fulltext().getMetadata(ASCII.getBytes(hash));
+                    if (node == null || SearchEvent.this.urlhashes.has(node.hash())) {
+                        SearchEvent.this.local_solr_evicted.incrementAndGet();
+                        continue;
+                    }
+                    SearchEvent.this.urlhashes.putUnique(node.hash());
+                    nodes.add(node);
+                }
+
+                // the snippets are computed concurrently, but the results are added in the cached order;
+                // the scores decrease in steps which are larger than any post-ranking, so the order is kept
+                final URIMetadataNode[] results = new URIMetadataNode[nodes.size()];
+                final Future<?>[] fetchers = new Future<?>[nodes.size()];
+                for (int i = 0; i < nodes.size(); i++) {
+                    final int n = i;
+                    final Runnable fetcher = new Runnable() {
+                        @Override
+                        public void run() {
+                            results[n] = getSnippet(nodes.get(n), SearchEvent.this.query.snippetCacheStrategy);
+                        }
+                    };
+                    if (SearchEvent.this.query.snippetCacheStrategy == null) fetcher.run(); else fetchers[i] = SearchEvent.this.tasks.execute("SearchEvent.ResultReplay.getSnippet", fetcher);
+                }
+                for (int i = 0; i < nodes.size(); i++) {
+                    if (fetchers[i] != null) try {
+                        fetchers[i].get();
+                    } catch (final CancellationException e) {
+                        return;
+                    }
+                    addResult(results[i], ((long) (nodes.size() - i)) << 32);
+                }
+            } catch (final InterruptedException e) {
+            } catch (final Exception e) {
+                ConcurrentLog.logException(e);
+            } finally {
+                SearchEvent.this.addFinalize();
+                oneFeederTerminated();
+            }
+        }
+    }
+
+    /**
+     * get the result of this event for the query result cache: the url hashes of the result positions which
+     * had been delivered so far and the navigator counts
+     * @return the cache entry or null if the result can not be replayed because it contains results from remote peers,
+     * is an image result, is itself replayed or the index has changed since the event was started
+     */
+    protected QueryResultCache.Entry resultCacheEntry() {
+        if (this.remote || this.cachedResult != null || this.generation < 0) return null;
+        if (this.query.contentdom == ContentDomain.IMAGE) return null;
+        if (this.query.getSegment().generation() != this.generation) return null;
+        final int drained = this.resultList.sizeDrained();
+        final int base = this.localsolroffset - this.query.itemsPerPage; // the position of the first element of the result list, see oneResult
+        if (drained == 0 || base < 0 || base >= QueryResultCache.maxPositions) return null;
+        final String[] ranked = new String[Math.min(base + drained, QueryResultCache.maxPositions)];
+        for (int i = 0; base + i < ranked.length; i++) {
+            final WeakPriorityBlockingQueue.Element<URIMetadataNode> element = this.resultList.element(i);
+            if (element == null) break;
+            ranked[base + i] = ASCII.String(element.getElement().hash());
+        }
+        final Map<String, Map<String, Integer>> navigators = navigatorCounts();
+        return new QueryResultCache.Entry(this.generation, this.getResultCount(), ranked, navigators);
+    }
+
+    private static final String NAV_LOCATION = "location", NAV_PROTOCOL = "protocol", NAV_DATE = "date", NAV_VOCABULARY = "vocabulary:", NAV_PLUGIN = "plugin:";
+
+    /**
+     * get a copy of the counts of all navigators. The names of the navigators are location, protocol and date,
+     * vocabulary:&lt;name&gt; for the vocabulary navigators and plugin:&lt;name&gt; for the navigator plugins.
+     * @return the counts by navigator name
+     */
+    public Map<String, Map<String, Integer>> navigatorCounts() {
+        final Map<String, Map<String, Integer>> navigators = new HashMap<String, Map<String, Integer>>();
+        if (this.locationNavigator != null) navigators.put(NAV_LOCATION, navigatorCounts(this.locationNavigator));
+        if (this.protocolNavigator != null) navigators.put(NAV_PROTOCOL, navigatorCounts(this.protocolNavigator));
+        if (this.dateNavigator != null) navigators.put(NAV_DATE, navigatorCounts(this.dateNavigator));
+        for (final Map.Entry<String, ScoreMap<String>> navigator: vocabularyNavigators().entrySet()) {
+            navigators.put(NAV_VOCABULARY + navigator.getKey(), navigatorCounts(navigator.getValue()));
+        }
+        if (this.navigatorPlugins != null) {
+            for (final Map.Entry<String, Navigator> navigator: this.navigatorPlugins.entrySet()) {
+                navigators.put(NAV_PLUGIN + navigator.getKey(), navigatorCounts(navigator.getValue()));
+            }
+        }
+        return navigators;
+    }
+
+    private static Map<String, Integer> navigatorCounts(final ScoreMap<String> navigator) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        final Iterator<String> keys = navigator.keys(false);
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            counts.put(key, navigator.get(key));
+        }
+        return counts;
+    }
+
+    /**
+     * get the navigator of a vocabulary and create it if it does not exist yet
+     * @param vocName the name of the vocabulary
+     * @return the navigator
+     */
+    private ScoreMap<String> vocabularyNavigator(final String vocName) {
+        synchronized (this.vocabularyNavigator) {
+            ScoreMap<String> vocNav = this.vocabularyNavigator.get(vocName);
+            if (vocNav == null) {
+                vocNav = new ConcurrentScoreMap<String>();
+                this.vocabularyNavigator.put(vocName, vocNav);
+            }
+            return vocNav;
+        }
+    }
+
+    /**
+     * @return a copy of the vocabulary navigators map which can be iterated while navigators are added
+     */
+    public Map<String, ScoreMap<String>> vocabularyNavigators() {
+        synchronized (this.vocabularyNavigator) {
+            return new TreeMap<String, ScoreMap<String>>(this.vocabularyNavigator);
+        }
+    }
+
+    /**
+     * increment the navigators of this event with the counts of a cached result
+     */
+    private void restoreNavigators(final Map<String, Map<String, Integer>> navigators) {
+        for (final Map.Entry<String, Map<String, Integer>> navigator: navigators.entrySet()) {
+            final String name = navigator.getKey();
+            ScoreMap<String> target = null;
+            if (NAV_LOCATION.equals(name)) {
+                target = this.locationNavigator;
+            } else if (NAV_PROTOCOL.equals(name)) {
+                target = this.protocolNavigator;
+            } else if (NAV_DATE.equals(name)) {
+                target = this.dateNavigator;
+            } else if (name.startsWith(NAV_VOCABULARY)) {
+                target = vocabularyNavigator(name.substring(NAV_VOCABULARY.length()));
+            } else if (name.startsWith(NAV_PLUGIN) && this.navigatorPlugins != null) {
+                target = this.navigatorPlugins.get(name.substring(NAV_PLUGIN.length()));
+            }
+            if (target == null) continue; // the navigator is not configured any more
+            for (final Map.Entry<String, Integer> count: navigator.getValue().entrySet()) target.inc(count.getKey(), count.getValue());
+        }
+    }
+
     /**
      * A concurrent task to perform the current search query on the local RWI.
      */
@@ -620,7 +852,24 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                             Segment.wordReferenceFactory,
                             SearchEvent.this.query.maxDistance);
                 SearchEvent.this.localSearchInclusion = search.inclusion();
-                ReferenceContainer<WordReference> index = search.joined();
+                ReferenceContainer<WordReference> index;
+                int fullResource;
+                if (BlockMaxWand.applicable(search.inclusion().values(), max_results_rwi)) {
+                    // only the best references of large containers can find a place in the rwiStack, so we do not join and rank all of them
+                    final BlockMaxWand wand = new BlockMaxWand(SearchEvent.this.order);
+                    final String acceptableAlternativeSitehash = acceptableAlternativeSitehash();
+                    index = wand.topK(search.inclusion().values(), search.exclusion().values(), SearchEvent.this.query.maxDistance, max_results_rwi, new BlockMaxWand.Filter() {
+                        @Override
+                        public boolean accept(final WordReferenceVars reference) {
+                            return !SearchEvent.this.urlhashes.has(reference.urlhash()) && rwiConstraintViolation(reference, acceptableAlternativeSitehash) == null;
+                        }
+                    });
+                    fullResource = wand.matches();
+                    if (log.isFine()) log.fine("block-max evaluation ranked " + wand.evaluated() + " of " + fullResource + " references");
+                } else {
+                    index = search.joined();
+                    fullResource = index.size();
+                }
                 if ( !index.isEmpty() ) {
                     // in case that another thread has priority for their results, wait until this is finished
                     if (this.waitForThread != null && this.waitForThread.isAlive()) {
@@ -628,7 +877,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                     }
                     
                     // add the index to the result
-                    int successcount = addRWIs(index, true, "local index: " + SearchEvent.this.query.getSegment().getLocation(), index.size(), SearchEvent.this.maxtime);
+                    int successcount = addRWIs(index, true, "local index: " + SearchEvent.this.query.getSegment().getLocation(), fullResource, SearchEvent.this.maxtime);
                     if (successcount == 0 &&
                         SearchEvent.this.query.getQueryGoal().getIncludeHashes().has(Segment.catchallHash) &&
                         SearchEvent.this.query.modifier.sitehost != null && SearchEvent.this.query.modifier.sitehost.length() > 0
@@ -694,7 +943,8 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         long timer = System.currentTimeMillis();
 
         // normalize entries
-        final BlockingQueue<WordReferenceVars> decodedEntries = this.order.normalizeWith(index, maxtime, local);
+        final WordReferenceCursor cursor = new WordReferenceCursor(index);
+        this.order.normalizeWith(cursor, maxtime);
         int is = index.size();
         EventTracker.update(EventTracker.EClass.SEARCH, new ProfilingGraph.EventSearch(
             this.query.id(true),
@@ -704,124 +954,56 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
             System.currentTimeMillis() - timer), false);
         if (!local) this.receivedRemoteReferences.addAndGet(is);
 
-        // iterate over normalized entries and select some that are better than currently stored
+        // iterate over the rows and select some that are better than currently stored;
+        // reference objects are only created for rows which can be placed in the rwiStack
         timer = System.currentTimeMillis();
 
         // apply all constraints
         long timeout = maxtime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + maxtime;
         int successcounter = 0;
         try {
-            WordReferenceVars iEntry;
-            long remaining;
-            String acceptableAlternativeSitehash = null;
-            if (this.query.modifier.sitehost != null && this.query.modifier.sitehost.length() > 0) try {
-                acceptableAlternativeSitehash = DigestURL.hosthash(this.query.modifier.sitehost.startsWith("www.") ? this.query.modifier.sitehost.substring(4) : "www." + this.query.modifier.sitehost, 80);
-            } catch (MalformedURLException e1) {}
-            pollloop: while ( true ) {
-                remaining = timeout - System.currentTimeMillis();
-                if (remaining <= 0) {
-                    ConcurrentLog.warn("SearchEvent", "terminated 'add' loop before poll time-out = " + remaining + ", decodedEntries.size = " + decodedEntries.size());
-                    break;
-                }
-                iEntry = decodedEntries.poll(remaining, TimeUnit.MILLISECONDS);
-                if (iEntry == null) {
-                    ConcurrentLog.warn("SearchEvent", "terminated 'add' loop after poll time-out = " + remaining + ", decodedEntries.size = " + decodedEntries.size());
-                    break pollloop;
+            final String acceptableAlternativeSitehash = acceptableAlternativeSitehash();
+            int count = 0;
+            long ranking;
+            Element<WordReferenceVars> worst;
+            rowloop: while (cursor.next()) {
+                if ((++count & 0x3ff) == 0 && System.currentTimeMillis() > timeout) {
+                    ConcurrentLog.warn("SearchEvent", "terminated 'add' loop after time-out, " + (is - count) + " rows not visited");
+                    break rowloop;
                 }
-                if (iEntry == WordReferenceVars.poison) {
-                    break pollloop;
-                }
-                assert (iEntry.urlhash().length == index.row().primaryKeyLength);
 
                 // doublecheck for urls
-                if (this.urlhashes.has(iEntry.urlhash())) {
+                if (this.urlhashes.has(cursor.urlhash())) {
                     if (log.isFine()) log.fine("dropped RWI: doublecheck");
-                    continue pollloop;
+                    continue rowloop;
                 }
-                
+
                 // increase flag counts
-                Bitfield flags = iEntry.flags();
+                Bitfield flags = cursor.flags();
                 for (int j = 0; j < 32; j++) {
                     if (flags.get(j)) this.flagcount[j]++;
                 }
 
                 // check constraints
-                if (!this.testFlags(flags)) {
-                    if (log.isFine()) log.fine("dropped RWI: flag test failed");
-                    continue pollloop;
-                }
-
-                // check document domain
-                if (this.query.contentdom.getCode() > 0) {
-                	boolean domainMatch = true;
-                	if(this.query.isStrictContentDom()) {
-                		if((this.query.contentdom == ContentDomain.AUDIO && iEntry.getType() != Response.DT_AUDIO) || 
-                                (this.query.contentdom == ContentDomain.VIDEO && iEntry.getType() != Response.DT_MOVIE) ||
-                                (this.query.contentdom == ContentDomain.IMAGE && iEntry.getType() != Response.DT_IMAGE) ||
-                                (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
-                                	domainMatch = false;    	
-                                }
-                	} else if((this.query.contentdom == ContentDomain.AUDIO && !(flags.get(Tokenizer.flag_cat_hasaudio))) || 
-                                (this.query.contentdom == ContentDomain.VIDEO && !(flags.get(Tokenizer.flag_cat_hasvideo))) ||
-                                (this.query.contentdom == ContentDomain.IMAGE && !(flags.get(Tokenizer.flag_cat_hasimage))) ||
-                                (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
-                			domainMatch = false;
-                	}
-                	if(!domainMatch) {
-                		if (log.isFine()) {
-                			log.fine("dropped RWI: contentdom fail");
-                		}
-                		continue pollloop;
-                	}
-                }
-                
-                // check language
-				if (this.query.modifier.language != null && !this.query.modifier.language.isEmpty()
-						&& !this.query.modifier.language.equals(iEntry.getLanguageString())) {
-                	if (log.isFine()) {
-                		log.fine("dropped RWI: language constraint = " + this.query.modifier.language);
-                	}
-                	continue pollloop;
-                }
-                
-                // count domZones
-                //this.domZones[DigestURI.domDomain(iEntry.metadataHash())]++;
-
-                // check site constraints
-                final String hosthash = iEntry.hosthash();
-                if ( this.query.modifier.sitehash == null ) {
-                    if (this.query.siteexcludes != null && this.query.siteexcludes.contains(hosthash)) {
-                        if (log.isFine()) log.fine("dropped RWI: siteexcludes");
-                        continue pollloop;
-                    }
-                } else {
-                    // filter out all domains that do not match with the site constraint
-                    if (!hosthash.equals(this.query.modifier.sitehash) && (acceptableAlternativeSitehash == null || !hosthash.equals(acceptableAlternativeSitehash))) {
-                        if (log.isFine()) log.fine("dropped RWI: modifier.sitehash");
-                        continue pollloop;
-                    }
+                final String dropped = rwiConstraintViolation(cursor, acceptableAlternativeSitehash);
+                if (dropped != null) {
+                    if (log.isFine()) log.fine("dropped RWI: " + dropped);
+                    continue rowloop;
                 }
 
                 // finally extend the double-check and insert result to stack
-                this.urlhashes.putUnique(iEntry.urlhash());
-                rankingtryloop: while (true) {
-                    try {
-                        this.rwiStack.put(new ReverseElement<WordReferenceVars>(iEntry, this.order.cardinal(iEntry))); // inserts the element and removes the worst (which is smallest)
-                        break rankingtryloop;
-                    } catch (final ArithmeticException e ) {
-                        // this may happen if the concurrent normalizer changes values during cardinal computation
-                        if (log.isFine()) log.fine("dropped RWI: arithmetic exception");
-                        continue rankingtryloop;
-                    }
+                this.urlhashes.putUnique(cursor.urlhash());
+                ranking = this.order.cardinal(cursor);
+                worst = this.rwiStack.sizeQueue() < max_results_rwi ? null : this.rwiStack.getLastInQueue();
+                if (worst == null || ranking >= worst.getWeight()) {
+                    this.rwiStack.put(new ReverseElement<WordReferenceVars>(cursor.vars(local), ranking)); // inserts the element and removes the worst (which is smallest)
                 }
                 // increase counter for statistics
                 if (local) this.local_rwi_available.incrementAndGet(); else this.remote_rwi_available.incrementAndGet();
-                
+
                 successcounter++;
             }
-            if (System.currentTimeMillis() >= timeout) ConcurrentLog.warn("SearchEvent", "rwi normalization ended with timeout = " + maxtime);
 
-        } catch (final InterruptedException e ) {
         } catch (final SpaceExceededException e ) {
         }
 
@@ -835,6 +1017,62 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         return successcounter;
     }
     
+    /**
+     * @return the host hash of the site constraint with or without "www.", or null if there is no site constraint
+     */
+    private String acceptableAlternativeSitehash() {
+        if (this.query.modifier.sitehost != null && this.query.modifier.sitehost.length() > 0) try {
+            return DigestURL.hosthash(this.query.modifier.sitehost.startsWith("www.") ? this.query.modifier.sitehost.substring(4) : "www." + this.query.modifier.sitehost, 80);
+        } catch (MalformedURLException e1) {}
+        return null;
+    }
+
+    /**
+     * test the constraints of the query against a RWI reference
+     * @param iEntry the reference
+     * @param acceptableAlternativeSitehash the result of acceptableAlternativeSitehash()
+     * @return null if the reference is accepted, otherwise the reason why it must be dropped
+     */
+    private String rwiConstraintViolation(final WordReference iEntry, final String acceptableAlternativeSitehash) {
+        final Bitfield flags = iEntry.flags();
+        if (!this.testFlags(flags)) return "flag test failed";
+
+        // check document domain
+        if (this.query.contentdom.getCode() > 0) {
+        	boolean domainMatch = true;
+        	if(this.query.isStrictContentDom()) {
+        		if((this.query.contentdom == ContentDomain.AUDIO && iEntry.getType() != Response.DT_AUDIO) || 
+                        (this.query.contentdom == ContentDomain.VIDEO && iEntry.getType() != Response.DT_MOVIE) ||
+                        (this.query.contentdom == ContentDomain.IMAGE && iEntry.getType() != Response.DT_IMAGE) ||
+                        (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
+                        	domainMatch = false;    	
+                        }
+        	} else if((this.query.contentdom == ContentDomain.AUDIO && !(flags.get(Tokenizer.flag_cat_hasaudio))) || 
+                        (this.query.contentdom == ContentDomain.VIDEO && !(flags.get(Tokenizer.flag_cat_hasvideo))) ||
+                        (this.query.contentdom == ContentDomain.IMAGE && !(flags.get(Tokenizer.flag_cat_hasimage))) ||
+                        (this.query.contentdom == ContentDomain.APP && !(flags.get(Tokenizer.flag_cat_hasapp)))) {
+        			domainMatch = false;
+        	}
+        	if (!domainMatch) return "contentdom fail";
+        }
+
+        // check language
+        if (this.query.modifier.language != null && !this.query.modifier.language.isEmpty()
+                && !Arrays.equals(ASCII.getBytes(this.query.modifier.language), iEntry.getLanguage())) {
+            return "language constraint = " + this.query.modifier.language;
+        }
+
+        // check site constraints
+        if ( this.query.modifier.sitehash == null ) {
+            if (this.query.siteexcludes != null && this.query.siteexcludes.contains(iEntry.hosthash())) return "siteexcludes";
+        } else {
+            // filter out all domains that do not match with the site constraint
+            final String hosthash = iEntry.hosthash();
+            if (!hosthash.equals(this.query.modifier.sitehash) && (acceptableAlternativeSitehash == null || !hosthash.equals(acceptableAlternativeSitehash))) return "modifier.sitehash";
+        }
+        return null;
+    }
+
     public long getEventTime() {
         return this.eventTime;
     }
@@ -843,9 +1081,30 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         this.eventTime = System.currentTimeMillis();
     }
 
+    /**
+     * @return a rough estimate of the memory held by this event: the result queues, the navigators and the snippets
+     */
+    protected long retainedSize() {
+        long size = 16 * 1024; // query, threads and counters
+        size += (this.rwiStack.sizeQueue() + this.rwiStack.sizeDrained()) * 512L;
+        size += (this.nodeStack.sizeQueue() + this.nodeStack.sizeDrained() + this.resultList.sizeQueue() + this.resultList.sizeDrained()) * 8192L;
+        for (final WeakPriorityBlockingQueue<WordReferenceVars> q: this.doubleDomCache.values()) size += (q.sizeQueue() + q.sizeDrained()) * 512L;
+        long navigatorEntries = 0;
+        if (this.locationNavigator != null) navigatorEntries += this.locationNavigator.size();
+        if (this.protocolNavigator != null) navigatorEntries += this.protocolNavigator.size();
+        if (this.dateNavigator != null) navigatorEntries += this.dateNavigator.size();
+        for (final ScoreMap<String> navigator: vocabularyNavigators().values()) navigatorEntries += navigator.size();
+        for (final Navigator navigator: this.navigatorPlugins.values()) navigatorEntries += navigator.size();
+        size += navigatorEntries * 128L;
+        for (final LinkedHashSet<String> lines: this.snippets.values()) size += lines.size() * 512L;
+        size += this.urlhashes.size() * 48L;
+        return size;
+    }
+
     protected void cleanup() {
 
         // stop all threads
+        this.tasks.cancel();
         if (this.localsolrsearch != null) {
             if (localsolrsearch.isAlive()) synchronized (this.localsolrsearch) {this.localsolrsearch.interrupt();}
         }
@@ -1179,11 +1438,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
 				for (String vocName: genericFacets) {
 					fcts = facets.get(CollectionSchema.VOCABULARY_PREFIX + vocName + CollectionSchema.VOCABULARY_TERMS_SUFFIX);
 					if (fcts != null) {
-						ScoreMap<String> vocNav = this.vocabularyNavigator.get(vocName);
-						if (vocNav == null) {
-							vocNav = new ConcurrentScoreMap<String>();
-							this.vocabularyNavigator.put(vocName, vocNav);
-						}
+						ScoreMap<String> vocNav = vocabularyNavigator(vocName);
 						vocNav.inc(fcts);
 					}
 				}
@@ -1257,19 +1512,11 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
 	protected void incrementVocNavigator(final URIMetadataNode doc, final String vocName, final String fieldName) {
 		final Object docValue = doc.getFieldValue(fieldName);
 		if(docValue instanceof String) {
-			ScoreMap<String> vocNav = this.vocabularyNavigator.get(vocName);
-			if (vocNav == null) {
-				vocNav = new ConcurrentScoreMap<String>();
-				this.vocabularyNavigator.put(vocName, vocNav);
-			}
+			ScoreMap<String> vocNav = vocabularyNavigator(vocName);
 			vocNav.inc((String)docValue);
 		} else if(docValue instanceof Collection) {
 			if (!((Collection<?>) docValue).isEmpty()) {
-				ScoreMap<String> vocNav = this.vocabularyNavigator.get(vocName);
-				if (vocNav == null) {
-					vocNav = new ConcurrentScoreMap<String>();
-					this.vocabularyNavigator.put(vocName, vocNav);
-				}
+				ScoreMap<String> vocNav = vocabularyNavigator(vocName);
 				for (final Object singleDocValue : (Collection<?>) docValue) {
 					if (singleDocValue instanceof String) {
 						vocNav.inc((String) singleDocValue);
@@ -1857,7 +2104,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                 success = true;
             }
         } else {
-            Thread t = new Thread("SearchEvent.drainStacksToResult.oneFilteredFromRWI") {
+            final Runnable t = new Runnable() {
                 @Override
                 public void run() {
                     SearchEvent.this.oneFeederStarted();
@@ -1878,7 +2125,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                     }
                 }
             };
-            if (SearchEvent.this.query.snippetCacheStrategy == null) t.run(); else t.start(); //no need for concurrency if there is no latency
+            if (SearchEvent.this.query.snippetCacheStrategy == null) t.run(); else this.tasks.execute("SearchEvent.drainStacksToResult.oneFilteredFromRWI", t); //no need for concurrency if there is no latency
         }
         return success;
 	}
@@ -1919,7 +2166,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                     success = true;
                 } else {
 
-                    new Thread("SearchEvent.drainStacksToResult.getSnippet") {
+                    this.tasks.execute("SearchEvent.drainStacksToResult.getSnippet", new Runnable() {
                         @Override
                         public void run() {
                             SearchEvent.this.oneFeederStarted();
@@ -1934,7 +2181,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
                                 SearchEvent.this.oneFeederTerminated();
                             }
                         }
-                    }.start();
+                    });
                 }
             }
         }
@@ -1958,6 +2205,7 @@ public final class SearchEvent implements ScoreMapUpdatesListener {
         this.resultList.put(new ReverseElement<URIMetadataNode>(resultEntry, ranking)); // remove smallest in case of overflow
         if (pollImmediately) this.resultList.poll(); // prevent re-ranking in case there is only a single index source which has already ranked entries.
         this.addTopics(resultEntry);
+        for (final ResultListener listener: this.resultListeners) listener.resultAdded(resultEntry);
     }
 
     private long postRanking(final URIMetadataNode rentry, final ScoreMap<String> topwords) {
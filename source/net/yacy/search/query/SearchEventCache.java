@@ -26,11 +26,20 @@
 
 package net.yacy.search.query;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+import net.yacy.cora.document.analysis.Classification.ContentDomain;
+import net.yacy.cora.storage.FrequencySketch;
 import net.yacy.cora.util.ConcurrentLog;
 import net.yacy.data.WorkTables;
 import net.yacy.kelondro.util.MemoryControl;
@@ -39,96 +48,247 @@ import net.yacy.repository.LoaderDispatcher;
 import net.yacy.search.Switchboard;
 import net.yacy.search.SwitchboardConstants;
 
+/**
+ * A cache of search events so that the result pages of a search can be computed from the same event.
+ * The cache is a concurrent map which is read and written without locks. The events are weighted with the
+ * estimated memory they hold (result queues, navigators and snippets); when the sum of the weights exceeds
+ * the limit, events are evicted. New events enter an admission window; when the window is too large, its oldest
+ * event stays only if it was requested more often than the oldest event of the main region (TinyLFU), according
+ * to a frequency sketch of all requested event IDs. Events which were requested during the last seconds
+ * are never evicted because their result pages are still being delivered.
+ * The maintenance of the cache is done by one thread at a time, and the clean-up of evicted events
+ * runs in a background thread so the search threads are not delayed.
+ * The results of events which leave the cache are kept in the {@link QueryResultCache}, so that a later
+ * search with the same query can replay them as long as the index has not changed.
+ */
 public class SearchEventCache {
 
-    private volatile static LinkedHashMap<String, SearchEvent> lastEvents = new LinkedHashMap<String, SearchEvent>(); // a cache for objects from this class: re-use old search requests
-    private static final long eventLifetimeBigMem = 600000; // the time an event will stay in the cache when available memory is high, 10 Minutes
-    private static final long eventLifetimeMediumMem = 60000; // the time an event will stay in the cache when available memory is medium, 1 Minute
-    private static final long eventLifetimeShortMem = 10000; // the time an event will stay in the cache when memory is low, 10 seconds
-    private static final long memlimitHigh = 600 * 1024 * 1024; // 400 MB
-    private static final long memlimitMedium = 200 * 1024 * 1024; // 100 MB
+    private static final ConcurrentHashMap<String, CachedEvent> lastEvents = new ConcurrentHashMap<String, CachedEvent>(); // a cache for objects from this class: re-use old search requests
+    private static final FrequencySketch frequency = new FrequencySketch(1024);
+    private static final long eventLifetimeMax = 600000; // the time an unused event may stay in the cache, 10 minutes
+    private static final long eventProtectionTime = 10000; // the time an event is not evicted after it was used, 10 seconds
+    private static final int windowPercent = 20; // share of the admission window on the maximum weight
+    private static volatile long maxWeight = 0; // maximum weight of all events in bytes; 0 = a quarter of the available memory
+    private static volatile long totalWeight = 0; // weight of all events at the latest maintenance
+    private static final AtomicBoolean maintenanceRunning = new AtomicBoolean(false);
+    private static final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+    private static final ExecutorService cleaner = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+        final Thread t = new Thread(r, "SearchEventCache.cleanup");
+        t.setDaemon(true);
+        return t;
+    });
     public volatile static String lastEventID = "";
-    public static long cacheInsert = 0, cacheHit = 0, cacheMiss = 0, cacheDelete = 0;
+    public static final LongAdder cacheInsert = new LongAdder(), cacheHit = new LongAdder(), cacheMiss = new LongAdder(), cacheDelete = new LongAdder();
+    public static final LongAdder cacheEvict = new LongAdder(), cacheReject = new LongAdder(), cacheExpire = new LongAdder();
+
+    private static final class CachedEvent {
+        private final String id;
+        private final SearchEvent event;
+        private volatile long lastAccess;
+        private volatile boolean window; // true as long as the event is in the admission window
+        private long weight; // written and read by the maintenance only
+        private CachedEvent(final String id, final SearchEvent event) {
+            this.id = id;
+            this.event = event;
+            this.lastAccess = System.currentTimeMillis();
+            this.window = true;
+        }
+    }
+
+    private static final Comparator<CachedEvent> lruOrder = (a, b) -> Long.compare(a.lastAccess, b.lastAccess);
+
+    /**
+     * set the maximum memory which may be held by the cached events
+     * @param bytes the maximum sum of the estimated event sizes, 0 to use a quarter of the available memory
+     */
+    public static void setMaxWeight(final long bytes) {
+        maxWeight = Math.max(0, bytes);
+    }
+
+    /**
+     * @return the maximum sum of the estimated event sizes in bytes
+     */
+    public static long maxWeight() {
+        return maxWeight > 0 ? maxWeight : MemoryControl.available() / 4;
+    }
+
+    /**
+     * @return the sum of the estimated event sizes in bytes at the latest maintenance
+     */
+    public static long weight() {
+        return totalWeight;
+    }
 
     public static int size() {
         return lastEvents.size();
     }
 
     protected static void put(final String eventID, final SearchEvent event) {
-        if (MemoryControl.shortStatus()) cleanupEvents(false);
         lastEventID = eventID;
-        synchronized (lastEvents) {
-            final SearchEvent oldEvent = lastEvents.put(eventID, event);
-            if (oldEvent == null) cacheInsert++;
-        }
+        frequency.increment(eventID);
+        final CachedEvent oldEvent = lastEvents.put(eventID, new CachedEvent(eventID, event));
+        if (oldEvent == null) cacheInsert.increment();
+        if (MemoryControl.shortStatus()) cleanupEvents(false); else scheduleMaintenance();
     }
 
     public static boolean delete(final String urlhash) {
-        synchronized (lastEvents) {
-            for (final SearchEvent event: lastEvents.values()) {
-                if (event.delete(urlhash)) return true;
-            }
+        for (final CachedEvent cached: lastEvents.values()) {
+            if (cached.event.delete(urlhash)) return true;
         }
         return false;
     }
 
+    /**
+     * evict events until the weight limit is kept
+     * @param all if true, all events and all cached results are removed
+     */
     public static void cleanupEvents(boolean all) {
-        // remove old events in the event cache
-        if (MemoryControl.shortStatus()) all = true;
-        // the less memory is there, the less time is acceptable for elements in the cache
-        final long memx = MemoryControl.available();
-        final long acceptTime = memx > memlimitHigh ? eventLifetimeBigMem : memx > memlimitMedium ? eventLifetimeMediumMem : eventLifetimeShortMem;
-        Map.Entry<String, SearchEvent> eventEntry;
-        synchronized (lastEvents) {
-            final Iterator<Map.Entry<String, SearchEvent>> i = lastEvents.entrySet().iterator();
-            SearchEvent event;
-            while (i.hasNext()) {
-                eventEntry = i.next();
-                event = eventEntry.getValue();
-                if (event == null) continue;
-                if (all || event.getEventTime() + acceptTime < System.currentTimeMillis()) {
-                    event.cleanup();
-                    i.remove();
-                    cacheDelete++;
-                }
+        if (all) {
+            for (final CachedEvent cached: lastEvents.values()) {
+                if (!lastEvents.remove(cached.id, cached)) continue;
+                cacheDelete.increment();
+                cleaner.execute(() -> cached.event.cleanup());
             }
+            QueryResultCache.clear();
+            return;
         }
+        maintain();
+    }
+
+    private static void scheduleMaintenance() {
+        if (!maintenanceScheduled.compareAndSet(false, true)) return;
+        cleaner.execute(() -> {
+            maintenanceScheduled.set(false);
+            maintain();
+        });
+    }
+
+    /**
+     * remove an event from the cache, keep its result and clean it up in the background
+     */
+    private static void remove(final CachedEvent cached, final LongAdder counter) {
+        if (!lastEvents.remove(cached.id, cached)) return;
+        counter.increment();
+        storeResult(cached.id, cached.event, true);
+    }
+
+    /**
+     * keep the result of an event which left the cache in the query result cache
+     * @param cleanup if true, the event is cleaned up afterwards
+     */
+    private static void storeResult(final String id, final SearchEvent event, final boolean cleanup) {
+        if (!cleanup && !QueryResultCache.enabled()) return;
+        cleaner.execute(() -> {
+            if (QueryResultCache.enabled()) try {
+                QueryResultCache.put(id, event.resultCacheEntry());
+            } catch (final Throwable e) {
+                ConcurrentLog.logException(e);
+            }
+            if (cleanup) event.cleanup();
+        });
+    }
+
+    /**
+     * remove an event from the cache when it shall not be re-used; it is not cleaned up because it may be still in use
+     */
+    private static void discard(final String eventID) {
+        final CachedEvent cached = lastEvents.remove(eventID);
+        if (cached == null) return;
+        cacheDelete.increment();
+        storeResult(eventID, cached.event, false);
     }
-    
-    public static void cleanupEvents(int maxsize) {
-        // remove old events in the event cache
-        if (MemoryControl.shortStatus()) {cleanupEvents(true); return;}
-        Map.Entry<String, SearchEvent> eventEntry;
-        synchronized (lastEvents) {
-            final Iterator<Map.Entry<String, SearchEvent>> i = lastEvents.entrySet().iterator(); // iterates in order of entry
-            int dc = lastEvents.size() - maxsize;
-            if (dc <= 0) return;
-            SearchEvent event;
-            while (i.hasNext()) {
-                eventEntry = i.next();
-                event = eventEntry.getValue();
-                if (event == null) continue;
-                event.cleanup();
-                i.remove();
-                cacheDelete++;
-                dc--;
-                if (dc <= 0) break;            
+
+    /**
+     * expire unused events, weigh all events and evict events until the weight limit is kept;
+     * if the maintenance is already running in another thread, nothing is done
+     */
+    private static void maintain() {
+        if (!maintenanceRunning.compareAndSet(false, true)) return;
+        try {
+            final long now = System.currentTimeMillis();
+            final boolean shortMemory = MemoryControl.shortStatus();
+            final long protection = shortMemory ? 0 : eventProtectionTime;
+            final List<CachedEvent> window = new ArrayList<CachedEvent>();
+            final List<CachedEvent> main = new ArrayList<CachedEvent>();
+            long total = 0, windowWeight = 0;
+            for (final CachedEvent cached: lastEvents.values()) {
+                if (now - cached.lastAccess > eventLifetimeMax) {
+                    remove(cached, cacheExpire);
+                    continue;
+                }
+                cached.weight = cached.event.retainedSize();
+                total += cached.weight;
+                if (cached.window) {
+                    window.add(cached);
+                    windowWeight += cached.weight;
+                } else {
+                    main.add(cached);
+                }
+            }
+            window.sort(lruOrder);
+            main.sort(lruOrder);
+            final long max = maxWeight();
+            final long windowMax = max * windowPercent / 100;
+
+            // the oldest events of an oversized admission window move to the main region if there is space,
+            // otherwise they compete with the oldest event of the main region by their access frequency
+            int w = 0, m = 0;
+            final List<CachedEvent> admitted = new ArrayList<CachedEvent>();
+            while (windowWeight > windowMax && w < window.size()) {
+                final CachedEvent candidate = window.get(w++);
+                windowWeight -= candidate.weight;
+                if (total <= max) {
+                    candidate.window = false;
+                    admitted.add(candidate);
+                    continue;
+                }
+                while (m < main.size() && now - main.get(m).lastAccess <= protection) m++;
+                final CachedEvent victim = m < main.size() ? main.get(m) : null;
+                if (victim != null && frequency.frequency(candidate.id) > frequency.frequency(victim.id)) {
+                    m++;
+                    remove(victim, cacheEvict);
+                    total -= victim.weight;
+                    candidate.window = false;
+                    admitted.add(candidate);
+                } else if (now - candidate.lastAccess > protection) {
+                    remove(candidate, cacheReject);
+                    total -= candidate.weight;
+                } else {
+                    candidate.window = false;
+                    admitted.add(candidate);
+                }
             }
+
+            // if the limit is still exceeded, evict the least recently used events which are not in use
+            if (total > max) {
+                final List<CachedEvent> order = new ArrayList<CachedEvent>(main.subList(m, main.size()));
+                order.addAll(admitted);
+                order.addAll(window.subList(w, window.size()));
+                for (final CachedEvent cached: order) {
+                    if (total <= max) break;
+                    if (now - cached.lastAccess <= protection) continue;
+                    remove(cached, cacheEvict);
+                    total -= cached.weight;
+                }
+            }
+            totalWeight = total;
+        } catch (final Throwable e) {
+            ConcurrentLog.logException(e);
+        } finally {
+            maintenanceRunning.set(false);
         }
     }
 
     public static SearchEvent getEvent(final String eventID) {
-        SearchEvent event = lastEvents.get(eventID);
-        if (event == null) {
-            synchronized (lastEvents) {
-                event = lastEvents.get(eventID);
-                if (event == null) cacheMiss++; else cacheHit++;
-            }
-            cacheMiss++;
-        } else {
-            cacheHit++;
+        frequency.increment(eventID);
+        final CachedEvent cached = lastEvents.get(eventID);
+        if (cached == null) {
+            cacheMiss.increment();
+            return null;
         }
-        return event;
+        cached.lastAccess = System.currentTimeMillis();
+        cacheHit.increment();
+        return cached.event;
     }
 
     public static SearchEvent getEvent(
@@ -148,22 +308,16 @@ public class SearchEventCache {
             // if a local crawl is ongoing, don't use the result from the cache to use possibly more results that come from the current crawl
             // to prevent that this happens during a person switches between the different result pages, a re-search happens no more than
             // once a minute
-            synchronized (lastEvents) {
-                lastEvents.remove(id);
-            }
-            cacheDelete++;
+            discard(id);
             event = null;
         } else {
             if (event != null) {
-            	if(query.isLocal()) {
+            	if(query.isLocal() || event.isCachedResult()) {
             		/* Searching the local index only : we do not reuse the cached event each time the page size or offset changes.
             		 * This allow to request last result pages of large result sets (larger than SearchEvent.max_results_node) 
             		 * without the need to retrieve all the beginning pages */
             		if(event.query.offset != query.offset || event.query.itemsPerPage != query.itemsPerPage) {
-                        synchronized (lastEvents) {
-                            lastEvents.remove(id);
-                        }
-                        cacheDelete++;
+                        discard(id);
                         event = null;
             		}
             	} else {
@@ -177,16 +331,17 @@ public class SearchEventCache {
         }
         if (event == null) {
             // check if there are too many other searches alive now
-            synchronized (lastEvents) {
-                ConcurrentLog.info("SearchEventCache", "getEvent: " + lastEvents.size() + " in cache");
-            }
+            ConcurrentLog.info("SearchEventCache", "getEvent: " + lastEvents.size() + " in cache");
             
             // start a new event
             Switchboard sb = Switchboard.getSwitchboard();
             final boolean delete = sb == null || Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.SEARCH_VERIFY_DELETE, true)
                     || (sb.getConfigBool(SwitchboardConstants.NETWORK_SEARCHVERIFY, false) && sb.peers.mySeed().getFlagAcceptRemoteIndex());
             final boolean addToLocalIdx = sb == null || Switchboard.getSwitchboard().getConfigBool(SwitchboardConstants.REMOTESEARCH_RESULT_STORE, true);
-            event = new SearchEvent(query, peers, workTables, preselectedPeerHashes, generateAbstracts, loader, remote_maxcount, remote_maxtime, delete, addToLocalIdx);
+            // a result which had been computed before for the same query and index generation is replayed
+            final QueryResultCache.Entry cachedResult = generateAbstracts || !QueryResultCache.enabled() || query.contentdom == ContentDomain.IMAGE || SearchEvent.isRemoteSearch(query, peers) ? null :
+                QueryResultCache.get(id, query.getSegment().generation(), query.offset, query.itemsPerPage);
+            event = new SearchEvent(query, peers, workTables, preselectedPeerHashes, generateAbstracts, loader, remote_maxcount, remote_maxtime, delete, addToLocalIdx, cachedResult);
             /* Optional config option may be valued to limit size of remote documents added to local index */
             if(sb != null) {
             	event.setRemoteDocStoredMaxSize(sb.getConfigLong(SwitchboardConstants.REMOTESEARCH_RESULT_STORE_MAXSIZE, -1));
@@ -0,0 +1,212 @@
+/**
+ *  SearchTaskGroup
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.search.query;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.yacy.kelondro.util.NamePrefixThreadFactory;
+
+/**
+ * The concurrent tasks of one search event, i.e. the snippet fetches and the start of the remote searches.
+ * In the default mode each task runs in its own new thread as before. In the pooled mode all tasks of all
+ * search events share one bounded thread pool, so the number of threads does not grow with the load.
+ * In both modes the tasks of an event are cancelled as a group when the event is cleaned up, and a pooled
+ * task which was queued until the deadline of its event is dropped without being started.
+ */
+public class SearchTaskGroup {
+
+    private static volatile ThreadPoolExecutor pool = null; // null = a new thread for each task
+    private static final AtomicInteger running = new AtomicInteger(0);
+    private static final AtomicLong maxRunning = new AtomicLong(0);
+    public static final LongAdder tasksStarted = new LongAdder(), tasksCancelled = new LongAdder(), tasksExpired = new LongAdder();
+
+    // a ring of the latest search latencies for the percentile report
+    private static final long[] latencies = new long[1024];
+    private static int latencyCount = 0;
+
+    private final Set<Future<?>> tasks = ConcurrentHashMap.newKeySet();
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param deadline the time after which tasks are not started any more
+     */
+    public SearchTaskGroup(final long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * switch the execution mode for all search events
+     * @param pooled true to run the tasks in a shared pool, false to start a thread for each task
+     * @param maxThreads the size of the pool
+     */
+    public static synchronized void setMode(final boolean pooled, final int maxThreads) {
+        final ThreadPoolExecutor old = pool;
+        if (pooled) {
+            final int size = Math.max(1, maxThreads);
+            if (old != null && old.getMaximumPoolSize() == size) return;
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamePrefixThreadFactory("SearchTaskGroup"));
+            executor.allowCoreThreadTimeOut(true);
+            pool = executor;
+        } else {
+            pool = null;
+        }
+        if (old != null) old.shutdown(); // running tasks are finished
+    }
+
+    public static boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * run a task of the event concurrently
+     * @param name the name of the thread in the default mode
+     * @param task the task
+     * @return the future of the task; it is already cancelled if the group was cancelled
+     */
+    public Future<?> execute(final String name, final Runnable task) {
+        final FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+            @Override
+            public void run() {
+                if (SearchTaskGroup.this.cancelled) return;
+                if (pool != null && System.currentTimeMillis() > SearchTaskGroup.this.deadline) {
+                    tasksExpired.increment();
+                    return;
+                }
+                tasksStarted.increment();
+                final long now = running.incrementAndGet();
+                long max = maxRunning.get();
+                while (now > max && !maxRunning.compareAndSet(max, now)) max = maxRunning.get();
+                try {
+                    task.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                SearchTaskGroup.this.tasks.remove(this);
+            }
+        };
+        this.tasks.add(future);
+        if (this.cancelled) {
+            future.cancel(false);
+            return future;
+        }
+        final ThreadPoolExecutor executor = pool;
+        if (executor == null) {
+            new Thread(future, name).start();
+        } else {
+            try {
+                executor.execute(future);
+            } catch (final RejectedExecutionException e) {
+                // the pool was replaced by a mode switch
+                new Thread(future, name).start();
+            }
+        }
+        return future;
+    }
+
+    /**
+     * cancel all tasks of the event: queued tasks are not started, running tasks are interrupted
+     */
+    public void cancel() {
+        this.cancelled = true;
+        for (final Future<?> future: this.tasks) {
+            if (future.cancel(true)) tasksCancelled.increment();
+        }
+        this.tasks.clear();
+        final ThreadPoolExecutor executor = pool;
+        if (executor != null) executor.purge();
+    }
+
+    /**
+     * @return the number of tasks of this group which are queued or running
+     */
+    public int size() {
+        return this.tasks.size();
+    }
+
+    /**
+     * record the time a search took until its result was delivered
+     */
+    public static void addLatency(final long time) {
+        synchronized (latencies) {
+            latencies[latencyCount % latencies.length] = time;
+            latencyCount++;
+        }
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the latency in milliseconds at the given percentile of the latest searches, -1 if none was recorded
+     */
+    public static long latencyPercentile(final int percentile) {
+        final long[] sorted;
+        synchronized (latencies) {
+            if (latencyCount == 0) return -1;
+            sorted = Arrays.copyOf(latencies, Math.min(latencyCount, latencies.length));
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(sorted.length * Math.max(0, Math.min(100, percentile)) / 100.0d) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /**
+     * @return the number of threads which currently run search tasks
+     */
+    public static int activeThreads() {
+        return running.get();
+    }
+
+    /**
+     * @return the largest number of threads which ran search tasks at the same time
+     */
+    public static long maxActiveThreads() {
+        return maxRunning.get();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread of the pool
+     */
+    public static int queuedTasks() {
+        final ThreadPoolExecutor executor = pool;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+}
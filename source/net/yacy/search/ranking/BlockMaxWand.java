@@ -0,0 +1,631 @@
+/**
+ *  BlockMaxWand
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.search.ranking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.yacy.cora.date.MicroDate;
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.rwi.ReferenceContainerCodec;
+import net.yacy.kelondro.rwi.ReferenceFactory;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Top-k evaluation of a conjunctive RWI query with block-max bounds.
+ * Every reference container of the query is divided into the blocks of BLOCK_SIZE references of the
+ * packed container format, and the bounds of the columns of every block are read from the block
+ * directory that was written together with the container (ReferenceContainerCodec.Bounds); only
+ * containers which were merged from several pieces at query time get their bounds computed from the rows.
+ * The url hashes of the containers are intersected first; the last key of every block allows to jump over
+ * blocks that cannot contain the next url hash. The matches are grouped by their blocks, and the
+ * bounds of every joined ranking feature of a group are derived from the bounds of its blocks.
+ *
+ * The ranking is normalized with the bounds of the joined references like in a complete join and
+ * ReferenceOrder.normalizeWith(cursor): only groups which may extend the bounds that are known so far,
+ * or which may contain references beyond the maximum word distance, are scanned to compute them exactly.
+ * A scan reads the feature columns of the rows and combines them like a join, without creating references.
+ * Then the groups are evaluated in the order of the upper bound of their ranking, which is computed with
+ * ReferenceOrder.maxCardinal() from the group bounds clamped to the normalization. The evaluation stops
+ * when the bound of the next group is not better than the k-th best ranking found so far, so the top-k
+ * references have the same ranking as in a complete join.
+ */
+public class BlockMaxWand {
+
+    public static final int BLOCK_SIZE = ReferenceContainerCodec.BLOCK_SIZE;
+
+    private static final ReferenceFactory<WordReference> factory = new WordReferenceFactory();
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * switch the top-k evaluation on or off; if off, all queries are evaluated with a complete join
+     * @param on
+     */
+    public static void setEnabled(final boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * a test that is applied to the joined references before they are ranked;
+     * references that are not accepted do not take a place in the top-k
+     */
+    public interface Filter {
+        public boolean accept(WordReferenceVars reference);
+    }
+
+    /**
+     * check if a top-k evaluation can save work compared to a complete join
+     * @param include the containers of the query terms
+     * @param k the number of requested references
+     * @return true if every container of the conjunction holds more than k references
+     */
+    public static boolean applicable(final Collection<ReferenceContainer<WordReference>> include, final int k) {
+        if (!enabled || include == null || include.isEmpty()) return false;
+        for (final ReferenceContainer<WordReference> container: include) {
+            if (container == null || container.size() <= k) return false;
+        }
+        return true;
+    }
+
+    // ranking features which are combined by their bounds
+    private static final int URLCOMPS = 0, URLLENGTH = 1, POSINTEXT = 2, POSOFPHRASE = 3, POSINPHRASE = 4, DISTANCE = 5,
+            VIRTUALAGE = 6, WORDSINTITLE = 7, WORDSINTEXT = 8, PHRASESINTEXT = 9, LLOCAL = 10, LOTHER = 11, HITCOUNT = 12, FEATURES = 13;
+
+    // the features which are the maximum of all joined references
+    private static final int[] MAXIMUM = new int[] {HITCOUNT, WORDSINTEXT, WORDSINTITLE, PHRASESINTEXT};
+
+    // the columns of the features in the rows of a container
+    private static final int[] COLUMNS = new int[] {
+            WordReferenceRow.col_urlComps, WordReferenceRow.col_urlLength, WordReferenceRow.col_posintext, WordReferenceRow.col_posofphrase,
+            WordReferenceRow.col_posinphrase, WordReferenceRow.col_worddistance, WordReferenceRow.col_lastModified, WordReferenceRow.col_wordsInTitle,
+            WordReferenceRow.col_wordsInText, WordReferenceRow.col_phrasesInText, WordReferenceRow.col_llocal, WordReferenceRow.col_lother,
+            WordReferenceRow.col_hitcount};
+
+    /**
+     * a reference with the given features, constructed like the bounds in ReferenceOrder.normalizeWith(cursor)
+     */
+    private static WordReferenceVars reference(final byte[] urlhash, final int[] f, final double tf, final byte[] flags, final String language) {
+        WordReferenceVars r = new WordReferenceVars(
+                urlhash, f[URLLENGTH], f[URLCOMPS], f[WORDSINTITLE], f[HITCOUNT], f[WORDSINTEXT], f[PHRASESINTEXT],
+                f[POSINTEXT], null, f[POSINPHRASE], f[POSOFPHRASE],
+                f[VIRTUALAGE] * 86400000L, // the virtual age is computed back from this date
+                language, ' ', f[LLOCAL], f[LOTHER], new Bitfield(flags), tf);
+        if (f[DISTANCE] > 0 && f[POSINTEXT] > 0) {
+            // the distance of a reference is computed from the positions of joined references
+            r.addPosition(f[POSINTEXT] + f[DISTANCE]);
+        }
+        return r;
+    }
+
+    /**
+     * the skip blocks of a reference container
+     */
+    public static final class Blocks {
+
+        private final ReferenceContainer<WordReference> container;
+        private final ReferenceContainerCodec.Bounds bounds;
+        private final int size, blocks, flagwidth;
+
+        public Blocks(final ReferenceContainer<WordReference> container) {
+            container.sort();
+            this.container = container;
+            final ReferenceContainerCodec.Bounds stored = container.bounds();
+            this.bounds = stored == null ? ReferenceContainerCodec.Bounds.of(container) : stored;
+            this.size = container.size();
+            this.blocks = this.bounds.blocks();
+            this.flagwidth = container.row().width(WordReferenceRow.col_flags);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int blocks() {
+            return this.blocks;
+        }
+
+        private int lo(final int block, final int feature) {
+            return (int) this.bounds.lo(block, COLUMNS[feature]);
+        }
+
+        private int hi(final int block, final int feature) {
+            return (int) this.bounds.hi(block, COLUMNS[feature]);
+        }
+
+        private int feature(final int row, final int feature) {
+            return (int) this.container.get(row, false).getColLong(COLUMNS[feature]);
+        }
+
+        /**
+         * @return the union of the flags of all references in a block
+         */
+        private byte[] flags(final int block) {
+            long or = this.bounds.or(block, WordReferenceRow.col_flags);
+            final byte[] b = new byte[this.flagwidth];
+            for (int i = b.length - 1; i >= 0; i--) {
+                b[i] = (byte) or;
+                or >>>= 8;
+            }
+            return b;
+        }
+
+        /**
+         * @return the language of all references in a block, or null if they are different
+         */
+        private String language(final int block) {
+            final long lo = this.bounds.lo(block, WordReferenceRow.col_language);
+            if (lo != this.bounds.hi(block, WordReferenceRow.col_language)) return null;
+            return ASCII.String(new byte[]{(byte) (lo >>> 8), (byte) lo});
+        }
+
+        /**
+         * find the first reference with an url hash that is not lower than the given key
+         * @param key the url hash
+         * @param from the first row that is considered
+         * @return the row of the reference or size() if all url hashes are lower
+         */
+        public int seek(final byte[] key, final int from) {
+            if (from >= this.size) return this.size;
+            // skip all blocks which end with a lower key
+            int b = from / BLOCK_SIZE;
+            while (b < this.blocks && this.container.compareKey(Math.min(this.size, (b + 1) * BLOCK_SIZE) - 1, key) < 0) b++;
+            if (b == this.blocks) return this.size;
+            // binary search inside the block
+            int l = Math.max(from, b * BLOCK_SIZE), r = Math.min(this.size, (b + 1) * BLOCK_SIZE) - 1;
+            while (l < r) {
+                final int m = (l + r) >>> 1;
+                if (this.container.compareKey(m, key) < 0) l = m + 1; else r = m;
+            }
+            return l;
+        }
+
+        public boolean matches(final int row, final byte[] key) {
+            return row < this.size && this.container.compareKey(row, key) == 0;
+        }
+
+        public byte[] urlhash(final int row) {
+            return this.container.get(row, false).getPrimaryKeyBytes();
+        }
+
+        public WordReference reference(final int row) {
+            return factory.produceSlow(this.container.get(row, false));
+        }
+    }
+
+    /**
+     * a group of matches which are located in the same blocks of all containers
+     */
+    private static final class Group {
+        private final int[] blocks;
+        private final int first;
+        private int last;
+        private byte[] shortestDomain; // the url hash of a match with the shortest domain
+        private int domlength;
+        private final int[] lo, hi; // the bounds of the features of the joined references
+        private double tflo, tfhi;
+        private boolean scanned;
+        private long bound;
+        private Group(final int[] blocks, final int first) {
+            this.blocks = blocks;
+            this.first = first;
+            this.last = first;
+            this.domlength = Integer.MAX_VALUE;
+            this.lo = new int[FEATURES];
+            this.hi = new int[FEATURES];
+            this.scanned = false;
+        }
+    }
+
+    private static final class Ranked {
+        private final WordReference reference;
+        private final long ranking;
+        private Ranked(final WordReference reference, final long ranking) {
+            this.reference = reference;
+            this.ranking = ranking;
+        }
+    }
+
+    private final ReferenceOrder order;
+    private int matches, evaluated;
+
+    public BlockMaxWand(final ReferenceOrder order) {
+        this.order = order;
+        this.matches = 0;
+        this.evaluated = 0;
+    }
+
+    /**
+     * @return the number of references which matched the conjunction in the last evaluation
+     */
+    public int matches() {
+        return this.matches;
+    }
+
+    /**
+     * @return the number of matches that have been joined and ranked in the last evaluation
+     */
+    public int evaluated() {
+        return this.evaluated;
+    }
+
+    /**
+     * compute the top-k references of a conjunction of terms. The normalization of the ranking order
+     * is set to the bounds of the joined references, so following calls to the order rank consistently.
+     * @param include the containers of the terms that must be contained
+     * @param exclude the containers of the terms that must not be contained
+     * @param maxDistance the maximum word distance of joined references
+     * @param k the number of requested references
+     * @param filter a test for the joined references, may be null
+     * @return a container with at most k joined references
+     * @throws SpaceExceededException
+     */
+    public ReferenceContainer<WordReference> topK(
+            final Collection<ReferenceContainer<WordReference>> include,
+            final Collection<ReferenceContainer<WordReference>> exclude,
+            final int maxDistance,
+            final int k,
+            final Filter filter) throws SpaceExceededException {
+        this.matches = 0;
+        this.evaluated = 0;
+        final ReferenceContainer<WordReference> result = new ReferenceContainer<WordReference>(factory, null, 0);
+        if (include == null || include.isEmpty() || k <= 0) return result;
+
+        // order the containers by their size like the join does
+        final List<ReferenceContainer<WordReference>> containers = new ArrayList<ReferenceContainer<WordReference>>(include);
+        for (final ReferenceContainer<WordReference> container: containers) if (container == null || container.isEmpty()) return result;
+        Collections.sort(containers, new Comparator<ReferenceContainer<WordReference>>() {
+            @Override
+            public int compare(final ReferenceContainer<WordReference> a, final ReferenceContainer<WordReference> b) {
+                return a.size() < b.size() ? -1 : a.size() == b.size() ? 0 : 1;
+            }
+        });
+        final int terms = containers.size();
+        final Blocks[] blocks = new Blocks[terms];
+        for (int t = 0; t < terms; t++) blocks[t] = new Blocks(containers.get(t));
+
+        // intersect the url hashes and group the matches by their blocks
+        final int[][] rows = new int[terms][blocks[0].size()];
+        final List<Group> groups = new ArrayList<Group>();
+        final int[] pos = new int[terms];
+        int count = 0;
+        Group group = null;
+        pivot: for (int row = 0; row < blocks[0].size(); row++) {
+            final byte[] key = blocks[0].urlhash(row);
+            pos[0] = row;
+            for (int t = 1; t < terms; t++) {
+                pos[t] = blocks[t].seek(key, pos[t]);
+                if (pos[t] >= blocks[t].size()) break pivot;
+                if (!blocks[t].matches(pos[t], key)) continue pivot;
+            }
+            if (exclude != null) for (final ReferenceContainer<WordReference> container: exclude) {
+                if (container != null && container.has(key)) continue pivot;
+            }
+            final int m = count++;
+            boolean sameBlocks = group != null;
+            for (int t = 0; t < terms; t++) {
+                rows[t][m] = pos[t];
+                if (sameBlocks && group.blocks[t] != pos[t] / BLOCK_SIZE) sameBlocks = false;
+            }
+            if (sameBlocks) {
+                group.last = m;
+            } else {
+                final int[] b = new int[terms];
+                for (int t = 0; t < terms; t++) b[t] = pos[t] / BLOCK_SIZE;
+                group = new Group(b, m);
+                groups.add(group);
+            }
+            final int dl = DigestURL.domLengthNormalized(key);
+            if (dl < group.domlength) {
+                group.shortestDomain = key;
+                group.domlength = dl;
+            }
+        }
+        if (count == 0) return result;
+        for (final Group g: groups) bounds(g, blocks);
+
+        // compute the normalization of the joined references: a group is scanned if it may contain references
+        // which extend the bounds of the references that are scanned so far, or which exceed the maximum distance
+        final boolean[] dropped = new boolean[count]; // the matches of scanned groups which are beyond the maximum distance
+        final int[] min = new int[FEATURES], max = new int[FEATURES];
+        final double[] tf = new double[]{Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int j = 0; j < FEATURES; j++) {
+            min[j] = Integer.MAX_VALUE;
+            max[j] = Integer.MIN_VALUE;
+        }
+        final Scan scan = new Scan(blocks, rows, maxDistance);
+        // first the groups with the lowest and the highest bound of every feature, which probably hold the extremes
+        for (int j = 0; j < FEATURES; j++) {
+            Group lowest = groups.get(0), highest = groups.get(0);
+            for (final Group g: groups) {
+                if (g.lo[j] < lowest.lo[j]) lowest = g;
+                if (g.hi[j] > highest.hi[j]) highest = g;
+            }
+            scan.group(lowest, dropped, min, max, tf);
+            scan.group(highest, dropped, min, max, tf);
+        }
+        for (final Group g: groups) {
+            if (g.scanned) continue;
+            boolean extend = (terms > 1 && g.hi[DISTANCE] > maxDistance) || g.tflo < tf[0] || g.tfhi > tf[1];
+            for (int j = 0; j < FEATURES && !extend; j++) extend = g.lo[j] < min[j] || g.hi[j] > max[j];
+            if (extend) scan.group(g, dropped, min, max, tf);
+        }
+
+        // count the references and their hosts like the normalization of a complete join
+        final Map<String, Integer> hostcount = this.order.authorityRanking() ? new HashMap<String, Integer>() : null;
+        for (final Group g: groups) {
+            for (int m = g.first; m <= g.last; m++) {
+                if (dropped[m]) continue; // beyond the maximum distance
+                this.matches++;
+                if (hostcount != null) {
+                    final String host = ASCII.String(blocks[0].urlhash(rows[0][m]), 6, 6);
+                    final Integer c = hostcount.get(host);
+                    hostcount.put(host, c == null ? 1 : c.intValue() + 1);
+                }
+            }
+        }
+        if (this.matches == 0) return result;
+        this.order.normalizeWith(reference(null, min, tf[0], null, null), reference(null, max, tf[1], null, null), hostcount);
+
+        // compute the bound of every group from its bounds within the normalization
+        final String language = this.order.language() == null ? "" : this.order.language();
+        for (final Group g: groups) {
+            if (g.lo[0] > g.hi[0]) { // all matches of the group are beyond the maximum distance
+                g.bound = Long.MIN_VALUE;
+                continue;
+            }
+            final int[] best = new int[FEATURES];
+            for (int j = 0; j < FEATURES; j++) {
+                best[j] = Math.max(min[j], Math.min(max[j], lowerIsBetter(j) ? g.lo[j] : g.hi[j]));
+            }
+            final String blockLanguage = blocks[0].language(g.blocks[0]); // the flags and the language are taken from the first reference of a join
+            g.bound = this.order.maxCardinal(reference(g.shortestDomain, best, Math.max(tf[0], Math.min(tf[1], g.tfhi)), blocks[0].flags(g.blocks[0]),
+                    blockLanguage == null ? language : blockLanguage));
+        }
+        Collections.sort(groups, new Comparator<Group>() {
+            @Override
+            public int compare(final Group a, final Group b) {
+                return a.bound > b.bound ? -1 : a.bound == b.bound ? 0 : 1;
+            }
+        });
+
+        // evaluate the groups with the best bounds until no group can improve the top-k
+        final PriorityQueue<Ranked> topk = new PriorityQueue<Ranked>(k, new Comparator<Ranked>() {
+            @Override
+            public int compare(final Ranked a, final Ranked b) {
+                return a.ranking < b.ranking ? -1 : a.ranking == b.ranking ? 0 : 1;
+            }
+        });
+        for (final Group g: groups) {
+            if (topk.size() >= k && g.bound <= topk.peek().ranking) break; // all following groups have a lower bound
+            for (int m = g.first; m <= g.last; m++) {
+                if (dropped[m]) continue;
+                final WordReference reference = join(blocks, rows, m, maxDistance);
+                this.evaluated++;
+                if (reference == null) continue;
+                if (filter != null && !filter.accept(new WordReferenceVars(reference, true))) continue;
+                final long ranking = this.order.cardinal(reference);
+                if (topk.size() < k) {
+                    topk.add(new Ranked(reference, ranking));
+                } else if (ranking > topk.peek().ranking) {
+                    topk.poll();
+                    topk.add(new Ranked(reference, ranking));
+                }
+            }
+        }
+
+        // the references in the result are counted again when they are normalized
+        for (final Ranked r: topk) {
+            result.addUnique(r.reference.toKelondroEntry());
+            if (hostcount != null) this.order.uncount(r.reference.hosthash());
+        }
+        result.sort();
+        return result;
+    }
+
+    /**
+     * join the references of a match like the join of the containers does
+     * @return the joined reference in the row form that a joined container holds, or null if the words are too far apart
+     */
+    private static WordReference join(final Blocks[] blocks, final int[][] rows, final int m, final int maxDistance) {
+        if (blocks.length == 1) return blocks[0].reference(rows[0][m]);
+        final WordReference ie = factory.produceFast(blocks[0].reference(rows[0][m]), true);
+        for (int t = 1; t < blocks.length; t++) ie.join(blocks[t].reference(rows[t][m]));
+        if (ie.distance() > maxDistance) return null;
+        return factory.produceSlow(ie.toKelondroEntry());
+    }
+
+    /**
+     * the scan of the joined features of matches, computed from the columns of their rows
+     */
+    private static final class Scan {
+
+        private final Blocks[] blocks;
+        private final int[][] rows;
+        private final int maxDistance;
+        private final int[] f, positions;
+        private final Row.Entry distance; // a row which stores the distance like a joined row
+
+        private Scan(final Blocks[] blocks, final int[][] rows, final int maxDistance) {
+            this.blocks = blocks;
+            this.rows = rows;
+            this.maxDistance = maxDistance;
+            this.f = new int[FEATURES];
+            this.positions = new int[blocks.length];
+            this.distance = WordReferenceRow.urlEntryRow.newEntry();
+        }
+
+        /**
+         * scan all matches of a group, set the bounds of the group to the bounds of its joined references
+         * and extend the bounds of all references that are scanned so far
+         */
+        private void group(final Group g, final boolean[] dropped, final int[] min, final int[] max, final double[] tf) {
+            if (g.scanned) return;
+            g.scanned = true;
+            for (int j = 0; j < FEATURES; j++) {
+                g.lo[j] = Integer.MAX_VALUE;
+                g.hi[j] = Integer.MIN_VALUE;
+            }
+            g.tflo = Double.MAX_VALUE;
+            g.tfhi = -Double.MAX_VALUE;
+            for (int m = g.first; m <= g.last; m++) {
+                final double d = match(m);
+                if (d < 0) {
+                    dropped[m] = true;
+                    continue;
+                }
+                for (int j = 0; j < FEATURES; j++) {
+                    if (this.f[j] < g.lo[j]) g.lo[j] = this.f[j];
+                    if (this.f[j] > g.hi[j]) g.hi[j] = this.f[j];
+                }
+                if (d < g.tflo) g.tflo = d;
+                if (d > g.tfhi) g.tfhi = d;
+            }
+            if (g.lo[0] > g.hi[0]) return; // nothing left to extend the bounds
+            for (int j = 0; j < FEATURES; j++) {
+                if (g.lo[j] < min[j]) min[j] = g.lo[j];
+                if (g.hi[j] > max[j]) max[j] = g.hi[j];
+            }
+            if (g.tflo < tf[0]) tf[0] = g.tflo;
+            if (g.tfhi > tf[1]) tf[1] = g.tfhi;
+        }
+
+        /**
+         * compute the features of the joined reference of a match like join(blocks, rows, m, maxDistance) does,
+         * following WordReferenceVars.join() and AbstractReference.distance()
+         * @return the term frequency of the joined reference or -1 if the words are too far apart
+         */
+        private double match(final int m) {
+            final int[] f = this.f;
+            final Blocks first = this.blocks[0];
+            for (int j = 0; j < FEATURES; j++) f[j] = first.feature(this.rows[0][m], j);
+            if (this.blocks.length > 1) {
+                int n = 0;
+                for (int t = 1; t < this.blocks.length; t++) {
+                    final Blocks c = this.blocks[t];
+                    final int row = this.rows[t][m];
+                    final int posintext = c.feature(row, POSINTEXT);
+                    if (f[POSINTEXT] > 0 && posintext > 0) {
+                        // the larger position is kept for the distance
+                        if (f[POSINTEXT] > posintext) {
+                            this.positions[n++] = f[POSINTEXT];
+                            f[POSINTEXT] = posintext;
+                        } else {
+                            this.positions[n++] = posintext;
+                        }
+                    } else if (f[POSINTEXT] == 0) {
+                        f[POSINTEXT] = posintext;
+                    }
+                    final int posofphrase = c.feature(row, POSOFPHRASE);
+                    if (f[POSOFPHRASE] == posofphrase) {
+                        f[POSINPHRASE] = Math.min(f[POSINPHRASE], c.feature(row, POSINPHRASE));
+                    } else if (f[POSOFPHRASE] > posofphrase) {
+                        f[POSOFPHRASE] = posofphrase;
+                        f[POSINPHRASE] = c.feature(row, POSINPHRASE);
+                    }
+                    for (final int j: MAXIMUM) f[j] = Math.max(f[j], c.feature(row, j));
+                }
+                int d = 0;
+                int s0 = f[POSINTEXT];
+                for (int i = 0; i < n; i++) {
+                    if (s0 > 0) d += Math.abs(s0 - this.positions[i]);
+                    s0 = this.positions[i];
+                }
+                if (d > 0) d = d / n;
+                if (d == 0) d = f[DISTANCE]; // without a distance of the positions the distance of the first reference is kept
+                if (d > this.maxDistance) return -1;
+                // the joined row stores the distance and the date in the width of its columns
+                this.distance.setCol(WordReferenceRow.col_worddistance, d);
+                f[DISTANCE] = (int) this.distance.getColLong(WordReferenceRow.col_worddistance);
+                f[VIRTUALAGE] = MicroDate.microDateDays(MicroDate.reverseMicroDateDays(f[VIRTUALAGE]));
+            }
+            return ((double) f[HITCOUNT]) / ((double) (f[WORDSINTEXT] + f[WORDSINTITLE] + 1));
+        }
+    }
+
+    /**
+     * compute the bounds of the features of the joined references of a group from the bounds of its blocks.
+     * The url, the date and the links are taken from the reference of the first container, the counts are the
+     * maximum and the positions the minimum of all joined references; the distance is computed from the positions.
+     */
+    private static void bounds(final Group g, final Blocks[] blocks) {
+        final Blocks first = blocks[0];
+        final int b0 = g.blocks[0];
+        for (int j = 0; j < FEATURES; j++) {
+            g.lo[j] = first.lo(b0, j);
+            g.hi[j] = first.hi(b0, j);
+        }
+        if (blocks.length > 1) {
+            int posintext = first.hi(b0, POSINTEXT);
+            for (int t = 1; t < blocks.length; t++) {
+                final Blocks c = blocks[t];
+                final int b = g.blocks[t];
+                for (final int j: MAXIMUM) {
+                    g.lo[j] = Math.max(g.lo[j], c.lo(b, j));
+                    g.hi[j] = Math.max(g.hi[j], c.hi(b, j));
+                }
+                g.lo[POSOFPHRASE] = Math.min(g.lo[POSOFPHRASE], c.lo(b, POSOFPHRASE));
+                g.hi[POSOFPHRASE] = Math.min(g.hi[POSOFPHRASE], c.hi(b, POSOFPHRASE));
+                for (final int j: new int[]{POSINTEXT, POSINPHRASE}) {
+                    g.lo[j] = Math.min(g.lo[j], c.lo(b, j));
+                    g.hi[j] = Math.max(g.hi[j], c.hi(b, j));
+                }
+                posintext = Math.max(posintext, c.hi(b, POSINTEXT));
+            }
+            // every step between two positions is not larger than the largest position; without positions the distance of the first reference is kept.
+            // A distance that does not fit into the column of the joined row is truncated.
+            final long column = (1L << (8 * first.container.row().width(WordReferenceRow.col_worddistance))) - 1;
+            g.lo[DISTANCE] = 0;
+            g.hi[DISTANCE] = posintext > column ? (int) column : Math.max(g.hi[DISTANCE], posintext);
+        }
+        // the term frequency of a row is computed from the counts
+        g.tflo = ((double) g.lo[HITCOUNT]) / ((double) (g.hi[WORDSINTEXT] + g.hi[WORDSINTITLE] + 1));
+        g.tfhi = ((double) g.hi[HITCOUNT]) / ((double) (g.lo[WORDSINTEXT] + g.lo[WORDSINTITLE] + 1));
+    }
+
+    private static boolean lowerIsBetter(final int feature) {
+        return feature <= DISTANCE;
+    }
+
+}
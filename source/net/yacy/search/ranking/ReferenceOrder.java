@@ -28,11 +28,7 @@ package net.yacy.search.ranking;
 
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 
 import net.yacy.cora.document.encoding.ASCII;
 import net.yacy.cora.document.id.DigestURL;
@@ -42,21 +38,20 @@ import net.yacy.document.LargeNumberCache;
 import net.yacy.document.Tokenizer;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
 import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceCursor;
 import net.yacy.kelondro.data.word.WordReferenceRow;
 import net.yacy.kelondro.data.word.WordReferenceVars;
-import net.yacy.kelondro.rwi.ReferenceContainer;
 import net.yacy.kelondro.util.Bitfield;
 
 
 public class ReferenceOrder {
 
-    private static int cores = Runtime.getRuntime().availableProcessors();
-
     private       int maxdomcount;
     private       WordReferenceVars min, max;
     private final ConcurrentScoreMap<String> doms; // collected for "authority" heuristic
     private final RankingProfile ranking;
     private final String language;
+    private final byte[] languageBytes;
 
     public ReferenceOrder(final RankingProfile profile, final String language) {
         this.min = null;
@@ -65,149 +60,102 @@ public class ReferenceOrder {
         this.doms = new ConcurrentScoreMap<String>();
         this.maxdomcount = 0;
         this.language = language;
+        this.languageBytes = language == null ? null : ASCII.getBytes(language);
     }
 
-    public BlockingQueue<WordReferenceVars> normalizeWith(final ReferenceContainer<WordReference> container, long maxtime, final boolean local) {
-        final LinkedBlockingQueue<WordReferenceVars> out = new LinkedBlockingQueue<WordReferenceVars>();
-        int threads = cores;
-        if (container.size() < 100) threads = 2;
-        final Thread distributor = new NormalizeDistributor(container, out, threads, maxtime, local);
-        distributor.start();
-
-        // return the resulting queue while the processing queues are still working
-        return out;
-    }
-
-    private final class NormalizeDistributor extends Thread {
-
-        ReferenceContainer<WordReference> container;
-        LinkedBlockingQueue<WordReferenceVars> out;
-        private final int threads;
-        private final long maxtime;
-        private final boolean local;
-        
-        public NormalizeDistributor(final ReferenceContainer<WordReference> container, final LinkedBlockingQueue<WordReferenceVars> out, final int threads, final long maxtime, final boolean local) {
-        	super("ReferenceOrder.NormalizeDistributor");
-            this.container = container;
-            this.out = out;
-            this.threads = threads;
-            this.maxtime = maxtime;
-            this.local = local;
+    /**
+     * set the normalization of the ranking from bounds that have been computed without decoding all references,
+     * like it is done by the BlockMaxWand evaluator. References that are added later with normalizeWith(cursor, maxtime)
+     * extend the bounds and the host counts as usual.
+     * @param min the minimum of all ranking features
+     * @param max the maximum of all ranking features
+     * @param hostcount the number of references for each host hash, may be null if the authority is not ranked
+     */
+    public void normalizeWith(final WordReferenceVars min, final WordReferenceVars max, final Map<String, Integer> hostcount) {
+        if (this.min == null) this.min = min.clone(); else this.min.min(min);
+        if (this.max == null) this.max = max.clone(); else this.max.max(max);
+        if (hostcount != null) {
+            for (final Map.Entry<String, Integer> entry: hostcount.entrySet()) this.doms.inc(entry.getKey(), entry.getValue().intValue());
+            if (!this.doms.isEmpty()) this.maxdomcount = this.doms.getMaxScore();
         }
+    }
 
-        @Override
-        public void run() {
-            // transform the reference container into a stream of parsed entries
-            final BlockingQueue<WordReferenceVars> vars = WordReferenceVars.transform(this.container, this.maxtime, this.local);
-
-            // start the transformation threads
-            final Semaphore termination = new Semaphore(this.threads);
-            final NormalizeWorker[] worker = new NormalizeWorker[this.threads];
-            for (int i = 0; i < this.threads; i++) {
-                worker[i] = new NormalizeWorker(this.out, termination, this.maxtime);
-                worker[i].start();
+    /**
+     * compute the normalization of the ranking from all references of a container.
+     * No reference objects are created:
+     * the minimum and maximum of all features is computed on the rows of the container.
+     * @param cursor a cursor on the container; it is reset after the normalization
+     * @param maxtime the maximum time for the normalization; references which are not visited within that time are not considered
+     */
+    public void normalizeWith(final WordReferenceCursor cursor, final long maxtime) {
+        final long timeout = maxtime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + maxtime;
+        final boolean countHosts = authorityRanking(); // the host counts are only used for the authority
+        final Map<String, Integer> hostcount = countHosts ? new HashMap<String, Integer>() : null;
+        int minHitcount = Integer.MAX_VALUE, maxHitcount = Integer.MIN_VALUE, minLlocal = Integer.MAX_VALUE, maxLlocal = Integer.MIN_VALUE;
+        int minLother = Integer.MAX_VALUE, maxLother = Integer.MIN_VALUE, minVirtualAge = Integer.MAX_VALUE, maxVirtualAge = Integer.MIN_VALUE;
+        int minWordsintext = Integer.MAX_VALUE, maxWordsintext = Integer.MIN_VALUE, minPhrasesintext = Integer.MAX_VALUE, maxPhrasesintext = Integer.MIN_VALUE;
+        int minPosintext = Integer.MAX_VALUE, maxPosintext = Integer.MIN_VALUE, minDistance = Integer.MAX_VALUE, maxDistance = Integer.MIN_VALUE;
+        int minPosinphrase = Integer.MAX_VALUE, maxPosinphrase = Integer.MIN_VALUE, minPosofphrase = Integer.MAX_VALUE, maxPosofphrase = Integer.MIN_VALUE;
+        int minUrllength = Integer.MAX_VALUE, maxUrllength = Integer.MIN_VALUE, minUrlcomps = Integer.MAX_VALUE, maxUrlcomps = Integer.MIN_VALUE;
+        int minWordsintitle = Integer.MAX_VALUE, maxWordsintitle = Integer.MIN_VALUE;
+        double minTf = Double.MAX_VALUE, maxTf = -Double.MAX_VALUE;
+        int v, count = 0;
+        double d;
+        cursor.reset();
+        while (cursor.next()) {
+            if ((v = cursor.hitcount()) < minHitcount) minHitcount = v; if (v > maxHitcount) maxHitcount = v;
+            if ((v = cursor.llocal()) < minLlocal) minLlocal = v; if (v > maxLlocal) maxLlocal = v;
+            if ((v = cursor.lother()) < minLother) minLother = v; if (v > maxLother) maxLother = v;
+            if ((v = cursor.virtualAge()) < minVirtualAge) minVirtualAge = v; if (v > maxVirtualAge) maxVirtualAge = v;
+            if ((v = cursor.wordsintext()) < minWordsintext) minWordsintext = v; if (v > maxWordsintext) maxWordsintext = v;
+            if ((v = cursor.phrasesintext()) < minPhrasesintext) minPhrasesintext = v; if (v > maxPhrasesintext) maxPhrasesintext = v;
+            if ((v = cursor.posintext()) < minPosintext) minPosintext = v; if (v > maxPosintext) maxPosintext = v;
+            if ((v = cursor.distance()) < minDistance) minDistance = v; if (v > maxDistance) maxDistance = v;
+            if ((v = cursor.posinphrase()) < minPosinphrase) minPosinphrase = v; if (v > maxPosinphrase) maxPosinphrase = v;
+            if ((v = cursor.posofphrase()) < minPosofphrase) minPosofphrase = v; if (v > maxPosofphrase) maxPosofphrase = v;
+            if ((v = cursor.urllength()) < minUrllength) minUrllength = v; if (v > maxUrllength) maxUrllength = v;
+            if ((v = cursor.urlcomps()) < minUrlcomps) minUrlcomps = v; if (v > maxUrlcomps) maxUrlcomps = v;
+            if ((v = cursor.wordsintitle()) < minWordsintitle) minWordsintitle = v; if (v > maxWordsintitle) maxWordsintitle = v;
+            if ((d = cursor.termFrequency()) < minTf) minTf = d; if (d > maxTf) maxTf = d;
+            if (countHosts) {
+                final String host = cursor.hosthash();
+                final Integer c = hostcount.get(host);
+                hostcount.put(host, c == null ? LargeNumberCache.valueOf(1) : LargeNumberCache.valueOf(c.intValue() + 1));
             }
-
-            // fill the queue
-            WordReferenceVars iEntry;
-            int p = 0;
-            long timeout = this.maxtime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + this.maxtime;
-            try {
-                while ((iEntry = vars.take()) != WordReferenceVars.poison) {
-                    worker[p % this.threads].add(iEntry);
-                    p++;
-                    if (System.currentTimeMillis() > timeout) {
-                        ConcurrentLog.warn("NormalizeDistributor", "adding of decoded rows to workers ended with timeout = " + this.maxtime);
-                        break;
-                    }
-                }
-            } catch (final InterruptedException e) {
+            if ((++count & 0x3ff) == 0 && System.currentTimeMillis() > timeout) {
+                ConcurrentLog.warn("ReferenceOrder", "normalization of rows ended with timeout = " + maxtime);
+                break;
             }
-
-            // insert poison to stop the queues
-            for (int i = 0; i < this.threads; i++) worker[i].add(WordReferenceVars.poison);
-
-            // wait for termination but not too long to make it possible that this
-            // is called from outside with a join to get some normalization results
-            // before going on
-            for (int i = 0; i < this.threads; i++) try {worker[i].join(100);} catch (final InterruptedException e) {}
         }
+        cursor.reset();
+        if (count == 0) return;
+        final WordReferenceVars min = new WordReferenceVars(null, minUrllength, minUrlcomps, minWordsintitle, minHitcount, minWordsintext, minPhrasesintext,
+                minPosintext, null, minPosinphrase, minPosofphrase, minVirtualAge * 86400000L, null, ' ', minLlocal, minLother, null, minTf);
+        final WordReferenceVars max = new WordReferenceVars(null, maxUrllength, maxUrlcomps, maxWordsintitle, maxHitcount, maxWordsintext, maxPhrasesintext,
+                maxPosintext, null, maxPosinphrase, maxPosofphrase, maxVirtualAge * 86400000L, null, ' ', maxLlocal, maxLother, null, maxTf);
+        // the distance of a reference object is computed from the positions of joined references
+        if (minDistance > 0 && minPosintext > 0) min.addPosition(minPosintext + minDistance);
+        if (maxDistance > 0 && maxPosintext > 0) max.addPosition(maxPosintext + maxDistance);
+        normalizeWith(min, max, hostcount);
     }
 
     /**
-     * normalize ranking: find minimum and maximum of separate ranking criteria
+     * remove a reference from the host counts; this is used for references that are counted again by normalizeWith(cursor, maxtime)
+     * @param hostHash
      */
-    private class NormalizeWorker extends Thread {
-
-        private final BlockingQueue<WordReferenceVars> out;
-        private final Semaphore termination;
-        private final BlockingQueue<WordReferenceVars> decodedEntries;
-        private final long maxtime;
-
-        public NormalizeWorker(final BlockingQueue<WordReferenceVars> out, final Semaphore termination, long maxtime) {
-        	super("ReferenceOrder.NormalizeWorker");
-            this.out = out;
-            this.termination = termination;
-            this.decodedEntries = new LinkedBlockingQueue<WordReferenceVars>();
-            this.maxtime = maxtime;
-        }
-
-        public void add(final WordReferenceVars entry) {
-            try {
-                this.decodedEntries.put(entry);
-            } catch (final InterruptedException e) {
-            }
-        }
-
-        @Override
-        public void run() {
-            try {
-                WordReferenceVars iEntry;
-                final Map<String, Integer> doms0 = new HashMap<String, Integer>();
-                String dom;
-                Integer count;
-                final Integer int1 = 1;
-                long timeout = this.maxtime == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + this.maxtime;
-                while ((iEntry = this.decodedEntries.take()) != WordReferenceVars.poison) {
-                    // find min/max
-                    if (ReferenceOrder.this.min == null) ReferenceOrder.this.min = iEntry.clone(); else ReferenceOrder.this.min.min(iEntry);
-                    if (ReferenceOrder.this.max == null) ReferenceOrder.this.max = iEntry.clone(); else ReferenceOrder.this.max.max(iEntry);
-                    this.out.put(iEntry); // must be after the min/max check to prevent that min/max is null in cardinal()
-                    // update domcount
-                    dom = iEntry.hosthash();
-                    count = doms0.get(dom);
-                    if (count == null) {
-                        doms0.put(dom, int1);
-                    } else {
-                        doms0.put(dom, LargeNumberCache.valueOf(count.intValue() + 1));
-                    }
+    public void uncount(final String hostHash) {
+        this.doms.dec(hostHash);
+    }
 
-                    if (System.currentTimeMillis() > timeout) {
-                        ConcurrentLog.warn("NormalizeWorker", "normlization of decoded rows ended with timeout = " + this.maxtime);
-                        break;
-                    }
-                }
+    /**
+     * @return true if the ranking profile uses the authority of the hosts which is computed from the host counts
+     */
+    public boolean authorityRanking() {
+        return this.ranking.coeff_authority > 12;
+    }
 
-                // update domain score
-                Map.Entry<String, Integer> entry;
-                final Iterator<Map.Entry<String, Integer>> di = doms0.entrySet().iterator();
-                while (di.hasNext()) {
-                    entry = di.next();
-                    ReferenceOrder.this.doms.inc(entry.getKey(), (entry.getValue()).intValue());
-                }
-                if (!ReferenceOrder.this.doms.isEmpty()) ReferenceOrder.this.maxdomcount = ReferenceOrder.this.doms.getMaxScore();
-            } catch (final InterruptedException e) {
-                ConcurrentLog.logException(e);
-            } catch (final Exception e) {
-                ConcurrentLog.logException(e);
-            } finally {
-                // insert poison to signal the termination to next queue
-                try {
-                    this.termination.acquire();
-                    if (this.termination.availablePermits() == 0) this.out.put(WordReferenceVars.poison);
-                } catch (final InterruptedException e) {}
-            }
-        }
+    public String language() {
+        return this.language;
     }
 
     public int authority(final String hostHash) {
@@ -215,6 +163,18 @@ public class ReferenceOrder {
         return (this.doms.get(hostHash) << 8) / (1 + this.maxdomcount);
     }
 
+    /**
+     * an upper bound of the ranking of all references with features that are not better than the features of the given reference.
+     * This is the ranking of the reference where the authority of its host is replaced by the highest authority of all hosts.
+     * @param best a reference with the best features of a set of references
+     * @return a ranking which is not lower than the ranking of any of the references
+     */
+    public long maxCardinal(final WordReference best) {
+        long r = cardinal(best);
+        if (authorityRanking()) r += (((this.maxdomcount << 8) / (1 + this.maxdomcount)) - authority(best.hosthash())) << this.ranking.coeff_authority;
+        return r;
+    }
+
     /**
      * return the ranking of a given word entry
      * @param t
@@ -257,7 +217,7 @@ public class ReferenceOrder {
            + ((flags.get(Tokenizer.flag_cat_hasaudio))     ? 255 << this.ranking.coeff_cathasaudio        : 0)
            + ((flags.get(Tokenizer.flag_cat_hasvideo))     ? 255 << this.ranking.coeff_cathasvideo        : 0)
            + ((flags.get(Tokenizer.flag_cat_hasapp))       ? 255 << this.ranking.coeff_cathasapp          : 0)
-           + ((Arrays.equals(t.getLanguage(), ASCII.getBytes(this.language))) ? 255 << this.ranking.coeff_language    : 0);
+           + ((Arrays.equals(t.getLanguage(), this.languageBytes)) ? 255 << this.ranking.coeff_language    : 0);
 
         //if (searchWords != null) r += (yacyURL.probablyWordURL(t.urlHash(), searchWords) != null) ? 256 << ranking.coeff_appurl : 0;
 
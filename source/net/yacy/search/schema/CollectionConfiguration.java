@@ -1682,6 +1682,9 @@ public class CollectionConfiguration extends SchemaConfiguration implements Seri
                                 CitationReference doc_A_citation = doc_A_ids_iterator.next();
                                 segment.urlCitation().add(doc_C_url.hash(), doc_A_citation);
                             }
+                            if (segment.citationAdjacency() != null) {
+                                segment.citationAdjacency().addReferrers(doc_C_url.hash(), segment.citationAdjacency().remove(doc_B_id));
+                            }
                         }
                         patchquerycountcheck++;
                         if (MemoryControl.shortStatus()) {
@@ -1896,9 +1899,6 @@ public class CollectionConfiguration extends SchemaConfiguration implements Seri
         Integer hostextc_old = sid == null ? null : (Integer) sid.getFieldValue(CollectionSchema.host_extent_i.getSolrFieldName());
         try {
             ReferenceReport rr = rrCache.getReferenceReport(ASCII.String(url.hash()), false);
-            List<String> internalIDs = new ArrayList<String>();
-            HandleSet iids = rr.getInternallIDs();
-            for (byte[] b: iids) internalIDs.add(ASCII.String(b));
             
             boolean change = false;
             int all = rr.getExternalCount() + rr.getInternalCount();
@@ -1918,8 +1918,8 @@ public class CollectionConfiguration extends SchemaConfiguration implements Seri
                 change = true;
             }
             if (this.contains(CollectionSchema.references_exthosts_i) &&
-                (exthosts_old == null || exthosts_old.intValue() != rr.getExternalHostIDs().size())) {
-                sid.setField(CollectionSchema.references_exthosts_i.getSolrFieldName(), rr.getExternalHostIDs().size());
+                (exthosts_old == null || exthosts_old.intValue() != rr.getExternalHostCount())) {
+                sid.setField(CollectionSchema.references_exthosts_i.getSolrFieldName(), rr.getExternalHostCount());
                 change = true;
             }
             Long hostExtent = hostExtentCount == null ? Long.MAX_VALUE : hostExtentCount.get(url.hosthash());
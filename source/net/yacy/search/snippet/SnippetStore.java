@@ -0,0 +1,313 @@
+/**
+ *  SnippetStore
+ *  Copyright 2026 by the YaCy contributors
+ *  First released 17.10.2026 at http://yacy.net
+ *
+ *  $LastChangedDate$
+ *  $LastChangedRevision$
+ *  $LastChangedBy$
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.yacy.search.snippet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.encoding.UTF8;
+import net.yacy.cora.federate.solr.connector.SolrConnector;
+import net.yacy.cora.federate.yacy.CacheStrategy;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.order.Digest;
+import net.yacy.cora.order.NaturalOrder;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.cora.util.ConcurrentLog;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.blob.Heap;
+import net.yacy.kelondro.data.meta.URIMetadataNode;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.peers.RemoteSearch;
+import net.yacy.repository.LoaderDispatcher;
+import net.yacy.search.Switchboard;
+import net.yacy.search.index.Segment;
+import net.yacy.search.query.QueryGoal;
+import net.yacy.search.schema.CollectionSchema;
+
+/**
+ * A persistent store of computed text snippets, backing the RAM cache of the TextSnippet class.
+ * The key is the url hash followed by a hash of the sorted query word hashes; the value is the snippet line.
+ * The number of entries is bounded, the least recently used entries are deleted when the store is full.
+ * The access times are written to a file next to the heap when the store is closed and read again when it is opened.
+ * The store can be warmed with the frequent queries of the query log, so that the snippets of repeated
+ * queries are neither loaded nor parsed again after a restart.
+ */
+public class SnippetStore {
+
+    private final static ConcurrentLog log = new ConcurrentLog("SnippetStore");
+
+    public static final int keylength = 2 * Word.commonHashLength;
+
+    private final Heap heap;
+    private final File accessFile;
+    private final int maxSize;
+    private final Map<String, Long> access; // the time of the last access by key, used to find the least recently used entries
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // the heap is read and written under the read lock, closed under the write lock
+    private boolean closed = false;
+    public final LongAdder storeHit = new LongAdder(), storeMiss = new LongAdder(), storeInsert = new LongAdder(), storeEvict = new LongAdder();
+
+    /**
+     * open or create a snippet store
+     * @param location the heap file
+     * @param maxSize the maximum number of snippets
+     * @throws IOException
+     */
+    public SnippetStore(final File location, final int maxSize) throws IOException {
+        this.heap = new Heap(location, keylength, NaturalOrder.naturalOrder, 1024 * 64);
+        this.accessFile = new File(location.getParentFile(), location.getName() + ".access");
+        this.maxSize = maxSize;
+        this.access = new ConcurrentHashMap<String, Long>();
+        final Iterator<byte[]> keys = this.heap.keys(true, false);
+        while (keys.hasNext()) this.access.put(ASCII.String(keys.next()), 0L);
+        loadAccess();
+        if (this.access.size() > this.maxSize) evict();
+        log.info("opened snippet store " + location.getName() + " with " + this.access.size() + " snippets");
+    }
+
+    /**
+     * compute the key of a snippet
+     * @param wordhashes the sorted query word hashes as produced by RemoteSearch.set2string
+     * @param urlhash the url hash
+     * @return the key of length keylength
+     */
+    public static String key(final String wordhashes, final String urlhash) {
+        return urlhash + ASCII.String(Base64Order.enhancedCoder.encodeSubstring(Digest.encodeMD5Raw(wordhashes), Word.commonHashLength));
+    }
+
+    /**
+     * read the access times which were written when the store was closed; snippets without a
+     * known access time keep the time 0 and are evicted first
+     */
+    private void loadAccess() {
+        if (!this.accessFile.exists()) return;
+        final byte[] key = new byte[keylength];
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.accessFile)))) {
+            while (true) {
+                in.readFully(key);
+                final long time = in.readLong();
+                final String k = ASCII.String(key);
+                if (this.access.containsKey(k)) this.access.put(k, time);
+            }
+        } catch (final EOFException e) {
+            // all access times had been read
+        } catch (final IOException e) {
+            log.warn("cannot read access times: " + e.getMessage());
+        }
+    }
+
+    private void storeAccess() {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.accessFile)))) {
+            for (final Map.Entry<String, Long> entry: this.access.entrySet()) {
+                out.write(ASCII.getBytes(entry.getKey()));
+                out.writeLong(entry.getValue());
+            }
+        } catch (final IOException e) {
+            log.warn("cannot write access times: " + e.getMessage());
+        }
+    }
+
+    public String get(final String wordhashes, final String urlhash) {
+        final String key = key(wordhashes, urlhash);
+        this.lock.readLock().lock();
+        try {
+            if (this.closed || !this.access.containsKey(key)) {
+                this.storeMiss.increment();
+                return null;
+            }
+            final byte[] b = this.heap.get(ASCII.getBytes(key));
+            if (b == null) {
+                this.access.remove(key);
+                this.storeMiss.increment();
+                return null;
+            }
+            this.access.put(key, System.currentTimeMillis());
+            this.storeHit.increment();
+            return UTF8.String(b);
+        } catch (final IOException e) {
+            log.warn("cannot read snippet: " + e.getMessage());
+        } catch (final SpaceExceededException e) {
+            log.warn("cannot read snippet: " + e.getMessage());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        this.storeMiss.increment();
+        return null;
+    }
+
+    public void put(final String wordhashes, final String urlhash, final String snippet) {
+        final String key = key(wordhashes, urlhash);
+        this.lock.readLock().lock();
+        try {
+            if (this.closed || this.access.containsKey(key)) return;
+            this.heap.insert(ASCII.getBytes(key), UTF8.getBytes(snippet));
+            this.access.put(key, System.currentTimeMillis());
+            this.storeInsert.increment();
+        } catch (final IOException e) {
+            log.warn("cannot store snippet: " + e.getMessage());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (this.access.size() > this.maxSize) evict();
+    }
+
+    public boolean contains(final String wordhashes, final String urlhash) {
+        return this.access.containsKey(key(wordhashes, urlhash));
+    }
+
+    /**
+     * delete the least recently used tenth of the entries
+     */
+    private void evict() {
+        this.lock.writeLock().lock();
+        try {
+            evictLocked();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void evictLocked() {
+        if (this.closed || this.access.size() <= this.maxSize) return;
+        final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(this.access.entrySet());
+        Collections.sort(entries, (a, b) -> Long.compare(a.getValue(), b.getValue()));
+        final int target = this.maxSize - this.maxSize / 10;
+        int i = 0;
+        while (this.access.size() > target && i < entries.size()) {
+            final String key = entries.get(i++).getKey();
+            try {
+                this.heap.delete(ASCII.getBytes(key));
+            } catch (final IOException e) {
+                log.warn("cannot delete snippet: " + e.getMessage());
+            }
+            this.access.remove(key);
+            this.storeEvict.increment();
+        }
+    }
+
+    /**
+     * compute and store the snippets of the top results of the given queries; documents are only
+     * taken from the local cache, nothing is loaded from the web
+     * @param segment the index segment to search the results
+     * @param loader the loader to read the cached documents
+     * @param queries the query strings, i.e. from AccessTracker.frequentQueries
+     * @param resultsPerQuery the number of results which get a snippet for each query
+     * @return the number of snippets which had been added
+     */
+    public int warm(final Segment segment, final LoaderDispatcher loader, final List<String> queries, final int resultsPerQuery) {
+        final long start = System.currentTimeMillis();
+        final long inserted = this.storeInsert.sum();
+        final SolrConnector connector = segment.fulltext().getDefaultConnector();
+        for (final String querystring: queries) {
+            if (isClosed() || Thread.currentThread().isInterrupted()) break;
+            final QueryGoal qg = new QueryGoal(querystring);
+            if (qg.isCatchall() || qg.getIncludeHashes().isEmpty()) continue;
+
+            // the words and the word hashes are those which are used by the SearchEvent
+            final HandleSet wordhashes = qg.getIncludeHashes().clone();
+            if (Switchboard.stopwordHashes != null) wordhashes.excludeDestructive(Switchboard.stopwordHashes);
+            final Set<String> words = qg.getIncludeWordsSet();
+            words.removeAll(Switchboard.stopwords);
+            if (wordhashes.isEmpty() || words.isEmpty()) continue;
+            final String wordhashesString = RemoteSearch.set2string(wordhashes);
+            try {
+                final SolrDocumentList docs = connector.getDocumentListByQuery(qg.collectionTextQuery().toString(), null, 0, resultsPerQuery, CollectionSchema.id.getSolrFieldName());
+                for (final SolrDocument doc: docs) {
+                    final String urlhash = (String) doc.getFieldValue(CollectionSchema.id.getSolrFieldName());
+                    if (urlhash == null || contains(wordhashesString, urlhash)) continue;
+                    final URIMetadataNode node = segment.fulltext().getMetadata(ASCII.getBytes(urlhash));
+                    if (node == null) continue;
+                    new TextSnippet(loader, node, words, wordhashes, CacheStrategy.CACHEONLY, false, 180, false);
+                }
+            } catch (final IOException e) {
+                log.warn("cannot warm snippets for query '" + querystring + "': " + e.getMessage());
+            }
+        }
+        final int added = (int) (this.storeInsert.sum() - inserted);
+        log.info("warmed snippet store with " + added + " snippets for " + queries.size() + " queries in " + (System.currentTimeMillis() - start) + " ms");
+        return added;
+    }
+
+    private boolean isClosed() {
+        this.lock.readLock().lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return this.access.size();
+    }
+
+    public void clear() {
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) return;
+            this.heap.clear();
+        } catch (final IOException e) {
+            log.warn("cannot clear snippet store: " + e.getMessage());
+        } finally {
+            this.access.clear();
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * close the heap and write the access times; readers which come later get no snippets
+     */
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            if (this.closed) return;
+            this.closed = true;
+            this.heap.close(true);
+            storeAccess();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+}
@@ -90,8 +90,16 @@ public class TextSnippet implements Comparable<TextSnippet>, Comparator<TextSnip
 
     public static class Cache {
         private final ARC<String, String> cache;
+        private volatile SnippetStore store; // the persistent second level, may be null
         public Cache() {
             this.cache = new ConcurrentARC<String, String>(MAX_CACHE, Math.min(32, 2 * Runtime.getRuntime().availableProcessors()));
+            this.store = null;
+        }
+        public void setStore(final SnippetStore store) {
+            this.store = store;
+        }
+        public SnippetStore getStore() {
+            return this.store;
         }
         public void put(final String wordhashes, final String urlhash, final String snippet) {
             // generate key
@@ -99,16 +107,28 @@ public class TextSnippet implements Comparable<TextSnippet>, Comparator<TextSnip
 
             // do nothing if snippet is known or otherwise learn new snippet
             this.cache.insertIfAbsent(key, snippet);
+            final SnippetStore s = this.store;
+            if (s != null) s.put(wordhashes, urlhash, snippet);
         }
 
         public String get(final String wordhashes, final String urlhash) {
             // generate key
             final String key = urlhash + wordhashes;
-            return this.cache.get(key);
+            String snippet = this.cache.get(key);
+            if (snippet != null) return snippet;
+
+            // the snippet may be in the persistent store, then it is used again soon
+            final SnippetStore s = this.store;
+            if (s == null) return null;
+            snippet = s.get(wordhashes, urlhash);
+            if (snippet != null) this.cache.insertIfAbsent(key, snippet);
+            return snippet;
         }
 
         public boolean contains(final String wordhashes, final String urlhash) {
-            return this.cache.containsKey(urlhash + wordhashes);
+            if (this.cache.containsKey(urlhash + wordhashes)) return true;
+            final SnippetStore s = this.store;
+            return s != null && s.contains(wordhashes, urlhash);
         }
     }
 
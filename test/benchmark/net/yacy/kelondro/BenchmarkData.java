@@ -0,0 +1,122 @@
+/**
+ *  BenchmarkData.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.crawler.retrieval.Request;
+import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.RowSet;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Row definitions and random data for the benchmarks of the kelondro storage layer.
+ * The same seed always produces the same data, so results of different releases can be compared.
+ */
+public final class BenchmarkData {
+
+    /** the row definitions which can be selected with the 'rowdef' parameter of the benchmarks */
+    public static final String WORD_REFERENCE = "wordReference";
+    public static final String REQUEST = "request";
+    public static final String URL_HASH = "urlHash";
+
+    private static final Row urlHashRow = new Row("byte[] urlhash-12", Base64Order.enhancedCoder);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param name one of WORD_REFERENCE, REQUEST or URL_HASH
+     * @return the row definition
+     */
+    public static Row row(final String name) {
+        if (WORD_REFERENCE.equals(name)) return WordReferenceRow.urlEntryRow;
+        if (REQUEST.equals(name)) return Request.rowdef;
+        if (URL_HASH.equals(name)) return urlHashRow;
+        throw new IllegalArgumentException("unknown row definition: " + name);
+    }
+
+    /**
+     * @return count different random keys with the length of a word or url hash
+     */
+    public static byte[][] keys(final int count, final long seed) {
+        final Random random = new Random(seed);
+        final byte[][] keys = new byte[count][];
+        for (int i = 0; i < count; i++) keys[i] = RowSet.randomHash(random);
+        return keys;
+    }
+
+    /**
+     * @return a copy of the keys in the order of the row definition
+     */
+    public static byte[][] sorted(final Row row, final byte[][] keys) {
+        final byte[][] s = keys.clone();
+        Arrays.sort(s, row.objectOrder);
+        return s;
+    }
+
+    /**
+     * create a row with the given key and random content in all other columns
+     */
+    public static Row.Entry entry(final Row row, final byte[] key, final Random random) {
+        final byte[] b = new byte[row.objectsize];
+        random.nextBytes(b);
+        System.arraycopy(key, 0, b, 0, row.primaryKeyLength);
+        return row.newEntry(b);
+    }
+
+    public static Row.Entry[] entries(final Row row, final byte[][] keys, final long seed) {
+        final Random random = new Random(seed);
+        final Row.Entry[] entries = new Row.Entry[keys.length];
+        for (int i = 0; i < keys.length; i++) entries[i] = entry(row, keys[i], random);
+        return entries;
+    }
+
+    /**
+     * @return random content for a BLOB
+     */
+    public static byte[] blob(final int size, final Random random) {
+        final byte[] b = new byte[size];
+        // half of the content is random, the other half repeats, so that compression has something to do
+        random.nextBytes(b);
+        for (int i = size / 2; i < size; i++) b[i] = b[i % 64];
+        return b;
+    }
+
+    /**
+     * @return a new empty directory in the temp directory
+     */
+    public static File tempDirectory(final String prefix) throws IOException {
+        final File dir = File.createTempFile(prefix, "");
+        FileUtils.deletedelete(dir);
+        if (!dir.mkdirs()) throw new IOException("cannot create " + dir);
+        return dir;
+    }
+
+    public static void delete(final File dir) {
+        FileUtils.deletedelete(dir);
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ *  BlobBenchmark.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.BenchmarkData;
+
+/**
+ * Benchmarks of the BLOB implementations Heap, ArrayStack and Compressor (on a Heap) in a temporary directory
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BlobBenchmark {
+
+    @Param({"heap", "arraystack", "compressor"})
+    public String store;
+
+    @Param({"256", "4096"})
+    public int blobsize;
+
+    @Param({"20000"})
+    public int size;
+
+    private File dir;
+    private BLOB blob;
+    private byte[][] keys, missing;
+    private byte[][] values;
+    private int p;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = BenchmarkData.tempDirectory("BlobBenchmark");
+        if ("arraystack".equals(this.store)) {
+            final ArrayStack stack = new ArrayStack(this.dir, "benchmark", Base64Order.enhancedCoder, 12, 1024 * 1024, false, true);
+            // room for all blobs, but split into about 25 files (the file size limit is a hundredth of the maximum), like in the web cache
+            stack.setMaxSize((long) this.size * this.blobsize * 4);
+            this.blob = stack;
+        } else {
+            final Heap heap = new Heap(new File(this.dir, "benchmark.heap"), 12, Base64Order.enhancedCoder, 1024 * 1024);
+            this.blob = "compressor".equals(this.store) ? new Compressor(heap, 1024 * 1024, 1000, 1) : heap;
+        }
+        this.keys = BenchmarkData.keys(this.size, 0);
+        this.missing = BenchmarkData.keys(this.size, 1);
+        this.values = new byte[64][];
+        final Random random = new Random(2);
+        for (int i = 0; i < this.values.length; i++) this.values[i] = BenchmarkData.blob(this.blobsize, random);
+        for (int i = 0; i < this.size; i++) this.blob.insert(this.keys[i], this.values[i % this.values.length]);
+        this.p = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.blob.close(false);
+        BenchmarkData.delete(this.dir);
+    }
+
+    private int next() {
+        if (++this.p >= this.size) this.p = 0;
+        return this.p;
+    }
+
+    @Benchmark
+    public byte[] randomGet() throws IOException, SpaceExceededException {
+        return this.blob.get(this.keys[next()]);
+    }
+
+    @Benchmark
+    public boolean missingContainsKey() {
+        return this.blob.containsKey(this.missing[next()]);
+    }
+
+    @Benchmark
+    public void insert() throws IOException {
+        final int i = next();
+        this.blob.insert(this.keys[i], this.values[i % this.values.length]);
+    }
+
+    @Benchmark
+    public void iterateKeys(final Blackhole blackhole) throws IOException {
+        final Iterator<byte[]> i = this.blob.keys(true, false);
+        while (i.hasNext()) blackhole.consume(i.next());
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ *  HandleMapBenchmark.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.storage.HandleMap;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.BenchmarkData;
+
+/**
+ * Benchmarks of the HandleMap implementations which are used as index of tables and heaps
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HandleMapBenchmark {
+
+    @Param({"row", "hash"})
+    public String map;
+
+    @Param({"1000000"})
+    public int size;
+
+    private HandleMap index;
+    private byte[][] keys, sortedKeys, missing;
+    private int p;
+
+    @Setup
+    public void setup() throws SpaceExceededException {
+        this.index = "hash".equals(this.map) ?
+                new HashHandleMap(12, Base64Order.enhancedCoder, 8, this.size, "HandleMapBenchmark") :
+                new RowHandleMap(12, Base64Order.enhancedCoder, 8, this.size, "HandleMapBenchmark");
+        this.keys = BenchmarkData.keys(this.size, 0);
+        this.sortedKeys = BenchmarkData.sorted(BenchmarkData.row(BenchmarkData.URL_HASH), this.keys);
+        this.missing = BenchmarkData.keys(this.size, 1);
+        for (int i = 0; i < this.size; i++) this.index.putUnique(this.keys[i], i);
+        this.index.optimize(); // sort after the bulk load, like HeapReader and Table do
+        this.p = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.index.close();
+    }
+
+    private int next() {
+        if (++this.p >= this.size) this.p = 0;
+        return this.p;
+    }
+
+    @Benchmark
+    public long randomGet() {
+        return this.index.get(this.keys[next()]);
+    }
+
+    @Benchmark
+    public long sequentialGet() {
+        return this.index.get(this.sortedKeys[next()]);
+    }
+
+    @Benchmark
+    public boolean missingHas() {
+        return this.index.has(this.missing[next()]);
+    }
+
+    @Benchmark
+    public long put() throws SpaceExceededException {
+        final int i = next();
+        return this.index.put(this.keys[i], i);
+    }
+
+    @Benchmark
+    public long removeAndPut() throws SpaceExceededException {
+        final int i = next();
+        this.index.remove(this.keys[i]);
+        return this.index.put(this.keys[i], i);
+    }
+
+    @Benchmark
+    public void orderedKeys(final Blackhole blackhole) {
+        final Iterator<byte[]> i = this.index.keys(true, null);
+        while (i.hasNext()) blackhole.consume(i.next());
+    }
+
+}
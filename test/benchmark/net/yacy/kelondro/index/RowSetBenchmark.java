@@ -0,0 +1,157 @@
+/**
+ *  RowSetBenchmark.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.BenchmarkData;
+
+/**
+ * Benchmarks of the in-memory row indexes RowSet and RAMIndexCluster
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RowSetBenchmark {
+
+    @Param({BenchmarkData.WORD_REFERENCE, BenchmarkData.REQUEST, BenchmarkData.URL_HASH})
+    public String rowdef;
+
+    @Param({"100000"})
+    public int size;
+
+    private Row row;
+    private byte[][] keys, sortedKeys;
+    private Row.Entry[] entries;
+    private RowSet set, other;
+    private RAMIndexCluster cluster;
+    private int p;
+
+    @Setup
+    public void setup() throws SpaceExceededException {
+        this.row = BenchmarkData.row(this.rowdef);
+        this.keys = BenchmarkData.keys(this.size, 0);
+        this.sortedKeys = BenchmarkData.sorted(this.row, this.keys);
+        this.entries = BenchmarkData.entries(this.row, this.keys, 1);
+        this.set = new RowSet(this.row, this.size);
+        this.cluster = new RAMIndexCluster("RowSetBenchmark", this.row, 4);
+        for (final Row.Entry entry: this.entries) {
+            this.set.addUnique(entry);
+            this.cluster.addUnique(entry);
+        }
+        this.set.sort();
+        this.cluster.optimize();
+        this.other = new RowSet(this.row, this.size / 10);
+        for (final Row.Entry entry: BenchmarkData.entries(this.row, BenchmarkData.keys(this.size / 10, 2), 3)) this.other.addUnique(entry);
+        this.other.sort();
+        this.p = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cluster.close();
+    }
+
+    private int next() {
+        if (++this.p >= this.size) this.p = 0;
+        return this.p;
+    }
+
+    @Benchmark
+    public Row.Entry rowSetRandomGet() {
+        return this.set.get(this.keys[next()], false);
+    }
+
+    @Benchmark
+    public Row.Entry rowSetSequentialGet() {
+        return this.set.get(this.sortedKeys[next()], false);
+    }
+
+    @Benchmark
+    public boolean rowSetPut() throws SpaceExceededException {
+        return this.set.put(this.entries[next()]);
+    }
+
+    @Benchmark
+    public boolean rowSetDeleteAndPut() throws SpaceExceededException {
+        final int i = next();
+        this.set.delete(this.keys[i]);
+        return this.set.put(this.entries[i]);
+    }
+
+    @Benchmark
+    public RowSet rowSetMerge() throws SpaceExceededException {
+        return this.set.merge(this.other);
+    }
+
+    @Benchmark
+    public void rowSetIterate(final Blackhole blackhole) {
+        final Iterator<Row.Entry> i = this.set.iterator();
+        while (i.hasNext()) blackhole.consume(i.next());
+    }
+
+    @Benchmark
+    public Row.Entry clusterRandomGet() {
+        return this.cluster.get(this.keys[next()], false);
+    }
+
+    @Benchmark
+    public Row.Entry clusterSequentialGet() {
+        return this.cluster.get(this.sortedKeys[next()], false);
+    }
+
+    @Benchmark
+    public boolean clusterPut() throws SpaceExceededException {
+        return this.cluster.put(this.entries[next()]);
+    }
+
+    @Benchmark
+    public boolean clusterDeleteAndPut() throws SpaceExceededException {
+        final int i = next();
+        this.cluster.delete(this.keys[i]);
+        return this.cluster.put(this.entries[i]);
+    }
+
+    @Benchmark
+    public void clusterIterate(final Blackhole blackhole) {
+        final Iterator<Row.Entry> i = this.cluster.rows(true, null);
+        while (i.hasNext()) blackhole.consume(i.next());
+    }
+
+}
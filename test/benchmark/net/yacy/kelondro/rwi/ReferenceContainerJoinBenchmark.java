@@ -0,0 +1,111 @@
+/**
+ *  ReferenceContainerJoinBenchmark.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.crawler.retrieval.Response;
+import net.yacy.kelondro.BenchmarkData;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Benchmarks of the pairwise reference container join against the galloping join on the url hash arrays
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReferenceContainerJoinBenchmark {
+
+    /** number of references of the largest container */
+    @Param({"100000"})
+    public int size;
+
+    /** size of the largest container divided by the size of the smallest container */
+    @Param({"1", "10", "1000"})
+    public int skew;
+
+    /** number of include words */
+    @Param({"2", "3"})
+    public int words;
+
+    private final WordReferenceFactory factory = new WordReferenceFactory();
+    private List<ReferenceContainer<WordReference>> include, exclude;
+
+    /**
+     * create a container with the references of all keys which are selected with the given probability
+     */
+    private ReferenceContainer<WordReference> container(final Row.Entry[] entries, final double p, final long seed) throws SpaceExceededException {
+        final Random random = new Random(seed);
+        final ReferenceContainer<WordReference> c = new ReferenceContainer<WordReference>(this.factory, null, (int) (entries.length * p) + 1);
+        for (final Row.Entry entry: entries) if (random.nextDouble() < p) c.addUnique(entry);
+        c.sort();
+        return c;
+    }
+
+    @Setup
+    public void setup() throws SpaceExceededException {
+        final byte[][] keys = BenchmarkData.keys(this.size, 0);
+        final Random random = new Random(1);
+        final Row.Entry[] entries = new Row.Entry[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            entries[i] = new WordReferenceVars(keys[i], 20 + random.nextInt(80), 3, 5, 1 + random.nextInt(10), 500, 30, 1 + random.nextInt(400),
+                    null, 1, 1, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d).toKelondroEntry();
+        }
+        final ReferenceContainer<WordReference> large = container(entries, 1.0d, 2);
+        final ReferenceContainer<WordReference> small = container(entries, 1.0d / this.skew, 3);
+        final ReferenceContainer<WordReference> medium = container(entries, 0.5d, 4);
+        this.include = this.words == 2 ? Arrays.asList(large, small) : Arrays.asList(large, small, medium);
+        this.exclude = Arrays.asList(container(entries, 0.1d, 5));
+    }
+
+    @Benchmark
+    public ReferenceContainer<WordReference> pairwiseJoin() throws SpaceExceededException {
+        return ReferenceContainer.excludeContainers(this.factory, ReferenceContainer.joinContainers(this.factory, this.include, Integer.MAX_VALUE), this.exclude);
+    }
+
+    @Benchmark
+    public ReferenceContainer<WordReference> gallopingJoin() throws SpaceExceededException {
+        return ReferenceContainer.joinExcludeGalloping(this.factory, this.include, this.exclude, Integer.MAX_VALUE);
+    }
+
+}
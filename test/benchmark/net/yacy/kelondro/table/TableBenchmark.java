@@ -0,0 +1,124 @@
+/**
+ *  TableBenchmark.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.BenchmarkData;
+import net.yacy.kelondro.index.Row;
+
+/**
+ * Benchmarks of the Table, with the rows in the file only or with a copy of the rows in RAM
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TableBenchmark {
+
+    @Param({BenchmarkData.WORD_REFERENCE, BenchmarkData.REQUEST})
+    public String rowdef;
+
+    @Param({"20000"})
+    public int size;
+
+    /** if true, the table holds a copy of all rows in RAM, otherwise rows are read from the file */
+    @Param({"false", "true"})
+    public boolean ram;
+
+    private File dir;
+    private Table table;
+    private byte[][] keys, sortedKeys;
+    private Row.Entry[] entries;
+    private int p;
+
+    @Setup
+    public void setup() throws IOException, SpaceExceededException {
+        final Row row = BenchmarkData.row(this.rowdef);
+        this.dir = BenchmarkData.tempDirectory("TableBenchmark");
+        this.keys = BenchmarkData.keys(this.size, 0);
+        this.sortedKeys = BenchmarkData.sorted(row, this.keys);
+        this.entries = BenchmarkData.entries(row, this.keys, 1);
+        this.table = new Table(new File(this.dir, "benchmark.table"), row, 1024, this.size, this.ram, true, false);
+        for (final Row.Entry entry: this.entries) this.table.addUnique(entry);
+        this.table.optimize();
+        this.p = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.table.close();
+        BenchmarkData.delete(this.dir);
+    }
+
+    private int next() {
+        if (++this.p >= this.size) this.p = 0;
+        return this.p;
+    }
+
+    @Benchmark
+    public Row.Entry randomGet() throws IOException {
+        return this.table.get(this.keys[next()], false);
+    }
+
+    @Benchmark
+    public Row.Entry sequentialGet() throws IOException {
+        return this.table.get(this.sortedKeys[next()], false);
+    }
+
+    @Benchmark
+    public boolean put() throws IOException, SpaceExceededException {
+        return this.table.put(this.entries[next()]);
+    }
+
+    @Benchmark
+    public boolean deleteAndPut() throws IOException, SpaceExceededException {
+        final int i = next();
+        this.table.delete(this.keys[i]);
+        return this.table.put(this.entries[i]);
+    }
+
+    @Benchmark
+    public void iterate(final Blackhole blackhole) throws IOException {
+        final Iterator<Row.Entry> i = this.table.rows();
+        while (i.hasNext()) blackhole.consume(i.next());
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ *  FrequencySketchTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.cora.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the counting, saturation and aging of the FrequencySketch.
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testFrequency() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) sketch.increment("frequent");
+        sketch.increment("rare");
+        assertTrue(sketch.frequency("frequent") >= 5);
+        assertTrue(sketch.frequency("rare") >= 1);
+        assertTrue(sketch.frequency("frequent") > sketch.frequency("rare"));
+        assertEquals(0, sketch.frequency("never"));
+    }
+
+    @Test
+    public void testSaturation() {
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) sketch.increment("key");
+        assertEquals(15, sketch.frequency("key"));
+    }
+
+    @Test
+    public void testAging() {
+        final FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 8; i++) sketch.increment("old");
+        final int before = sketch.frequency("old");
+        // many different keys cause the counters to be halved
+        for (int i = 0; i < 10000; i++) sketch.increment("key" + i);
+        assertTrue(sketch.frequency("old") < before);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ *  ArrayStackTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.yacy.kelondro.blob.BLOBTestFixture.key;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Unit tests for the bloom filters of the ArrayStack.
+ */
+public class ArrayStackTest {
+
+    private static final int COUNT = 2000;
+
+    @Rule
+    public final BLOBTestFixture fixture = new BLOBTestFixture();
+
+    private static byte[] value(final int i) {
+        return BLOBTestFixture.value(i, 0, 100);
+    }
+
+    private ArrayStack open() throws IOException {
+        final ArrayStack stack = new ArrayStack(this.fixture.dir(), "test", Base64Order.enhancedCoder, BLOBTestFixture.KEYLENGTH, 4096, false, true);
+        stack.setMaxSize(COUNT * 200 * 10); // about ten blob files
+        return stack;
+    }
+
+    private static void check(final ArrayStack stack) throws IOException, SpaceExceededException {
+        for (int i = 0; i < COUNT; i++) {
+            assertArrayEquals(value(i), stack.get(key(i)));
+            assertTrue(stack.containsKey(key(i)));
+        }
+        for (int i = COUNT; i < 2 * COUNT; i++) {
+            assertNull(stack.get(key(i)));
+            assertFalse(stack.containsKey(key(i)));
+        }
+    }
+
+    @Test
+    public void testBloomFilterSkipsAbsentKeys() throws IOException, SpaceExceededException {
+        ArrayStack stack = open();
+        for (int i = 0; i < COUNT; i++) stack.insert(key(i), value(i));
+        assertTrue(stack.entries() > 2);
+        check(stack);
+        // all absent keys are excluded by most of the filters
+        assertTrue(stack.bloomSkips() > stack.bloomChecks() / 2);
+        assertTrue(stack.bloomFalsePositives() < COUNT * stack.entries() / 20);
+        final int entries = stack.entries();
+        stack.close(true);
+
+        // the filters are stored next to the blob files and used after a restart
+        final String[] files = this.fixture.dir().list();
+        int bloomFiles = 0;
+        for (final String f: files) if (f.endsWith(".bloom")) bloomFiles++;
+        assertEquals(entries, bloomFiles);
+        stack = open();
+        assertEquals(entries, stack.entries());
+        check(stack);
+
+        // deletions and new inserts after the restart
+        stack.delete(key(0));
+        assertNull(stack.get(key(0)));
+        stack.insert(key(COUNT), value(COUNT));
+        assertArrayEquals(value(COUNT), stack.get(key(COUNT)));
+        stack.close(true);
+    }
+
+    @Test
+    public void testStaleBloomFileIsIgnored() throws IOException, SpaceExceededException {
+        ArrayStack stack = open();
+        for (int i = 0; i < 100; i++) stack.insert(key(i), value(i));
+        stack.close(true);
+        // extend the blob file after the filter was written, the filter must not be used any more
+        stack = open();
+        for (int i = 100; i < 200; i++) stack.insert(key(i), value(i));
+        stack.close(false);
+        stack = open();
+        for (int i = 0; i < 200; i++) assertArrayEquals(value(i), stack.get(key(i)));
+        stack.close(false);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *  BLOBTestFixture.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.rules.ExternalResource;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Shared fixture of the BLOB tests, used as a JUnit rule: a directory for the BLOB files which is
+ * removed after every test, and records which can be computed again to check the content of a BLOB.
+ */
+public class BLOBTestFixture extends ExternalResource {
+
+    public static final int KEYLENGTH = 12;
+
+    private File dir;
+
+    @Override
+    protected void before() throws IOException {
+        this.dir = Files.createTempDirectory("BLOBTest").toFile();
+    }
+
+    @Override
+    protected void after() {
+        FileUtils.deletedelete(this.dir);
+    }
+
+    public File dir() {
+        return this.dir;
+    }
+
+    public File file(final String name) {
+        return new File(this.dir, name);
+    }
+
+    /**
+     * @return the key of record i; the keys have the order of their numbers
+     */
+    public static byte[] key(final int i) {
+        return ASCII.getBytes(String.format("%0" + KEYLENGTH + "d", i));
+    }
+
+    /**
+     * @return a version of record i with the given length; the content is text which compresses well
+     */
+    public static byte[] value(final int i, final int version, final int length) {
+        final byte[] pattern = ASCII.getBytes("record " + i + " version " + version + ' ');
+        final byte[] b = new byte[length];
+        for (int j = 0; j < length; j++) b[j] = pattern[j % pattern.length];
+        return b;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ *  CompressorTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.yacy.kelondro.blob.BLOBTestFixture.key;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Unit tests for the write-behind mode and the preset dictionaries of the Compressor.
+ */
+public class CompressorTest {
+
+    @Rule
+    public final BLOBTestFixture fixture = new BLOBTestFixture();
+
+    private static byte[] value(final int i, final int version) {
+        return BLOBTestFixture.value(i, version, 2000 + i % 1000);
+    }
+
+    @Test
+    public void testReadYourWritesInWriteBehindMode() throws IOException, SpaceExceededException, InterruptedException {
+        final Heap heap = new Heap(this.fixture.file("test.heap"), BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 64 * 1024);
+        // a small buffer, so nearly all entries go through the compression workers
+        final Compressor compressor = new Compressor(heap, 16 * 1024, 10000, 9);
+        compressor.setWriteBehind(3, 8);
+        assertEquals(3, compressor.compressionThreads());
+
+        final int threads = 4, count = 500;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * count;
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; i < offset + count; i++) {
+                            compressor.insert(key(i), value(i, 0));
+                            // every entry can be read at once, wherever it is on its way to the backend
+                            assertArrayEquals(value(i, 0), compressor.get(key(i)));
+                            if (i % 7 == 0) {
+                                compressor.insert(key(i), value(i, 1));
+                                assertArrayEquals(value(i, 1), compressor.get(key(i)));
+                            }
+                            if (i % 11 == 0) {
+                                compressor.delete(key(i));
+                                assertNull(compressor.get(key(i)));
+                                assertFalse(compressor.containsKey(key(i)));
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            writers.add(writer);
+            writer.start();
+        }
+        for (final Thread writer: writers) writer.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+
+        compressor.flushAll();
+        assertEquals(0, compressor.queueSize());
+        assertTrue(compressor.compressedEntries() > 0);
+        assertTrue(compressor.compressionRatio() < 0.5);
+        assertTrue(compressor.compressionThroughput() > 0);
+        check(compressor, threads * count);
+        compressor.close(true);
+
+        // everything arrived in the backend
+        final Heap reopened = new Heap(this.fixture.file("test.heap"), BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 64 * 1024);
+        final Compressor c = new Compressor(reopened, 16 * 1024, 10000, 9);
+        check(c, threads * count);
+        c.close(true);
+    }
+
+    private static byte[] page(final int host, final int i) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("<html><head><title>Site ").append(host).append(" page ").append(i).append("</title>");
+        for (int j = 0; j < 40; j++) sb.append("<link rel=\"stylesheet\" href=\"/site").append(host).append("/theme/style").append(j).append(".css\"/>\n");
+        sb.append("</head><body><div class=\"content\">");
+        for (int j = 0; j < 20; j++) sb.append("article ").append(i * 31 + j).append(" of site ").append(host).append(' ');
+        sb.append("</div><div class=\"footer\">");
+        for (int j = 0; j < 30; j++) sb.append("<a href=\"/site").append(host).append("/menu/item").append(j).append(".html\">Menu item ").append(j).append("</a>\n");
+        sb.append("</div></body></html>");
+        return ASCII.getBytes(sb.toString());
+    }
+
+    private static byte[] pageKey(final int host, final int i) {
+        // like url hashes: the last six characters identify the host
+        return ASCII.getBytes(String.format("%06dhost%02d", i, host));
+    }
+
+    private long store(final String name, final boolean withDictionaries) throws IOException, SpaceExceededException {
+        final Heap heap = new Heap(this.fixture.file(name + ".heap"), BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 64 * 1024);
+        final Compressor compressor = new Compressor(heap, 0, 10000, 9);
+        final CompressionDictionaries dictionaries = withDictionaries ? new CompressionDictionaries(this.fixture.file(name + ".dict"), 6, 6, 10) : null;
+        compressor.setDictionaries(dictionaries);
+        for (int i = 0; i < 50; i++) {
+            for (int host = 0; host < 2; host++) compressor.insert(pageKey(host, i), page(host, i));
+        }
+        compressor.flushAll();
+        if (withDictionaries) {
+            assertEquals(2, dictionaries.size());
+            assertTrue(compressor.dictionaryEntries() > 80);
+        }
+        for (int i = 0; i < 50; i++) {
+            for (int host = 0; host < 2; host++) assertArrayEquals(page(host, i), compressor.get(pageKey(host, i)));
+        }
+        compressor.close(true);
+        if (dictionaries != null) dictionaries.close();
+        return this.fixture.file(name + ".heap").length();
+    }
+
+    @Test
+    public void testDictionaryCompression() throws IOException, SpaceExceededException {
+        final long plain = store("plain", false);
+        final long shared = store("shared", true);
+        assertTrue("with dictionaries " + shared + ", without " + plain, shared < plain * 2 / 3);
+
+        // the dictionaries are found again after a restart
+        final Heap heap = new Heap(this.fixture.file("shared.heap"), BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 64 * 1024);
+        final Compressor compressor = new Compressor(heap, 0, 10000, 9);
+        final CompressionDictionaries dictionaries = new CompressionDictionaries(this.fixture.file("shared.dict"), 6, 6, 10);
+        assertEquals(2, dictionaries.size());
+        compressor.setDictionaries(dictionaries);
+        for (int i = 0; i < 50; i++) {
+            for (int host = 0; host < 2; host++) assertArrayEquals(page(host, i), compressor.get(pageKey(host, i)));
+        }
+        compressor.close(true);
+        dictionaries.close();
+    }
+
+    private static void check(final Compressor compressor, final int count) throws IOException, SpaceExceededException {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % 11 == 0) {
+                assertNull(compressor.get(key(i)));
+            } else {
+                assertArrayEquals(value(i, i % 7 == 0 ? 1 : 0), compressor.get(key(i)));
+                size++;
+            }
+        }
+        assertEquals(size, compressor.size());
+    }
+}
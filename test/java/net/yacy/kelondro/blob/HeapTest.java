@@ -0,0 +1,127 @@
+/**
+ *  HeapTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.blob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.yacy.kelondro.blob.BLOBTestFixture.key;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the online compaction of heap files.
+ */
+public class HeapTest {
+
+    private static final int COUNT = 4000;
+
+    @Rule
+    public final BLOBTestFixture fixture = new BLOBTestFixture();
+
+    private static byte[] value(final int i, final int version) {
+        return BLOBTestFixture.value(i, version, 50 + i % 200);
+    }
+
+    @Test
+    public void testCompactWhileReadingAndWriting() throws IOException, SpaceExceededException, InterruptedException {
+        final File file = this.fixture.file("test.heap");
+        Heap heap = new Heap(file, BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 1024);
+        for (int i = 0; i < COUNT; i++) heap.insert(key(i), value(i, 0));
+        heap.flushBuffer();
+        // delete every second record; the gaps between the remaining records cannot be merged
+        for (int i = 0; i < COUNT; i += 2) heap.delete(key(i));
+        final double before = heap.fragmentation();
+        assertTrue("fragmentation " + before, before > 0.3);
+
+        // readers and one writer work on the heap while it is compacted
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Heap h = heap;
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get()) {
+                        for (int i = 1; i < COUNT / 2; i += 2) assertArrayEquals(value(i, 0), h.get(key(i)));
+                    }
+                } catch (final Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // change records in the second half and insert new ones
+                    for (int i = COUNT / 2 + 1; i < COUNT; i += 2) h.insert(key(i), value(i, 1));
+                    for (int i = COUNT; i < COUNT + 500; i++) h.insert(key(i), value(i, 1));
+                    for (int i = COUNT / 2 + 3; i < COUNT; i += 4) h.delete(key(i));
+                } catch (final Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        reader.start();
+        writer.start();
+        assertTrue(heap.compact(512 * 1024));
+        writer.join();
+        running.set(false);
+        reader.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+
+        heap.flushBuffer();
+        assertTrue("fragmentation " + heap.fragmentation(), heap.fragmentation() < before);
+        assertTrue(heap.compact(0));
+        assertTrue("fragmentation " + heap.fragmentation(), heap.fragmentation() < 0.01);
+        check(heap);
+
+        // the compacted file is used after a restart
+        heap.close(true);
+        assertFalse(this.fixture.file("test.heap.compact").exists());
+        heap = new Heap(file, BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 1024);
+        check(heap);
+        heap.close(false);
+        // also without the index dump
+        for (final String f: this.fixture.dir().list()) if (f.endsWith(".idx") || f.endsWith(".gap")) FileUtils.deletedelete(this.fixture.file(f));
+        heap = new Heap(file, BLOBTestFixture.KEYLENGTH, Base64Order.enhancedCoder, 1024);
+        check(heap);
+        heap.close(false);
+    }
+
+    private static void check(final Heap heap) throws IOException, SpaceExceededException {
+        for (int i = 0; i < COUNT / 2; i++) {
+            if (i % 2 == 0) assertNull(heap.get(key(i))); else assertArrayEquals(value(i, 0), heap.get(key(i)));
+        }
+        for (int i = COUNT / 2; i < COUNT; i++) {
+            if (i % 2 == 0 || (i - COUNT / 2 - 3) % 4 == 0) assertNull(heap.get(key(i))); else assertArrayEquals(value(i, 1), heap.get(key(i)));
+        }
+        for (int i = COUNT; i < COUNT + 500; i++) assertArrayEquals(value(i, 1), heap.get(key(i)));
+        assertEquals(COUNT / 4 + COUNT / 8 + 500, heap.size());
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *  CitationAdjacencyTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.data.citation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the counts, the merges, the removal and the persistence of the CitationAdjacency.
+ */
+public class CitationAdjacencyTest {
+
+    private File dir;
+    private int bufferMaxEdges;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("CitationAdjacencyTest").toFile();
+        this.bufferMaxEdges = CitationAdjacency.bufferMaxEdges;
+    }
+
+    @After
+    public void tearDown() {
+        CitationAdjacency.bufferMaxEdges = this.bufferMaxEdges;
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private static byte[] hash(final String url) throws Exception {
+        return new DigestURL(url).hash();
+    }
+
+    private static Set<String> strings(final List<byte[]> hashes) {
+        final Set<String> s = new TreeSet<String>();
+        for (final byte[] h: hashes) s.add(ASCII.String(h));
+        return s;
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        final CitationAdjacency adjacency = new CitationAdjacency(new File(this.dir, "citation.adjacency"));
+        final byte[] target = hash("http://a.example.org/target.html");
+        final List<byte[]> targets = Arrays.asList(target);
+        adjacency.add(hash("http://a.example.org/1.html"), targets);
+        adjacency.add(hash("http://a.example.org/2.html"), targets);
+        adjacency.add(hash("http://a.example.org/2.html"), targets); // double link
+        adjacency.add(hash("http://b.example.org/1.html"), targets);
+        adjacency.add(hash("http://b.example.org/2.html"), targets);
+        adjacency.add(hash("http://c.example.org/1.html"), Arrays.asList(target, hash("http://c.example.org/other.html")));
+
+        final CitationAdjacency.Counts counts = adjacency.count(target);
+        assertEquals(2, counts.internal);
+        assertEquals(3, counts.external);
+        assertEquals(2, counts.externalHosts);
+        assertEquals(5, adjacency.referrers(target).size());
+        assertEquals(0, adjacency.count(hash("http://d.example.org/")).all());
+        assertEquals(1, adjacency.count(hash("http://c.example.org/other.html")).internal);
+        adjacency.close();
+    }
+
+    @Test
+    public void testMergesAndRemoval() throws Exception {
+        CitationAdjacency.bufferMaxEdges = 16; // many small blocks and merges
+        final CitationAdjacency adjacency = new CitationAdjacency(new File(this.dir, "citation.adjacency"));
+        final Random random = new Random(7);
+        final byte[][] urls = new byte[200][];
+        for (int i = 0; i < urls.length; i++) urls[i] = hash("http://host" + (i % 9) + ".example.org/page" + i + ".html");
+        final Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i++) {
+                final byte[] source = urls[random.nextInt(urls.length)];
+                final List<byte[]> targets = new ArrayList<byte[]>();
+                for (int k = random.nextInt(5); k >= 0; k--) {
+                    final byte[] target = urls[random.nextInt(urls.length)];
+                    targets.add(target);
+                    Set<String> s = expected.get(ASCII.String(target));
+                    if (s == null) {s = new TreeSet<String>(); expected.put(ASCII.String(target), s);}
+                    s.add(ASCII.String(source));
+                }
+                adjacency.add(source, targets);
+            }
+            // remove some targets between the appends
+            for (int i = round; i < urls.length; i += 17) {
+                final Set<String> s = expected.remove(ASCII.String(urls[i]));
+                assertEquals(s == null ? new TreeSet<String>() : s, strings(adjacency.remove(urls[i])));
+            }
+            for (final byte[] target: urls) {
+                final Set<String> s = expected.get(ASCII.String(target));
+                assertEquals(s == null ? new TreeSet<String>() : s, strings(adjacency.referrers(target)));
+                int internal = 0;
+                for (final String r: s == null ? new TreeSet<String>() : s) if (r.substring(6).equals(ASCII.String(target).substring(6))) internal++;
+                final CitationAdjacency.Counts counts = adjacency.count(target);
+                assertEquals(internal, counts.internal);
+                assertEquals((s == null ? 0 : s.size()) - internal, counts.external);
+            }
+        }
+        adjacency.close();
+
+        // the merged block is written at close and read again
+        final File file = new File(this.dir, "citation.adjacency");
+        assertTrue(file.exists());
+        final CitationAdjacency reopened = new CitationAdjacency(file);
+        assertTrue(reopened.restored());
+        assertFalse(file.exists()); // a crash must not leave an outdated file
+        for (final byte[] target: urls) {
+            final Set<String> s = expected.get(ASCII.String(target));
+            assertEquals(s == null ? new TreeSet<String>() : s, strings(reopened.referrers(target)));
+            assertEquals(s == null ? 0 : s.size(), reopened.count(target).all());
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testMissingFile() {
+        final CitationAdjacency adjacency = new CitationAdjacency(new File(this.dir, "citation.adjacency"));
+        assertFalse(adjacency.restored());
+        assertEquals(0, adjacency.size());
+        adjacency.close();
+    }
+}
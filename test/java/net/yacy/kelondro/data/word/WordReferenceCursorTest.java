@@ -0,0 +1,90 @@
+/**
+ *  WordReferenceCursorTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.data.word;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.crawler.retrieval.Response;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Unit tests for WordReferenceCursor class.
+ */
+public class WordReferenceCursorTest {
+
+    @Test
+    public void testCursorReadsRows() throws Exception {
+        final Random random = new Random(0);
+        final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(new WordReferenceFactory(), Word.word2hash("test"), 100);
+        for (int i = 0; i < 100; i++) {
+            final Bitfield flags = new Bitfield(4);
+            flags.set(random.nextInt(32), true);
+            container.add(new WordReferenceVars(new DigestURL("http://host" + (i % 7) + ".test/page" + i + ".html").hash(), 20 + random.nextInt(80), 1 + random.nextInt(6),
+                    random.nextInt(20), 1 + random.nextInt(30), 100 + random.nextInt(2000), 1 + random.nextInt(100), 1 + random.nextInt(1000), null,
+                    random.nextInt(20), random.nextInt(100), System.currentTimeMillis() - random.nextInt(1000) * 86400000L, i % 3 == 0 ? "de" : "en",
+                    Response.DT_TEXT, random.nextInt(50), random.nextInt(50), flags, 0.0d));
+        }
+
+        final WordReferenceCursor cursor = new WordReferenceCursor(container);
+        assertEquals(100, cursor.size());
+        for (int pass = 0; pass < 2; pass++) {
+            int i = 0;
+            while (cursor.next()) {
+                final Row.Entry row = container.get(i++, true);
+                final WordReferenceVars vars = new WordReferenceVars(new WordReferenceRow(row), true);
+                assertArrayEquals(vars.urlhash(), cursor.urlhash());
+                assertEquals(vars.hosthash(), cursor.hosthash());
+                assertEquals(vars.virtualAge(), cursor.virtualAge());
+                assertEquals(vars.hitcount(), cursor.hitcount());
+                assertEquals(vars.posintext(), cursor.posintext());
+                assertEquals(vars.distance(), cursor.distance());
+                assertEquals(vars.posinphrase(), cursor.posinphrase());
+                assertEquals(vars.posofphrase(), cursor.posofphrase());
+                assertEquals(vars.wordsintext(), cursor.wordsintext());
+                assertEquals(vars.phrasesintext(), cursor.phrasesintext());
+                assertEquals(vars.getLanguageString(), new String(cursor.getLanguage()));
+                assertEquals(vars.getType(), cursor.getType());
+                assertEquals(vars.wordsintitle(), cursor.wordsintitle());
+                assertEquals(vars.llocal(), cursor.llocal());
+                assertEquals(vars.lother(), cursor.lother());
+                assertEquals(vars.urllength(), cursor.urllength());
+                assertEquals(vars.urlcomps(), cursor.urlcomps());
+                assertEquals(vars.termFrequency(), cursor.termFrequency(), 0.0d);
+                for (int j = 0; j < 32; j++) assertEquals(vars.flags().get(j), cursor.flags().get(j));
+                assertEquals(vars, cursor.vars(true));
+            }
+            assertEquals(100, i);
+            assertFalse(cursor.next());
+            cursor.reset();
+        }
+        assertTrue(cursor.next());
+    }
+
+}
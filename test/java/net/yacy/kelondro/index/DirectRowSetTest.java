@@ -0,0 +1,152 @@
+/**
+ *  DirectRowSetTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.kelondro.util.MemoryControl;
+
+/**
+ * Unit tests for the DirectRowSet class, compared against the heap based RowSet.
+ */
+public class DirectRowSetTest {
+
+    private static final Row row = new Row("byte[] a-12, byte[] b-12", Base64Order.enhancedCoder);
+
+    private static Row.Entry entry(final byte[] key) {
+        return row.newEntry(new byte[][]{key, key});
+    }
+
+    /**
+     * Test of put, delete, has and ordered key iteration against a RowSet with the same content.
+     */
+    @Test
+    public void testSameBehaviourAsRowSet() throws SpaceExceededException {
+        final DirectRowSet direct = new DirectRowSet(row);
+        final RowSet heap = new RowSet(row);
+        final Random random = new Random(0);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 5000; i++) {
+            final byte[] key = RowSet.randomHash(random);
+            keys.add(key);
+            direct.put(entry(key));
+            heap.put(entry(key));
+        }
+        for (int i = 0; i < keys.size(); i += 3) {
+            assertEquals(heap.delete(keys.get(i)), direct.delete(keys.get(i)));
+        }
+        assertEquals(heap.size(), direct.size());
+        for (final byte[] key: keys) {
+            assertEquals(heap.has(key), direct.has(key));
+        }
+        final Iterator<byte[]> hi = heap.keys(true, null);
+        final Iterator<byte[]> di = direct.keys(true, null);
+        while (hi.hasNext()) {
+            assertTrue(di.hasNext());
+            assertArrayEquals(hi.next(), di.next());
+        }
+        assertFalse(di.hasNext());
+        assertTrue(MemoryControl.usedDirect() >= direct.mem());
+        direct.close();
+    }
+
+    /**
+     * Test of sort, uniq and merge.
+     */
+    @Test
+    public void testSortUniqMerge() throws SpaceExceededException {
+        final Random random = new Random(1);
+        final DirectRowSet a = new DirectRowSet(row);
+        final DirectRowSet b = new DirectRowSet(row);
+        for (int i = 0; i < 1000; i++) {
+            final byte[] key = RowSet.randomHash(random);
+            a.addUnique(entry(key));
+            a.addUnique(entry(key)); // a double entry
+            if (i % 2 == 0) b.addUnique(entry(key));
+        }
+        a.sort();
+        assertTrue(a.isSorted());
+        a.uniq();
+        assertEquals(1000, a.size());
+
+        final DirectRowSet m = a.merge(b);
+        assertEquals(1000, m.size());
+        assertTrue(m.isSorted());
+        byte[] last = null;
+        for (final Row.Entry e: m) {
+            final byte[] key = e.getPrimaryKeyBytes();
+            if (last != null) assertTrue(row.objectOrder.compare(last, key) < 0);
+            last = key;
+        }
+    }
+
+    /**
+     * Test of the removal of double entries.
+     */
+    @Test
+    public void testRemoveDoubles() throws SpaceExceededException {
+        final Random random = new Random(2);
+        final DirectRowSet a = new DirectRowSet(row);
+        for (int i = 0; i < 100; i++) a.addUnique(entry(RowSet.randomHash(random)));
+        random.setSeed(2);
+        for (int i = 0; i < 10; i++) a.addUnique(entry(RowSet.randomHash(random)));
+        final List<RowCollection> doubles = a.removeDoubles();
+        assertEquals(10, doubles.size());
+        for (final RowCollection d: doubles) assertEquals(2, d.size());
+        assertEquals(90, a.size());
+    }
+
+
+    /**
+     * Test that a clone which exceeds the native memory limit is not returned empty.
+     */
+    @Test
+    public void testCloneAtMemoryLimit() throws SpaceExceededException {
+        final DirectRowSet direct = new DirectRowSet(row);
+        final RAMIndex index = new RAMIndex("DirectRowSetTest", row, true);
+        final Random random = new Random(0);
+        for (int i = 0; i < 50000; i++) {
+            final byte[] key = RowSet.randomHash(random);
+            direct.put(entry(key));
+            index.put(entry(key));
+        }
+        try {
+            MemoryControl.setMaxDirectMbyte(Math.max(1, MemoryControl.usedDirect() / 1024 / 1024 + 1));
+            assertNull(direct.clone());
+            final RAMIndex clone = index.clone();
+            assertFalse(clone.isDirect());
+            assertEquals(index.size(), clone.size());
+            final Iterator<byte[]> i = index.keys(true, null);
+            while (i.hasNext()) assertTrue(clone.has(i.next()));
+        } finally {
+            MemoryControl.setMaxDirectMbyte(0);
+            direct.close();
+            index.close();
+        }
+    }
+}
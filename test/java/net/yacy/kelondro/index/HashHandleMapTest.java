@@ -0,0 +1,142 @@
+/**
+ *  HashHandleMapTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Unit tests for the HashHandleMap class, compared against the RowHandleMap.
+ */
+public class HashHandleMapTest {
+
+    /**
+     * Test of put, add, remove and ordered key iteration against a RowHandleMap with the same content.
+     */
+    @Test
+    public void testSameBehaviourAsRowHandleMap() throws SpaceExceededException {
+        final HashHandleMap hash = new HashHandleMap(12, Base64Order.enhancedCoder, 8, 10, "HashHandleMapTest");
+        final RowHandleMap row = new RowHandleMap(12, Base64Order.enhancedCoder, 8, 10, "HashHandleMapTest");
+        final Random random = new Random(0);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        for (int i = 0; i < 20000; i++) {
+            final byte[] key = RowSet.randomHash(random);
+            keys.add(key);
+            assertEquals(row.put(key, i), hash.put(key, i));
+        }
+        for (int i = 0; i < keys.size(); i += 7) {
+            assertEquals(row.add(keys.get(i), 5), hash.add(keys.get(i), 5));
+        }
+        for (int i = 0; i < keys.size(); i += 3) {
+            assertEquals(row.remove(keys.get(i)), hash.remove(keys.get(i)));
+            assertEquals(-1, hash.remove(keys.get(i)));
+        }
+        assertEquals(row.size(), hash.size());
+        for (final byte[] key: keys) {
+            assertEquals(row.has(key), hash.has(key));
+            assertEquals(row.get(key), hash.get(key));
+        }
+        assertArrayEquals(row.keys(true, null).next(), hash.smallestKey());
+        assertArrayEquals(row.keys(false, null).next(), hash.largestKey());
+
+        // the RowHandleMap ignores the start key in downward iterations
+        for (final byte[] start: new byte[][]{keys.get(1), null}) {
+            final boolean up = start != null;
+            final Iterator<byte[]> r = row.keys(up, start);
+            final Iterator<byte[]> h = hash.keys(up, start);
+            while (r.hasNext()) {
+                assertTrue(h.hasNext());
+                assertArrayEquals(r.next(), h.next());
+            }
+            assertFalse(h.hasNext());
+        }
+
+        int count = 0;
+        for (final Map.Entry<byte[], Long> entry: hash) {
+            assertEquals(row.get(entry.getKey()), entry.getValue().longValue());
+            count++;
+        }
+        assertEquals(row.size(), count);
+        row.close();
+        hash.close();
+    }
+
+    /**
+     * Test that dumps of the RowHandleMap and the HashHandleMap can be read by both classes.
+     */
+    @Test
+    public void testDumpCompatibility() throws IOException, SpaceExceededException {
+        final RowHandleMap row = new RowHandleMap(12, Base64Order.enhancedCoder, 4, 10, "HashHandleMapTest");
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) row.put(RowSet.randomHash(random), i * 7);
+        for (final String name: new String[]{"HashHandleMapTest.idx", "HashHandleMapTest.idx.gz"}) {
+            final File rowDump = File.createTempFile("row", name);
+            final File hashDump = File.createTempFile("hash", name);
+            try {
+                assertEquals(row.size(), row.dump(rowDump));
+                final HashHandleMap hash = new HashHandleMap(12, Base64Order.enhancedCoder, 4, rowDump);
+                assertEquals(row.size(), hash.size());
+                assertEquals(row.size(), hash.dump(hashDump));
+                final RowHandleMap reloaded = new RowHandleMap(12, Base64Order.enhancedCoder, 4, hashDump);
+                assertEquals(row.size(), reloaded.size());
+                for (final Map.Entry<byte[], Long> entry: row) {
+                    assertEquals(entry.getValue().longValue(), hash.get(entry.getKey()));
+                    assertEquals(entry.getValue().longValue(), reloaded.get(entry.getKey()));
+                }
+                hash.close();
+                reloaded.close();
+            } finally {
+                rowDump.delete();
+                hashDump.delete();
+            }
+        }
+        row.close();
+    }
+
+    /**
+     * The slot iterator must refuse remove() instead of skipping or repeating shifted entries.
+     */
+    @Test
+    public void testIteratorRemoveUnsupported() throws SpaceExceededException {
+        final HashHandleMap hash = new HashHandleMap(12, Base64Order.enhancedCoder, 4, 16, "HashHandleMapTest");
+        hash.put(RowSet.randomHash(new Random(0)), 1);
+        final Iterator<Map.Entry<byte[], Long>> i = hash.iterator();
+        i.next();
+        try {
+            i.remove();
+            fail("remove() must not be supported");
+        } catch (final UnsupportedOperationException e) {
+        }
+        assertEquals(1, hash.size());
+        hash.close();
+    }
+
+}
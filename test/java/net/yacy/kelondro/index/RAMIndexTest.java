@@ -0,0 +1,106 @@
+/**
+ *  RAMIndexTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.yacy.cora.order.Base64Order;
+import net.yacy.cora.util.SpaceExceededException;
+
+/**
+ * Unit tests for the locking of the RAMIndex.
+ */
+public class RAMIndexTest {
+
+    private static final Row row = new Row("byte[] a-12, byte[] b-12", Base64Order.enhancedCoder);
+
+    /**
+     * Readers must always find the rows which had been written before they started, while a writer
+     * adds rows which cause re-sorting and growing of the concurrent index.
+     */
+    @Test
+    public void testConcurrentReadersAndWriter() throws Exception {
+        RAMIndex.setConcurrentIndexNames(Arrays.asList("RAMIndexTest.concurrent"));
+        try {
+            for (final String name: new String[]{"RAMIndexTest.concurrent", "RAMIndexTest.locked"}) {
+                final RAMIndex index = new RAMIndex(name, row);
+                assertEquals(name.endsWith("concurrent"), index.isConcurrent());
+                final Random random = new Random(0);
+                final List<byte[]> initial = new ArrayList<byte[]>();
+                for (int i = 0; i < 2000; i++) {
+                    final byte[] key = RowSet.randomHash(random);
+                    initial.add(key);
+                    index.addUnique(row.newEntry(new byte[][]{key, key}));
+                }
+                final List<byte[]> later = Collections.synchronizedList(new ArrayList<byte[]>());
+                final AtomicInteger failures = new AtomicInteger(0);
+                final Thread writer = new Thread() {
+                    @Override
+                    public void run() {
+                        final Random r = new Random(1);
+                        try {
+                            for (int i = 0; i < 20000; i++) {
+                                final byte[] key = RowSet.randomHash(r);
+                                index.put(row.newEntry(new byte[][]{key, key}));
+                                later.add(key);
+                            }
+                        } catch (final SpaceExceededException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                };
+                final Thread[] readers = new Thread[4];
+                for (int t = 0; t < readers.length; t++) {
+                    readers[t] = new Thread() {
+                        @Override
+                        public void run() {
+                            while (writer.isAlive()) {
+                                for (final byte[] key: initial) {
+                                    final Row.Entry entry = index.get(key, true);
+                                    if (entry == null || !Arrays.equals(key, entry.getColBytes(1, true))) failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    };
+                }
+                writer.start();
+                for (final Thread t: readers) t.start();
+                writer.join();
+                for (final Thread t: readers) t.join();
+                assertEquals(0, failures.get());
+                assertEquals(initial.size() + later.size(), index.size());
+                for (final byte[] key: later) assertTrue(index.has(key));
+                assertTrue(index.lockRequests() > 0);
+                index.close();
+            }
+        } finally {
+            RAMIndex.setConcurrentIndexNames(new ArrayList<String>());
+        }
+    }
+
+}
@@ -3,7 +3,9 @@ package net.yacy.kelondro.io;
 
 import java.io.File;
 import net.yacy.cora.document.encoding.ASCII;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 
@@ -52,4 +54,64 @@ public class RecordsTest {
         	rec.close();
         }
     }
+
+    /**
+     * Test of a memory-mapped Records file compared to a non-mapped file
+     */
+    @Test
+    public void testMapped() throws Exception {
+        File mappedfile = new File(System.getProperty("java.io.tmpdir"), "test3.stack");
+        mappedfile.delete();
+        compareMapped(new Records(mappedfile, 8, true));
+    }
+
+    /**
+     * Test of a memory-mapped Records file with many small windows compared to a non-mapped file
+     */
+    @Test
+    public void testMappedWindows() throws Exception {
+        File mappedfile = new File(System.getProperty("java.io.tmpdir"), "test3.stack");
+        mappedfile.delete();
+        compareMapped(new Records(mappedfile, 8, true, 100));
+    }
+
+    private static void compareMapped(final Records mapped) throws Exception {
+        File mappedfile = mapped.filename();
+        File plainfile = new File(System.getProperty("java.io.tmpdir"), "test4.stack");
+        plainfile.delete();
+        Records plain = new Records(plainfile, 8);
+        byte[] a = new byte[8];
+        byte[] b = new byte[8];
+
+        try {
+            assertTrue(mapped.isMapped());
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 5000; i++) { // more than the write buffer, the file grows while mapped
+                    byte[] r = ASCII.getBytes(String.format("%08d", i + round));
+                    mapped.add(r, 0);
+                    plain.add(r, 0);
+                }
+                for (int i = 0; i < mapped.size(); i += 7) { // overwrite inside of the file
+                    byte[] r = ASCII.getBytes(String.format("x%07d", i));
+                    mapped.put(i, r, 0);
+                    plain.put(i, r, 0);
+                }
+                for (int i = 0; i < 1000; i++) { // shrink the file
+                    mapped.cleanLast(a, 0);
+                    plain.cleanLast(b, 0);
+                    assertArrayEquals(b, a);
+                }
+                assertEquals(plain.size(), mapped.size());
+                for (int i = 0; i < mapped.size(); i++) {
+                    mapped.get(i, a, 0);
+                    plain.get(i, b, 0);
+                    assertArrayEquals(b, a);
+                }
+            }
+        } finally {
+            mapped.close();
+            plain.close();
+        }
+        assertEquals(plainfile.length(), mappedfile.length());
+    }
 }
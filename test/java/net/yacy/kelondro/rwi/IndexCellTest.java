@@ -0,0 +1,509 @@
+/**
+ *  IndexCellTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.crawler.retrieval.Response;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the sharded RAM buffer, the write-ahead log, the BLOB merges, the url tombstones and the term statistics of the IndexCell.
+ */
+public class IndexCellTest {
+
+    private static final int TERMS = 50;
+
+    private File dir;
+    private IODispatcher merger;
+
+    @Before
+    public void setUp() {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "IndexCellTest" + System.nanoTime());
+        this.dir.mkdirs();
+        this.merger = new IODispatcher(2, 2, 1024 * 1024);
+        this.merger.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.merger.terminate();
+        IndexCell.setBufferShards(0);
+        IndexCell.setWriteAheadLog(false);
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private IndexCell<WordReference> open() throws Exception {
+        // a small buffer, so that shards are swapped and dumped while the writers are running
+        return open(20);
+    }
+
+    private IndexCell<WordReference> open(final int maxRamEntries) throws Exception {
+        return new IndexCell<WordReference>(this.dir, "test", new WordReferenceFactory(), Word.commonHashOrder, Word.commonHashLength,
+                maxRamEntries, 1024 * 1024, 16 * 1024 * 1024, 1024 * 1024, this.merger);
+    }
+
+    private static byte[] term(final int i) {
+        return Word.word2hash("term" + (i % TERMS));
+    }
+
+    private static WordReferenceVars reference(final int i) throws Exception {
+        final DigestURL url = new DigestURL("http://host" + (i % 7) + ".test/page" + i + ".html");
+        final Queue<Integer> positions = new LinkedBlockingQueue<Integer>();
+        positions.add(1);
+        return new WordReferenceVars(url.hash(), 30, 2, 0, 1, 1, 1, 1, positions, 1, 1, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d);
+    }
+
+    @Test
+    public void testConcurrentWritesAreVisible() throws Exception {
+        IndexCell.setBufferShards(4);
+        final IndexCell<WordReference> cell = open();
+        final int threads = 4, count = 300;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * count;
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; i < offset + count; i++) {
+                            final WordReferenceVars reference = reference(i);
+                            cell.add(term(i), reference);
+                            // a reference is found wherever it is: in a shard, in a shard which is dumped or in a BLOB
+                            final ReferenceContainer<WordReference> c = cell.get(term(i), null);
+                            assertNotNull(c);
+                            assertNotNull(c.getReference(reference.urlhash()));
+                            // let the flush thread dump the full shards while the writers are running
+                            if (i % 100 == 0) awaitDump(cell, cell.getDumpCount());
+                        }
+                    } catch (final Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            writers.add(writer);
+            writer.start();
+        }
+        for (final Thread writer: writers) writer.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertTrue(cell.getSegmentCount() > 0);
+        check(cell, threads * count);
+        cell.close();
+
+        // the buffer was written at close
+        final IndexCell<WordReference> reopened = open();
+        assertEquals(0, reopened.getBufferSize());
+        check(reopened, threads * count);
+        reopened.close();
+    }
+
+    @Test
+    public void testWriteAheadLog() throws Exception {
+        IndexCell.setWriteAheadLog(true);
+        final int count = 600;
+        IndexCell<WordReference> cell = open(count * 2);
+        for (int i = 0; i < count; i++) cell.add(term(i), reference(i));
+        for (int i = 0; i < count; i += 3) cell.remove(term(i), reference(i).urlhash());
+        cell.delete(term(1));
+        cell.close();
+
+        // the buffer was not dumped, it is read again from the log
+        assertEquals(0, new ReferenceContainerArray<WordReference>(this.dir, "test", new WordReferenceFactory(), Word.commonHashOrder, Word.commonHashLength).entries());
+        cell = open(count * 2);
+        assertTrue(cell.getBufferSize() > 0);
+        checkLogged(cell, count, 0);
+
+        // the log is committed while the cell is running, a copy of the files is what remains after a crash
+        for (int i = count; i < count + TERMS; i++) cell.add(term(i), reference(i));
+        cell.syncLogs();
+        final File crashed = new File(this.dir, "crashed");
+        crashed.mkdirs();
+        for (final File f: this.dir.listFiles()) if (f.getName().endsWith(".wal")) Files.copy(f.toPath(), new File(crashed, f.getName()).toPath());
+        cell.close();
+        final IndexCell<WordReference> recovered = new IndexCell<WordReference>(crashed, "test", new WordReferenceFactory(), Word.commonHashOrder, Word.commonHashLength,
+                count * 2, 1024 * 1024, 16 * 1024 * 1024, 1024 * 1024, this.merger);
+        checkLogged(recovered, count, TERMS);
+        recovered.close();
+
+        // without the log, the references of the log are written to a BLOB file at once
+        IndexCell.setWriteAheadLog(false);
+        cell = open(count * 2);
+        assertEquals(0, cell.getBufferSize());
+        checkLogged(cell, count, TERMS);
+        cell.close();
+        for (final File f: this.dir.listFiles()) assertFalse(f.getName(), f.getName().endsWith(".wal"));
+    }
+
+    @Test
+    public void testDamagedWriteAheadLogIsKept() throws Exception {
+        IndexCell.setBufferShards(1);
+        IndexCell.setWriteAheadLog(true);
+        final int count = 100;
+        IndexCell<WordReference> cell = open(count * 2);
+        for (int i = 0; i < count; i++) cell.add(term(i), reference(i));
+        cell.close();
+
+        // a record with an unknown type behind the valid records
+        File wal = null;
+        for (final File f: this.dir.listFiles()) if (f.getName().endsWith(".wal")) wal = f;
+        assertNotNull(wal);
+        final byte[] record = new byte[1 + Word.commonHashLength + 4];
+        record[0] = 'x';
+        Files.write(wal.toPath(), record, StandardOpenOption.APPEND);
+
+        // the valid records are replayed and the damaged log is kept for inspection
+        cell = open(count * 2);
+        for (int i = 0; i < count; i++) assertNotNull(cell.get(term(i), null).getReference(reference(i).urlhash()));
+        assertFalse(wal.exists());
+        assertTrue(new File(this.dir, wal.getName() + ".damaged").exists());
+        cell.close();
+    }
+
+    /**
+     * @param count the number of references which were changed before the first close
+     * @param added the number of references which were added afterwards
+     */
+    private static void checkLogged(final IndexCell<WordReference> cell, final int count, final int added) throws Exception {
+        for (int i = 0; i < count + added; i++) {
+            final ReferenceContainer<WordReference> c = cell.get(term(i), null);
+            final boolean found = c != null && c.getReference(reference(i).urlhash()) != null;
+            // every third reference was removed and the container of term 1 was deleted
+            assertEquals(i >= count || (i % 3 != 0 && i % TERMS != 1), found);
+        }
+    }
+
+    @Test
+    public void testTierMerge() throws Exception {
+        IODispatcher.setMergeFanIn(3);
+        IODispatcher.setMergeWorkers(2);
+        final IODispatcher tierMerger = new IODispatcher(2, 2, 1024 * 1024);
+        tierMerger.start();
+        try {
+            final WordReferenceFactory factory = new WordReferenceFactory();
+            final ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(this.dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            final int files = 6, count = 600;
+            for (int f = 0; f < files; f++) {
+                final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+                for (int i = f; i < count; i += files) cache.add(term(i), reference(i));
+                final File file = array.newContainerBLOBFile();
+                cache.dump(file, 1024 * 1024, true);
+                array.mountBLOBFile(file);
+            }
+            assertEquals(files, array.entries());
+
+            // two full tiers of three files are merged, the remaining files do not fill a tier
+            assertTrue(array.shrinkTier(tierMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            assertTrue(array.shrinkTier(tierMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            assertFalse(array.shrinkTier(tierMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            final long timeout = System.currentTimeMillis() + 10000;
+            while ((tierMerger.mergeBacklog() > 0 || array.entries() < 2) && System.currentTimeMillis() < timeout) Thread.sleep(10);
+            assertEquals(0, tierMerger.mergeBacklog());
+            assertEquals(2, array.entries());
+            assertEquals(2, tierMerger.mergeCount());
+            for (int i = 0; i < count; i++) {
+                final ReferenceContainer<WordReference> c = array.get(term(i));
+                assertNotNull(c);
+                assertEquals(count / TERMS, c.size());
+                assertNotNull(c.getReference(reference(i).urlhash()));
+            }
+            array.close();
+        } finally {
+            tierMerger.terminate();
+            IODispatcher.setMergeFanIn(4);
+            IODispatcher.setMergeWorkers(1);
+        }
+    }
+
+    @Test
+    public void testThrottledMergeTerminates() throws Exception {
+        IODispatcher.setMergeFanIn(2);
+        IODispatcher.setMergeBandwidth(1024);
+        final IODispatcher slowMerger = new IODispatcher(2, 2, 1024 * 1024);
+        slowMerger.start();
+        try {
+            final WordReferenceFactory factory = new WordReferenceFactory();
+            final ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(this.dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            final int files = 2, count = 6000;
+            for (int f = 0; f < files; f++) {
+                final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+                for (int i = f; i < count; i += files) cache.add(term(i), reference(i));
+                final File file = array.newContainerBLOBFile();
+                array.dump(cache, file, 1024 * 1024, true);
+                array.mountBLOBFile(file);
+            }
+            assertEquals(files, array.entries());
+
+            // the budget of one kilobyte per second would delay the merge for minutes; a termination ends the throttling
+            assertTrue(array.shrinkTier(slowMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            Thread.sleep(1000);
+            assertEquals(1, slowMerger.mergeBacklog());
+            assertEquals(0, slowMerger.mergeCount());
+            final long start = System.currentTimeMillis();
+            slowMerger.terminate();
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals(1, slowMerger.mergeCount());
+            assertEquals(1, array.entries());
+            for (int i = 0; i < count; i++) assertNotNull(array.get(term(i)).getReference(reference(i).urlhash()));
+            array.close();
+        } finally {
+            slowMerger.terminate();
+            IODispatcher.setMergeFanIn(4);
+            IODispatcher.setMergeBandwidth(0);
+        }
+    }
+
+    @Test
+    public void testRemoveURLs() throws Exception {
+        final int count = 600;
+        // the buffer is not dumped before the cell is closed, so every cell writes exactly one BLOB file
+        IndexCell<WordReference> cell = open(count * 2);
+        for (int i = 0; i < count; i++) cell.add(term(i), reference(i));
+        cell.close(); // the references are written to a BLOB file
+
+        cell = open(count * 2);
+        for (int i = count; i < count + TERMS; i++) cell.add(term(i), reference(i)); // references in the RAM
+        final HandleSet deleted = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        for (int i = 0; i < count + TERMS; i += 3) deleted.put(reference(i).urlhash());
+        cell.removeURLs(deleted);
+        checkRemoved(cell, count + TERMS);
+        cell.close();
+        assertTrue(new File(this.dir, "test.tombstones.gz").exists());
+
+        // the tombstones are read again
+        cell = open(count * 2);
+        checkRemoved(cell, count + TERMS);
+        cell.close();
+
+        // a merge drops the references of the deleted urls, then the tombstones are not needed any more
+        IODispatcher.setMergeFanIn(2);
+        final IODispatcher tierMerger = new IODispatcher(2, 2, 1024 * 1024);
+        tierMerger.start();
+        try {
+            final Tombstones tombstones = new Tombstones(new File(this.dir, "test.tombstones.gz"));
+            final ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(this.dir, "test", new WordReferenceFactory(), Word.commonHashOrder, Word.commonHashLength);
+            array.setTombstones(tombstones);
+            assertEquals(2, array.entries());
+            assertEquals(0, tombstones.expire(array.oldestCreation()));
+            assertTrue(array.shrinkTier(tierMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            final long timeout = System.currentTimeMillis() + 10000;
+            while ((tierMerger.mergeBacklog() > 0 || array.entries() < 1) && System.currentTimeMillis() < timeout) Thread.sleep(10);
+            assertEquals(1, array.entries());
+            for (int i = 0; i < count + TERMS; i++) {
+                final ReferenceContainer<WordReference> c = array.get(term(i));
+                assertEquals(i % 3 != 0, c.getReference(reference(i).urlhash()) != null);
+            }
+            assertEquals(deleted.size(), tombstones.expire(array.oldestCreation()));
+            assertTrue(tombstones.isEmpty());
+            array.close();
+        } finally {
+            tierMerger.terminate();
+            IODispatcher.setMergeFanIn(4);
+        }
+    }
+
+    @Test
+    public void testReindexAfterRemoveURLs() throws Exception {
+        final int count = 600;
+        IndexCell<WordReference> cell = open(count * 2);
+        for (int i = 0; i < count; i++) cell.add(term(i), reference(i));
+        cell.close(); // the references are written to a BLOB file
+
+        IndexCell.setWriteAheadLog(true);
+        cell = open(count * 2);
+        for (int i = count; i < count + TERMS; i++) cell.add(term(i), reference(i)); // references in the RAM
+        final HandleSet deleted = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        final HandleSet gone = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        for (int i = 0; i < count + TERMS; i += 3) {
+            deleted.put(reference(i).urlhash());
+            if (i % 6 != 0) gone.put(reference(i).urlhash());
+        }
+        cell.removeURLs(deleted);
+        // every second deleted url is indexed again
+        for (int i = 0; i < count + TERMS; i += 6) cell.add(term(i), reference(i));
+        checkReindexed(cell, count + TERMS, gone);
+        cell.close();
+
+        // the removal is replayed from the log before the references which were added again
+        cell = open(count * 2);
+        assertTrue(cell.getBufferSize() > 0);
+        checkReindexed(cell, count + TERMS, gone);
+        cell.close();
+
+        // without the log, the replayed references are written to a BLOB file which is newer than the tombstones
+        IndexCell.setWriteAheadLog(false);
+        cell = open(count * 2);
+        assertEquals(0, cell.getBufferSize());
+        checkReindexed(cell, count + TERMS, gone);
+
+        // a removed container does not contain deleted urls
+        final ReferenceContainer<WordReference> removed = cell.remove(term(3));
+        int found = 0;
+        for (int i = 3; i < count + TERMS; i += TERMS) {
+            assertEquals(!gone.has(reference(i).urlhash()), removed.getReference(reference(i).urlhash()) != null);
+            if (!gone.has(reference(i).urlhash())) found++;
+        }
+        assertEquals(found, removed.size());
+        cell.close();
+    }
+
+    @Test
+    public void testTermStatistics() throws Exception {
+        IODispatcher.setMergeFanIn(3);
+        final IODispatcher tierMerger = new IODispatcher(2, 2, 1024 * 1024);
+        tierMerger.start();
+        try {
+            final WordReferenceFactory factory = new WordReferenceFactory();
+            ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(this.dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            final int files = 3, count = 600;
+            for (int f = 0; f < files; f++) {
+                // every file repeats the references of the previous file, they are dropped when the files are merged
+                final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+                for (int i = Math.max(0, f - 1) * count / files; i < (f + 1) * count / files; i++) cache.add(term(i), reference(i));
+                final File file = array.newContainerBLOBFile();
+                array.dump(cache, file, 1024 * 1024, true);
+                array.mountBLOBFile(file);
+            }
+            checkStatistics(array, count * (2 * files - 1) / files);
+
+            // the statistics are written at close and read again
+            array.close();
+            array = new ReferenceContainerArray<WordReference>(this.dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            checkStatistics(array, count * (2 * files - 1) / files);
+
+            // the merge drops the double references and deleted references
+            final Tombstones tombstones = new Tombstones(new File(this.dir, "test.tombstones.gz"));
+            final HandleSet deleted = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+            deleted.put(reference(0).urlhash());
+            tombstones.add(deleted, System.currentTimeMillis());
+            array.setTombstones(tombstones);
+            assertTrue(array.shrinkTier(tierMerger, 16 * 1024 * 1024, 16 * 1024 * 1024));
+            final long timeout = System.currentTimeMillis() + 10000;
+            while ((tierMerger.mergeBacklog() > 0 || array.entries() < 1) && System.currentTimeMillis() < timeout) Thread.sleep(10);
+            assertEquals(1, array.entries());
+            checkStatistics(array, count - 1);
+            array.delete(term(1));
+            assertEquals(0, array.count(term(1)));
+            array.close();
+
+            // the statistics are computed again if the BLOB files do not match
+            final File f = array.newContainerBLOBFile();
+            final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+            cache.add(term(1), reference(count));
+            cache.dump(f, 1024 * 1024, true);
+            array = new ReferenceContainerArray<WordReference>(this.dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            // the references are counted in the BLOB files until the statistics are computed
+            assertEquals(1, array.count(term(1)));
+            final long rebuilt = System.currentTimeMillis() + 10000;
+            while (!array.statisticsReady() && System.currentTimeMillis() < rebuilt) Thread.sleep(10);
+            assertTrue(array.statisticsReady());
+            assertEquals(1, array.count(term(1)));
+            checkStatistics(array, count - count / TERMS);
+            array.close();
+        } finally {
+            tierMerger.terminate();
+            IODispatcher.setMergeFanIn(4);
+        }
+    }
+
+    /**
+     * wait until the cell has finished a dump after the given number of dumps
+     */
+    private static void awaitDump(final IndexCell<WordReference> cell, final long dumps) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (cell.getDumpCount() <= dumps && System.currentTimeMillis() < timeout) Thread.sleep(10);
+    }
+
+    private static void checkStatistics(final ReferenceContainerArray<WordReference> array, final int references) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < TERMS; i++) {
+            assertEquals(array.countBLOB(term(i)), array.count(term(i)));
+            sum += array.count(term(i));
+        }
+        assertEquals(references, sum);
+    }
+
+    private static void checkRemoved(final IndexCell<WordReference> cell, final int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            final ReferenceContainer<WordReference> c = cell.get(term(i), null);
+            assertNotNull(c);
+            assertEquals(i % 3 != 0, c.getReference(reference(i).urlhash()) != null);
+        }
+    }
+
+    /**
+     * check that only the urls which are gone are missing; the deleted urls which were indexed again are found,
+     * also by the iterator. The count of references includes the deleted references until the BLOB files are merged.
+     */
+    private static void checkReindexed(final IndexCell<WordReference> cell, final int count, final HandleSet gone) throws Exception {
+        for (int i = 0; i < count; i++) {
+            final ReferenceContainer<WordReference> c = cell.get(term(i), null);
+            assertNotNull(c);
+            assertEquals(!gone.has(reference(i).urlhash()), c.getReference(reference(i).urlhash()) != null);
+            assertTrue(c.size() <= cell.count(term(i)));
+        }
+        // the iterator may return the references in the RAM twice, so the distinct urls are counted
+        final HandleSet references = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        for (final ReferenceContainer<WordReference> c: cell) {
+            final Iterator<byte[]> urls = c.keys();
+            while (urls.hasNext()) {
+                final byte[] urlhash = urls.next();
+                assertFalse(gone.has(urlhash));
+                references.put(urlhash);
+            }
+        }
+        assertEquals(count - gone.size(), references.size());
+    }
+
+    private static void check(final IndexCell<WordReference> cell, final int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            final ReferenceContainer<WordReference> c = cell.get(term(i), null);
+            assertNotNull(c);
+            assertEquals(count / TERMS, c.size());
+            assertNotNull(c.getReference(reference(i).urlhash()));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ *  ReferenceContainerCodecTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.rwi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.cora.storage.HandleSet;
+import net.yacy.crawler.retrieval.Response;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.index.RowHandleSet;
+import net.yacy.kelondro.index.RowSet;
+import net.yacy.kelondro.util.Bitfield;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the block format of reference containers.
+ */
+public class ReferenceContainerCodecTest {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    private static WordReferenceVars reference(final int i) throws Exception {
+        final DigestURL url = new DigestURL("http://host" + (i % 7) + ".test/page" + i + ".html");
+        final Queue<Integer> positions = new LinkedBlockingQueue<Integer>();
+        positions.add(1 + i % 50);
+        return new WordReferenceVars(url.hash(), 30 + i % 3, 200 + i, 0, 1, 1, 1, 1, positions, 1, 1 + i % 4, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d);
+    }
+
+    private static ReferenceContainer<WordReference> container(final byte[] term, final int from, final int count) throws Exception {
+        final ReferenceContainer<WordReference> c = new ReferenceContainer<WordReference>(factory, term, count);
+        for (int i = from; i < from + count; i++) c.add(reference(i));
+        return c;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ReferenceContainer<WordReference> c = container(Word.word2hash("test"), 0, 1000);
+        final byte[] old = c.exportCollection();
+        final byte[] packed = ReferenceContainerCodec.pack(c);
+        assertFalse(ReferenceContainerCodec.isPacked(old));
+        assertTrue(ReferenceContainerCodec.isPacked(packed));
+        assertTrue("packed = " + packed.length + ", old = " + old.length, packed.length < old.length / 2);
+
+        // the decoded container is equal to the sorted original container
+        final RowSet decoded = ReferenceContainerCodec.importRowSet(packed, WordReferenceRow.urlEntryRow);
+        assertEquals(c.size(), decoded.size());
+        assertArrayEquals(old, decoded.exportCollection());
+        assertArrayEquals(old, ReferenceContainerCodec.importRowSet(old, WordReferenceRow.urlEntryRow).exportCollection());
+
+        // both formats can be counted from their header
+        assertEquals(1000, ReferenceContainerCodec.count(Arrays.copyOf(old, ReferenceContainerCodec.HEAD_LENGTH), WordReferenceRow.urlEntryRow));
+        assertEquals(1000, ReferenceContainerCodec.count(Arrays.copyOf(packed, ReferenceContainerCodec.HEAD_LENGTH), WordReferenceRow.urlEntryRow));
+    }
+
+    @Test
+    public void testSelect() throws Exception {
+        final ReferenceContainer<WordReference> c = container(Word.word2hash("test"), 0, 500);
+        final HandleSet keys = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        for (int i = 0; i < 500; i += 7) keys.put(reference(i).urlhash());
+        keys.put(reference(500).urlhash()); // not in the container
+        for (final boolean packed: new boolean[]{true, false}) {
+            final byte[] b = ReferenceContainerCodec.export(c, packed);
+            final RowSet selected = ReferenceContainerCodec.select(b, WordReferenceRow.urlEntryRow, keys);
+            assertEquals(keys.size() - 1, selected.size());
+            for (int i = 0; i < 500; i += 7) {
+                final Row.Entry entry = selected.get(reference(i).urlhash(), false);
+                assertNotNull(entry);
+                assertArrayEquals(c.getReference(reference(i).urlhash()).toKelondroEntry().bytes(), entry.bytes());
+            }
+            assertNull(selected.get(reference(500).urlhash(), false));
+            assertNull(selected.get(reference(1).urlhash(), false));
+        }
+
+        // a single key, only one block is decoded
+        final HandleSet one = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+        one.put(reference(499).urlhash());
+        assertEquals(1, ReferenceContainerCodec.select(ReferenceContainerCodec.pack(c), WordReferenceRow.urlEntryRow, one).size());
+
+        // an empty container
+        final byte[] empty = ReferenceContainerCodec.pack(new ReferenceContainer<WordReference>(factory, Word.word2hash("test"), 0));
+        assertEquals(0, ReferenceContainerCodec.importRowSet(empty, WordReferenceRow.urlEntryRow).size());
+        assertEquals(0, ReferenceContainerCodec.select(empty, WordReferenceRow.urlEntryRow, one).size());
+    }
+
+    @Test
+    public void testMixedFormats() throws Exception {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "ReferenceContainerCodecTest" + System.nanoTime());
+        dir.mkdirs();
+        final byte[] term = Word.word2hash("test");
+        try {
+            final ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+
+            // one file in the old format and one file in the packed format
+            ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+            cache.add(container(term, 0, 300));
+            File f = array.newContainerBLOBFile();
+            cache.dump(f, 1024 * 1024, true, false);
+            array.mountBLOBFile(f);
+            cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+            cache.add(container(term, 300, 200));
+            f = array.newContainerBLOBFile();
+            cache.dump(f, 1024 * 1024, true, true);
+            array.mountBLOBFile(f);
+
+            assertEquals(500, array.count(term));
+            final ReferenceContainer<WordReference> c = array.get(term);
+            assertEquals(500, c.size());
+            for (int i = 0; i < 500; i++) assertNotNull(c.getReference(reference(i).urlhash()));
+
+            // a selection of urls is read from both formats
+            final HandleSet selection = new RowHandleSet(Word.commonHashLength, Word.commonHashOrder, 0);
+            for (int i = 0; i < 500; i += 50) selection.put(reference(i).urlhash());
+            final ReferenceContainer<WordReference> selected = array.get(term, selection);
+            assertEquals(10, selected.size());
+            for (int i = 0; i < 500; i += 50) assertNotNull(selected.getReference(reference(i).urlhash()));
+
+            // references are removed from both formats in place
+            array.reduce(term, new ReferenceContainerArray.ContainerReducer<WordReference>() {
+                @Override
+                public ReferenceContainer<WordReference> reduce(final ReferenceContainer<WordReference> container) {
+                    try {
+                        container.removeReference(reference(0).urlhash());
+                        container.removeReference(reference(400).urlhash());
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return container;
+                }
+            });
+            assertEquals(498, array.count(term));
+            assertNull(array.get(term).getReference(reference(400).urlhash()));
+            array.close();
+        } finally {
+            FileUtils.deletedelete(dir);
+        }
+    }
+
+    @Test
+    public void testReduceOverflow() throws Exception {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "ReferenceContainerCodecTest" + System.nanoTime());
+        dir.mkdirs();
+        final byte[] term = Word.word2hash("test");
+        try {
+            final ReferenceContainerArray<WordReference> array = new ReferenceContainerArray<WordReference>(dir, "test", factory, Word.commonHashOrder, Word.commonHashLength);
+            array.setPackedReferences(true);
+            final ReferenceContainerCache<WordReference> cache = new ReferenceContainerCache<WordReference>(factory, Word.commonHashOrder, Word.commonHashLength);
+            cache.add(container(term, 0, 300));
+            final File f = array.newContainerBLOBFile();
+            array.dump(cache, f, 1024 * 1024, true);
+            array.mountBLOBFile(f);
+
+            // the remaining references get values without runs, so the reduced container does not fit in place
+            array.reduce(term, new ReferenceContainerArray.ContainerReducer<WordReference>() {
+                @Override
+                public ReferenceContainer<WordReference> reduce(final ReferenceContainer<WordReference> container) {
+                    try {
+                        container.removeReference(reference(0).urlhash());
+                        for (int i = 1; i < 300; i++) container.put(scattered(i));
+                    } catch (final Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return container;
+                }
+            });
+            assertEquals(299, array.countBLOB(term));
+            assertEquals(299, array.count(term));
+            final ReferenceContainer<WordReference> c = array.get(term);
+            assertEquals(299, c.size());
+            assertNull(c.getReference(reference(0).urlhash()));
+            for (int i = 1; i < 300; i++) assertEquals(scattered(i).posintext(), c.getReference(reference(i).urlhash()).posintext());
+            array.close();
+        } finally {
+            FileUtils.deletedelete(dir);
+        }
+    }
+
+    private static WordReferenceVars scattered(final int i) throws Exception {
+        final DigestURL url = new DigestURL("http://host" + (i % 7) + ".test/page" + i + ".html");
+        final Queue<Integer> positions = new LinkedBlockingQueue<Integer>();
+        positions.add(1 + (i * 7919) % 10007);
+        return new WordReferenceVars(url.hash(), 1 + (i * 31) % 97, 1000 + (i * 7907) % 65521, 0, 1 + i % 5, 1 + (i * 13) % 101, 1 + (i * 17) % 103, 1 + i % 11,
+                positions, 1 + (i * 19) % 107, 1 + (i * 23) % 109, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d);
+    }
+}
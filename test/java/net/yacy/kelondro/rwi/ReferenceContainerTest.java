@@ -23,6 +23,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -99,4 +103,85 @@ public class ReferenceContainerTest {
         assertEquals("distance()", wentry.distance(), wc.distance());
     }
 
+    /**
+     * create a container with references to every step-th page, beginning with page start
+     */
+    private static ReferenceContainer<WordReference> container(final String word, final int start, final int step, final int count) throws Exception {
+        final ReferenceContainer<WordReference> rc = new ReferenceContainer<WordReference>(new WordReferenceFactory(), Word.word2hash(word), count);
+        for (int i = start; i < start + step * count; i += step) {
+            final DigestURL url = new DigestURL("http://test" + (i % 7) + ".org/page" + i + ".html");
+            final Queue<Integer> positions = new LinkedBlockingQueue<Integer>();
+            positions.add(1 + (i * word.length()) % 40);
+            rc.add(new WordReferenceVars(url.hash(), 30, 2, 0, 1, 100, 10, positions.peek(), positions, 1, 1, 0, "en", Response.DT_TEXT, 0, 0, new Bitfield(4), 0.0d));
+        }
+        return rc;
+    }
+
+    private static String urls(final ReferenceContainer<WordReference> rc) {
+        if (rc == null) return "";
+        rc.sort();
+        final StringBuilder sb = new StringBuilder();
+        final Iterator<WordReference> i = rc.entries();
+        while (i.hasNext()) sb.append(new String(i.next().urlhash())).append(' ');
+        return sb.toString();
+    }
+
+    /**
+     * Test of joinExcludeGalloping against the pairwise join and exclusion
+     */
+    @Test
+    public void testJoinExcludeGalloping() throws Exception {
+        final ReferenceFactory<WordReference> factory = new WordReferenceFactory();
+        final ReferenceContainer<WordReference> a = container("a", 0, 2, 3000);
+        final ReferenceContainer<WordReference> b = container("bb", 0, 3, 2000);
+        final ReferenceContainer<WordReference> c = container("ccc", 0, 1, 6000);
+        final Collection<ReferenceContainer<WordReference>> include = new ArrayList<ReferenceContainer<WordReference>>(Arrays.asList(a, b, c));
+        final Collection<ReferenceContainer<WordReference>> exclude = Arrays.asList(container("x", 0, 12, 100), container("y", 5, 1000, 3));
+        final String expected = urls(ReferenceContainer.excludeContainers(factory, ReferenceContainer.joinContainers(factory, include, Integer.MAX_VALUE), exclude));
+        final ReferenceContainer<WordReference> joined = ReferenceContainer.joinExcludeGalloping(factory, include, exclude, Integer.MAX_VALUE);
+        assertEquals(expected, urls(joined));
+        assertEquals(1000 - 100, joined.size());
+
+        // the distance is computed from the positions of all words, joined smallest container first
+        final Iterator<WordReference> i = joined.entries();
+        int near = 0;
+        while (i.hasNext()) {
+            final WordReference r = i.next();
+            final WordReferenceVars v = new WordReferenceVars(b.getReference(r.urlhash()), true);
+            v.join(a.getReference(r.urlhash()));
+            v.join(c.getReference(r.urlhash()));
+            assertEquals(v.distance(), r.distance());
+            if (r.distance() <= 5) near++;
+        }
+        assertEquals(near, ReferenceContainer.joinExcludeGalloping(factory, include, exclude, 5).size());
+
+        // with a very small container, the large containers are searched with a binary search instead of galloping
+        final Collection<ReferenceContainer<WordReference>> skewed = Arrays.asList(container("s", 4, 997, 6), b, c);
+        final String skewedExpected = urls(ReferenceContainer.excludeContainers(factory, ReferenceContainer.joinContainers(factory, skewed, Integer.MAX_VALUE), exclude));
+        assertEquals(skewedExpected, urls(ReferenceContainer.joinExcludeGalloping(factory, skewed, exclude, Integer.MAX_VALUE)));
+        assertTrue(skewedExpected.length() > 0);
+        // with two words, this is done by the pairwise join
+        final Collection<ReferenceContainer<WordReference>> skewedPair = Arrays.asList(container("s", 4, 997, 6), c);
+        assertEquals(urls(ReferenceContainer.excludeContainers(factory, ReferenceContainer.joinContainers(factory, skewedPair, Integer.MAX_VALUE), exclude)),
+                urls(ReferenceContainer.joinExcludeGalloping(factory, skewedPair, exclude, Integer.MAX_VALUE)));
+        // and the references are joined from both containers like in the array join
+        final ReferenceContainer<WordReference> small = container("s", 4, 997, 6);
+        final Iterator<WordReference> p = ReferenceContainer.joinExcludeGalloping(factory, skewedPair, null, Integer.MAX_VALUE).entries();
+        while (p.hasNext()) {
+            final WordReference r = p.next();
+            final WordReferenceVars v = new WordReferenceVars(small.getReference(r.urlhash()), true);
+            v.join(c.getReference(r.urlhash()));
+            assertEquals(v.distance(), r.distance());
+            assertEquals(v.posintext(), r.posintext());
+        }
+
+        // a single include container is only filtered
+        final ReferenceContainer<WordReference> single = ReferenceContainer.joinExcludeGalloping(factory, Arrays.asList(container("a", 0, 2, 3000)), exclude, Integer.MAX_VALUE);
+        assertEquals(3000 - 100, single.size());
+
+        // an unknown word makes the conjunction empty
+        include.add(ReferenceContainer.emptyContainer(factory, Word.word2hash("d")));
+        assertEquals(null, ReferenceContainer.joinExcludeGalloping(factory, include, exclude, Integer.MAX_VALUE));
+    }
+
 }
@@ -0,0 +1,139 @@
+/**
+ *  TableCheckpointTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.kelondro.table;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.yacy.cora.document.encoding.ASCII;
+import net.yacy.cora.order.Base64Order;
+import net.yacy.kelondro.index.IndexCheckpoint;
+import net.yacy.kelondro.index.Row;
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for restoring the index of a Table from an IndexCheckpoint.
+ */
+public class TableCheckpointTest {
+
+    private static final Row row = new Row("byte[] a-12, byte[] b-12", Base64Order.enhancedCoder);
+
+    private File dir;
+    private File tablefile;
+
+    @Before
+    public void setUp() {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "TableCheckpointTest");
+        FileUtils.deletedelete(this.dir);
+        this.dir.mkdirs();
+        this.tablefile = new File(this.dir, "test.table");
+        IndexCheckpoint.setLocation(new File(this.dir, "CHECKPOINTS"));
+    }
+
+    @After
+    public void tearDown() {
+        IndexCheckpoint.setLocation(null);
+        FileUtils.deletedelete(this.dir);
+    }
+
+    private static Row.Entry entry(final int i) {
+        final String k = Base64Order.enhancedCoder.encodeLongSB(i, 12).toString();
+        return row.newEntry(new byte[][]{ASCII.getBytes(k), ASCII.getBytes(k)});
+    }
+
+    private Table open() throws Exception {
+        return new Table(this.tablefile, row, 0, 0, false, false, false);
+    }
+
+    private static void assertContent(final Table t, final int count) throws Exception {
+        assertEquals(count, t.size());
+        for (int i = 0; i < count; i++) {
+            final Row.Entry e = entry(i);
+            final Row.Entry f = t.get(e.getPrimaryKeyBytes(), false);
+            assertNotNull(f);
+            assertArrayEquals(e.bytes(), f.bytes());
+        }
+    }
+
+    @Test
+    public void testCheckpointAndTailReplay() throws Exception {
+        Table t = open();
+        for (int i = 0; i < 1000; i++) t.put(entry(i));
+        t.checkpoint();
+        final File checkpoint = IndexCheckpoint.file(this.tablefile);
+        assertTrue(checkpoint.exists());
+        final File copy = new File(this.dir, "copy.ckp");
+        Files.copy(checkpoint.toPath(), copy.toPath());
+
+        // the checkpoint stays valid when records are replaced or appended
+        t.put(entry(7));
+        for (int i = 1000; i < 1500; i++) t.put(entry(i));
+        assertTrue(checkpoint.exists());
+        t.close();
+
+        // the checkpoint written at close covers all records
+        t = open();
+        assertContent(t, 1500);
+        t.close();
+
+        // an older checkpoint is completed with the appended records
+        Files.copy(copy.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        t = open();
+        assertContent(t, 1500);
+
+        // removing a record invalidates the checkpoint
+        t.checkpoint();
+        assertTrue(checkpoint.exists());
+        t.remove(entry(1499).getPrimaryKeyBytes());
+        assertFalse(checkpoint.exists());
+        t.close();
+        t = open();
+        assertContent(t, 1499);
+        t.close();
+    }
+
+    @Test
+    public void testCorruptCheckpoint() throws Exception {
+        Table t = open();
+        for (int i = 0; i < 1000; i++) t.put(entry(i));
+        t.close();
+        final File checkpoint = IndexCheckpoint.file(this.tablefile);
+        assertTrue(checkpoint.exists());
+
+        // flip a byte inside of the index entries; the checksum must detect this
+        final RandomAccessFile raf = new RandomAccessFile(checkpoint, "rw");
+        raf.seek(raf.length() / 2);
+        final int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        t = open();
+        assertContent(t, 1000);
+        t.close();
+    }
+}
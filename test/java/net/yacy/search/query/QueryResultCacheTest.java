@@ -0,0 +1,103 @@
+/**
+ *  QueryResultCacheTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.search.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for the page coverage, the merging and the invalidation of the QueryResultCache.
+ */
+public class QueryResultCacheTest {
+
+    private static String[] positions(final int offset, final int count, final int length) {
+        final String[] ranked = new String[length];
+        for (int i = offset; i < offset + count; i++) ranked[i] = "hash" + i;
+        return ranked;
+    }
+
+    @After
+    public void tearDown() {
+        QueryResultCache.setLimits(0, 0);
+    }
+
+    @Test
+    public void testCovers() {
+        final QueryResultCache.Entry entry = new QueryResultCache.Entry(1, 15, positions(0, 10, 10), null);
+        assertTrue(entry.covers(0, 10));
+        assertTrue(entry.covers(5, 5));
+        assertFalse(entry.covers(5, 10)); // positions 10 to 14 are unknown
+        assertFalse(entry.covers(15, 10)); // beyond the result
+
+        final QueryResultCache.Entry small = new QueryResultCache.Entry(1, 3, positions(0, 3, 3), null);
+        assertTrue(small.covers(0, 10)); // the page is cut at the end of the result
+        assertFalse(new QueryResultCache.Entry(1, 0, new String[0], null).covers(0, 10));
+    }
+
+    @Test
+    public void testMerge() {
+        final QueryResultCache.Entry first = new QueryResultCache.Entry(1, 30, positions(0, 10, 10), null);
+        final QueryResultCache.Entry second = new QueryResultCache.Entry(1, 30, positions(10, 10, 20), null);
+        final QueryResultCache.Entry merged = second.merge(first);
+        assertTrue(merged.covers(0, 20));
+        assertEquals("hash3", merged.hash(3));
+        assertEquals("hash12", merged.hash(12));
+
+        // entries of another generation are not merged
+        final QueryResultCache.Entry other = new QueryResultCache.Entry(2, 30, positions(10, 10, 20), null);
+        assertSame(other, other.merge(first));
+    }
+
+    @Test
+    public void testGetAndInvalidation() {
+        QueryResultCache.setLimits(10, 60000);
+        final Map<String, Map<String, Integer>> navigators = Collections.singletonMap("protocol", Collections.singletonMap("http", 7));
+        QueryResultCache.put("q", new QueryResultCache.Entry(5, 20, positions(0, 10, 10), navigators));
+        QueryResultCache.put("q", new QueryResultCache.Entry(5, 20, positions(10, 10, 20), navigators));
+
+        final QueryResultCache.Entry entry = QueryResultCache.get("q", 5, 10, 10);
+        assertEquals(Integer.valueOf(7), entry.navigators().get("protocol").get("http"));
+        assertTrue(entry.covers(0, 20));
+        assertNull(QueryResultCache.get("other", 5, 0, 10));
+
+        // a new index generation invalidates the entry
+        assertNull(QueryResultCache.get("q", 6, 0, 10));
+        assertEquals(0, QueryResultCache.size());
+    }
+
+    @Test
+    public void testSizeLimit() {
+        QueryResultCache.setLimits(3, 60000);
+        for (int i = 0; i < 5; i++) QueryResultCache.put("q" + i, new QueryResultCache.Entry(1, 10, positions(0, 10, 10), null));
+        assertEquals(3, QueryResultCache.size());
+        QueryResultCache.setLimits(0, 60000);
+        assertEquals(0, QueryResultCache.size());
+        assertNull(QueryResultCache.get("q4", 1, 0, 10));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *  SearchTaskGroupTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.search.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for the pooled execution, the group cancellation and the latency report of the SearchTaskGroup.
+ */
+public class SearchTaskGroupTest {
+
+    @After
+    public void tearDown() {
+        SearchTaskGroup.setMode(false, 0);
+    }
+
+    /**
+     * a synthetic load of many events with blocking tasks must not use more threads than the pool has
+     */
+    @Test
+    public void testPooledModeBoundsThreads() throws InterruptedException {
+        SearchTaskGroup.setMode(true, 4);
+        final int events = 50, tasksPerEvent = 20;
+        final CountDownLatch done = new CountDownLatch(events * tasksPerEvent);
+        final long deadline = System.currentTimeMillis() + 60000;
+        for (int e = 0; e < events; e++) {
+            final SearchTaskGroup group = new SearchTaskGroup(deadline);
+            for (int t = 0; t < tasksPerEvent; t++) {
+                group.execute("test", new Runnable() {
+                    @Override
+                    public void run() {
+                        try {Thread.sleep(1);} catch (final InterruptedException e) {}
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(SearchTaskGroup.maxActiveThreads() <= 4);
+    }
+
+    @Test
+    public void testCancelDropsQueuedTasks() throws InterruptedException {
+        SearchTaskGroup.setMode(true, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger executed = new AtomicInteger(0);
+        final SearchTaskGroup group = new SearchTaskGroup(System.currentTimeMillis() + 60000);
+        group.execute("test", new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {Thread.sleep(60000);} catch (final InterruptedException e) {}
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            group.execute("test", new Runnable() {
+                @Override
+                public void run() {
+                    executed.incrementAndGet();
+                }
+            });
+        }
+        group.cancel();
+        assertEquals(0, group.size());
+
+        // a task added after the cancellation is not started either
+        group.execute("test", new Runnable() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+        });
+        Thread.sleep(100);
+        assertEquals(0, executed.get());
+    }
+
+    @Test
+    public void testLatencyPercentile() {
+        for (int i = 1; i <= 1024; i++) SearchTaskGroup.addLatency(i);
+        assertEquals(512, SearchTaskGroup.latencyPercentile(50));
+        assertEquals(1014, SearchTaskGroup.latencyPercentile(99));
+        assertEquals(1024, SearchTaskGroup.latencyPercentile(100));
+    }
+}
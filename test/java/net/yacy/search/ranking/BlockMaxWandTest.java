@@ -0,0 +1,247 @@
+/**
+ *  BlockMaxWandTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.search.ranking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.yacy.cora.document.analysis.Classification;
+import net.yacy.cora.document.id.DigestURL;
+import net.yacy.crawler.retrieval.Response;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceCursor;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceRow;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.rwi.ReferenceContainerCodec;
+import net.yacy.kelondro.util.Bitfield;
+
+/**
+ * Unit tests for the top-k evaluation with block-max bounds.
+ */
+public class BlockMaxWandTest {
+
+    private static final WordReferenceFactory factory = new WordReferenceFactory();
+
+    private static ReferenceContainer<WordReference> container(final String word, final int count, final int step, final long seed) throws Exception {
+        final Random random = new Random(seed);
+        final ReferenceContainer<WordReference> c = new ReferenceContainer<WordReference>(factory, Word.word2hash(word), count);
+        for (int i = 0; i < count * step; i += step) {
+            final DigestURL url = new DigestURL("http://host" + (i % 17) + ".test/" + (i % 5 == 0 ? "a/b/" : "") + "page" + i + ".html");
+            final Bitfield flags = new Bitfield(4);
+            flags.set(random.nextInt(32), true);
+            c.add(new WordReferenceVars(url.hash(), 20 + random.nextInt(80), 1 + random.nextInt(6), random.nextInt(20), 1 + random.nextInt(30),
+                    100 + random.nextInt(2000), 1 + random.nextInt(100), 1 + random.nextInt(1000), null, random.nextInt(20), random.nextInt(100),
+                    System.currentTimeMillis() - random.nextInt(1000) * 86400000L, random.nextInt(4) == 0 ? "de" : "en", Response.DT_TEXT,
+                    random.nextInt(50), random.nextInt(50), flags, 0.0d));
+        }
+        return c;
+    }
+
+    /**
+     * rank a container completely with the normalization that ReferenceOrder.normalizeWith(container) computes
+     */
+    private static List<Long> rankAll(final ReferenceContainer<WordReference> c, final RankingProfile profile) {
+        WordReferenceVars min = null, max = null;
+        final Map<String, Integer> hosts = new HashMap<String, Integer>();
+        final List<WordReferenceVars> all = new ArrayList<WordReferenceVars>();
+        final Iterator<WordReference> i = c.entries();
+        while (i.hasNext()) {
+            final WordReferenceVars r = new WordReferenceVars(i.next(), true);
+            if (min == null) min = r.clone(); else min.min(r);
+            if (max == null) max = r.clone(); else max.max(r);
+            final Integer n = hosts.get(r.hosthash());
+            hosts.put(r.hosthash(), n == null ? 1 : n + 1);
+            all.add(r);
+        }
+        final ReferenceOrder order = new ReferenceOrder(profile, "en");
+        order.normalizeWith(min, max, hosts);
+        final List<Long> ranking = new ArrayList<Long>();
+        for (final WordReferenceVars r: all) ranking.add(order.cardinal(r));
+        Collections.sort(ranking, Collections.reverseOrder());
+        return ranking;
+    }
+
+    @Test
+    public void testSingleTermMatchesCompleteRanking() throws Exception {
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        final ReferenceContainer<WordReference> c = container("test", 5000, 1, 1);
+        final List<Long> expected = rankAll(c, profile).subList(0, 100);
+
+        final ReferenceOrder order = new ReferenceOrder(profile, "en");
+        final BlockMaxWand wand = new BlockMaxWand(order);
+        final ReferenceContainer<WordReference> result = wand.topK(Arrays.asList(c), null, Integer.MAX_VALUE, 100, null);
+        assertEquals(5000, wand.matches());
+        assertEquals(100, result.size());
+        assertTrue("evaluated = " + wand.evaluated(), wand.evaluated() < wand.matches());
+
+        // rank the result with the same normalization
+        final List<Long> ranking = new ArrayList<Long>();
+        final Iterator<WordReference> i = result.entries();
+        while (i.hasNext()) ranking.add(order.cardinal(new WordReferenceVars(i.next(), true)));
+        Collections.sort(ranking, Collections.reverseOrder());
+        assertEquals(expected, ranking);
+    }
+
+    @Test
+    public void testConjunction() throws Exception {
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        final ReferenceContainer<WordReference> a = container("a", 3000, 2, 2); // even pages
+        final ReferenceContainer<WordReference> b = container("b", 2000, 3, 3); // pages which are a multiple of 3
+        final ReferenceContainer<WordReference> x = container("x", 100, 12, 4); // pages which are a multiple of 12
+        final BlockMaxWand wand = new BlockMaxWand(new ReferenceOrder(profile, "en"));
+        final ReferenceContainer<WordReference> result = wand.topK(Arrays.asList(a, b), Arrays.asList(x), Integer.MAX_VALUE, 50, new BlockMaxWand.Filter() {
+            @Override
+            public boolean accept(final WordReferenceVars reference) {
+                return "en".equals(reference.getLanguageString());
+            }
+        });
+        // multiples of 6 below 6000 without the multiples of 12 below 1200
+        assertEquals(1000 - 100, wand.matches());
+        assertEquals(50, result.size());
+        final Iterator<WordReference> i = result.entries();
+        while (i.hasNext()) {
+            final WordReference r = i.next();
+            assertNotNull(a.getReference(r.urlhash()));
+            assertNotNull(b.getReference(r.urlhash()));
+            assertTrue(x.getReference(r.urlhash()) == null);
+        }
+    }
+
+    /**
+     * a container which is read from the packed format, with the block bounds of its directory
+     */
+    private static ReferenceContainer<WordReference> packed(final ReferenceContainer<WordReference> c) throws Exception {
+        final byte[] b = ReferenceContainerCodec.pack(c);
+        final ReferenceContainer<WordReference> p = new ReferenceContainer<WordReference>(factory, c.getTermHash(), ReferenceContainerCodec.importRowSet(b, WordReferenceRow.urlEntryRow));
+        p.setBounds(ReferenceContainerCodec.bounds(b, WordReferenceRow.urlEntryRow), 0);
+        assertNotNull(p.bounds());
+        return p;
+    }
+
+    /**
+     * the top-k rankings of the complete join like SearchEvent.addRWIs computes them
+     */
+    private static List<Long> legacyTopK(final List<ReferenceContainer<WordReference>> include, final List<ReferenceContainer<WordReference>> exclude,
+            final int maxDistance, final int k, final RankingProfile profile, final Set<String> better) throws Exception {
+        final ReferenceContainer<WordReference> joined = ReferenceContainer.joinExcludeContainers(factory, include, exclude, maxDistance);
+        final ReferenceOrder order = new ReferenceOrder(profile, "en");
+        final WordReferenceCursor cursor = new WordReferenceCursor(joined);
+        order.normalizeWith(cursor, Long.MAX_VALUE);
+        final List<Long> ranking = new ArrayList<Long>();
+        final Map<String, Long> urls = new HashMap<String, Long>();
+        while (cursor.next()) {
+            ranking.add(order.cardinal(cursor));
+            urls.put(new String(cursor.urlhash()), order.cardinal(cursor));
+        }
+        Collections.sort(ranking, Collections.reverseOrder());
+        final List<Long> top = new ArrayList<Long>(ranking.subList(0, Math.min(k, ranking.size())));
+        // the urls which are better than the k-th reference must be in every top-k
+        for (final Map.Entry<String, Long> e: urls.entrySet()) if (e.getValue() > top.get(top.size() - 1)) better.add(e.getKey());
+        return top;
+    }
+
+    private static List<Long> wandTopK(final List<ReferenceContainer<WordReference>> include, final List<ReferenceContainer<WordReference>> exclude,
+            final int maxDistance, final int k, final RankingProfile profile, final Set<String> urls) throws Exception {
+        final ReferenceOrder order = new ReferenceOrder(profile, "en");
+        final BlockMaxWand wand = new BlockMaxWand(order);
+        final ReferenceContainer<WordReference> result = wand.topK(include, exclude, maxDistance, k, null);
+        // the result is normalized again like in SearchEvent.addRWIs, this must not change the ranking
+        final WordReferenceCursor cursor = new WordReferenceCursor(result);
+        order.normalizeWith(cursor, Long.MAX_VALUE);
+        final List<Long> ranking = new ArrayList<Long>();
+        while (cursor.next()) {
+            ranking.add(order.cardinal(cursor));
+            urls.add(new String(cursor.urlhash()));
+        }
+        Collections.sort(ranking, Collections.reverseOrder());
+        return ranking;
+    }
+
+    @Test
+    public void testMultiTermMatchesLegacyJoin() throws Exception {
+        final RankingProfile text = new RankingProfile(Classification.ContentDomain.TEXT);
+        final RankingProfile authority = new RankingProfile(Classification.ContentDomain.TEXT);
+        authority.coeff_authority = 13; // count the hosts
+        final ReferenceContainer<WordReference> a = container("a", 6000, 2, 5);
+        final ReferenceContainer<WordReference> b = container("b", 4000, 3, 6);
+        final ReferenceContainer<WordReference> c = container("c", 2500, 5, 7);
+        final ReferenceContainer<WordReference> x = container("x", 200, 14, 8);
+        final List<List<ReferenceContainer<WordReference>>> queries = new ArrayList<List<ReferenceContainer<WordReference>>>();
+        queries.add(Arrays.asList(a));
+        queries.add(Arrays.asList(a, b));
+        queries.add(Arrays.asList(a, c));
+        queries.add(Arrays.asList(a, b, c));
+        queries.add(Arrays.asList(packed(a), packed(b), c)); // bounds from the block directory and computed bounds
+        for (final List<ReferenceContainer<WordReference>> include: queries) {
+            for (final List<ReferenceContainer<WordReference>> exclude: Arrays.asList(Collections.<ReferenceContainer<WordReference>>emptyList(), Arrays.asList(x))) {
+                for (final int maxDistance: new int[]{Integer.MAX_VALUE, 300}) {
+                    for (final RankingProfile profile: Arrays.asList(text, authority)) {
+                        for (final int k: new int[]{1, 10, 100}) {
+                            final String query = include.size() + " terms, " + exclude.size() + " excluded, distance " + maxDistance + ", k = " + k;
+                            final Set<String> better = new HashSet<String>(), urls = new HashSet<String>();
+                            final List<Long> expected = legacyTopK(include, exclude, maxDistance, k, profile, better);
+                            assertEquals(query, expected, wandTopK(include, exclude, maxDistance, k, profile, urls));
+                            assertTrue(query, urls.containsAll(better));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStoredBounds() throws Exception {
+        final ReferenceContainer<WordReference> c = container("test", 1000, 1, 9);
+        final ReferenceContainer<WordReference> p = packed(c);
+        // the stored bounds are the bounds of the rows
+        final ReferenceContainerCodec.Bounds stored = p.bounds(), computed = ReferenceContainerCodec.Bounds.of(c);
+        assertEquals(computed.blocks(), stored.blocks());
+        for (int b = 0; b < stored.blocks(); b++) {
+            for (int col = 1; col < WordReferenceRow.urlEntryRow.columns(); col++) {
+                assertEquals(computed.lo(b, col), stored.lo(b, col));
+                assertEquals(computed.hi(b, col), stored.hi(b, col));
+                assertEquals(computed.or(b, col), stored.or(b, col));
+            }
+        }
+        // the bounds are dropped when the container is modified
+        p.removeReference(p.get(0, false).getPrimaryKeyBytes());
+        assertNull(p.bounds());
+        // the classic format has no bounds
+        assertNull(ReferenceContainerCodec.bounds(c.exportCollection(), WordReferenceRow.urlEntryRow));
+    }
+}
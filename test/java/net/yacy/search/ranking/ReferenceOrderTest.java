@@ -3,12 +3,25 @@ package net.yacy.search.ranking;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
 import net.yacy.cora.document.analysis.Classification;
 import net.yacy.cora.document.id.DigestURL;
 import net.yacy.cora.util.SpaceExceededException;
+import net.yacy.crawler.retrieval.Response;
 import net.yacy.kelondro.data.meta.URIMetadataNode;
+import net.yacy.kelondro.data.word.Word;
+import net.yacy.kelondro.data.word.WordReference;
+import net.yacy.kelondro.data.word.WordReferenceCursor;
+import net.yacy.kelondro.data.word.WordReferenceFactory;
+import net.yacy.kelondro.data.word.WordReferenceVars;
+import net.yacy.kelondro.rwi.ReferenceContainer;
+import net.yacy.kelondro.util.Bitfield;
 import net.yacy.search.schema.CollectionConfiguration;
 import org.apache.solr.common.SolrInputDocument;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -49,4 +62,51 @@ public class ReferenceOrderTest {
 
     }
 
+    /**
+     * Test of normalizeWith(WordReferenceCursor), of class ReferenceOrder:
+     * the ranking on the rows must be the same as the ranking of reference objects
+     * normalized with the minimum and maximum of all reference objects.
+     */
+    @Test
+    public void testNormalizeWithCursor() throws Exception {
+        final Random random = new Random(0);
+        final ReferenceContainer<WordReference> container = new ReferenceContainer<WordReference>(new WordReferenceFactory(), Word.word2hash("test"), 1000);
+        for (int i = 0; i < 1000; i++) {
+            final Bitfield flags = new Bitfield(4);
+            flags.set(random.nextInt(32), true);
+            container.add(new WordReferenceVars(new DigestURL("http://host" + (i % 17) + ".test/page" + i + ".html").hash(), 20 + random.nextInt(80), 1 + random.nextInt(6),
+                    random.nextInt(20), 1 + random.nextInt(30), 100 + random.nextInt(2000), 1 + random.nextInt(100), 1 + random.nextInt(1000), null,
+                    random.nextInt(20), random.nextInt(100), System.currentTimeMillis() - random.nextInt(1000) * 86400000L, i % 3 == 0 ? "de" : "en",
+                    Response.DT_TEXT, random.nextInt(50), random.nextInt(50), flags, 0.0d));
+        }
+        final RankingProfile profile = new RankingProfile(Classification.ContentDomain.TEXT);
+        profile.coeff_authority = 13; // count the hosts
+
+        // normalize with reference objects
+        WordReferenceVars min = null, max = null;
+        final Map<String, Integer> hosts = new HashMap<String, Integer>();
+        Iterator<WordReference> i = container.entries();
+        while (i.hasNext()) {
+            final WordReferenceVars r = new WordReferenceVars(i.next(), true);
+            if (min == null) min = r.clone(); else min.min(r);
+            if (max == null) max = r.clone(); else max.max(r);
+            final Integer n = hosts.get(r.hosthash());
+            hosts.put(r.hosthash(), n == null ? 1 : n + 1);
+        }
+        final ReferenceOrder objects = new ReferenceOrder(profile, "en");
+        objects.normalizeWith(min, max, hosts);
+
+        // normalize on the rows
+        final ReferenceOrder rows = new ReferenceOrder(profile, "en");
+        final WordReferenceCursor cursor = new WordReferenceCursor(container);
+        rows.normalizeWith(cursor, Long.MAX_VALUE);
+
+        i = container.entries();
+        while (cursor.next()) {
+            final WordReferenceVars r = new WordReferenceVars(i.next(), true);
+            assertEquals(objects.cardinal(r), rows.cardinal(cursor));
+            assertEquals(objects.cardinal(r), rows.cardinal(r));
+        }
+    }
+
 }
@@ -0,0 +1,112 @@
+/**
+ *  SnippetStoreTest.java
+ *  part of YaCy
+ *  Copyright 2026 by the YaCy contributors
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 2.1 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program in the file lgpl21.txt
+ *  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.yacy.search.snippet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.yacy.kelondro.util.FileUtils;
+
+/**
+ * Unit tests for the persistence and the eviction of the SnippetStore.
+ */
+public class SnippetStoreTest {
+
+    private static final String wordhashes = "hu_k6mYGb-rjz7Ud7bTz";
+    private File dir, location;
+
+    private static String urlhash(final int i) {
+        return String.format("AAAAAA%06d", i);
+    }
+
+    @Before
+    public void setUp() {
+        // the heap writes its index dumps and the access times next to the heap file
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "SnippetStoreTest" + System.nanoTime());
+        this.dir.mkdirs();
+        this.location = new File(this.dir, "snippets.heap");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deletedelete(this.dir);
+    }
+
+    @Test
+    public void testSnippetsSurviveReopen() throws IOException {
+        SnippetStore store = new SnippetStore(this.location, 100);
+        store.put(wordhashes, urlhash(1), "a snippet with ümläuts");
+        assertEquals("a snippet with ümläuts", store.get(wordhashes, urlhash(1)));
+        assertNull(store.get("other_hashes", urlhash(1)));
+        store.close();
+
+        store = new SnippetStore(this.location, 100);
+        assertEquals(1, store.size());
+        assertEquals("a snippet with ümläuts", store.get(wordhashes, urlhash(1)));
+        store.close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() throws IOException, InterruptedException {
+        final SnippetStore store = new SnippetStore(this.location, 10);
+        for (int i = 0; i < 10; i++) {
+            store.put(wordhashes, urlhash(i), "snippet " + i);
+            Thread.sleep(2); // distinct access times
+        }
+        assertNotNull(store.get(wordhashes, urlhash(0))); // the oldest entry is used again
+        store.put(wordhashes, urlhash(10), "snippet 10");
+        assertTrue(store.size() <= 10);
+        assertNotNull(store.get(wordhashes, urlhash(0)));
+        assertNotNull(store.get(wordhashes, urlhash(10)));
+        assertNull(store.get(wordhashes, urlhash(1)));
+        assertNull(store.get(wordhashes, urlhash(2)));
+        assertNotNull(store.get(wordhashes, urlhash(3)));
+        store.close();
+    }
+
+    @Test
+    public void testAccessTimesSurviveReopen() throws IOException, InterruptedException {
+        SnippetStore store = new SnippetStore(this.location, 10);
+        for (int i = 0; i < 10; i++) {
+            store.put(wordhashes, urlhash(i), "snippet " + i);
+            Thread.sleep(2); // distinct access times
+        }
+        assertNotNull(store.get(wordhashes, urlhash(0)));
+        store.close();
+        assertNull(store.get(wordhashes, urlhash(0))); // a closed store is not used any more
+
+        store = new SnippetStore(this.location, 10);
+        store.put(wordhashes, urlhash(10), "snippet 10");
+        assertNotNull(store.get(wordhashes, urlhash(0)));
+        assertNull(store.get(wordhashes, urlhash(1)));
+        assertNull(store.get(wordhashes, urlhash(2)));
+        assertNotNull(store.get(wordhashes, urlhash(3)));
+        store.close();
+    }
+}